@@ -0,0 +1,268 @@
+package com.mediaplatform.android.service;
+
+import com.mediaplatform.android.utils.Logger;
+
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 异步发布器
+ * 发布后不等待PUBACK，确认结果通过回调返回；用信号量限制未确认的消息数，
+ * 窗口已满时立即返回false由调用方处理(写入离线队列或稍后重试)，调用线程不会被阻塞。
+ * 高延迟网络下多条消息同时在途，吞吐量不再受单次往返时间限制。
+ * 窗口大小应与 MqttConnectOptions.setMaxInflight 一致，否则Paho会先拒绝发布。
+ * 持久会话下断线时未确认的QoS 1/2消息仍由Paho保留并在重连后重发，这些消息继续占用窗口直到最终确认，
+ * 每条消息的窗口只释放一次、回调只调用一次。
+ */
+public class AsyncPublisher {
+    private static final String TAG = "AsyncPublisher";
+
+    /**
+     * 发布结果回调，在Paho回调线程中执行
+     */
+    public interface Callback {
+        void onPublished(String topic);
+
+        void onFailed(String topic, byte[] payload, Throwable cause);
+    }
+
+    private final int windowSize;
+    private final boolean persistentSession;
+    private final Semaphore window;
+    private final MetricsRegistry metrics;
+    private volatile Runnable windowListener;
+
+    // 断线后等待Paho重发的消息
+    private final Map<IMqttToken, Delivery> awaitingRedelivery = new ConcurrentHashMap<>();
+
+    // 指标
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+    private final AtomicLong publishedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong redeliveryCount = new AtomicLong();
+
+    public AsyncPublisher(int windowSize, MetricsRegistry metrics) {
+        this(windowSize, false, metrics);
+    }
+
+    /**
+     * @param windowSize        最多同时在途(未确认)的消息数
+     * @param persistentSession 客户端以 cleanSession=false 连接时为true，断线不算QoS 1/2消息发布失败
+     * @param metrics           记录按主题的发布延迟和出站载荷大小
+     */
+    public AsyncPublisher(int windowSize, boolean persistentSession, MetricsRegistry metrics) {
+        this.windowSize = windowSize;
+        this.persistentSession = persistentSession;
+        this.window = new Semaphore(windowSize);
+        this.metrics = metrics;
+    }
+
+    /**
+     * 每条消息确认或失败、窗口空出位置后调用，用于继续发送积压的消息
+     */
+    public void setWindowListener(Runnable listener) {
+        this.windowListener = listener;
+    }
+
+    /**
+     * 异步发布
+     * @param callback 可为null；持久会话下断线不回调失败，重连后重发确认时回调成功
+     * @return false表示消息未交给客户端(窗口已满或发布出错)，此时不会回调
+     */
+    public boolean publish(MqttAsyncClient client, final String topic, final byte[] payload, int qos,
+                           boolean retained, final Callback callback) {
+        if (!window.tryAcquire()) {
+            rejectedCount.incrementAndGet();
+            return false;
+        }
+        peakInFlight.accumulateAndGet(windowSize - window.availablePermits(), Math::max);
+
+        MqttMessage message = new MqttMessage(payload);
+        message.setQos(qos);
+        message.setRetained(retained);
+        final Delivery delivery = new Delivery(topic, payload, callback);
+
+        try {
+            client.publish(topic, message, null, new IMqttActionListener() {
+                @Override
+                public void onSuccess(IMqttToken asyncActionToken) {
+                    // 断线后重发的消息确认时，Paho会在失败回调之后再调用一次成功回调
+                    awaitingRedelivery.remove(asyncActionToken);
+                    if (!delivery.settle()) {
+                        return;
+                    }
+                    window.release();
+                    publishedCount.incrementAndGet();
+                    metrics.histogram("publish.latency", topic).recordNanos(System.nanoTime() - delivery.startedAt);
+                    metrics.histogram("outbound.bytes").record(payload.length);
+                    if (callback != null) {
+                        callback.onPublished(topic);
+                    }
+                    notifyWindowListener();
+                }
+
+                @Override
+                public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
+                    if (persistentSession && qos > 0 && isRetainedByClient(exception)) {
+                        // 每次断线Paho都会对保留的消息再回调一次失败
+                        if (awaitingRedelivery.put(asyncActionToken, delivery) == null) {
+                            redeliveryCount.incrementAndGet();
+                            Logger.d(TAG, "Publish to " + topic + " interrupted, awaiting redelivery");
+                        }
+                        return;
+                    }
+                    awaitingRedelivery.remove(asyncActionToken);
+                    if (delivery.settle()) {
+                        fail(delivery, exception);
+                    }
+                }
+            });
+            return true;
+        } catch (MqttException e) {
+            window.release();
+            if (e.getReasonCode() == MqttException.REASON_CODE_MAX_INFLIGHT) {
+                // 窗口大于客户端的maxInflight时，按窗口已满处理
+                rejectedCount.incrementAndGet();
+                return false;
+            }
+            failedCount.incrementAndGet();
+            metrics.counter("publish.failures").incrementAndGet();
+            Logger.e(TAG, "Error publishing message to " + topic, e);
+            return false;
+        } catch (Exception e) {
+            window.release();
+            failedCount.incrementAndGet();
+            metrics.counter("publish.failures").incrementAndGet();
+            Logger.e(TAG, "Error publishing message to " + topic, e);
+            return false;
+        }
+    }
+
+    /**
+     * 客户端被替换(代理地址变化)后调用：旧客户端保留的待重发消息不会再有结果，
+     * 释放它们占用的窗口并按失败回调，由调用方在新客户端上重新发送
+     */
+    public void abandonRedeliveries(Throwable cause) {
+        Iterator<Delivery> iterator = awaitingRedelivery.values().iterator();
+        while (iterator.hasNext()) {
+            Delivery delivery = iterator.next();
+            iterator.remove();
+            if (delivery.settle()) {
+                fail(delivery, cause);
+            }
+        }
+    }
+
+    private void fail(Delivery delivery, Throwable cause) {
+        window.release();
+        failedCount.incrementAndGet();
+        metrics.counter("publish.failures").incrementAndGet();
+        Logger.e(TAG, "Publish to " + delivery.topic + " failed", cause);
+        if (delivery.callback != null) {
+            delivery.callback.onFailed(delivery.topic, delivery.payload, cause);
+        }
+        notifyWindowListener();
+    }
+
+    /**
+     * 连接断开时未确认的消息仍在客户端的在途状态中，重连后由Paho重发
+     */
+    private static boolean isRetainedByClient(Throwable exception) {
+        if (!(exception instanceof MqttException)) {
+            return false;
+        }
+        int reason = ((MqttException) exception).getReasonCode();
+        return reason == MqttException.REASON_CODE_CONNECTION_LOST
+                || reason == MqttException.REASON_CODE_CLIENT_DISCONNECTING;
+    }
+
+    private void notifyWindowListener() {
+        Runnable listener = windowListener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    // 指标
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    public int getInFlight() {
+        return windowSize - window.availablePermits();
+    }
+
+    public int getPeakInFlight() {
+        return peakInFlight.get();
+    }
+
+    public long getPublishedCount() {
+        return publishedCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * 因窗口已满被拒绝的次数
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * 断线后交给Paho重发的消息数，以及当前仍在等待重发确认的消息数
+     */
+    public long getRedeliveryCount() {
+        return redeliveryCount.get();
+    }
+
+    public int getAwaitingRedelivery() {
+        return awaitingRedelivery.size();
+    }
+
+    @Override
+    public String toString() {
+        return "AsyncPublisher{inFlight=" + getInFlight() + "/" + windowSize
+                + ", peak=" + getPeakInFlight()
+                + ", published=" + getPublishedCount()
+                + ", failed=" + getFailedCount()
+                + ", rejected=" + getRejectedCount()
+                + ", awaitingRedelivery=" + getAwaitingRedelivery() + "}";
+    }
+
+    private static final class Delivery {
+        final String topic;
+        final byte[] payload;
+        final Callback callback;
+        final long startedAt = System.nanoTime();
+        private final AtomicBoolean settled = new AtomicBoolean();
+
+        Delivery(String topic, byte[] payload, Callback callback) {
+            this.topic = topic;
+            this.payload = payload;
+            this.callback = callback;
+        }
+
+        /**
+         * @return 第一次得到最终结果时返回true
+         */
+        boolean settle() {
+            return settled.compareAndSet(false, true);
+        }
+    }
+}
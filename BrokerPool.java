@@ -0,0 +1,387 @@
+package com.mediaplatform.android.service;
+
+import com.mediaplatform.android.utils.Logger;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * MQTT代理池
+ * 维护多个代理地址，定期用MQTT PINGREQ测量往返时延，
+ * 连接时选择健康且时延最低的代理，断线或连接失败时切换到下一个代理。
+ *
+ * 探测使用独立的短连接(clean session，客户端ID加 -probe 后缀)，
+ * 不会踢掉正在使用的连接，也不会影响持久会话。
+ */
+public class BrokerPool {
+    private static final String TAG = "BrokerPool";
+
+    private static final double RTT_SMOOTHING = 0.3;   // RTT指数加权平均系数
+    private static final double SWITCH_RATIO = 1.5;    // 当前代理比最优代理慢50%以上才迁移
+    private static final long SWITCH_MIN_GAIN = 50;    // 且至少快50ms
+    private static final long FAILURE_PENALTY = 60000; // 失败后1分钟内不再优先选择
+    private static final int PROBE_KEEP_ALIVE = 10;
+    private static final int MAX_PROBE_CLIENT_ID = 100;
+
+    /**
+     * 单个代理的状态
+     */
+    public static final class Endpoint {
+        private final String uri;
+        private final String host;
+        private final int port;
+        private double smoothedRtt = -1;
+        private long lastRtt = -1;
+        private long penalizedUntil;
+        private int probes;
+        private int failures;
+        private int consecutiveFailures;
+
+        Endpoint(String host, int port) {
+            this.host = host;
+            this.port = port;
+            this.uri = "tcp://" + host + ":" + port;
+        }
+
+        public String getUri() {
+            return uri;
+        }
+
+        public long getLastRtt() {
+            return lastRtt;
+        }
+
+        public long getSmoothedRtt() {
+            return (long) smoothedRtt;
+        }
+
+        public int getFailures() {
+            return failures;
+        }
+
+        boolean isHealthy(long now) {
+            return now >= penalizedUntil;
+        }
+
+        @Override
+        public String toString() {
+            return uri + "{rtt=" + getSmoothedRtt() + "ms, failures=" + failures + "}";
+        }
+    }
+
+    /**
+     * 单次探测，测试中可替换为模拟实现
+     */
+    public interface Prober {
+        /**
+         * @return PINGREQ到PINGRESP的往返毫秒数
+         * @throws IOException 代理不可达或拒绝连接
+         */
+        long probe(String host, int port, String clientId, int timeoutMillis) throws IOException;
+    }
+
+    private final List<Endpoint> endpoints = new ArrayList<>();
+    private final String probeClientId;
+    private final int probeTimeoutMillis;
+    private final Prober prober;
+    private Endpoint current;
+    private int failovers;
+    private int migrations;
+
+    public BrokerPool(String clientId, int probeTimeoutMillis) {
+        this(clientId, probeTimeoutMillis, BrokerPool::pingProbe);
+    }
+
+    BrokerPool(String clientId, int probeTimeoutMillis, Prober prober) {
+        this.probeClientId = clientId + "-probe";
+        this.probeTimeoutMillis = probeTimeoutMillis;
+        this.prober = prober;
+    }
+
+    /**
+     * 替换代理列表，列表顺序作为没有时延数据时的优先级
+     * @param addresses "host:port" 或 "tcp://host:port"
+     */
+    public synchronized void setEndpoints(List<String> addresses, int defaultPort) {
+        List<Endpoint> updated = new ArrayList<>();
+        for (String address : addresses) {
+            Endpoint endpoint = parse(address, defaultPort);
+            if (endpoint == null) {
+                Logger.w(TAG, "Ignoring invalid broker address: " + address);
+                continue;
+            }
+            // 保留已有的时延统计
+            Endpoint existing = find(endpoint.uri);
+            updated.add(existing != null ? existing : endpoint);
+        }
+        endpoints.clear();
+        endpoints.addAll(updated);
+        if (current != null && !endpoints.contains(current)) {
+            current = null;
+        }
+    }
+
+    public synchronized List<Endpoint> getEndpoints() {
+        return Collections.unmodifiableList(new ArrayList<>(endpoints));
+    }
+
+    /**
+     * 选择本次连接使用的代理：健康代理中平滑RTT最低的，
+     * 没有时延数据的按列表顺序排在有数据的之后；全部处于惩罚期时选最早恢复的
+     */
+    public synchronized Endpoint select() {
+        Endpoint best = best(System.currentTimeMillis());
+        if (best != null) {
+            current = best;
+        }
+        return best;
+    }
+
+    public synchronized Endpoint getCurrent() {
+        return current;
+    }
+
+    /**
+     * 连接成功
+     */
+    public synchronized void reportSuccess(Endpoint endpoint) {
+        endpoint.consecutiveFailures = 0;
+        endpoint.penalizedUntil = 0;
+    }
+
+    /**
+     * 连接失败或断线，暂时降低该代理的优先级
+     * @return 是否还有其他健康的代理可以立即切换
+     */
+    public synchronized boolean reportFailure(Endpoint endpoint) {
+        long now = System.currentTimeMillis();
+        endpoint.failures++;
+        endpoint.consecutiveFailures++;
+        endpoint.penalizedUntil = now + FAILURE_PENALTY * Math.min(endpoint.consecutiveFailures, 5);
+
+        for (Endpoint candidate : endpoints) {
+            if (candidate != endpoint && candidate.isHealthy(now)) {
+                failovers++;
+                Logger.w(TAG, "Broker " + endpoint.uri + " failed, failing over to " + candidate.uri);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 探测全部代理，阻塞到全部探测完成，在独立的探测线程中执行
+     * @return 当前连接的代理明显慢于最优代理时返回最优代理，否则返回null
+     */
+    public Endpoint probeAll() {
+        List<Endpoint> snapshot;
+        synchronized (this) {
+            snapshot = new ArrayList<>(endpoints);
+        }
+
+        for (Endpoint endpoint : snapshot) {
+            long rtt;
+            try {
+                rtt = prober.probe(endpoint.host, endpoint.port, probeClientId, probeTimeoutMillis);
+            } catch (IOException e) {
+                Logger.d(TAG, "Probe of " + endpoint.uri + " failed: " + e.getMessage());
+                synchronized (this) {
+                    endpoint.probes++;
+                    endpoint.failures++;
+                    endpoint.consecutiveFailures++;
+                    endpoint.penalizedUntil = System.currentTimeMillis() + FAILURE_PENALTY;
+                }
+                continue;
+            }
+            synchronized (this) {
+                endpoint.probes++;
+                endpoint.lastRtt = rtt;
+                endpoint.smoothedRtt = endpoint.smoothedRtt < 0
+                        ? rtt
+                        : RTT_SMOOTHING * rtt + (1 - RTT_SMOOTHING) * endpoint.smoothedRtt;
+                endpoint.consecutiveFailures = 0;
+                endpoint.penalizedUntil = 0;
+            }
+        }
+
+        synchronized (this) {
+            Endpoint best = best(System.currentTimeMillis());
+            if (best == null || current == null || best == current || current.smoothedRtt < 0) {
+                return null;
+            }
+            // 当前代理探测失败不在这里处理，真正断线时由 reportFailure 切换
+            boolean muchFaster = current.smoothedRtt > best.smoothedRtt * SWITCH_RATIO
+                    && current.smoothedRtt - best.smoothedRtt > SWITCH_MIN_GAIN;
+            if (muchFaster) {
+                migrations++;
+                Logger.d(TAG, "Broker " + best.uri + " (" + best.getSmoothedRtt() + "ms) preferred over "
+                        + current.uri + " (" + current.getSmoothedRtt() + "ms)");
+                return best;
+            }
+            return null;
+        }
+    }
+
+    public synchronized int getFailovers() {
+        return failovers;
+    }
+
+    public synchronized int getMigrations() {
+        return migrations;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BrokerPool{current=" + (current != null ? current.uri : null)
+                + ", endpoints=" + endpoints
+                + ", failovers=" + failovers
+                + ", migrations=" + migrations
+                + "}";
+    }
+
+    // 内部实现
+
+    private Endpoint best(long now) {
+        Endpoint best = null;
+        for (Endpoint endpoint : endpoints) {
+            if (!endpoint.isHealthy(now)) {
+                continue;
+            }
+            if (best == null || isBetter(endpoint, best)) {
+                best = endpoint;
+            }
+        }
+        if (best != null) {
+            return best;
+        }
+        for (Endpoint endpoint : endpoints) {
+            if (best == null || endpoint.penalizedUntil < best.penalizedUntil) {
+                best = endpoint;
+            }
+        }
+        return best;
+    }
+
+    // 有时延数据的优先，其次按列表顺序
+    private static boolean isBetter(Endpoint candidate, Endpoint best) {
+        if (candidate.smoothedRtt < 0) {
+            return false;
+        }
+        return best.smoothedRtt < 0 || candidate.smoothedRtt < best.smoothedRtt;
+    }
+
+    private Endpoint find(String uri) {
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.uri.equals(uri)) {
+                return endpoint;
+            }
+        }
+        return null;
+    }
+
+    static Endpoint parse(String address, int defaultPort) {
+        String value = address.trim();
+        if (value.startsWith("tcp://")) {
+            value = value.substring("tcp://".length());
+        }
+        if (value.isEmpty()) {
+            return null;
+        }
+        int colon = value.lastIndexOf(':');
+        if (colon < 0) {
+            return new Endpoint(value, defaultPort);
+        }
+        try {
+            int port = Integer.parseInt(value.substring(colon + 1));
+            return port > 0 && port < 65536 ? new Endpoint(value.substring(0, colon), port) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 用最小的MQTT 3.1.1报文探测：CONNECT → CONNACK，再计时 PINGREQ → PINGRESP，最后DISCONNECT
+     */
+    static long pingProbe(String host, int port, String clientId, int timeoutMillis) throws IOException {
+        try (Socket socket = new Socket()) {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(timeoutMillis);
+            socket.connect(new InetSocketAddress(host, port), timeoutMillis);
+            OutputStream out = socket.getOutputStream();
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+
+            out.write(connectPacket(clientId));
+            out.flush();
+            byte[] connack = readPacket(in);
+            if ((connack[0] & 0xF0) != 0x20 || connack.length < 4 || connack[3] != 0) {
+                throw new IOException(String.format(Locale.US, "Connection refused (CONNACK %02x)",
+                        connack.length >= 4 ? connack[3] : -1));
+            }
+
+            long start = System.nanoTime();
+            out.write(new byte[] {(byte) 0xC0, 0x00});
+            out.flush();
+            byte[] pingresp = readPacket(in);
+            long rtt = (System.nanoTime() - start) / 1000000;
+            if ((pingresp[0] & 0xF0) != 0xD0) {
+                throw new IOException("Unexpected packet instead of PINGRESP");
+            }
+
+            out.write(new byte[] {(byte) 0xE0, 0x00});
+            out.flush();
+            return rtt;
+        }
+    }
+
+    private static byte[] connectPacket(String clientId) {
+        byte[] id = clientId.getBytes(StandardCharsets.UTF_8);
+        if (id.length > MAX_PROBE_CLIENT_ID) {
+            id = Arrays.copyOf(id, MAX_PROBE_CLIENT_ID);
+        }
+        int remaining = 10 + 2 + id.length;
+        byte[] packet = new byte[2 + remaining];
+        int i = 0;
+        packet[i++] = 0x10;
+        packet[i++] = (byte) remaining; // 剩余长度小于128，单字节即可
+        packet[i++] = 0x00;
+        packet[i++] = 0x04;
+        packet[i++] = 'M';
+        packet[i++] = 'Q';
+        packet[i++] = 'T';
+        packet[i++] = 'T';
+        packet[i++] = 0x04; // 协议级别 3.1.1
+        packet[i++] = 0x02; // clean session
+        packet[i++] = 0x00;
+        packet[i++] = PROBE_KEEP_ALIVE;
+        packet[i++] = (byte) (id.length >> 8);
+        packet[i++] = (byte) id.length;
+        System.arraycopy(id, 0, packet, i, id.length);
+        return packet;
+    }
+
+    private static byte[] readPacket(DataInputStream in) throws IOException {
+        int header = in.readUnsignedByte();
+        int length = 0;
+        int multiplier = 1;
+        int digit;
+        do {
+            digit = in.readUnsignedByte();
+            length += (digit & 0x7F) * multiplier;
+            multiplier *= 128;
+        } while ((digit & 0x80) != 0 && multiplier <= 128 * 128 * 128);
+        byte[] packet = new byte[2 + length];
+        packet[0] = (byte) header;
+        packet[1] = (byte) length;
+        in.readFully(packet, 2, length);
+        return packet;
+    }
+}
@@ -0,0 +1,474 @@
+package com.mediaplatform.android.service;
+
+import com.mediaplatform.android.utils.Logger;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 分块传输重组
+ * 服务端把大内容推送拆成带序号的分块，终端写入预分配的临时文件，
+ * 已收分块位图与文件一起落盘，重连或进程重启后只需补传缺失的分块。
+ * 全部收齐后校验SHA-256，通过才把文件交给上层，内容不整体读入内存。
+ *
+ * 分块格式(大端)：
+ * [0xC7][版本:1][idLen:1][transferId][index:4][count:4][chunkSize:4][totalSize:4][sha256:32][数据]
+ *
+ * 元数据文件格式：[count:4][chunkSize:4][totalSize:4][sha256:32][startedAt:8][位图]
+ */
+public class ChunkedTransferAssembler {
+    private static final String TAG = "ChunkedTransfer";
+
+    public static final byte MAGIC = (byte) 0xC7;
+    private static final byte VERSION = 1;
+    private static final int DIGEST_LENGTH = 32;
+    private static final int META_HEADER_SIZE = 12 + DIGEST_LENGTH + 8;
+    private static final String PART_SUFFIX = ".part";
+    private static final String META_SUFFIX = ".meta";
+    private static final String DONE_SUFFIX = ".done";
+    private static final int DIGEST_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * 需要立即补传时回调(目前只有校验失败)，在写入分块的线程中执行
+     */
+    public interface Listener {
+        void onResumeRequired(String request);
+    }
+
+    private final File directory;
+    private final long maxTransferBytes;
+    private final long maxAgeMillis;
+    private final Map<String, Transfer> transfers = new HashMap<>();
+    private volatile Listener listener;
+
+    // 统计
+    private long chunksReceived;
+    private long duplicateChunks;
+    private long bytesReceived;
+    private long completedTransfers;
+    private long checksumFailures;
+    private long completedBytes;
+    private long completedMillis;
+    private double lastThroughput;
+
+    private static final class Transfer {
+        final String id;
+        final int count;
+        final int chunkSize;
+        final int totalSize;
+        final byte[] sha256;
+        final long startedAt;
+        final BitSet received;
+        final RandomAccessFile data;
+        final RandomAccessFile meta;
+
+        Transfer(String id, int count, int chunkSize, int totalSize, byte[] sha256, long startedAt,
+                 BitSet received, RandomAccessFile data, RandomAccessFile meta) {
+            this.id = id;
+            this.count = count;
+            this.chunkSize = chunkSize;
+            this.totalSize = totalSize;
+            this.sha256 = sha256;
+            this.startedAt = startedAt;
+            this.received = received;
+            this.data = data;
+            this.meta = meta;
+        }
+
+        boolean isComplete() {
+            return received.cardinality() == count;
+        }
+    }
+
+    public ChunkedTransferAssembler(File directory, long maxTransferBytes, long maxAgeMillis) {
+        this.directory = directory;
+        this.maxTransferBytes = maxTransferBytes;
+        this.maxAgeMillis = maxAgeMillis;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Logger.e(TAG, "Cannot create transfer directory: " + directory);
+        }
+        restoreTransfers();
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public static boolean isChunk(ByteBuffer frame) {
+        return frame.remaining() > 3 && frame.get(frame.position()) == MAGIC;
+    }
+
+    /**
+     * 写入一个分块
+     * @return 传输完成且校验通过时返回内容文件，调用方用完后负责删除；否则返回null
+     */
+    public synchronized File accept(ByteBuffer frame) throws IOException {
+        ByteBuffer buffer = frame.duplicate();
+        if (buffer.get() != MAGIC || buffer.get() != VERSION) {
+            throw new IOException("Unsupported chunk frame");
+        }
+        byte[] idBytes = new byte[buffer.get() & 0xFF];
+        buffer.get(idBytes);
+        String id = new String(idBytes, StandardCharsets.UTF_8);
+        int index = buffer.getInt();
+        int count = buffer.getInt();
+        int chunkSize = buffer.getInt();
+        int totalSize = buffer.getInt();
+        byte[] sha256 = new byte[DIGEST_LENGTH];
+        buffer.get(sha256);
+
+        if (!isSafeId(id) || count <= 0 || chunkSize <= 0 || totalSize < 0 || totalSize > maxTransferBytes
+                || (long) chunkSize * count < totalSize || index < 0 || index >= count) {
+            throw new IOException("Invalid chunk header for transfer " + id);
+        }
+
+        expireStale();
+        Transfer transfer = transfers.get(id);
+        if (transfer != null && (transfer.count != count || transfer.chunkSize != chunkSize
+                || transfer.totalSize != totalSize || !Arrays.equals(transfer.sha256, sha256))) {
+            Logger.w(TAG, "Transfer " + id + " restarted with different content");
+            discard(transfer);
+            transfer = null;
+        }
+        if (transfer == null) {
+            transfer = create(id, count, chunkSize, totalSize, sha256);
+        }
+
+        if (transfer.received.get(index)) {
+            duplicateChunks++;
+            return null;
+        }
+
+        long offset = (long) index * chunkSize;
+        int length = buffer.remaining();
+        if (offset + length > totalSize || (index < count - 1 && length != chunkSize)) {
+            throw new IOException("Chunk " + index + " of transfer " + id + " has wrong length " + length);
+        }
+        // 直接从载荷视图写入文件，不经过中间数组
+        while (buffer.hasRemaining()) {
+            transfer.data.getChannel().write(buffer, offset + length - buffer.remaining());
+        }
+
+        transfer.received.set(index);
+        transfer.meta.seek(META_HEADER_SIZE + index / 8);
+        transfer.meta.write(bitmapByte(transfer.received, index / 8));
+        chunksReceived++;
+        bytesReceived += length;
+
+        if (!transfer.isComplete()) {
+            return null;
+        }
+        return complete(transfer);
+    }
+
+    /**
+     * 未完成传输的补传请求，连接成功后发送给服务端，已过期的传输先丢弃
+     */
+    public synchronized List<String> buildResumeRequests() {
+        expireStale();
+        List<String> requests = new ArrayList<>();
+        for (Transfer transfer : transfers.values()) {
+            String request = buildResumeRequest(transfer);
+            if (request != null) {
+                requests.add(request);
+            }
+        }
+        return requests;
+    }
+
+    /**
+     * 丢弃超过最长保留时间仍未完成的传输，关闭文件并删除临时文件
+     * @return 丢弃的传输数
+     */
+    public synchronized int expireStale() {
+        long now = System.currentTimeMillis();
+        int expired = 0;
+        for (Transfer transfer : new ArrayList<>(transfers.values())) {
+            if (now - transfer.startedAt > maxAgeMillis) {
+                Logger.w(TAG, "Transfer " + transfer.id + " expired with " + transfer.received.cardinality()
+                        + "/" + transfer.count + " chunks");
+                discard(transfer);
+                expired++;
+            }
+        }
+        return expired;
+    }
+
+    public synchronized void close() {
+        for (Transfer transfer : transfers.values()) {
+            closeQuietly(transfer);
+        }
+        transfers.clear();
+    }
+
+    // 统计
+
+    public synchronized int getActiveTransfers() {
+        return transfers.size();
+    }
+
+    public synchronized long getChunksReceived() {
+        return chunksReceived;
+    }
+
+    public synchronized long getDuplicateChunks() {
+        return duplicateChunks;
+    }
+
+    public synchronized long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    public synchronized long getCompletedTransfers() {
+        return completedTransfers;
+    }
+
+    public synchronized long getChecksumFailures() {
+        return checksumFailures;
+    }
+
+    /**
+     * 已完成传输的平均吞吐量(字节/秒)，包含断线等待时间
+     */
+    public synchronized double getAverageThroughput() {
+        return completedMillis == 0 ? 0 : completedBytes * 1000.0 / completedMillis;
+    }
+
+    public synchronized double getLastThroughput() {
+        return lastThroughput;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ChunkedTransferAssembler{active=" + transfers.size()
+                + ", chunks=" + chunksReceived
+                + ", duplicates=" + duplicateChunks
+                + ", bytes=" + bytesReceived
+                + ", completed=" + completedTransfers
+                + ", checksumFailures=" + checksumFailures
+                + ", avgBytesPerSec=" + (long) getAverageThroughput()
+                + "}";
+    }
+
+    // 内部实现
+
+    private File complete(Transfer transfer) throws IOException {
+        // 分段读取文件计算摘要，大内容不整体读入内存
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        FileChannel channel = transfer.data.getChannel();
+        ByteBuffer block = ByteBuffer.allocate(DIGEST_BUFFER_SIZE);
+        long position = 0;
+        while (position < transfer.totalSize) {
+            block.clear();
+            int read = channel.read(block, position);
+            if (read < 0) {
+                throw new IOException("Transfer " + transfer.id + " data file is truncated");
+            }
+            block.flip();
+            digest.update(block);
+            position += read;
+        }
+
+        if (!Arrays.equals(digest.digest(), transfer.sha256)) {
+            // 清空位图并立即请求服务端重发全部分块，不等下次重连
+            checksumFailures++;
+            Logger.w(TAG, "Transfer " + transfer.id + " failed checksum verification, requesting full resend");
+            transfer.received.clear();
+            transfer.meta.seek(META_HEADER_SIZE);
+            transfer.meta.write(new byte[(transfer.count + 7) / 8]);
+            Listener current = listener;
+            String request = buildResumeRequest(transfer);
+            if (current != null && request != null) {
+                current.onResumeRequired(request);
+            }
+            return null;
+        }
+
+        long duration = Math.max(1, System.currentTimeMillis() - transfer.startedAt);
+        completedTransfers++;
+        completedBytes += transfer.totalSize;
+        completedMillis += duration;
+        lastThroughput = transfer.totalSize * 1000.0 / duration;
+        Logger.d(TAG, "Transfer " + transfer.id + " completed: " + transfer.totalSize + " bytes in " + duration + "ms");
+
+        transfers.remove(transfer.id);
+        closeQuietly(transfer);
+        File content = new File(directory, transfer.id + DONE_SUFFIX);
+        content.delete();
+        if (!new File(directory, transfer.id + PART_SUFFIX).renameTo(content)) {
+            deleteFiles(transfer.id);
+            throw new IOException("Cannot move completed transfer " + transfer.id);
+        }
+        new File(directory, transfer.id + META_SUFFIX).delete();
+        return content;
+    }
+
+    /**
+     * 补传请求格式：{"transferId": "...", "received": N, "missing": [[起始序号, 结束序号], ...]}
+     */
+    private static String buildResumeRequest(Transfer transfer) {
+        try {
+            JSONArray missing = new JSONArray();
+            int start = transfer.received.nextClearBit(0);
+            while (start < transfer.count) {
+                int next = transfer.received.nextSetBit(start);
+                int end = next < 0 ? transfer.count : Math.min(next, transfer.count);
+                missing.put(new JSONArray().put(start).put(end - 1));
+                start = transfer.received.nextClearBit(end);
+            }
+            JSONObject request = new JSONObject();
+            request.put("transferId", transfer.id);
+            request.put("received", transfer.received.cardinality());
+            request.put("missing", missing);
+            return request.toString();
+        } catch (JSONException e) {
+            Logger.e(TAG, "Error building resume request for " + transfer.id, e);
+            return null;
+        }
+    }
+
+    private Transfer create(String id, int count, int chunkSize, int totalSize, byte[] sha256) throws IOException {
+        long startedAt = System.currentTimeMillis();
+        RandomAccessFile data = new RandomAccessFile(new File(directory, id + PART_SUFFIX), "rw");
+        RandomAccessFile meta = new RandomAccessFile(new File(directory, id + META_SUFFIX), "rw");
+        data.setLength(totalSize);
+        meta.setLength(0);
+        meta.writeInt(count);
+        meta.writeInt(chunkSize);
+        meta.writeInt(totalSize);
+        meta.write(sha256);
+        meta.writeLong(startedAt);
+        meta.write(new byte[(count + 7) / 8]);
+
+        Transfer transfer = new Transfer(id, count, chunkSize, totalSize, sha256, startedAt,
+                new BitSet(count), data, meta);
+        transfers.put(id, transfer);
+        Logger.d(TAG, "Transfer " + id + " started: " + count + " chunks, " + totalSize + " bytes");
+        return transfer;
+    }
+
+    /**
+     * 从磁盘恢复未完成的传输，过期或损坏的直接删除
+     */
+    private void restoreTransfers() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (File metaFile : files) {
+            String name = metaFile.getName();
+            if (!name.endsWith(META_SUFFIX)) {
+                continue;
+            }
+            String id = name.substring(0, name.length() - META_SUFFIX.length());
+            File dataFile = new File(directory, id + PART_SUFFIX);
+            try {
+                RandomAccessFile meta = new RandomAccessFile(metaFile, "rw");
+                int count = meta.readInt();
+                int chunkSize = meta.readInt();
+                int totalSize = meta.readInt();
+                byte[] sha256 = new byte[DIGEST_LENGTH];
+                meta.readFully(sha256);
+                long startedAt = meta.readLong();
+                byte[] bitmap = new byte[(count + 7) / 8];
+                meta.readFully(bitmap);
+
+                if (now - startedAt > maxAgeMillis || !dataFile.isFile() || dataFile.length() != totalSize) {
+                    meta.close();
+                    deleteFiles(id);
+                    continue;
+                }
+
+                BitSet received = new BitSet(count);
+                for (int i = 0; i < count; i++) {
+                    if ((bitmap[i / 8] & (1 << (i % 8))) != 0) {
+                        received.set(i);
+                    }
+                }
+                transfers.put(id, new Transfer(id, count, chunkSize, totalSize, sha256, startedAt, received,
+                        new RandomAccessFile(dataFile, "rw"), meta));
+                Logger.d(TAG, "Restored transfer " + id + ": " + received.cardinality() + "/" + count + " chunks");
+            } catch (IOException e) {
+                Logger.w(TAG, "Dropping unreadable transfer " + id, e);
+                deleteFiles(id);
+            }
+        }
+
+        // 清理没有元数据的残留数据文件，以及上层处理前进程退出而留下的已完成文件
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(PART_SUFFIX)
+                    && !transfers.containsKey(name.substring(0, name.length() - PART_SUFFIX.length()))) {
+                file.delete();
+            } else if (name.endsWith(DONE_SUFFIX)) {
+                file.delete();
+            }
+        }
+    }
+
+    private void discard(Transfer transfer) {
+        transfers.remove(transfer.id);
+        closeQuietly(transfer);
+        deleteFiles(transfer.id);
+    }
+
+    private void deleteFiles(String id) {
+        new File(directory, id + PART_SUFFIX).delete();
+        new File(directory, id + META_SUFFIX).delete();
+    }
+
+    private static void closeQuietly(Transfer transfer) {
+        try {
+            transfer.data.close();
+            transfer.meta.close();
+        } catch (IOException e) {
+            Logger.w(TAG, "Error closing transfer " + transfer.id, e);
+        }
+    }
+
+    private static int bitmapByte(BitSet bits, int byteIndex) {
+        int value = 0;
+        for (int bit = 0; bit < 8; bit++) {
+            if (bits.get(byteIndex * 8 + bit)) {
+                value |= 1 << bit;
+            }
+        }
+        return value;
+    }
+
+    // transferId 用作文件名，只允许安全字符
+    private static boolean isSafeId(String id) {
+        if (id.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < id.length(); i++) {
+            char c = id.charAt(i);
+            if (!(Character.isLetterOrDigit(c) || c == '-' || c == '_')) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
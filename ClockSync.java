@@ -0,0 +1,294 @@
+package com.mediaplatform.android.service;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.function.LongSupplier;
+
+/**
+ * 与服务端的时钟同步，给同一面拼接墙上的多台屏幕提供一致的"车队时间"
+ * 设备发送 ping(t0)，服务端回复收到和发出的时间(t1, t2)，设备收到时记 t3：
+ * 偏差 = ((t1 - t0) + (t2 - t3)) / 2，往返时延 = (t3 - t0) - (t2 - t1)。
+ *
+ * 按NTP的思路过滤：单次样本的误差不超过往返时延的一半，排队造成的单向延迟会让偏差偏向一边，
+ * 所以只采用时延接近窗口内最小值的样本，按多出的时延加权做最小二乘拟合，
+ * 得到当前偏差和本地晶振的频率偏差(漂移)。
+ * 两个方向固定的不对称(如上行链路更长)无法从时间戳中观测，会原样计入误差。
+ *
+ * 本地时间取单调时钟，不受用户修改系统时间影响。第一次同步时直接跳到服务端时间，
+ * 之后的修正按速率平滑完成(超过 STEP_THRESHOLD_MILLIS 的超前修正除外)，车队时间不会倒退。
+ * 线程安全。
+ */
+public class ClockSync {
+
+    public static final int BURST_PINGS = 8;              // 连接后先连续采样，尽快完成第一次同步
+    public static final long BURST_INTERVAL_MILLIS = 1000;
+    public static final int RAMP_PINGS = 40;              // 再较快地采样一段，尽早估计出漂移
+    public static final long RAMP_INTERVAL_MILLIS = 5000;
+    public static final long POLL_INTERVAL_MILLIS = 15000;
+
+    private static final int MIN_SAMPLES = 4;              // 至少这么多样本才认为已同步
+    private static final int MIN_FIT_POINTS = 4;
+    private static final double FIT_FRACTION = 0.25;       // 至少用时延最小的四分之一样本拟合
+    private static final int MAX_SAMPLES = 64;             // 窗口，按轮询间隔约16分钟
+    private static final double MAX_DELAY_MILLIS = 5000;   // 更慢的往返不可信
+    private static final double DELAY_MARGIN_MILLIS = 40;  // 时延比窗口最小值多出这么多的样本不用
+    private static final double DELAY_WEIGHT_MILLIS = 4;   // 多出的时延越大，拟合时的权重越小
+    private static final double MIN_DRIFT_SPAN_MILLIS = 60000; // 选出的点跨度不足1分钟时不估计漂移
+    private static final double MAX_DRIFT = 500e-6;        // 晶振偏差超过500ppm视为异常
+    private static final double MAX_SLEW_RATE = 0.05;      // 平滑修正时车队时间最多快/慢5%
+    private static final double SLEW_TIME_MILLIS = 2000;   // 小偏差在约2秒内修正完
+    private static final double STEP_THRESHOLD_MILLIS = 1000;
+
+    private final LongSupplier monotonicNanos;
+    private final double wallOffsetMillis; // 同步前用系统时间，换算到单调时钟
+
+    // 样本环形缓冲，时间为本地单调时间(毫秒)
+    private final double[] sampleTimes = new double[MAX_SAMPLES];
+    private final double[] sampleOffsets = new double[MAX_SAMPLES];
+    private final double[] sampleDelays = new double[MAX_SAMPLES];
+    private final double[] weights = new double[MAX_SAMPLES]; // 0表示未选中
+    private int sampleCount;
+    private int sampleHead;
+
+    // 拟合结果：最近一个样本时刻的偏差，之后按 drift 外推
+    private double estimateOffset;
+    private double drift;
+    private double bestDelay = Double.NaN;
+    private boolean synced;
+
+    // 车队时间 = anchorFleet + (t - anchorLocal) * (1 + drift + slewRate)，到 slewEnd 后去掉 slewRate
+    private double anchorLocal;
+    private double anchorFleet;
+    private double slewRate;
+    private double slewEnd;
+    private long lastFleetMillis = Long.MIN_VALUE;
+
+    private long acceptedSamples;
+    private long rejectedSamples;
+    private long steps;
+
+    /**
+     * @param wallClock      同步前使用的系统时间
+     * @param monotonicNanos 单调时钟；安卓端用 SystemClock.elapsedRealtimeNanos，休眠期间也继续计时
+     */
+    public ClockSync(LongSupplier wallClock, LongSupplier monotonicNanos) {
+        this.monotonicNanos = monotonicNanos;
+        double local = localMillis();
+        this.wallOffsetMillis = wallClock.getAsLong() - local;
+        this.anchorLocal = local;
+        this.anchorFleet = local + wallOffsetMillis;
+    }
+
+    /**
+     * 本地单调时间(毫秒)，作为ping的t0和pong到达的t3
+     */
+    public double localMillis() {
+        return monotonicNanos.getAsLong() / 1e6;
+    }
+
+    /**
+     * 下一次ping的间隔：刚连接时快速采样，样本足够估计漂移后按轮询间隔
+     */
+    public synchronized long getNextPingDelay() {
+        if (acceptedSamples < BURST_PINGS) {
+            return BURST_INTERVAL_MILLIS;
+        }
+        return acceptedSamples < RAMP_PINGS ? RAMP_INTERVAL_MILLIS : POLL_INTERVAL_MILLIS;
+    }
+
+    /**
+     * 记录一次往返
+     * @param t0 发送ping时的本地时间(由ping带回)
+     * @param t1 服务端收到的时间
+     * @param t2 服务端发出的时间
+     * @param t3 收到pong时的本地时间，应在消息到达时立即取得
+     * @return 样本是否被采用
+     */
+    public synchronized boolean onPong(double t0, double t1, double t2, double t3) {
+        double delay = (t3 - t0) - (t2 - t1);
+        if (t3 < t0 || t2 < t1 || delay < 0 || delay > MAX_DELAY_MILLIS) {
+            rejectedSamples++;
+            return false;
+        }
+
+        sampleTimes[sampleHead] = t3;
+        sampleOffsets[sampleHead] = ((t1 - t0) + (t2 - t3)) / 2;
+        sampleDelays[sampleHead] = delay;
+        sampleHead = (sampleHead + 1) % MAX_SAMPLES;
+        if (sampleCount < MAX_SAMPLES) {
+            sampleCount++;
+        }
+        acceptedSamples++;
+
+        // 先按旧的估计取当前车队时间，再从这里修正，避免漂移更新造成跳变
+        double current = fleetAt(t3);
+        estimate(t3);
+        if (sampleCount >= MIN_SAMPLES) {
+            correct(t3, current);
+        }
+        return true;
+    }
+
+    /**
+     * 时延接近最小值的样本做加权线性拟合
+     */
+    private void estimate(double now) {
+        double minDelay = Double.MAX_VALUE;
+        for (int i = 0; i < sampleCount; i++) {
+            minDelay = Math.min(minDelay, sampleDelays[i]);
+            weights[i] = 0;
+        }
+
+        // 时延接近最小值的样本太少时放宽，保证有足够的点估计漂移，多出的时延仍然体现在权重上
+        double margin = DELAY_MARGIN_MILLIS;
+        int fitPoints = Math.max(MIN_FIT_POINTS, (int) (sampleCount * FIT_FRACTION));
+        if (sampleCount > fitPoints) {
+            double[] sorted = Arrays.copyOf(sampleDelays, sampleCount);
+            Arrays.sort(sorted);
+            margin = Math.max(margin, sorted[fitPoints - 1] - minDelay);
+        }
+        for (int i = 0; i < sampleCount; i++) {
+            double excess = sampleDelays[i] - minDelay;
+            if (excess <= margin) {
+                double ratio = excess / DELAY_WEIGHT_MILLIS;
+                weights[i] = 1 / (1 + ratio * ratio);
+            }
+        }
+
+        int n = 0;
+        double first = Double.MAX_VALUE;
+        double last = -Double.MAX_VALUE;
+        double sumW = 0;
+        double sumT = 0;
+        double sumO = 0;
+        for (int i = 0; i < sampleCount; i++) {
+            if (weights[i] > 0) {
+                n++;
+                sumW += weights[i];
+                sumT += weights[i] * (sampleTimes[i] - now);
+                sumO += weights[i] * sampleOffsets[i];
+                first = Math.min(first, sampleTimes[i]);
+                last = Math.max(last, sampleTimes[i]);
+            }
+        }
+        double meanT = sumT / sumW;
+        double meanO = sumO / sumW;
+
+        if (n >= 2 && last - first >= MIN_DRIFT_SPAN_MILLIS) {
+            double covariance = 0;
+            double variance = 0;
+            for (int i = 0; i < sampleCount; i++) {
+                if (weights[i] > 0) {
+                    double dt = sampleTimes[i] - now - meanT;
+                    covariance += weights[i] * dt * (sampleOffsets[i] - meanO);
+                    variance += weights[i] * dt * dt;
+                }
+            }
+            drift = Math.max(-MAX_DRIFT, Math.min(MAX_DRIFT, covariance / variance));
+        }
+        // 跨度不足时沿用上一次的漂移，把选出的点的平均偏差推到当前时间
+        estimateOffset = meanO - drift * meanT;
+        bestDelay = minDelay;
+    }
+
+    /**
+     * 把车队时间修正到新的估计：第一次同步或超前较多时直接跳过去，否则在有限速率内平滑修正
+     */
+    private void correct(double now, double current) {
+        double target = now + estimateOffset;
+        double error = target - current;
+
+        anchorLocal = now;
+        if (!synced || error > STEP_THRESHOLD_MILLIS) {
+            if (!synced) {
+                // 只有第一次同步可能往回跳
+                lastFleetMillis = Long.MIN_VALUE;
+            }
+            anchorFleet = target;
+            slewRate = 0;
+            slewEnd = now;
+            synced = true;
+            steps++;
+            return;
+        }
+        anchorFleet = current;
+        slewRate = Math.max(-MAX_SLEW_RATE, Math.min(MAX_SLEW_RATE, error / SLEW_TIME_MILLIS));
+        slewEnd = slewRate == 0 ? now : now + error / slewRate;
+    }
+
+    private double fleetAt(double local) {
+        double elapsed = local - anchorLocal;
+        if (!synced) {
+            return local + wallOffsetMillis;
+        }
+        if (local <= slewEnd) {
+            return anchorFleet + elapsed * (1 + drift + slewRate);
+        }
+        return anchorFleet + (slewEnd - anchorLocal) * (1 + drift + slewRate)
+                + (local - slewEnd) * (1 + drift);
+    }
+
+    /**
+     * 车队时间(毫秒，与服务端时间对齐)，单调不减；未同步时返回系统时间
+     */
+    public synchronized long fleetTimeMillis() {
+        // 换算本身单调，这里再挡住取整和并发调用造成的倒退
+        long fleet = (long) Math.floor(fleetAt(localMillis()));
+        lastFleetMillis = Math.max(lastFleetMillis, fleet);
+        return lastFleetMillis;
+    }
+
+    /**
+     * 本地时刻对应的车队时间，播放器可用来把 localMillis 上的帧时间换算过来，或反过来计算等待时长
+     */
+    public synchronized double fleetTimeAt(double localMillis) {
+        return fleetAt(localMillis);
+    }
+
+    public synchronized boolean isSynchronized() {
+        return synced;
+    }
+
+    /**
+     * 车队时间与系统时间的差(毫秒)
+     */
+    public synchronized long getOffsetMillis() {
+        double local = localMillis();
+        return Math.round(fleetAt(local) - (local + wallOffsetMillis));
+    }
+
+    public synchronized double getDriftPpm() {
+        return drift * 1e6;
+    }
+
+    /**
+     * 窗口内最小往返时延，误差上限是它的一半加上固定的不对称
+     */
+    public synchronized double getBestRoundTripMillis() {
+        return bestDelay;
+    }
+
+    /**
+     * 直接跳变的次数，包括第一次同步
+     */
+    public synchronized long getSteps() {
+        return steps;
+    }
+
+    public synchronized long getAcceptedSamples() {
+        return acceptedSamples;
+    }
+
+    public synchronized long getRejectedSamples() {
+        return rejectedSamples;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ClockSync{synced=" + synced
+                + ", offset=" + getOffsetMillis() + "ms"
+                + ", drift=" + String.format(Locale.US, "%.1f", drift * 1e6) + "ppm"
+                + ", bestRtt=" + String.format(Locale.US, "%.1f", bestDelay) + "ms"
+                + ", samples=" + acceptedSamples + "/" + (acceptedSamples + rejectedSamples) + "}";
+    }
+}
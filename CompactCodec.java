@@ -0,0 +1,269 @@
+package com.mediaplatform.android.service;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * 紧凑二进制编码 (compact-v1)
+ * 用于心跳、状态和注册消息，在注册时与服务端协商启用。
+ * 常用字段名用共享字典中的编号代替，整数使用zigzag变长编码，
+ * 字典与服务端 server/src/services/compactCodec.ts 保持一致。
+ *
+ * 格式：[0xC1][对象]
+ * 对象：[字段数:varint] { [tag:varint = keyId << 3 | 类型] [keyId为0时:键名字符串] [值] }
+ * 数组：[元素数:varint] { [类型:varint] [值] }
+ */
+public final class CompactCodec {
+
+    public static final String ENCODING_JSON = "json";
+    public static final String ENCODING_COMPACT = "compact-v1";
+    public static final byte MAGIC = (byte) 0xC1;
+
+    private static final int TYPE_VARINT = 0;
+    private static final int TYPE_DOUBLE = 1;
+    private static final int TYPE_STRING = 2;
+    private static final int TYPE_OBJECT = 3;
+    private static final int TYPE_ARRAY = 4;
+    private static final int TYPE_TRUE = 5;
+    private static final int TYPE_FALSE = 6;
+    private static final int TYPE_NULL = 7;
+
+    // 共享字段字典，只能在末尾追加
+    private static final String[] KEYS = {
+            null,
+            "deviceId", "timestamp", "status", "details",
+            "deviceType", "deviceName", "deviceModel", "deviceVersion",
+            "appVersion", "screenResolution", "location", "batteryLevel",
+            "storageInfo", "memoryInfo", "samples", "encodings",
+            "metadata", "action", "data", "type"
+    };
+
+    private static final Map<String, Integer> KEY_IDS = new HashMap<>();
+
+    static {
+        for (int i = 1; i < KEYS.length; i++) {
+            KEY_IDS.put(KEYS[i], i);
+        }
+    }
+
+    private CompactCodec() {
+    }
+
+    public static boolean isCompact(byte[] data) {
+        return data != null && data.length > 0 && data[0] == MAGIC;
+    }
+
+    public static byte[] encode(JSONObject json) throws JSONException {
+        PayloadBuffers.EncodeBuffer out = PayloadBuffers.acquireEncodeBuffer();
+        out.write(MAGIC);
+        writeObject(out, json);
+        return out.toByteArray();
+    }
+
+    public static JSONObject decode(byte[] data) throws JSONException {
+        if (!isCompact(data)) {
+            throw new JSONException("Not a compact-v1 payload");
+        }
+        Reader reader = new Reader(data, 1);
+        return reader.readObject();
+    }
+
+    // 编码
+
+    private static void writeObject(PayloadBuffers.EncodeBuffer out, JSONObject json) throws JSONException {
+        writeVarint(out, json.length());
+        Iterator<String> keys = json.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            Object value = json.opt(key);
+            Integer keyId = KEY_IDS.get(key);
+            int type = typeOf(value);
+
+            writeVarint(out, ((long) (keyId == null ? 0 : keyId) << 3) | type);
+            if (keyId == null) {
+                writeString(out, key);
+            }
+            writeValue(out, type, value);
+        }
+    }
+
+    private static void writeArray(PayloadBuffers.EncodeBuffer out, JSONArray array) throws JSONException {
+        writeVarint(out, array.length());
+        for (int i = 0; i < array.length(); i++) {
+            Object value = array.opt(i);
+            int type = typeOf(value);
+            writeVarint(out, type);
+            writeValue(out, type, value);
+        }
+    }
+
+    private static void writeValue(PayloadBuffers.EncodeBuffer out, int type, Object value) throws JSONException {
+        switch (type) {
+            case TYPE_VARINT:
+                writeVarint(out, zigzag(((Number) value).longValue()));
+                break;
+            case TYPE_DOUBLE:
+                long bits = Double.doubleToLongBits(((Number) value).doubleValue());
+                for (int i = 0; i < 8; i++) {
+                    out.write((int) (bits >>> (i * 8)));
+                }
+                break;
+            case TYPE_STRING:
+                writeString(out, value.toString());
+                break;
+            case TYPE_OBJECT:
+                writeObject(out, (JSONObject) value);
+                break;
+            case TYPE_ARRAY:
+                writeArray(out, (JSONArray) value);
+                break;
+            default:
+                // TRUE / FALSE / NULL 没有值部分
+                break;
+        }
+    }
+
+    private static int typeOf(Object value) {
+        if (value == null || value == JSONObject.NULL) {
+            return TYPE_NULL;
+        }
+        if (value instanceof Boolean) {
+            return (Boolean) value ? TYPE_TRUE : TYPE_FALSE;
+        }
+        if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            return TYPE_VARINT;
+        }
+        if (value instanceof Number) {
+            double number = ((Number) value).doubleValue();
+            return number == Math.rint(number) && Math.abs(number) < (1L << 53) ? TYPE_VARINT : TYPE_DOUBLE;
+        }
+        if (value instanceof JSONObject) {
+            return TYPE_OBJECT;
+        }
+        if (value instanceof JSONArray) {
+            return TYPE_ARRAY;
+        }
+        return TYPE_STRING;
+    }
+
+    private static void writeString(PayloadBuffers.EncodeBuffer out, String value) {
+        writeVarint(out, PayloadBuffers.utf8Length(value));
+        out.writeUtf8(value);
+    }
+
+    private static void writeVarint(PayloadBuffers.EncodeBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    // 解码
+
+    private static final class Reader {
+        private final byte[] data;
+        private int position;
+
+        Reader(byte[] data, int position) {
+            this.data = data;
+            this.position = position;
+        }
+
+        JSONObject readObject() throws JSONException {
+            JSONObject json = new JSONObject();
+            long count = readVarint();
+            for (long i = 0; i < count; i++) {
+                long tag = readVarint();
+                int keyId = (int) (tag >>> 3);
+                int type = (int) (tag & 0x07);
+                String key;
+                if (keyId == 0) {
+                    key = readString();
+                } else if (keyId < KEYS.length) {
+                    key = KEYS[keyId];
+                } else {
+                    throw new JSONException("Unknown compact key id: " + keyId);
+                }
+                json.put(key, readValue(type));
+            }
+            return json;
+        }
+
+        JSONArray readArray() throws JSONException {
+            JSONArray array = new JSONArray();
+            long count = readVarint();
+            for (long i = 0; i < count; i++) {
+                array.put(readValue((int) readVarint()));
+            }
+            return array;
+        }
+
+        Object readValue(int type) throws JSONException {
+            switch (type) {
+                case TYPE_VARINT:
+                    long raw = readVarint();
+                    return (raw >>> 1) ^ -(raw & 1);
+                case TYPE_DOUBLE:
+                    long bits = 0;
+                    for (int i = 0; i < 8; i++) {
+                        bits |= (long) (readByte() & 0xFF) << (i * 8);
+                    }
+                    return Double.longBitsToDouble(bits);
+                case TYPE_STRING:
+                    return readString();
+                case TYPE_OBJECT:
+                    return readObject();
+                case TYPE_ARRAY:
+                    return readArray();
+                case TYPE_TRUE:
+                    return Boolean.TRUE;
+                case TYPE_FALSE:
+                    return Boolean.FALSE;
+                default:
+                    return JSONObject.NULL;
+            }
+        }
+
+        String readString() throws JSONException {
+            int length = (int) readVarint();
+            if (length < 0 || position + length > data.length) {
+                throw new JSONException("Truncated compact string");
+            }
+            String value = new String(data, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        long readVarint() throws JSONException {
+            long value = 0;
+            int shift = 0;
+            while (shift < 64) {
+                byte b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+                shift += 7;
+            }
+            throw new JSONException("Malformed compact varint");
+        }
+
+        byte readByte() throws JSONException {
+            if (position >= data.length) {
+                throw new JSONException("Truncated compact payload");
+            }
+            return data[position++];
+        }
+    }
+}
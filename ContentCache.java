@@ -0,0 +1,475 @@
+package com.mediaplatform.android.service;
+
+import com.mediaplatform.android.model.ContentPush;
+import com.mediaplatform.android.utils.Logger;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 媒体内容磁盘缓存
+ * 收到内容推送后在排期开始前预取媒体文件，下载并发数有上限，
+ * 文件按LRU淘汰，总大小不超过上限。下载时计算SHA-256并记入索引，
+ * 进程启动后首次命中时重新校验，损坏的文件直接丢弃。
+ */
+public class ContentCache {
+    private static final String TAG = "ContentCache";
+
+    private static final String INDEX_FILE_NAME = "index.json";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int CONNECT_TIMEOUT = 15000;
+    private static final int READ_TIMEOUT = 30000;
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final File directory;
+    private final long maxBytes;
+    private final long prefetchLeadMillis;
+    private final long prefetchJitterMillis;
+    private final ScheduledExecutorService downloadExecutor;
+    private final Random random = new Random();
+
+    // 访问顺序的LinkedHashMap，迭代顺序即淘汰顺序
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Future<?>> pendingDownloads = new ConcurrentHashMap<>();
+    private long usedBytes;
+
+    // 统计
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong bytesServed = new AtomicLong();
+    private final AtomicLong bytesDownloaded = new AtomicLong();
+    private final AtomicLong downloadFailures = new AtomicLong();
+    private final AtomicLong checksumFailures = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private static final class Entry {
+        final String url;
+        final String fileName;
+        final long size;
+        final String sha256;
+        boolean verified;
+
+        Entry(String url, String fileName, long size, String sha256) {
+            this.url = url;
+            this.fileName = fileName;
+            this.size = size;
+            this.sha256 = sha256;
+        }
+    }
+
+    /**
+     * @param maxParallelDownloads 同时进行的下载数上限
+     * @param prefetchLeadMillis 在排期开始前多久开始预取
+     * @param prefetchJitterMillis 预取时间的随机提前量，避免所有终端同时请求CDN
+     */
+    public ContentCache(File directory, long maxBytes, int maxParallelDownloads,
+                        long prefetchLeadMillis, long prefetchJitterMillis) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.prefetchLeadMillis = prefetchLeadMillis;
+        this.prefetchJitterMillis = prefetchJitterMillis;
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.downloadExecutor = Executors.newScheduledThreadPool(maxParallelDownloads, runnable -> {
+            Thread thread = new Thread(runnable, "content-prefetch-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Logger.e(TAG, "Cannot create cache directory: " + directory);
+        }
+        loadIndex();
+    }
+
+    /**
+     * 按推送中的排期安排预取，已缓存或已在下载队列中的内容直接跳过
+     */
+    public void prefetch(ContentPush content) {
+        String url = content.getUrl();
+        if (!isCacheable(url)) {
+            return;
+        }
+        synchronized (this) {
+            if (entries.containsKey(url)) {
+                return;
+            }
+        }
+
+        long delay = prefetchDelay(content.getStartTime(), System.currentTimeMillis());
+        pendingDownloads.computeIfAbsent(url, key -> {
+            Logger.d(TAG, "Prefetch of " + content.getContentId() + " scheduled in " + delay + "ms");
+            return downloadExecutor.schedule(() -> download(key, content.getSize()), delay, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    /**
+     * 获取已缓存的本地文件，未命中或校验失败时返回null，由调用方回退到网络地址
+     */
+    public File resolve(String url) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(url);
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        File file = new File(directory, entry.fileName);
+        if (!entry.verified) {
+            String actual = file.isFile() ? sha256Of(file) : null;
+            if (!entry.sha256.equals(actual)) {
+                Logger.w(TAG, "Cached file failed checksum verification: " + url);
+                checksumFailures.incrementAndGet();
+                misses.incrementAndGet();
+                remove(url);
+                return null;
+            }
+            entry.verified = true;
+        }
+
+        hits.incrementAndGet();
+        bytesServed.addAndGet(entry.size);
+        return file;
+    }
+
+    public void shutdown() {
+        downloadExecutor.shutdownNow();
+        pendingDownloads.clear();
+        synchronized (this) {
+            saveIndex();
+        }
+    }
+
+    // 统计
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public double getHitRatio() {
+        long total = hits.get() + misses.get();
+        return total == 0 ? 0 : (double) hits.get() / total;
+    }
+
+    public long getBytesServed() {
+        return bytesServed.get();
+    }
+
+    public long getBytesDownloaded() {
+        return bytesDownloaded.get();
+    }
+
+    public long getDownloadFailures() {
+        return downloadFailures.get();
+    }
+
+    public long getChecksumFailures() {
+        return checksumFailures.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public int getPendingDownloads() {
+        return pendingDownloads.size();
+    }
+
+    @Override
+    public String toString() {
+        return "ContentCache{entries=" + getEntryCount()
+                + ", usedBytes=" + getUsedBytes()
+                + ", hitRatio=" + String.format(Locale.US, "%.2f", getHitRatio())
+                + ", bytesServed=" + bytesServed.get()
+                + ", bytesDownloaded=" + bytesDownloaded.get()
+                + ", pending=" + pendingDownloads.size()
+                + ", evictions=" + evictions.get()
+                + ", checksumFailures=" + checksumFailures.get()
+                + "}";
+    }
+
+    // 下载
+
+    private void download(String url, long expectedSize) {
+        String fileName = fileNameFor(url);
+        File temp = new File(directory, fileName + TEMP_SUFFIX);
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) URI.create(url).toURL().openConnection();
+            connection.setConnectTimeout(CONNECT_TIMEOUT);
+            connection.setReadTimeout(READ_TIMEOUT);
+            int code = connection.getResponseCode();
+            if (code != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HTTP " + code);
+            }
+
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            long size = 0;
+            try (InputStream in = connection.getInputStream();
+                 OutputStream out = new FileOutputStream(temp)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                    out.write(buffer, 0, read);
+                    size += read;
+                }
+            }
+
+            if (expectedSize > 0 && size != expectedSize) {
+                throw new IOException("Size mismatch: expected " + expectedSize + ", got " + size);
+            }
+            if (size > maxBytes) {
+                throw new IOException("Content larger than cache: " + size);
+            }
+
+            File target = new File(directory, fileName);
+            if (!temp.renameTo(target)) {
+                throw new IOException("Cannot move " + temp + " to " + target);
+            }
+
+            Entry entry = new Entry(url, fileName, size, toHex(digest.digest()));
+            entry.verified = true;
+            synchronized (this) {
+                Entry previous = entries.put(url, entry);
+                if (previous != null) {
+                    usedBytes -= previous.size;
+                }
+                usedBytes += size;
+                evictToLimit();
+                saveIndex();
+            }
+            bytesDownloaded.addAndGet(size);
+            Logger.d(TAG, "Prefetched " + url + " (" + size + " bytes)");
+        } catch (IOException | NoSuchAlgorithmException | IllegalArgumentException e) {
+            // 格式错误的地址由 URI.create 抛出 IllegalArgumentException，同样按下载失败处理
+            downloadFailures.incrementAndGet();
+            Logger.w(TAG, "Prefetch failed: " + url, e);
+            temp.delete();
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+            pendingDownloads.remove(url);
+        }
+    }
+
+    /**
+     * 排期开始前 prefetchLead 加随机提前量开始预取，没有排期或已过时立即预取
+     */
+    long prefetchDelay(String startTime, long now) {
+        long start = parseTime(startTime);
+        if (start <= 0) {
+            return 0;
+        }
+        long jitter = prefetchJitterMillis > 0 ? (long) (random.nextDouble() * prefetchJitterMillis) : 0;
+        return Math.max(0, start - prefetchLeadMillis - jitter - now);
+    }
+
+    // 索引
+
+    private void evictToLimit() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (usedBytes > maxBytes && iterator.hasNext()) {
+            Entry eldest = iterator.next();
+            iterator.remove();
+            usedBytes -= eldest.size;
+            new File(directory, eldest.fileName).delete();
+            evictions.incrementAndGet();
+            Logger.d(TAG, "Evicted " + eldest.url);
+        }
+    }
+
+    private synchronized void remove(String url) {
+        Entry entry = entries.remove(url);
+        if (entry != null) {
+            usedBytes -= entry.size;
+            new File(directory, entry.fileName).delete();
+            saveIndex();
+        }
+    }
+
+    /**
+     * 读取索引，丢弃文件已不存在或大小不符的条目以及残留的临时文件
+     */
+    private synchronized void loadIndex() {
+        File indexFile = new File(directory, INDEX_FILE_NAME);
+        if (indexFile.isFile()) {
+            try {
+                JSONArray array = new JSONArray(readFile(indexFile));
+                for (int i = 0; i < array.length(); i++) {
+                    JSONObject item = array.getJSONObject(i);
+                    Entry entry = new Entry(item.getString("url"), item.getString("file"),
+                            item.getLong("size"), item.getString("sha256"));
+                    File file = new File(directory, entry.fileName);
+                    if (file.isFile() && file.length() == entry.size) {
+                        entries.put(entry.url, entry);
+                        usedBytes += entry.size;
+                    }
+                }
+            } catch (IOException | JSONException e) {
+                Logger.w(TAG, "Cache index unreadable, starting empty", e);
+                entries.clear();
+                usedBytes = 0;
+            }
+        }
+
+        // 清理不在索引中的文件
+        List<String> known = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            known.add(entry.fileName);
+        }
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!file.getName().equals(INDEX_FILE_NAME) && !known.contains(file.getName())) {
+                    file.delete();
+                }
+            }
+        }
+        evictToLimit();
+        Logger.d(TAG, "Content cache loaded: " + entries.size() + " entries, " + usedBytes + " bytes");
+    }
+
+    private void saveIndex() {
+        JSONArray array = new JSONArray();
+        try {
+            for (Entry entry : entries.values()) {
+                JSONObject item = new JSONObject();
+                item.put("url", entry.url);
+                item.put("file", entry.fileName);
+                item.put("size", entry.size);
+                item.put("sha256", entry.sha256);
+                array.put(item);
+            }
+        } catch (JSONException e) {
+            Logger.e(TAG, "Error building cache index", e);
+            return;
+        }
+
+        File temp = new File(directory, INDEX_FILE_NAME + TEMP_SUFFIX);
+        try (OutputStream out = new FileOutputStream(temp)) {
+            out.write(array.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            Logger.e(TAG, "Error writing cache index", e);
+            return;
+        }
+        if (!temp.renameTo(new File(directory, INDEX_FILE_NAME))) {
+            Logger.e(TAG, "Error replacing cache index");
+        }
+    }
+
+    // 工具方法
+
+    private static boolean isCacheable(String url) {
+        return url != null && (url.startsWith("http://") || url.startsWith("https://"));
+    }
+
+    private static String fileNameFor(String url) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return toHex(digest.digest(url.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(url.hashCode());
+        }
+    }
+
+    private static String sha256Of(File file) {
+        try (InputStream in = new FileInputStream(file)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+            return toHex(digest.digest());
+        } catch (IOException | NoSuchAlgorithmException e) {
+            Logger.w(TAG, "Cannot hash " + file, e);
+            return null;
+        }
+    }
+
+    private static String readFile(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        try (InputStream in = new FileInputStream(file)) {
+            int offset = 0;
+            while (offset < data.length) {
+                int read = in.read(data, offset, data.length - offset);
+                if (read == -1) {
+                    break;
+                }
+                offset += read;
+            }
+        }
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+            builder.append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+
+    private static long parseTime(String value) {
+        if (value == null || value.isEmpty()) {
+            return 0;
+        }
+        String[] patterns = {"yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", "yyyy-MM-dd'T'HH:mm:ss'Z'"};
+        for (String pattern : patterns) {
+            SimpleDateFormat format = new SimpleDateFormat(pattern, Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("UTC"));
+            try {
+                return format.parse(value).getTime();
+            } catch (ParseException ignored) {
+                // 尝试下一种格式
+            }
+        }
+        return 0;
+    }
+}
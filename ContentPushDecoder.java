@@ -0,0 +1,118 @@
+package com.mediaplatform.android.service;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import com.mediaplatform.android.model.ContentPush;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 内容推送流式解析器
+ * 直接按UTF-8读取MQTT载荷的byte[]，边读边填充ContentPush字段，
+ * 不再先拼出完整String再构建org.json对象树，大播放列表只保留一份数据。
+ *
+ * 兼容服务端的两种格式：
+ * {"messageType":"content","content":{...},"schedule":{...}}
+ * {"type":"content_push","data":{...}}
+ */
+public final class ContentPushDecoder {
+
+    private ContentPushDecoder() {
+    }
+
+    public static ContentPush decode(byte[] payload) throws IOException {
+        return decode(payload, 0, payload.length);
+    }
+
+    public static ContentPush decode(byte[] payload, int offset, int length) throws IOException {
+        return decode(new ByteArrayInputStream(payload, offset, length));
+    }
+
+    /**
+     * 直接读取只读载荷视图，不复制字节
+     */
+    public static ContentPush decode(ByteBuffer payload) throws IOException {
+        return decode(PayloadBuffers.asInputStream(payload));
+    }
+
+    private static ContentPush decode(InputStream in) throws IOException {
+        ContentPush content = new ContentPush();
+        try (JsonReader reader = new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            readFields(reader, content, true);
+        }
+        return content;
+    }
+
+    private static void readFields(JsonReader reader, ContentPush content, boolean topLevel) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                continue;
+            }
+
+            switch (name) {
+                case "content":
+                    // 服务端把内容描述放在content对象中，旧版本直接是文本
+                    if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+                        readFields(reader, content, false);
+                    } else {
+                        content.setContent(reader.nextString());
+                    }
+                    break;
+                case "data":
+                case "schedule":
+                    readFields(reader, content, false);
+                    break;
+                case "id":
+                case "contentId":
+                    content.setContentId(reader.nextString());
+                    break;
+                case "title":
+                    content.setTitle(reader.nextString());
+                    break;
+                case "type":
+                    if (topLevel) {
+                        // 顶层type是消息类型(content_push)，不是内容类型
+                        reader.skipValue();
+                    } else {
+                        content.setContentType(reader.nextString());
+                    }
+                    break;
+                case "contentType":
+                    content.setContentType(reader.nextString());
+                    break;
+                case "url":
+                    content.setUrl(reader.nextString());
+                    break;
+                case "duration":
+                    content.setDuration(reader.nextInt());
+                    break;
+                case "size":
+                    content.setSize(reader.nextLong());
+                    break;
+                case "startTime":
+                    content.setStartTime(reader.nextString());
+                    break;
+                case "endTime":
+                    content.setEndTime(reader.nextString());
+                    break;
+                case "priority":
+                    content.setPriority(reader.nextInt());
+                    break;
+                default:
+                    // 未识别字段直接跳过，不构建子树
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+    }
+}
@@ -0,0 +1,347 @@
+package com.mediaplatform.android.service;
+
+import com.mediaplatform.android.model.ContentPush;
+import com.mediaplatform.android.utils.Logger;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * 设备端内容排期
+ * 推送的内容按开始时间放进时间轮，到点激活、到结束时间过期，不轮询；
+ * 同时生效的多条内容按优先级决定当前播放哪一条，当前内容变化时在主线程回调。
+ * 服务端可以提前数小时下发排期，插入和取消都是O(1)，几万条排期只占一个定时唤醒。
+ *
+ * 所有状态只在排期线程上修改，schedule/cancel 可在任意线程调用。
+ */
+public class ContentScheduler {
+    private static final String TAG = "ContentScheduler";
+
+    private static final int MAX_ENTRIES = 100000;
+    private static final long MAX_SLEEP_MILLIS = 60000; // 时钟可能被校准，最长1分钟醒来重新计算一次
+
+    /**
+     * 当前内容变化回调，在主线程执行
+     * @param active   当前应播放的内容，null表示没有生效的排期
+     * @param previous 之前播放的内容
+     */
+    public interface Listener {
+        void onActiveContentChanged(ContentPush active, ContentPush previous);
+    }
+
+    private static final class Entry {
+        final String key;
+        final ContentPush content;
+        final long startMillis;
+        final long endMillis; // 0表示不过期
+        final long sequence;
+        TimerWheel.Timeout<Entry> timeout;
+        boolean active;
+
+        Entry(String key, ContentPush content, long startMillis, long endMillis, long sequence) {
+            this.key = key;
+            this.content = content;
+            this.startMillis = startMillis;
+            this.endMillis = endMillis;
+            this.sequence = sequence;
+        }
+    }
+
+    // 优先级高的在前，相同优先级时开始时间晚的在前，再按推送顺序，与到期回调的先后无关
+    private static final Comparator<Entry> PRECEDENCE = (a, b) -> {
+        int compare = Integer.compare(b.content.getPriority(), a.content.getPriority());
+        if (compare == 0) {
+            compare = Long.compare(b.startMillis, a.startMillis);
+        }
+        if (compare == 0) {
+            compare = Long.compare(b.sequence, a.sequence);
+        }
+        return compare;
+    };
+
+    private final SerialScheduler mainThread;
+    private final LongSupplier clock;
+    private final ScheduledExecutorService executor;
+    private final TimerWheel<Entry> wheel;
+    private final TimerWheel.ExpiryHandler<Entry> expiryHandler = this::onTimeout;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final TreeSet<Entry> activeEntries = new TreeSet<>(PRECEDENCE);
+    private volatile Listener listener;
+    private Entry current;
+    private long nextSequence;
+    private ScheduledFuture<?> wakeup;
+    private long wakeupAtMillis = Long.MAX_VALUE;
+    // 批量下发时每条都要解析时间，格式对象只在排期线程上使用，可以复用
+    private final SimpleDateFormat[] timeFormats = {
+            utcFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'"), utcFormat("yyyy-MM-dd'T'HH:mm:ss'Z'")};
+
+    // 统计
+    private volatile int scheduledCount;
+    private volatile int activeCount;
+    private final AtomicLong activations = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final LatencyHistogram jitter = new LatencyHistogram();
+
+    /**
+     * @param clock      当前时间(毫秒)，排期是服务端的UTC时间，默认用系统时间，时钟校准后可换成校准后的时间
+     * @param tickMillis 时间轮精度，激活最多比排期晚一个tick
+     */
+    public ContentScheduler(SerialScheduler mainThread, LongSupplier clock, long tickMillis) {
+        this.mainThread = mainThread;
+        this.clock = clock;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "content-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.wheel = new TimerWheel<>(tickMillis, clock.getAsLong());
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 按推送中的开始/结束时间排期，相同内容ID再次推送时替换原排期；没有开始时间的立即生效
+     */
+    public void schedule(ContentPush content) {
+        submit(() -> doSchedule(content));
+    }
+
+    /**
+     * 取消内容的排期，正在播放时切换到下一条生效的内容
+     */
+    public void cancel(String contentId) {
+        submit(() -> {
+            Entry entry = entries.get(contentId);
+            if (entry != null) {
+                remove(entry);
+                updateCurrent();
+                rearm();
+            }
+        });
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void submit(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            Logger.w(TAG, "Scheduler is shut down, dropping task");
+        }
+    }
+
+    // 以下方法只在排期线程上执行
+
+    private void doSchedule(ContentPush content) {
+        long now = clock.getAsLong();
+        long start = parseTime(content.getStartTime());
+        long end = parseTime(content.getEndTime());
+        String key = content.getContentId() != null ? content.getContentId() : "#" + nextSequence;
+
+        Entry previous = entries.get(key);
+        if (previous != null) {
+            remove(previous);
+        }
+        if (end > 0 && end <= now) {
+            Logger.d(TAG, "Content already expired: " + key);
+            updateCurrent();
+            rearm();
+            return;
+        }
+        if (entries.size() >= MAX_ENTRIES) {
+            rejected.incrementAndGet();
+            Logger.w(TAG, "Too many scheduled items, dropping " + key);
+            updateCurrent();
+            rearm();
+            return;
+        }
+
+        Entry entry = new Entry(key, content, start, end, nextSequence++);
+        entries.put(key, entry);
+        if (start <= now) {
+            activate(entry);
+        } else {
+            entry.timeout = wheel.add(start, entry);
+            Logger.v(TAG, "Scheduled " + key + " in " + (start - now) + "ms");
+        }
+        scheduledCount = entries.size();
+        updateCurrent();
+        rearm();
+    }
+
+    private void onWakeup() {
+        wakeup = null;
+        wakeupAtMillis = Long.MAX_VALUE;
+        wheel.advance(clock.getAsLong(), expiryHandler);
+        scheduledCount = entries.size();
+        updateCurrent();
+        rearm();
+    }
+
+    private void onTimeout(Entry entry, long deadlineMillis) {
+        long now = clock.getAsLong();
+        jitter.record(TimeUnit.MILLISECONDS.toMicros(now - deadlineMillis));
+        entry.timeout = null;
+        if (entry.active) {
+            expirations.incrementAndGet();
+            Logger.d(TAG, "Content expired: " + entry.key);
+            remove(entry);
+        } else {
+            activate(entry);
+        }
+    }
+
+    private void activate(Entry entry) {
+        // 不过期的内容互相替换，否则先推送的会一直留在低优先级里
+        if (entry.endMillis == 0) {
+            Iterator<Entry> iterator = activeEntries.iterator();
+            while (iterator.hasNext()) {
+                Entry other = iterator.next();
+                if (other.endMillis == 0 && other.content.getPriority() <= entry.content.getPriority()) {
+                    iterator.remove();
+                    entries.remove(other.key);
+                    other.active = false;
+                }
+            }
+        }
+
+        entry.active = true;
+        activeEntries.add(entry);
+        activations.incrementAndGet();
+        if (entry.endMillis > 0) {
+            entry.timeout = wheel.add(entry.endMillis, entry);
+        }
+        activeCount = activeEntries.size();
+        Logger.d(TAG, "Content activated: " + entry.key + " (priority " + entry.content.getPriority() + ")");
+    }
+
+    private void remove(Entry entry) {
+        entries.remove(entry.key);
+        if (entry.timeout != null) {
+            wheel.cancel(entry.timeout);
+            entry.timeout = null;
+        }
+        if (entry.active) {
+            activeEntries.remove(entry);
+            entry.active = false;
+        }
+        scheduledCount = entries.size();
+        activeCount = activeEntries.size();
+    }
+
+    private void updateCurrent() {
+        Entry next = activeEntries.isEmpty() ? null : activeEntries.first();
+        if (next == current) {
+            return;
+        }
+        ContentPush previous = current != null ? current.content : null;
+        ContentPush active = next != null ? next.content : null;
+        current = next;
+        mainThread.execute(() -> {
+            Listener target = listener;
+            if (target != null) {
+                target.onActiveContentChanged(active, previous);
+            }
+        });
+    }
+
+    /**
+     * 只保留一个唤醒，定在时间轮下一个需要处理的时间，只在需要提前时才重新安排
+     */
+    private void rearm() {
+        long deadline = wheel.nextDeadlineMillis();
+        long now = clock.getAsLong();
+        if (deadline != Long.MAX_VALUE) {
+            deadline = Math.min(deadline, now + MAX_SLEEP_MILLIS);
+        }
+        if (wakeup != null && wakeupAtMillis <= deadline) {
+            // 已有的唤醒不晚于需要的时间，提前醒来只是多算一次
+            return;
+        }
+        if (wakeup != null) {
+            wakeup.cancel(false);
+            wakeup = null;
+        }
+        wakeupAtMillis = deadline;
+        if (deadline != Long.MAX_VALUE) {
+            wakeup = executor.schedule(this::onWakeup, Math.max(0, deadline - now), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // 统计
+
+    public int getScheduledCount() {
+        return scheduledCount;
+    }
+
+    public int getActiveCount() {
+        return activeCount;
+    }
+
+    public long getActivations() {
+        return activations.get();
+    }
+
+    public long getExpirations() {
+        return expirations.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * 激活和过期相对排期时间的延迟(微秒)，包含向上取整到tick的部分
+     */
+    public LatencyHistogram getJitter() {
+        return jitter;
+    }
+
+    @Override
+    public String toString() {
+        return "ContentScheduler{scheduled=" + scheduledCount
+                + ", active=" + activeCount
+                + ", activations=" + activations.get()
+                + ", expirations=" + expirations.get()
+                + ", jitterP99=" + jitter.getP99() + "us}";
+    }
+
+    private long parseTime(String value) {
+        if (value == null || value.isEmpty()) {
+            return 0;
+        }
+        for (SimpleDateFormat format : timeFormats) {
+            try {
+                return format.parse(value).getTime();
+            } catch (ParseException ignored) {
+                // 尝试下一种格式
+            }
+        }
+        return 0;
+    }
+
+    private static SimpleDateFormat utcFormat(String pattern) {
+        SimpleDateFormat format = new SimpleDateFormat(pattern, Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format;
+    }
+}
@@ -0,0 +1,139 @@
+package com.mediaplatform.android.service;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * 分组订阅
+ * 设备按区域、城市和标签订阅分组主题 {前缀}group/{region|city|tag}/{值}/content，
+ * 服务端向一个分组发布一次即可覆盖组内所有屏幕，不再逐台查询和推送。
+ * 分组随注册元数据上报，服务端可在注册确认或 update_groups 命令中下发新的分组。
+ */
+public class GroupSubscriptions {
+
+    public static final String KIND_REGION = "region";
+    public static final String KIND_CITY = "city";
+    public static final String KIND_TAG = "tag";
+
+    private final String topicPrefix;
+    private String region;
+    private String city;
+    private final Set<String> tags = new TreeSet<>();
+
+    public GroupSubscriptions(String topicPrefix) {
+        this.topicPrefix = topicPrefix;
+    }
+
+    /**
+     * 分组内容推送的主题，与服务端 groupTopic() 的规则一致
+     */
+    public static String topicFor(String topicPrefix, String kind, String value) {
+        return topicPrefix + "group/" + kind + "/" + normalize(value) + "/content";
+    }
+
+    // 主题层级中不能出现的字符替换为下划线，英文统一小写
+    static String normalize(String value) {
+        StringBuilder builder = new StringBuilder(value.length());
+        String trimmed = value.trim().toLowerCase(Locale.ROOT);
+        for (int i = 0; i < trimmed.length(); i++) {
+            char c = trimmed.charAt(i);
+            builder.append(c == '/' || c == '+' || c == '#' || c == '\u0000' ? '_' : c);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 更新分组，空值表示不属于该类分组
+     * @return 订阅的主题是否发生变化
+     */
+    public synchronized boolean update(String region, String city, Collection<String> tags) {
+        Set<String> before = getTopics();
+        this.region = isBlank(region) ? null : region.trim();
+        this.city = isBlank(city) ? null : city.trim();
+        this.tags.clear();
+        if (tags != null) {
+            for (String tag : tags) {
+                if (!isBlank(tag)) {
+                    this.tags.add(tag.trim());
+                }
+            }
+        }
+        return !before.equals(getTopics());
+    }
+
+    /**
+     * 从注册确认或命令参数中读取分组：{"region": "...", "city": "...", "tags": [...]}
+     * @return 订阅的主题是否发生变化
+     */
+    public boolean update(JSONObject groups) {
+        Set<String> newTags = new LinkedHashSet<>();
+        JSONArray array = groups.optJSONArray("tags");
+        if (array != null) {
+            for (int i = 0; i < array.length(); i++) {
+                newTags.add(array.optString(i));
+            }
+        }
+        return update(groups.optString(KIND_REGION, null), groups.optString(KIND_CITY, null), newTags);
+    }
+
+    public synchronized Set<String> getTopics() {
+        Set<String> topics = new LinkedHashSet<>();
+        if (region != null) {
+            topics.add(topicFor(topicPrefix, KIND_REGION, region));
+        }
+        if (city != null) {
+            topics.add(topicFor(topicPrefix, KIND_CITY, city));
+        }
+        for (String tag : tags) {
+            topics.add(topicFor(topicPrefix, KIND_TAG, tag));
+        }
+        return Collections.unmodifiableSet(topics);
+    }
+
+    public synchronized String getRegion() {
+        return region;
+    }
+
+    public synchronized String getCity() {
+        return city;
+    }
+
+    public synchronized Set<String> getTags() {
+        return Collections.unmodifiableSet(new TreeSet<>(tags));
+    }
+
+    /**
+     * 用于注册元数据和本地保存
+     */
+    public synchronized JSONObject toJson() throws JSONException {
+        JSONArray tagArray = new JSONArray();
+        for (String tag : tags) {
+            tagArray.put(tag);
+        }
+        JSONObject json = new JSONObject().put("tags", tagArray);
+        if (region != null) {
+            json.put(KIND_REGION, region);
+        }
+        if (city != null) {
+            json.put(KIND_CITY, city);
+        }
+        return json;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "GroupSubscriptions{region=" + region + ", city=" + city + ", tags=" + tags + "}";
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.trim().isEmpty();
+    }
+}
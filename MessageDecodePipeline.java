@@ -0,0 +1,465 @@
+package com.mediaplatform.android.service;
+
+import com.mediaplatform.android.utils.Logger;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * MQTT消息解析线程池
+ * 负责在后台线程解码和解析JSON，避免大载荷阻塞主线程造成播放掉帧。
+ *
+ * 按优先级分为命令、内容、广播三条通道，每条通道有独立的有界队列和背压策略。
+ * 任务提交到通道中的串行执行器(每个主题一个)，同一执行器的任务同一时刻只由一个线程执行，严格按到达顺序处理；
+ * 不同主题、不同设备的任务可以并行。工作线程总是先取高优先级通道的任务；另有一个只处理命令的专用线程，
+ * 即使所有通用线程都在解析大播放列表，命令也能立即开始处理。
+ * 每条通道记录从入队到处理完成的延迟直方图(p50/p99)，命令通道超过SLO时计数。
+ */
+public class MessageDecodePipeline implements Executor {
+    private static final String TAG = "MessageDecodePipeline";
+
+    /**
+     * 队列满时的背压策略
+     */
+    public enum BackpressurePolicy {
+        /**
+         * 投递线程(MQTT回调线程)等待队列有空位，间接减慢从代理读取的速度，不丢消息也不打乱顺序；
+         * 等待期间回调线程上排在后面的命令也无法投递，设备端的内容和广播通道不使用
+         */
+        BLOCK_CALLER,
+        /** 丢弃队列中最早的任务 */
+        DROP_OLDEST,
+        /** 丢弃新到达的任务 */
+        DROP_NEWEST
+    }
+
+    /**
+     * 处理通道，按声明顺序从高到低排优先级
+     */
+    public enum Lane {
+        COMMAND,
+        CONTENT,
+        BROADCAST
+    }
+
+    private static final class Task {
+        final Runnable runnable;
+        final long enqueuedAt;
+
+        Task(Runnable runnable, long enqueuedAt) {
+            this.runnable = runnable;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+
+    /**
+     * 串行执行器，任务按提交顺序逐个执行
+     */
+    private final class Strand implements Executor {
+        final LaneState state;
+        final ArrayDeque<Task> tasks = new ArrayDeque<>();
+        boolean scheduled; // 在通道的就绪队列中或正在执行
+
+        Strand(LaneState state) {
+            this.state = state;
+        }
+
+        @Override
+        public void execute(Runnable runnable) {
+            submit(this, runnable);
+        }
+    }
+
+    private static final class LaneState {
+        final Lane lane;
+        final ArrayDeque<Strand> ready = new ArrayDeque<>(); // 有待处理任务且没有线程在执行的串行执行器
+        final Set<Strand> backlogged = new LinkedHashSet<>(); // 有排队任务的串行执行器，包括正在执行的
+        final int capacity;
+        final BackpressurePolicy policy;
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicInteger maxQueueDepth = new AtomicInteger();
+        final AtomicLong submittedCount = new AtomicLong();
+        final AtomicLong completedCount = new AtomicLong();
+        final AtomicLong droppedCount = new AtomicLong();
+
+        int pending; // 通道中所有串行执行器排队的任务数
+
+        LaneState(Lane lane, int capacity, BackpressurePolicy policy) {
+            this.lane = lane;
+            this.capacity = capacity;
+            this.policy = policy;
+        }
+    }
+
+    private final LaneState[] lanes = new LaneState[Lane.values().length];
+    private final Strand defaultStrand;
+    private final long commandSloNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition taskAvailable = lock.newCondition();
+    private final Condition spaceAvailable = lock.newCondition();
+    private final Set<Thread> workers = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private volatile boolean shutdown = false;
+
+    // 指标
+    private final AtomicLong totalParseNanos = new AtomicLong();
+    private final AtomicLong maxParseNanos = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong sloViolations = new AtomicLong();
+
+    /**
+     * @param workerCount       通用工作线程数，另外再启动一个命令专用线程
+     * @param commandCapacity   命令通道队列长度，命令通道满时投递线程总是等待，从不丢弃
+     * @param bulkCapacity      内容和广播通道各自的队列长度
+     * @param bulkPolicy        内容和广播通道的背压策略
+     * @param commandSloMillis  命令从到达到处理完成的目标延迟
+     */
+    public MessageDecodePipeline(int workerCount, int commandCapacity, int bulkCapacity,
+                                 BackpressurePolicy bulkPolicy, long commandSloMillis) {
+        this.commandSloNanos = TimeUnit.MILLISECONDS.toNanos(commandSloMillis);
+        lanes[Lane.COMMAND.ordinal()] = new LaneState(Lane.COMMAND, commandCapacity, BackpressurePolicy.BLOCK_CALLER);
+        lanes[Lane.CONTENT.ordinal()] = new LaneState(Lane.CONTENT, bulkCapacity, bulkPolicy);
+        lanes[Lane.BROADCAST.ordinal()] = new LaneState(Lane.BROADCAST, bulkCapacity, bulkPolicy);
+        defaultStrand = new Strand(lanes[Lane.CONTENT.ordinal()]);
+
+        startWorker("mqtt-decode-command", Lane.COMMAND, Thread.NORM_PRIORITY);
+        for (int i = 1; i <= workerCount; i++) {
+            startWorker("mqtt-decode-" + i, Lane.BROADCAST, Thread.NORM_PRIORITY - 1);
+        }
+    }
+
+    /**
+     * 在指定通道中新建一个串行执行器，每个主题路由使用各自的执行器以保持该主题的消息顺序
+     */
+    public Executor newSerialExecutor(Lane lane) {
+        return new Strand(lanes[lane.ordinal()]);
+    }
+
+    /**
+     * 未指定通道的任务在内容通道中串行处理
+     */
+    @Override
+    public void execute(Runnable task) {
+        submit(defaultStrand, task);
+    }
+
+    /**
+     * 停止接收新任务，已入队任务处理完后线程退出
+     */
+    public void shutdown() {
+        lock.lock();
+        try {
+            shutdown = true;
+            taskAvailable.signalAll();
+            spaceAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 指标
+
+    public LatencyHistogram getLatencyHistogram(Lane lane) {
+        return lanes[lane.ordinal()].latency;
+    }
+
+    public int getQueueDepth(Lane lane) {
+        lock.lock();
+        try {
+            return lanes[lane.ordinal()].pending;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getMaxQueueDepth(Lane lane) {
+        return lanes[lane.ordinal()].maxQueueDepth.get();
+    }
+
+    public long getDroppedCount(Lane lane) {
+        return lanes[lane.ordinal()].droppedCount.get();
+    }
+
+    public long getCompletedCount(Lane lane) {
+        return lanes[lane.ordinal()].completedCount.get();
+    }
+
+    /**
+     * 命令处理超过SLO的次数
+     */
+    public long getSloViolations() {
+        return sloViolations.get();
+    }
+
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            int depth = 0;
+            for (LaneState state : lanes) {
+                depth += state.pending;
+            }
+            return depth;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getMaxQueueDepth() {
+        int max = 0;
+        for (LaneState state : lanes) {
+            max = Math.max(max, state.maxQueueDepth.get());
+        }
+        return max;
+    }
+
+    public long getSubmittedCount() {
+        long total = 0;
+        for (LaneState state : lanes) {
+            total += state.submittedCount.get();
+        }
+        return total;
+    }
+
+    public long getCompletedCount() {
+        long total = 0;
+        for (LaneState state : lanes) {
+            total += state.completedCount.get();
+        }
+        return total;
+    }
+
+    public long getDroppedCount() {
+        long total = 0;
+        for (LaneState state : lanes) {
+            total += state.droppedCount.get();
+        }
+        return total;
+    }
+
+    public long getAverageParseLatencyMicros() {
+        long completed = getCompletedCount();
+        return completed == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalParseNanos.get() / completed);
+    }
+
+    public long getMaxParseLatencyMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(maxParseNanos.get());
+    }
+
+    public long getAverageQueueWaitMicros() {
+        long completed = getCompletedCount();
+        return completed == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalWaitNanos.get() / completed);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("MessageDecodePipeline{queueDepth=").append(getQueueDepth())
+                .append(", submitted=").append(getSubmittedCount())
+                .append(", dropped=").append(getDroppedCount())
+                .append(", sloViolations=").append(getSloViolations())
+                .append(", avgWaitUs=").append(getAverageQueueWaitMicros());
+        for (LaneState state : lanes) {
+            builder.append(", ").append(state.lane.name().toLowerCase(Locale.US)).append('=').append(state.latency);
+        }
+        return builder.append('}').toString();
+    }
+
+    // 调度
+
+    private void submit(Strand strand, Runnable runnable) {
+        LaneState state = strand.state;
+        state.submittedCount.incrementAndGet();
+        Task task = new Task(runnable, System.nanoTime());
+
+        lock.lock();
+        try {
+            if (state.pending >= state.capacity && !shutdown) {
+                switch (state.policy) {
+                    case DROP_OLDEST:
+                        if (!dropOldest(state, strand)) {
+                            // 没有可丢弃的排队任务时丢弃新任务，不超过队列容量
+                            state.droppedCount.incrementAndGet();
+                            Logger.w(TAG, "Decode queue full, dropped incoming " + state.lane + " message");
+                            return;
+                        }
+                        break;
+                    case DROP_NEWEST:
+                        state.droppedCount.incrementAndGet();
+                        Logger.w(TAG, "Decode queue full, dropped incoming " + state.lane + " message");
+                        return;
+                    case BLOCK_CALLER:
+                    default:
+                        // 工作线程自己提交的任务不等待，否则可能没有线程来腾出空位
+                        if (!workers.contains(Thread.currentThread())) {
+                            while (state.pending >= state.capacity && !shutdown) {
+                                spaceAvailable.await();
+                            }
+                        }
+                        break;
+                }
+            }
+            if (shutdown) {
+                return;
+            }
+            if (strand.tasks.isEmpty()) {
+                state.backlogged.add(strand);
+            }
+            strand.tasks.addLast(task);
+            state.pending++;
+            state.maxQueueDepth.accumulateAndGet(state.pending, Math::max);
+            if (!strand.scheduled) {
+                strand.scheduled = true;
+                state.ready.addLast(strand);
+                taskAvailable.signalAll();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            state.droppedCount.incrementAndGet();
+            Logger.w(TAG, "Interrupted while waiting for " + state.lane + " queue space, message dropped");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 丢弃同一执行器中最早的任务，该执行器没有排队的任务时丢弃通道中入队最早的任务，
+     * 正在执行的执行器后面排队的任务也在其中
+     * @return false表示通道中没有排队的任务可以丢弃
+     */
+    private boolean dropOldest(LaneState state, Strand strand) {
+        Strand victim = strand.tasks.isEmpty() ? null : strand;
+        if (victim == null) {
+            for (Strand other : state.backlogged) {
+                if (victim == null || other.tasks.peekFirst().enqueuedAt < victim.tasks.peekFirst().enqueuedAt) {
+                    victim = other;
+                }
+            }
+        }
+        if (victim == null) {
+            return false;
+        }
+        victim.tasks.pollFirst();
+        if (victim.tasks.isEmpty()) {
+            state.backlogged.remove(victim);
+        }
+        state.pending--;
+        state.droppedCount.incrementAndGet();
+        Logger.w(TAG, "Decode queue full, dropped oldest " + state.lane + " message");
+        return true;
+    }
+
+    /**
+     * 从最高优先级开始取一个就绪的串行执行器的下一个任务，lowestLane 限定该线程可处理的最低优先级
+     */
+    private Task take(Lane lowestLane, Strand[] taken) throws InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                for (int i = 0; i <= lowestLane.ordinal(); i++) {
+                    LaneState state = lanes[i];
+                    Strand strand;
+                    while ((strand = state.ready.pollFirst()) != null) {
+                        Task task = strand.tasks.pollFirst();
+                        if (task == null) {
+                            // 排队的任务已被丢弃
+                            strand.scheduled = false;
+                            continue;
+                        }
+                        if (strand.tasks.isEmpty()) {
+                            state.backlogged.remove(strand);
+                        }
+                        state.pending--;
+                        spaceAvailable.signalAll();
+                        taken[0] = strand;
+                        return task;
+                    }
+                }
+                if (shutdown) {
+                    return null;
+                }
+                taskAvailable.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 执行完一个任务后，执行器还有任务时排到通道末尾，让同一通道的其他主题轮流执行
+     */
+    private void release(Strand strand) {
+        lock.lock();
+        try {
+            if (strand.tasks.isEmpty()) {
+                strand.scheduled = false;
+            } else {
+                strand.state.ready.addLast(strand);
+                taskAvailable.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void run(LaneState state, Task task) {
+        long startedAt = System.nanoTime();
+        totalWaitNanos.addAndGet(startedAt - task.enqueuedAt);
+        try {
+            task.runnable.run();
+        } catch (RuntimeException e) {
+            Logger.e(TAG, "Error in " + state.lane + " task", e);
+        } finally {
+            long finishedAt = System.nanoTime();
+            long elapsed = finishedAt - startedAt;
+            long handling = finishedAt - task.enqueuedAt;
+            totalParseNanos.addAndGet(elapsed);
+            updateMax(maxParseNanos, elapsed);
+            state.latency.recordNanos(handling);
+            state.completedCount.incrementAndGet();
+            if (state.lane == Lane.COMMAND && handling > commandSloNanos) {
+                sloViolations.incrementAndGet();
+                Logger.w(TAG, "Command handling took " + TimeUnit.NANOSECONDS.toMillis(handling)
+                        + "ms, over SLO of " + TimeUnit.NANOSECONDS.toMillis(commandSloNanos) + "ms");
+            }
+        }
+    }
+
+    private void startWorker(String name, Lane lowestLane, int priority) {
+        Thread thread = new Thread(() -> {
+            Strand[] taken = new Strand[1];
+            try {
+                Task task;
+                while ((task = take(lowestLane, taken)) != null) {
+                    try {
+                        run(taken[0].state, task);
+                    } finally {
+                        release(taken[0]);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, name);
+        workers.add(thread);
+        thread.setDaemon(true);
+        thread.setPriority(priority);
+        thread.start();
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current;
+        while (value > (current = max.get())) {
+            if (max.compareAndSet(current, value)) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.mediaplatform.android.service;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 设备端指标注册表
+ * 计数器、直方图和读数回调按名称注册，记录路径只做Map查找和原子操作，不分配对象；
+ * 按标签区分的直方图(如按主题的发布延迟)用两级Map查找，避免拼接名称字符串。
+ * 定期调用 snapshot() 汇总为JSON：计数器附带区间速率，自有直方图在汇总后清零，
+ * 外部注册的直方图(如解析线程池通道)保持累计。
+ */
+public class MetricsRegistry {
+
+    /** 每个带标签直方图最多保留的标签数，超出的归入 OTHER_LABEL */
+    private static final int MAX_LABELS = 32;
+    private static final String OTHER_LABEL = "other";
+
+    /**
+     * 读数回调，汇总时调用
+     */
+    public interface Gauge {
+        long value();
+    }
+
+    private final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ConcurrentMap<String, LatencyHistogram>> labeledHistograms =
+            new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LatencyHistogram> externalHistograms = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Gauge> gauges = new ConcurrentHashMap<>();
+
+    // 只在 snapshot() 中访问
+    private final Map<String, Long> lastCounterValues = new HashMap<>();
+    private long lastSnapshotAt = System.currentTimeMillis();
+
+    public AtomicLong counter(String name) {
+        AtomicLong counter = counters.get(name);
+        if (counter == null) {
+            AtomicLong created = new AtomicLong();
+            counter = counters.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    public LatencyHistogram histogram(String name) {
+        return getOrCreate(histograms, name);
+    }
+
+    /**
+     * 按标签区分的直方图，如 histogram("publish.latency", topic)
+     */
+    public LatencyHistogram histogram(String name, String label) {
+        ConcurrentMap<String, LatencyHistogram> family = labeledHistograms.get(name);
+        if (family == null) {
+            ConcurrentMap<String, LatencyHistogram> created = new ConcurrentHashMap<>();
+            family = labeledHistograms.putIfAbsent(name, created);
+            if (family == null) {
+                family = created;
+            }
+        }
+        LatencyHistogram histogram = family.get(label);
+        if (histogram == null) {
+            histogram = getOrCreate(family, family.size() < MAX_LABELS ? label : OTHER_LABEL);
+        }
+        return histogram;
+    }
+
+    /**
+     * 注册其他组件持有的直方图，汇总时不清零
+     */
+    public void registerHistogram(String name, LatencyHistogram histogram) {
+        externalHistograms.put(name, histogram);
+    }
+
+    public void gauge(String name, Gauge gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * 汇总当前指标并开始新的统计区间
+     */
+    public synchronized JSONObject snapshot() throws JSONException {
+        long now = System.currentTimeMillis();
+        long interval = Math.max(1, now - lastSnapshotAt);
+        lastSnapshotAt = now;
+
+        JSONObject counterJson = new JSONObject();
+        JSONObject rateJson = new JSONObject();
+        for (Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+            long value = entry.getValue().get();
+            Long last = lastCounterValues.put(entry.getKey(), value);
+            counterJson.put(entry.getKey(), value);
+            rateJson.put(entry.getKey(), (value - (last == null ? 0 : last)) * 1000.0 / interval);
+        }
+
+        JSONObject histogramJson = new JSONObject();
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            histogramJson.put(entry.getKey(), toJson(entry.getValue()));
+            entry.getValue().reset();
+        }
+        for (Map.Entry<String, ConcurrentMap<String, LatencyHistogram>> family : labeledHistograms.entrySet()) {
+            JSONObject familyJson = new JSONObject();
+            for (Map.Entry<String, LatencyHistogram> entry : family.getValue().entrySet()) {
+                if (entry.getValue().getCount() > 0) {
+                    familyJson.put(entry.getKey(), toJson(entry.getValue()));
+                }
+                entry.getValue().reset();
+            }
+            histogramJson.put(family.getKey(), familyJson);
+        }
+        for (Map.Entry<String, LatencyHistogram> entry : externalHistograms.entrySet()) {
+            histogramJson.put(entry.getKey(), toJson(entry.getValue()));
+        }
+
+        JSONObject gaugeJson = new JSONObject();
+        for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+            try {
+                gaugeJson.put(entry.getKey(), entry.getValue().value());
+            } catch (RuntimeException e) {
+                // 组件已关闭时跳过该读数
+            }
+        }
+
+        return new JSONObject()
+                .put("timestamp", now)
+                .put("intervalMillis", interval)
+                .put("counters", counterJson)
+                .put("rates", rateJson)
+                .put("histograms", histogramJson)
+                .put("gauges", gaugeJson);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("MetricsRegistry{");
+        for (Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+            builder.append(entry.getKey()).append('=').append(entry.getValue().get()).append(", ");
+        }
+        appendHistograms(builder, histograms);
+        appendHistograms(builder, externalHistograms);
+        if (builder.charAt(builder.length() - 1) == ' ') {
+            builder.setLength(builder.length() - 2);
+        }
+        return builder.append('}').toString();
+    }
+
+    // 直方图的单位由名称表示(延迟为微秒，大小为字节)，这里不带单位
+    private static void appendHistograms(StringBuilder builder, Map<String, LatencyHistogram> map) {
+        for (Map.Entry<String, LatencyHistogram> entry : map.entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            builder.append(entry.getKey()).append("={count=").append(histogram.getCount())
+                    .append(", p50=").append(histogram.getP50())
+                    .append(", p99=").append(histogram.getP99()).append("}, ");
+        }
+    }
+
+    private static JSONObject toJson(LatencyHistogram histogram) throws JSONException {
+        return new JSONObject()
+                .put("count", histogram.getCount())
+                .put("p50", histogram.getP50())
+                .put("p99", histogram.getP99())
+                .put("max", histogram.getMax())
+                .put("mean", histogram.getMean());
+    }
+
+    private static LatencyHistogram getOrCreate(ConcurrentMap<String, LatencyHistogram> map, String name) {
+        LatencyHistogram histogram = map.get(name);
+        if (histogram == null) {
+            LatencyHistogram created = new LatencyHistogram();
+            histogram = map.putIfAbsent(name, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+}
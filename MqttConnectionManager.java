@@ -0,0 +1,257 @@
+package com.mediaplatform.android.service;
+
+import com.mediaplatform.android.utils.Logger;
+
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttClientPersistence;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.ScheduledExecutorPingSender;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.eclipse.paho.client.mqttv3.persist.MqttDefaultFilePersistence;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * MQTT连接生命周期管理
+ * 在整个服务生命周期内只持有一个MqttAsyncClient、一个Paho线程池、一个业务调度线程和一个代理探测线程，
+ * 断线后在原客户端上重连，只有代理地址变化时才重建客户端。
+ */
+public class MqttConnectionManager {
+    private static final String TAG = "MqttConnectionManager";
+
+    // Paho的收、发、回调循环在连接期间各占一个线程，另留出心跳PING和断开使用
+    private static final int PAHO_THREAD_COUNT = 5;
+    private static final long DISCONNECT_QUIESCE_MILLIS = 5000;
+
+    private final String clientId;
+    private final String persistenceDir;
+    private final AtomicInteger threadsAlive = new AtomicInteger();
+    private final ScheduledExecutorService pahoExecutor;
+    private final ScheduledExecutorService scheduler;
+    private final ScheduledExecutorService probeScheduler;
+
+    private MqttAsyncClient client;
+    private String serverUri;
+
+    // 统计
+    private int clientAllocations;
+    private int executorAllocations;
+    private int connectCount;
+    private long disconnectedAt;
+    private long lastReconnectMillis;
+    private long maxReconnectMillis;
+    private long totalReconnectMillis;
+    private int reconnectCount;
+
+    public MqttConnectionManager(String clientId, String persistenceDir) {
+        this(clientId, persistenceDir, null);
+    }
+
+    /**
+     * @param persistenceDir 为null时在途消息只保存在内存中
+     * @param threadFactory  为null时使用普通守护线程，模拟器可传入虚拟线程工厂
+     */
+    public MqttConnectionManager(String clientId, String persistenceDir, ThreadFactory threadFactory) {
+        this.clientId = clientId;
+        this.persistenceDir = persistenceDir;
+        this.pahoExecutor = Executors.newScheduledThreadPool(PAHO_THREAD_COUNT,
+                new CountingThreadFactory("mqtt-paho", threadFactory));
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                new CountingThreadFactory("mqtt-scheduler", threadFactory));
+        this.probeScheduler = Executors.newSingleThreadScheduledExecutor(
+                new CountingThreadFactory("mqtt-probe", threadFactory));
+        this.executorAllocations = 3;
+    }
+
+    /**
+     * 获取指定代理的客户端，地址不变时复用已有实例
+     */
+    public synchronized MqttAsyncClient obtainClient(String serverUri) throws MqttException {
+        if (client != null && serverUri.equals(this.serverUri)) {
+            return client;
+        }
+
+        closeClient();
+        MqttClientPersistence persistence = persistenceDir != null
+                ? new MqttDefaultFilePersistence(persistenceDir) : new MemoryPersistence();
+        client = new MqttAsyncClient(serverUri, clientId, persistence,
+                new ScheduledExecutorPingSender(pahoExecutor),
+                pahoExecutor);
+        this.serverUri = serverUri;
+        clientAllocations++;
+        Logger.d(TAG, "MQTT client created for " + serverUri);
+        return client;
+    }
+
+    /**
+     * 心跳、离线重放等业务任务共用的调度线程
+     */
+    public ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * 代理探测专用的线程，探测用阻塞Socket，一轮可能持续数秒，不能占用心跳等业务任务的调度线程
+     */
+    public ScheduledExecutorService getProbeScheduler() {
+        return probeScheduler;
+    }
+
+    public synchronized void onConnected() {
+        connectCount++;
+        if (disconnectedAt > 0) {
+            long duration = System.currentTimeMillis() - disconnectedAt;
+            lastReconnectMillis = duration;
+            maxReconnectMillis = Math.max(maxReconnectMillis, duration);
+            totalReconnectMillis += duration;
+            reconnectCount++;
+            disconnectedAt = 0;
+        }
+    }
+
+    public synchronized void onDisconnected() {
+        if (disconnectedAt == 0) {
+            disconnectedAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * 异步断开连接但保留客户端，供后续重连复用；最多等待5秒让在途消息完成确认
+     * @param onDisconnected 断开完成或失败后在Paho线程上调用，没有连接时立即调用，可为null
+     */
+    public synchronized void disconnect(final Runnable onDisconnected) {
+        if (client == null || !client.isConnected()) {
+            if (onDisconnected != null) {
+                onDisconnected.run();
+            }
+            return;
+        }
+        try {
+            client.disconnect(DISCONNECT_QUIESCE_MILLIS, null, new IMqttActionListener() {
+                @Override
+                public void onSuccess(IMqttToken asyncActionToken) {
+                    if (onDisconnected != null) {
+                        onDisconnected.run();
+                    }
+                }
+
+                @Override
+                public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
+                    Logger.e(TAG, "Error disconnecting MQTT client", exception);
+                    if (onDisconnected != null) {
+                        onDisconnected.run();
+                    }
+                }
+            });
+        } catch (MqttException e) {
+            Logger.e(TAG, "Error disconnecting MQTT client", e);
+            if (onDisconnected != null) {
+                onDisconnected.run();
+            }
+        }
+    }
+
+    /**
+     * 服务销毁时释放全部资源
+     */
+    public synchronized void shutdown() {
+        closeClient();
+        scheduler.shutdownNow();
+        probeScheduler.shutdownNow();
+        pahoExecutor.shutdownNow();
+    }
+
+    // 统计
+
+    public int getThreadsAlive() {
+        return threadsAlive.get();
+    }
+
+    public synchronized int getClientAllocations() {
+        return clientAllocations;
+    }
+
+    public synchronized int getReconnectCount() {
+        return reconnectCount;
+    }
+
+    public synchronized long getLastReconnectMillis() {
+        return lastReconnectMillis;
+    }
+
+    public synchronized long getMaxReconnectMillis() {
+        return maxReconnectMillis;
+    }
+
+    public synchronized long getAverageReconnectMillis() {
+        return reconnectCount == 0 ? 0 : totalReconnectMillis / reconnectCount;
+    }
+
+    /**
+     * 平均每次连接新建的客户端和线程池数量，复用正常时趋近于0
+     */
+    public synchronized double getAllocationsPerConnect() {
+        return connectCount == 0 ? 0 : (double) (clientAllocations + executorAllocations) / connectCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "MqttConnectionManager{threadsAlive=" + getThreadsAlive()
+                + ", clientAllocations=" + clientAllocations
+                + ", connects=" + connectCount
+                + ", reconnects=" + reconnectCount
+                + ", lastReconnectMs=" + lastReconnectMillis
+                + ", avgReconnectMs=" + getAverageReconnectMillis()
+                + ", maxReconnectMs=" + maxReconnectMillis
+                + ", allocationsPerConnect=" + getAllocationsPerConnect()
+                + "}";
+    }
+
+    private void closeClient() {
+        if (client == null) {
+            return;
+        }
+        try {
+            if (client.isConnected()) {
+                client.disconnectForcibly(1000, 1000);
+            }
+            client.close();
+        } catch (MqttException e) {
+            Logger.e(TAG, "Error closing MQTT client", e);
+        }
+        client = null;
+        serverUri = null;
+    }
+
+    private final class CountingThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final ThreadFactory delegate;
+        private final AtomicInteger threadIndex = new AtomicInteger();
+
+        CountingThreadFactory(String prefix, ThreadFactory delegate) {
+            this.prefix = prefix;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Runnable counted = () -> {
+                threadsAlive.incrementAndGet();
+                try {
+                    runnable.run();
+                } finally {
+                    threadsAlive.decrementAndGet();
+                }
+            };
+            Thread thread = delegate != null ? delegate.newThread(counted) : new Thread(counted);
+            thread.setName(prefix + "-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
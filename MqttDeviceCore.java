@@ -0,0 +1,1523 @@
+package com.mediaplatform.android.service;
+
+import com.mediaplatform.android.model.Command;
+import com.mediaplatform.android.model.ContentPush;
+import com.mediaplatform.android.model.DeviceStatus;
+import com.mediaplatform.android.utils.Logger;
+
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 设备端MQTT核心逻辑
+ * 连接、订阅、注册、心跳、发布和入站消息处理，不依赖安卓API。
+ * 安卓端由 MqttService 持有，JVM设备模拟器为每个虚拟屏幕创建一个实例。
+ * 连接状态只在 mainThread 上修改；存储、注册信息和内容解析由 Host 提供。
+ */
+public class MqttDeviceCore implements MqttCallback {
+    private static final String TAG = "MqttDeviceCore";
+
+    // 内部状态存储键
+    private static final String PREF_WIRE_ENCODING = "wire_encoding";
+    private static final String PREF_COMPRESSION = "compression";
+    private static final String PREF_SUBSCRIBED_TOPICS = "subscribed_topics"; // 实际保存键后缀 "@代理地址"
+    private static final String PREF_GROUPS = "groups"; // 区域、城市和标签分组(JSON)
+    private static final String PREF_REGISTRATION_FINGERPRINT = "registration_fingerprint"; // 服务端已保存的注册指纹
+
+    // 服务端下发的内部命令
+    private static final String COMMAND_UPDATE_GROUPS = "update_groups";
+    // 服务端找不到注册指纹时注册确认中的状态
+    private static final String REGISTRATION_UNKNOWN = "unknown";
+
+    // MQTT配置常量
+    // 主题前缀，必须和服务端订阅的主题一致；服务端(mqttService.ts)、管理端和测试脚本都使用不带前缀的 device/... 主题
+    public static final String TOPIC_PREFIX = "";
+    private static final int QOS = 1; // 未声明投递策略的主题使用的QoS
+    private static final boolean CLEAN_SESSION = false; // 持久会话：离线期间的QoS 1消息由代理保留
+    private static final int KEEP_ALIVE_INTERVAL = 60; // 60秒
+    private static final int CONNECTION_TIMEOUT = 30; // 30秒
+    private static final long OPERATION_TIMEOUT = 10000; // 订阅等待确认的超时
+    private static final int PUBLISH_WINDOW = 16; // 最多16条发布同时等待确认
+    private static final int MAX_UNPUBLISHED_HEARTBEATS = PUBLISH_WINDOW * 2;
+
+    // 心跳和重连配置
+    public static final long DEFAULT_HEARTBEAT_INTERVAL = 30000; // 30秒心跳
+    private static final long RECONNECT_BASE_DELAY = 2000; // 退避基数2秒
+    private static final long RECONNECT_MAX_DELAY = 5 * 60000; // 退避上限5分钟
+    private static final int RECONNECT_ERROR_NOTIFY_ATTEMPTS = 10; // 连续失败多少次后提示用户
+    private static final int BROKER_PROBE_TIMEOUT = 3000;
+    public static final long METRICS_REPORT_INTERVAL = 5 * 60000; // 每5分钟汇总一次指标
+    private static final long RESUME_MAX_AGE = 24 * 60 * 60 * 1000L; // 与分块传输的保留时间一致
+    private static final long PLAYLIST_RESYNC_INTERVAL = 10000; // 播放列表重新同步请求的最小间隔
+    private static final long CLOCK_PING_MAX_AGE = 1000; // 排队超过1秒的ping时延失真，不如不发
+
+    /**
+     * 宿主提供的平台相关能力
+     */
+    public interface Host {
+        /**
+         * 设备注册信息，编码声明和分组由核心补充
+         * 只在第一次连接时调用，之后的重连复用结果；timestamp 以外的字段计入注册指纹
+         */
+        JSONObject buildRegistration() throws JSONException;
+
+        /**
+         * 解析内容推送（在解析线程中调用）
+         */
+        ContentPush decodeContentPush(ByteBuffer payload) throws JSONException;
+
+        String getString(String key, String defValue);
+
+        Set<String> getStringSet(String key, Set<String> defValues);
+
+        void putString(String key, String value);
+
+        void putStringSet(String key, Set<String> values);
+
+        void remove(String key);
+    }
+
+    /**
+     * 连接和消息事件，内容推送在解析线程中回调，其他事件在 mainThread 上回调
+     */
+    public interface Listener {
+        void onConnected(boolean sessionPresent);
+
+        void onConnectionFailed(Throwable cause);
+
+        void onConnectionLost(Throwable cause);
+
+        void onContentReceived(ContentPush content);
+
+        void onCommandReceived(Command command);
+
+        void onBroadcastReceived(String message);
+
+        void onError(String error);
+    }
+
+    private final String deviceId;
+    private final String clientId;
+    private final Host host;
+    private final Listener listener;
+    private final SerialScheduler mainThread;
+    private final MqttConnectionManager connectionManager;
+    private final MessageDecodePipeline decodePipeline;
+    // 每个主题一个串行执行器，同一主题的消息按到达顺序处理；重建路由表时沿用，重连前后的消息也不会乱序
+    private final Map<String, Executor> topicExecutors = new ConcurrentHashMap<>();
+
+    // MQTT主题
+    private final String deviceRegistrationTopic;
+    private final String registrationResumeTopic;
+    private final String deviceHeartbeatTopic;
+    private final String deviceStatusTopic;
+    private final String contentPushTopic;
+    private final String contentChunkTopic;
+    private final String contentResumeTopic;
+    private final String playlistTopic;
+    private final String playlistResyncTopic;
+    private final String metricsTopic;
+    private final String commandTopic;
+    private final String broadcastTopic;
+    private final String registerConfirmTopic;
+    private final String registerErrorTopic;
+    private final String clockPingTopic;
+    private final String clockPongTopic;
+
+    // 核心组件
+    private MqttAsyncClient mqttClient;
+    private final BrokerPool brokerPool;
+    private BrokerPool.Endpoint currentEndpoint;
+    private ScheduledFuture<?> heartbeatFuture;
+    private long heartbeatInterval = DEFAULT_HEARTBEAT_INTERVAL;
+    private volatile OutboundMessageQueue outboundQueue;
+    private TelemetryAggregator telemetryAggregator;
+    // 还没发出的心跳：编码后的载荷 -> 生成时间，发出后通知遥测聚合器；被合并或过期的心跳由容量上限淘汰
+    private final Map<ByteBuffer, Long> unpublishedHeartbeats =
+            Collections.synchronizedMap(new LinkedHashMap<ByteBuffer, Long>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Long> eldest) {
+                    return size() > MAX_UNPUBLISHED_HEARTBEATS;
+                }
+            });
+    private ChunkedTransferAssembler chunkAssembler;
+    private PlaylistStore playlistStore;
+    private long lastPlaylistResyncAt;
+    // 订阅状态，只在 mainThread 上读写；同一时刻最多一轮订阅/退订在等待代理确认
+    private final Set<String> subscribedFilters = new HashSet<>();
+    private boolean subscriptionInFlight;
+    private boolean subscriptionDirty; // 等待确认期间路由表又有变化，确认后再核对一次
+    private int subscriptionEpoch; // 重连或超时后递增，之前发出的确认回调作废
+    private String subscriptionsKey = PREF_SUBSCRIBED_TOPICS; // 按代理区分的已确认订阅的保存键
+    private JSONObject registration; // 不含时间戳的注册信息，只在 mainThread 上读写
+    private String registrationFingerprint;
+    private ClockSync clockSync;
+    private ScheduledFuture<?> clockPingFuture;
+    private double nextClockPingAt; // 只在调度线程上读写
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private final AsyncPublisher asyncPublisher = new AsyncPublisher(PUBLISH_WINDOW, !CLEAN_SESSION, metrics);
+    private final AtomicBoolean replayScheduled = new AtomicBoolean();
+    // 待投递到主线程的命令，按到达顺序排队，整体插到主线程队列最前
+    private final ConcurrentLinkedQueue<Command> pendingCommands = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean commandDrainScheduled = new AtomicBoolean();
+    private final GroupSubscriptions groupSubscriptions = new GroupSubscriptions(TOPIC_PREFIX);
+    private final DeliveryPolicies deliveryPolicies =
+            new DeliveryPolicies(new DeliveryPolicies.Policy(QOS, false, 0, false));
+    private final MqttTopicRouter topicRouter = new MqttTopicRouter();
+    private final ReconnectScheduler reconnectScheduler;
+    private volatile boolean metricsPublishEnabled = false;
+    private volatile String wireEncoding; // 注册时与服务端协商
+    private volatile boolean compressionEnabled; // 注册时与服务端协商
+
+    // 连接状态
+    private volatile boolean isConnected = false;
+    private boolean isRegistered = false;
+
+    public MqttDeviceCore(String deviceId, String clientId, Host host, Listener listener,
+                          SerialScheduler mainThread, MqttConnectionManager connectionManager,
+                          MessageDecodePipeline decodePipeline) {
+        this.deviceId = deviceId;
+        this.clientId = clientId;
+        this.host = host;
+        this.listener = listener;
+        this.mainThread = mainThread;
+        this.connectionManager = connectionManager;
+        this.decodePipeline = decodePipeline;
+
+        deviceRegistrationTopic = TOPIC_PREFIX + "device/register";
+        registrationResumeTopic = TOPIC_PREFIX + "device/register/resume";
+        deviceHeartbeatTopic = TOPIC_PREFIX + "device/heartbeat";
+        deviceStatusTopic = TOPIC_PREFIX + "device/status";
+        contentPushTopic = TOPIC_PREFIX + "device/" + clientId + "/content";
+        contentChunkTopic = TOPIC_PREFIX + "device/" + clientId + "/content/chunk";
+        contentResumeTopic = TOPIC_PREFIX + "device/" + clientId + "/content/resume";
+        playlistTopic = TOPIC_PREFIX + "device/" + clientId + "/playlist";
+        playlistResyncTopic = TOPIC_PREFIX + "device/" + clientId + "/playlist/resync";
+        metricsTopic = TOPIC_PREFIX + "device/" + clientId + "/metrics";
+        commandTopic = TOPIC_PREFIX + "device/" + clientId + "/command";
+        broadcastTopic = TOPIC_PREFIX + "broadcast/all";
+        registerConfirmTopic = TOPIC_PREFIX + "device/" + clientId + "/register/confirm";
+        registerErrorTopic = TOPIC_PREFIX + "device/" + clientId + "/register/error";
+        clockPingTopic = TOPIC_PREFIX + "device/" + clientId + "/time/ping";
+        clockPongTopic = TOPIC_PREFIX + "device/" + clientId + "/time/pong";
+
+        wireEncoding = host.getString(PREF_WIRE_ENCODING, CompactCodec.ENCODING_JSON);
+        compressionEnabled = PayloadCompression.COMPRESSION_DEFLATE.equals(host.getString(PREF_COMPRESSION, null));
+        loadGroups();
+        brokerPool = new BrokerPool(clientId, BROKER_PROBE_TIMEOUT);
+        reconnectScheduler = new ReconnectScheduler(mainThread, this::attemptReconnect,
+                RECONNECT_BASE_DELAY, RECONNECT_MAX_DELAY);
+        // 在途消息确认后窗口空出，继续补发积压的消息
+        asyncPublisher.setWindowListener(() -> {
+            if (isConnected) {
+                replayOutboundQueue();
+            }
+        });
+        initializeDeliveryPolicies();
+        initializeMetrics();
+    }
+
+    /**
+     * 离线消息队列，为null时断线期间的消息直接丢弃
+     */
+    public void setOutboundQueue(OutboundMessageQueue outboundQueue) {
+        this.outboundQueue = outboundQueue;
+    }
+
+    /**
+     * 心跳遥测，连接前必须设置
+     */
+    public void setTelemetryAggregator(TelemetryAggregator telemetryAggregator) {
+        this.telemetryAggregator = telemetryAggregator;
+    }
+
+    /**
+     * 大内容分块接收，为null时不订阅分块主题
+     */
+    public void setChunkAssembler(ChunkedTransferAssembler chunkAssembler) {
+        this.chunkAssembler = chunkAssembler;
+        if (chunkAssembler != null) {
+            // 校验失败后立即请求重发；断线时不排队，重连后 requestTransferResume 会带上它
+            chunkAssembler.setListener(request -> mainThread.execute(() -> {
+                if (isConnected) {
+                    Logger.d(TAG, "Requesting chunk resend: " + request);
+                    publishMessage(contentResumeTopic, request, false);
+                }
+            }));
+        }
+    }
+
+    /**
+     * 版本化播放列表，为null时不订阅播放列表主题
+     */
+    public void setPlaylistStore(PlaylistStore playlistStore) {
+        this.playlistStore = playlistStore;
+    }
+
+    /**
+     * 与服务端的时钟同步，为null时不发送ping
+     */
+    public void setClockSync(ClockSync clockSync) {
+        this.clockSync = clockSync;
+    }
+
+    /**
+     * 心跳间隔，下次启动心跳时生效；心跳有效期随之调整
+     */
+    public void setHeartbeatInterval(long intervalMillis) {
+        heartbeatInterval = intervalMillis;
+        deliveryPolicies.register(deviceHeartbeatTopic,
+                new DeliveryPolicies.Policy(0, false, intervalMillis, true));
+    }
+
+    /**
+     * 开启后每次 reportMetrics 把指标发布到 device/{clientId}/metrics
+     */
+    public void setMetricsPublishEnabled(boolean enabled) {
+        metricsPublishEnabled = enabled;
+    }
+
+    /**
+     * 各上行主题的投递策略：心跳30秒后失去意义，用QoS 0发送且离线时只保留最新一条
+     */
+    private void initializeDeliveryPolicies() {
+        deliveryPolicies.register(deviceHeartbeatTopic,
+                new DeliveryPolicies.Policy(0, false, heartbeatInterval, true));
+        deliveryPolicies.register(deviceStatusTopic, new DeliveryPolicies.Policy(QOS, false, 0, true));
+        deliveryPolicies.register(deviceRegistrationTopic, new DeliveryPolicies.Policy(QOS, false, 0, true));
+        deliveryPolicies.register(registrationResumeTopic, new DeliveryPolicies.Policy(QOS, false, 0, true));
+        deliveryPolicies.register(contentResumeTopic,
+                new DeliveryPolicies.Policy(QOS, false, RESUME_MAX_AGE, false));
+        // 重新同步只需最新的一条请求，离线期间的旧请求合并掉
+        deliveryPolicies.register(playlistResyncTopic, new DeliveryPolicies.Policy(QOS, false, 0, true));
+        deliveryPolicies.register(metricsTopic,
+                new DeliveryPolicies.Policy(0, false, METRICS_REPORT_INTERVAL, true));
+        // 丢失的ping由下一次补上，重发只会带来更大的时延
+        deliveryPolicies.register(clockPingTopic,
+                new DeliveryPolicies.Policy(0, false, CLOCK_PING_MAX_AGE, true));
+    }
+
+    /**
+     * 注册各组件的指标读数，汇总周期由宿主调度
+     */
+    private void initializeMetrics() {
+        for (MessageDecodePipeline.Lane lane : MessageDecodePipeline.Lane.values()) {
+            metrics.registerHistogram("handler.latency." + lane.name().toLowerCase(Locale.US),
+                    decodePipeline.getLatencyHistogram(lane));
+        }
+        metrics.gauge("handler.sloViolations", decodePipeline::getSloViolations);
+        metrics.gauge("dropped.decode", decodePipeline::getDroppedCount);
+        metrics.gauge("dropped.outbox", () -> outboundQueue == null ? 0 : outboundQueue.getDroppedCount());
+        metrics.gauge("outbox.pendingBytes", () -> outboundQueue == null ? 0 : outboundQueue.getPendingBytes());
+        metrics.gauge("reconnects", connectionManager::getReconnectCount);
+        metrics.gauge("publish.inFlight", asyncPublisher::getInFlight);
+        metrics.gauge("publish.rejected", asyncPublisher::getRejectedCount);
+        metrics.gauge("publish.awaitingRedelivery", asyncPublisher::getAwaitingRedelivery);
+        metrics.gauge("policy.roundTripsSaved", deliveryPolicies::getRoundTripsSaved);
+        metrics.gauge("policy.bytesSaved", deliveryPolicies::getBytesSaved);
+        metrics.gauge("policy.expired", deliveryPolicies::getExpiredCount);
+        metrics.gauge("broker.failovers", brokerPool::getFailovers);
+        metrics.gauge("playlist.version", () -> playlistStore == null ? 0 : playlistStore.getVersion());
+        metrics.gauge("playlist.resyncs", () -> playlistStore == null ? 0 : playlistStore.getResyncsRequired());
+        metrics.gauge("clock.offsetMillis", () -> clockSync == null ? 0 : clockSync.getOffsetMillis());
+        metrics.gauge("clock.driftPpm", () -> clockSync == null ? 0 : Math.round(clockSync.getDriftPpm()));
+        metrics.gauge("clock.rttMillis", () -> clockSync == null || Double.isNaN(clockSync.getBestRoundTripMillis())
+                ? 0 : Math.round(clockSync.getBestRoundTripMillis()));
+    }
+
+    /**
+     * 连接到代理池中选出的MQTT代理（在 mainThread 上调用）
+     */
+    public void connect() {
+        if (isConnected) {
+            Logger.d(TAG, "Already connected to MQTT broker");
+            return;
+        }
+
+        // 从代理池中选择健康且时延最低的代理
+        final BrokerPool.Endpoint endpoint = brokerPool.select();
+        currentEndpoint = endpoint;
+
+        try {
+            String brokerUrl = endpoint.getUri();
+            Logger.d(TAG, "Connecting to EMQX MQTT broker: " + brokerUrl);
+
+            // 复用MQTT客户端，代理地址变化时才重建；在途QoS 1消息持久化到磁盘
+            MqttAsyncClient previousClient = mqttClient;
+            mqttClient = connectionManager.obtainClient(brokerUrl);
+            mqttClient.setCallback(this);
+            if (previousClient != null && previousClient != mqttClient) {
+                // 旧客户端已关闭，它保留待重发的消息写回离线队列，连上新代理后重新发送
+                asyncPublisher.abandonRedeliveries(new MqttException(MqttException.REASON_CODE_CLIENT_CLOSED));
+            }
+
+            // 持久会话下代理会在连接后立即投递离线消息，路由表必须在连接前就绪
+            registerTopicHandlers();
+
+            // 配置连接选项
+            MqttConnectOptions connOpts = new MqttConnectOptions();
+            connOpts.setCleanSession(CLEAN_SESSION);
+            connOpts.setKeepAliveInterval(KEEP_ALIVE_INTERVAL);
+            connOpts.setConnectionTimeout(CONNECTION_TIMEOUT);
+            connOpts.setAutomaticReconnect(false); // 手动处理重连
+            connOpts.setMaxInflight(PUBLISH_WINDOW);
+
+            // 设置遗嘱消息（设备意外断开时发送）
+            String willTopic = deviceStatusTopic;
+            DeviceStatus offlineStatus = new DeviceStatus();
+            offlineStatus.setDeviceId(deviceId);
+            offlineStatus.setStatus("offline");
+            offlineStatus.setTimestamp(System.currentTimeMillis());
+
+            connOpts.setWill(willTopic, encodePayload(willTopic, offlineStatus.toJson()),
+                    deliveryPolicies.forTopic(willTopic).getQos(), false);
+
+            // 异步连接
+            final long connectStartedAt = System.nanoTime();
+            mqttClient.connect(connOpts, null, new IMqttActionListener() {
+                @Override
+                public void onSuccess(IMqttToken asyncActionToken) {
+                    metrics.histogram("connect.latency").recordNanos(System.nanoTime() - connectStartedAt);
+                    mainThread.execute(() -> {
+                        boolean sessionPresent = asyncActionToken.getSessionPresent();
+                        Logger.d(TAG, "Successfully connected to EMQX MQTT broker, session present: " + sessionPresent);
+                        isConnected = true;
+                        reconnectScheduler.reset();
+                        connectionManager.onConnected();
+                        brokerPool.reportSuccess(endpoint);
+
+                        // 订阅主题，会话仍在时代理保留了订阅
+                        subscribeToTopics(sessionPresent, endpoint);
+
+                        // 先补发离线期间积压的消息，之后的注册、心跳等在队列清空前都排在它们后面
+                        replayOutboundQueue();
+
+                        // 请求补传断线期间未收齐的分块
+                        requestTransferResume();
+
+                        // 本地没有播放列表时请求完整列表
+                        if (playlistStore != null && playlistStore.getVersion() == 0) {
+                            requestPlaylistResync();
+                        }
+
+                        // 注册设备
+                        registerDevice();
+
+                        // 启动心跳
+                        startHeartbeat();
+
+                        // 开始时钟同步
+                        startClockSync();
+
+                        listener.onConnected(sessionPresent);
+                    });
+                }
+
+                @Override
+                public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
+                    metrics.counter("connect.failures").incrementAndGet();
+                    mainThread.execute(() -> {
+                        Logger.e(TAG, "Failed to connect to EMQX MQTT broker", exception);
+                        isConnected = false;
+
+                        listener.onConnectionFailed(exception);
+
+                        // 有其他可用代理时立即切换，否则退避重连
+                        failover(endpoint);
+                    });
+                }
+            });
+
+        } catch (Exception e) {
+            Logger.e(TAG, "Error creating MQTT client", e);
+            listener.onError("MQTT客户端创建失败: " + e.getMessage());
+            scheduleReconnect();
+        }
+    }
+
+    private void attemptReconnect() {
+        Logger.d(TAG, "Attempting EMQX reconnect #" + reconnectScheduler.getAttempts());
+        connect();
+    }
+
+    /**
+     * 手动重连，清零退避
+     */
+    public void reconnect() {
+        reconnectScheduler.reset();
+        connect();
+    }
+
+    /**
+     * 网络恢复时立即重连，不必等待退避
+     */
+    public void reconnectNow() {
+        if (!isConnected) {
+            reconnectScheduler.reconnectNow();
+        }
+    }
+
+    /**
+     * 发送离线状态并断开连接，已安排的重连不受影响
+     */
+    public void disconnect() {
+        disconnect(null);
+    }
+
+    /**
+     * @param onDisconnected 断开完成(或失败)后在Paho线程上调用，可为null
+     */
+    private void disconnect(Runnable onDisconnected) {
+        try {
+            // 停止心跳
+            stopHeartbeat();
+            stopClockSync();
+
+            // 离线状态在清除连接标志前直接发布，不进离线队列，否则会在下次连上后补发；断开时会等待在途消息确认
+            if (isConnected && mqttClient != null && mqttClient.isConnected()) {
+                if (!publishMessageAsync(deviceStatusTopic, buildDeviceStatus("offline", "Service stopped"),
+                        false, null)) {
+                    Logger.w(TAG, "Publish window full, offline status skipped");
+                }
+            }
+            isConnected = false;
+
+            // 断开MQTT连接，等待在途消息确认在后台进行，不阻塞主线程
+            connectionManager.disconnect(onDisconnected);
+
+        } catch (Exception e) {
+            Logger.e(TAG, "Error during cleanup", e);
+        }
+    }
+
+    /**
+     * 取消重连并断开，连接管理器和解析线程池由宿主关闭
+     */
+    public void close() {
+        reconnectScheduler.cancel();
+        disconnect();
+    }
+
+    /**
+     * 连接成功后订阅MQTT主题（在 mainThread 上调用），会话仍在时代理保留了上次在该代理上确认的订阅
+     */
+    private void subscribeToTopics(boolean sessionPresent, BrokerPool.Endpoint endpoint) {
+        subscriptionEpoch++;
+        subscriptionInFlight = false;
+        subscriptionDirty = false;
+        subscribedFilters.clear();
+        // 会话保存在各个代理上，切换代理后不能沿用另一个代理确认过的订阅
+        subscriptionsKey = PREF_SUBSCRIBED_TOPICS + "@" + endpoint.getUri();
+        if (sessionPresent) {
+            subscribedFilters.addAll(host.getStringSet(subscriptionsKey, Collections.<String>emptySet()));
+        }
+        reconcileSubscriptions();
+    }
+
+    /**
+     * 按路由表补订新增主题、退订已移除的主题（在 mainThread 上调用）
+     * 订阅和退订各合并成一个报文异步发送，确认在回调中处理，不阻塞主线程
+     */
+    private void reconcileSubscriptions() {
+        if (!isConnected || mqttClient == null) {
+            return;
+        }
+        if (subscriptionInFlight) {
+            subscriptionDirty = true;
+            return;
+        }
+        subscriptionDirty = false;
+
+        Set<String> topicFilters = topicRouter.getTopicFilters();
+        final List<String> toSubscribe = new ArrayList<>();
+        for (String topicFilter : topicFilters) {
+            if (!subscribedFilters.contains(topicFilter)) {
+                toSubscribe.add(topicFilter);
+            }
+        }
+        final List<String> toUnsubscribe = new ArrayList<>();
+        for (String topicFilter : subscribedFilters) {
+            if (!topicFilters.contains(topicFilter)) {
+                toUnsubscribe.add(topicFilter);
+            }
+        }
+        if (toSubscribe.isEmpty() && toUnsubscribe.isEmpty()) {
+            Logger.d(TAG, "Subscriptions up to date - " + subscribedFilters.size() + " topics");
+            return;
+        }
+
+        subscriptionInFlight = true;
+        final int epoch = subscriptionEpoch;
+        final SubscriptionRound round = new SubscriptionRound((toSubscribe.isEmpty() ? 0 : 1)
+                + (toUnsubscribe.isEmpty() ? 0 : 1));
+        try {
+            if (!toSubscribe.isEmpty()) {
+                String[] filters = toSubscribe.toArray(new String[0]);
+                int[] qos = new int[filters.length];
+                for (int i = 0; i < filters.length; i++) {
+                    qos[i] = deliveryPolicies.forTopic(filters[i]).getQos();
+                }
+                mqttClient.subscribe(filters, qos, null, new IMqttActionListener() {
+                    @Override
+                    public void onSuccess(IMqttToken token) {
+                        int[] granted = token.getGrantedQos();
+                        mainThread.execute(() -> {
+                            if (epoch != subscriptionEpoch) {
+                                return;
+                            }
+                            for (int i = 0; i < toSubscribe.size(); i++) {
+                                // 代理拒绝的主题(0x80)不记为已订阅，下次核对时重试
+                                if (granted != null && i < granted.length && granted[i] == 0x80) {
+                                    Logger.w(TAG, "Subscription rejected by broker: " + toSubscribe.get(i));
+                                } else {
+                                    subscribedFilters.add(toSubscribe.get(i));
+                                    Logger.d(TAG, "Subscribed to topic: " + toSubscribe.get(i));
+                                }
+                            }
+                            onSubscriptionStepDone(round);
+                        });
+                    }
+
+                    @Override
+                    public void onFailure(IMqttToken token, Throwable exception) {
+                        mainThread.execute(() -> {
+                            if (epoch == subscriptionEpoch) {
+                                Logger.e(TAG, "Error subscribing to topics", exception);
+                                round.failed = true;
+                                onSubscriptionStepDone(round);
+                            }
+                        });
+                    }
+                });
+            }
+            if (!toUnsubscribe.isEmpty()) {
+                mqttClient.unsubscribe(toUnsubscribe.toArray(new String[0]), null, new IMqttActionListener() {
+                    @Override
+                    public void onSuccess(IMqttToken token) {
+                        mainThread.execute(() -> {
+                            if (epoch != subscriptionEpoch) {
+                                return;
+                            }
+                            subscribedFilters.removeAll(toUnsubscribe);
+                            Logger.d(TAG, "Unsubscribed from topics: " + toUnsubscribe);
+                            onSubscriptionStepDone(round);
+                        });
+                    }
+
+                    @Override
+                    public void onFailure(IMqttToken token, Throwable exception) {
+                        mainThread.execute(() -> {
+                            if (epoch == subscriptionEpoch) {
+                                Logger.e(TAG, "Error unsubscribing from topics", exception);
+                                round.failed = true;
+                                onSubscriptionStepDone(round);
+                            }
+                        });
+                    }
+                });
+            }
+        } catch (Exception e) {
+            Logger.e(TAG, "Error subscribing to topics", e);
+            subscriptionInFlight = false;
+            return;
+        }
+
+        // 代理一直不确认时放弃这一轮，已确认的部分保留，下次核对时重试其余主题
+        mainThread.executeDelayed(() -> {
+            if (epoch == subscriptionEpoch && subscriptionInFlight) {
+                Logger.w(TAG, "Subscription not acknowledged within " + OPERATION_TIMEOUT + "ms");
+                subscriptionEpoch++;
+                subscriptionInFlight = false;
+                saveSubscriptions();
+            }
+        }, OPERATION_TIMEOUT);
+    }
+
+    private void onSubscriptionStepDone(SubscriptionRound round) {
+        if (--round.remaining > 0) {
+            return;
+        }
+        subscriptionInFlight = false;
+        saveSubscriptions();
+        if (subscriptionDirty) {
+            reconcileSubscriptions();
+        } else if (round.failed) {
+            // 发送失败(不是代理拒绝)时稍后重试，连接断开时由重连后的订阅接管
+            mainThread.executeDelayed(this::reconcileSubscriptions, OPERATION_TIMEOUT);
+        }
+    }
+
+    /**
+     * 一轮订阅/退订，等待代理确认的报文数
+     */
+    private static final class SubscriptionRound {
+        int remaining;
+        boolean failed;
+
+        SubscriptionRound(int remaining) {
+            this.remaining = remaining;
+        }
+    }
+
+    /**
+     * 只保存代理确认过的订阅，会话恢复时据此判断哪些主题不用重新订阅
+     */
+    private void saveSubscriptions() {
+        host.putStringSet(subscriptionsKey, new HashSet<>(subscribedFilters));
+    }
+
+    /**
+     * 构建主题路由表，新增主题只需在此注册处理器
+     */
+    private void registerTopicHandlers() {
+        // 新路由表在旁边构建好再整体替换，重连时到达的消息不会遇到空表
+        MqttTopicRouter routes = new MqttTopicRouter();
+
+        // 内容推送、命令和广播在解析线程池中按优先级通道解析，只把结果投递到主线程
+        routes.register(contentPushTopic, laneFor(contentPushTopic, MessageDecodePipeline.Lane.CONTENT),
+                (topic, payload) -> handleContentPush(payload));
+        if (chunkAssembler != null) {
+            routes.register(contentChunkTopic, laneFor(contentChunkTopic, MessageDecodePipeline.Lane.CONTENT),
+                    (topic, payload) -> handleContentChunk(payload));
+        }
+        if (playlistStore != null) {
+            routes.register(playlistTopic, laneFor(playlistTopic, MessageDecodePipeline.Lane.CONTENT),
+                    (topic, payload) -> handlePlaylistMessage(PayloadBuffers.toUtf8(payload)));
+        }
+
+        // 命令走最高优先级通道，不会排在大内容推送之后
+        routes.register(commandTopic, laneFor(commandTopic, MessageDecodePipeline.Lane.COMMAND),
+                (topic, payload) -> handleCommand(PayloadBuffers.toUtf8(payload)));
+
+        // 区域、城市、标签分组推送与单设备推送的处理方式相同
+        for (String groupTopic : groupSubscriptions.getTopics()) {
+            routes.register(groupTopic, laneFor(groupTopic, MessageDecodePipeline.Lane.CONTENT),
+                    (topic, payload) -> handleContentPush(payload));
+        }
+
+        // 广播
+        routes.register(broadcastTopic, laneFor(broadcastTopic, MessageDecodePipeline.Lane.BROADCAST),
+                (topic, payload) -> handleBroadcast(PayloadBuffers.toUtf8(payload)));
+
+        // 注册结果
+        routes.register(registerConfirmTopic, mainThread,
+                (topic, payload) -> handleRegisterConfirm(PayloadBuffers.toUtf8(payload)));
+        routes.register(registerErrorTopic, mainThread,
+                (topic, payload) -> handleRegisterError(PayloadBuffers.toUtf8(payload)));
+
+        // 时钟同步的回复在收到时立即处理，排队等待会计入往返时延
+        if (clockSync != null) {
+            routes.register(clockPongTopic, MqttTopicRouter.DIRECT_EXECUTOR,
+                    (topic, payload) -> handleClockPong(payload));
+        }
+        topicRouter.replaceWith(routes);
+    }
+
+    private Executor laneFor(String topic, MessageDecodePipeline.Lane lane) {
+        return topicExecutors.computeIfAbsent(topic, key -> decodePipeline.newSerialExecutor(lane));
+    }
+
+    /**
+     * 注册设备到云平台：注册信息与服务端上次确认的指纹相同时只发送指纹，由服务端确认或要求完整注册
+     */
+    private void registerDevice() {
+        try {
+            String fingerprint = buildRegistrationFingerprint();
+            if (!fingerprint.equals(host.getString(PREF_REGISTRATION_FINGERPRINT, null))) {
+                sendFullRegistration();
+                return;
+            }
+
+            JSONObject resume = new JSONObject()
+                    .put("deviceId", deviceId)
+                    .put("fingerprint", fingerprint)
+                    .put("encodings", registration.get("encodings"))
+                    .put("compressions", registration.get("compressions"))
+                    .put("timestamp", System.currentTimeMillis());
+            publishMessage(registrationResumeTopic, resume.toString(), false);
+            metrics.counter("registration.resumed").incrementAndGet();
+            Logger.d(TAG, "Registration resume sent to EMQX: " + fingerprint);
+
+        } catch (Exception e) {
+            Logger.e(TAG, "Error sending device registration", e);
+        }
+    }
+
+    /**
+     * 发送完整注册，带上指纹，服务端保存后在注册确认中返回
+     */
+    private void sendFullRegistration() {
+        try {
+            String fingerprint = buildRegistrationFingerprint();
+            JSONObject registrationJson = new JSONObject(registration.toString());
+            registrationJson.put("fingerprint", fingerprint);
+            registrationJson.put("timestamp", System.currentTimeMillis());
+            // 当前所属分组，服务端以数据库为准在注册确认中返回
+            registrationJson.put("metadata", groupSubscriptions.toJson());
+
+            publishMessage(deviceRegistrationTopic, registrationJson.toString(), false);
+            metrics.counter("registration.full").incrementAndGet();
+            Logger.d(TAG, "Device registration sent to EMQX");
+
+        } catch (Exception e) {
+            Logger.e(TAG, "Error sending device registration", e);
+        }
+    }
+
+    /**
+     * 第一次调用时向宿主取注册信息并计算指纹，进程内的重连直接复用
+     */
+    private String buildRegistrationFingerprint() throws JSONException {
+        if (registrationFingerprint != null) {
+            return registrationFingerprint;
+        }
+        JSONObject built = host.buildRegistration();
+        built.remove("timestamp");
+        // 声明支持的载荷编码和压缩方式，由服务端在注册确认中选择
+        built.put("encodings", new JSONArray()
+                .put(CompactCodec.ENCODING_COMPACT)
+                .put(CompactCodec.ENCODING_JSON));
+        built.put("compressions", new JSONArray()
+                .put(PayloadCompression.COMPRESSION_DEFLATE));
+        registration = built;
+        registrationFingerprint = sha256Hex(built.toString());
+        return registrationFingerprint;
+    }
+
+    private static String sha256Hex(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 启动心跳定时任务
+     */
+    private void startHeartbeat() {
+        stopHeartbeat(); // 先停止现有的心跳
+        telemetryAggregator.requestFullSnapshot(); // 重连后先上报完整状态
+
+        heartbeatFuture = connectionManager.getScheduler().scheduleAtFixedRate(() -> {
+            if (isConnected) {
+                sendHeartbeat();
+            }
+        }, heartbeatInterval, heartbeatInterval, TimeUnit.MILLISECONDS);
+
+        Logger.d(TAG, "Heartbeat started for EMQX connection");
+    }
+
+    /**
+     * 停止心跳
+     */
+    private void stopHeartbeat() {
+        if (heartbeatFuture != null) {
+            heartbeatFuture.cancel(false);
+            heartbeatFuture = null;
+        }
+    }
+
+    /**
+     * 启动时钟同步：每秒检查一次是否到了下一次ping，间隔由 ClockSync 按同步进度决定
+     */
+    private void startClockSync() {
+        stopClockSync();
+        if (clockSync == null) {
+            return;
+        }
+        nextClockPingAt = 0; // 连接后立即发送第一次
+        clockPingFuture = connectionManager.getScheduler().scheduleWithFixedDelay(() -> {
+            if (isConnected) {
+                sendClockPing();
+            }
+        }, 0, ClockSync.BURST_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void stopClockSync() {
+        if (clockPingFuture != null) {
+            clockPingFuture.cancel(false);
+            clockPingFuture = null;
+        }
+    }
+
+    /**
+     * 发送ping（在调度线程中执行），不进离线队列，断线或窗口已满时跳过
+     */
+    private void sendClockPing() {
+        double now = clockSync.localMillis();
+        if (now < nextClockPingAt) {
+            return;
+        }
+        nextClockPingAt = now + clockSync.getNextPingDelay();
+        try {
+            String ping = new JSONObject().put("t0", clockSync.localMillis()).toString();
+            if (!publishMessageAsync(clockPingTopic, ping, false, null)) {
+                Logger.v(TAG, "Clock ping skipped");
+            }
+        } catch (JSONException e) {
+            Logger.e(TAG, "Error building clock ping", e);
+        }
+    }
+
+    /**
+     * 处理时钟同步的回复（在MQTT回调线程中执行），先取到达时间再解析
+     */
+    private void handleClockPong(ByteBuffer payload) {
+        double t3 = clockSync.localMillis();
+        try {
+            JSONObject pong = new JSONObject(PayloadBuffers.toUtf8(payload));
+            if (clockSync.onPong(pong.getDouble("t0"), pong.getDouble("t1"), pong.getDouble("t2"), t3)) {
+                Logger.v(TAG, "Clock sample accepted: " + clockSync);
+            } else {
+                Logger.d(TAG, "Clock sample rejected: " + pong);
+            }
+        } catch (JSONException e) {
+            Logger.w(TAG, "Invalid clock pong payload", e);
+        }
+    }
+
+    /**
+     * 发送心跳消息，指标无明显变化的周期不发送，超过保活间隔时发送最小心跳
+     */
+    private void sendHeartbeat() {
+        try {
+            long now = System.currentTimeMillis();
+            String heartbeat = telemetryAggregator.tick(now);
+            if (heartbeat == null) {
+                return;
+            }
+
+            // 心跳用QoS 0发送且离线时会被合并，发出后才把其中的遥测值记为已上报
+            byte[] bytes = encodePayload(deviceHeartbeatTopic, heartbeat);
+            unpublishedHeartbeats.put(ByteBuffer.wrap(bytes), now);
+            publishMessage(deviceHeartbeatTopic, bytes, false);
+            Logger.v(TAG, "Heartbeat sent to EMQX: " + telemetryAggregator);
+
+        } catch (Exception e) {
+            Logger.e(TAG, "Error sending heartbeat", e);
+        }
+    }
+
+    /**
+     * 按主题投递策略发布MQTT消息，不等待确认；未连接或在途窗口已满时写入离线队列稍后补发。
+     * 离线队列还有消息时也排到队尾，由重放按顺序发出，补发的旧状态不会覆盖更新的状态
+     */
+    public void publishMessage(String topic, String payload, boolean retained) {
+        publishMessage(topic, encodePayload(topic, payload), retained);
+    }
+
+    private void publishMessage(String topic, byte[] bytes, boolean retained) {
+        retained = retained || deliveryPolicies.forTopic(topic).isRetained();
+        if (!isConnected || mqttClient == null) {
+            Logger.w(TAG, "Not connected to EMQX - queueing message for " + topic);
+            enqueueOutbound(topic, bytes, retained);
+            return;
+        }
+
+        OutboundMessageQueue queue = outboundQueue;
+        if (queue != null && !queue.isEmpty()) {
+            enqueueOutbound(topic, bytes, retained);
+            replayOutboundQueue();
+            return;
+        }
+
+        if (publishNow(topic, bytes, retained)) {
+            if (PayloadBuffers.isPayloadLoggable()) {
+                Logger.v(TAG, "Published message to EMQX topic " + topic + ": " + PayloadBuffers.preview(bytes));
+            }
+        } else {
+            enqueueOutbound(topic, bytes, retained);
+        }
+    }
+
+    /**
+     * 异步发布，可在主线程调用，确认结果通过回调返回
+     * @return false表示未连接或在途窗口已满，消息未发送也不会回调，由调用方决定重试或放弃
+     */
+    public boolean publishMessageAsync(String topic, String payload, boolean retained,
+                                       AsyncPublisher.Callback callback) {
+        if (!isConnected || mqttClient == null) {
+            return false;
+        }
+        DeliveryPolicies.Policy policy = deliveryPolicies.forTopic(topic);
+        if (!asyncPublisher.publish(mqttClient, topic, encodePayload(topic, payload), policy.getQos(),
+                retained || policy.isRetained(), callback)) {
+            return false;
+        }
+        deliveryPolicies.onPublished(policy);
+        return true;
+    }
+
+    /**
+     * 按协商结果编码载荷，心跳、状态和注册消息可使用紧凑二进制编码；
+     * 协商了压缩时，超过阈值且压缩后更小的载荷再用预置字典压缩
+     */
+    private byte[] encodePayload(String topic, String payload) {
+        byte[] encoded = null;
+        if (CompactCodec.ENCODING_COMPACT.equals(wireEncoding)
+                && (topic.equals(deviceHeartbeatTopic) || topic.equals(deviceStatusTopic)
+                    || topic.equals(deviceRegistrationTopic))) {
+            try {
+                encoded = CompactCodec.encode(new JSONObject(payload));
+            } catch (JSONException e) {
+                Logger.w(TAG, "Compact encoding failed, sending JSON for " + topic, e);
+            }
+        }
+        if (encoded == null) {
+            PayloadBuffers.EncodeBuffer buffer = PayloadBuffers.acquireEncodeBuffer();
+            buffer.writeUtf8(payload);
+            encoded = buffer.toByteArray();
+        }
+
+        if (compressionEnabled) {
+            byte[] compressed = PayloadCompression.compress(encoded);
+            if (compressed != null) {
+                metrics.counter("compression.messages").incrementAndGet();
+                metrics.counter("compression.bytesSaved").addAndGet(encoded.length - compressed.length);
+                return compressed;
+            }
+        }
+        return encoded;
+    }
+
+    /**
+     * 按主题的QoS异步发布到代理，不经过离线队列；返回false表示窗口已满或发布出错，
+     * 已发出但确认失败的消息写回离线队列
+     */
+    private boolean publishNow(String topic, byte[] payload, final boolean retained) {
+        DeliveryPolicies.Policy policy = deliveryPolicies.forTopic(topic);
+        boolean accepted = asyncPublisher.publish(mqttClient, topic, payload, policy.getQos(), retained,
+                new AsyncPublisher.Callback() {
+                    @Override
+                    public void onPublished(String publishedTopic) {
+                        if (publishedTopic.equals(deviceHeartbeatTopic)) {
+                            Long tickedAt = unpublishedHeartbeats.remove(ByteBuffer.wrap(payload));
+                            if (tickedAt != null) {
+                                telemetryAggregator.onPublished(tickedAt);
+                            }
+                        }
+                    }
+
+                    @Override
+                    public void onFailed(String failedTopic, byte[] failedPayload, Throwable cause) {
+                        enqueueOutbound(failedTopic, failedPayload, retained);
+                    }
+                });
+        if (accepted) {
+            deliveryPolicies.onPublished(policy);
+        }
+        return accepted;
+    }
+
+    /**
+     * 写入离线队列，投递策略要求合并的主题(状态、心跳、注册)只保留最新一条
+     */
+    private void enqueueOutbound(String topic, byte[] payload, boolean retained) {
+        OutboundMessageQueue queue = outboundQueue;
+        if (queue == null) {
+            Logger.w(TAG, "Outbound queue unavailable - message dropped for " + topic);
+            return;
+        }
+
+        DeliveryPolicies.Policy policy = deliveryPolicies.forTopic(topic);
+        queue.enqueue(topic, payload, policy.getQos(), retained, policy.isCoalesce() ? topic : null);
+    }
+
+    /**
+     * 在后台线程按顺序补发离线消息，直到在途窗口占满；窗口空出后再次触发
+     */
+    private void replayOutboundQueue() {
+        OutboundMessageQueue queue = outboundQueue;
+        if (queue == null || queue.isEmpty() || !replayScheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        connectionManager.getScheduler().execute(() -> {
+            replayScheduled.set(false);
+            long now = System.currentTimeMillis();
+            int sent = queue.replay((topic, payload, qos, retained, enqueuedAt) -> {
+                // 已过有效期的消息(如断线前的心跳)直接丢弃
+                DeliveryPolicies.Policy policy = deliveryPolicies.forTopic(topic);
+                if (policy.isExpired(enqueuedAt, now)) {
+                    deliveryPolicies.onExpired(topic, policy, payload.length);
+                    return OutboundMessageQueue.Result.EXPIRED;
+                }
+                return isConnected && publishNow(topic, payload, retained)
+                        ? OutboundMessageQueue.Result.SENT : OutboundMessageQueue.Result.FAILED;
+            });
+            Logger.d(TAG, "Outbound queue replayed " + sent + " messages: " + queue);
+        });
+    }
+
+    /**
+     * 发送设备状态更新
+     */
+    public void sendDeviceStatus(String status, String details) {
+        try {
+            publishMessage(deviceStatusTopic, buildDeviceStatus(status, details), false);
+            Logger.d(TAG, "Device status sent to EMQX: " + status);
+
+        } catch (Exception e) {
+            Logger.e(TAG, "Error sending device status", e);
+        }
+    }
+
+    private String buildDeviceStatus(String status, String details) throws JSONException {
+        DeviceStatus deviceStatus = new DeviceStatus();
+        deviceStatus.setDeviceId(deviceId);
+        deviceStatus.setStatus(status);
+        deviceStatus.setDetails(details);
+        deviceStatus.setTimestamp(System.currentTimeMillis());
+        return deviceStatus.toJson();
+    }
+
+    /**
+     * 安排重连
+     */
+    private void scheduleReconnect() {
+        long delay = reconnectScheduler.scheduleNext();
+        if (delay < 0) {
+            return; // 已有待执行的重连
+        }
+        Logger.d(TAG, "EMQX reconnect #" + reconnectScheduler.getAttempts() + " scheduled in " + delay + "ms");
+
+        // 持续失败时提示一次，但不停止重连
+        if (reconnectScheduler.getAttempts() == RECONNECT_ERROR_NOTIFY_ATTEMPTS) {
+            listener.onError("连接EMQX失败次数过多，请检查网络设置");
+        }
+    }
+
+    /**
+     * 代理失败后切换：还有健康代理时短暂随机延迟后连接，否则按退避重连
+     */
+    private void failover(BrokerPool.Endpoint failed) {
+        if (failed != null && brokerPool.reportFailure(failed)) {
+            long delay = reconnectScheduler.scheduleFailover();
+            Logger.d(TAG, "EMQX failover scheduled in " + delay + "ms");
+        } else {
+            scheduleReconnect();
+        }
+    }
+
+    /**
+     * 探测代理时延（在连接管理器的探测线程中执行，由宿主定期调用），已连接的代理明显慢于其他代理时迁移
+     */
+    public void probeBrokers() {
+        if (brokerPool.getEndpoints().size() < 2) {
+            return;
+        }
+        BrokerPool.Endpoint preferred = brokerPool.probeAll();
+        Logger.d(TAG, "Broker probe finished: " + brokerPool);
+        if (preferred != null) {
+            mainThread.execute(() -> {
+                if (isConnected) {
+                    Logger.d(TAG, "Migrating to faster broker " + preferred.getUri());
+                    disconnect(() -> mainThread.execute(this::connect));
+                }
+            });
+        }
+    }
+
+    /**
+     * 汇总指标写入日志（在调度线程中执行，由宿主定期调用），开启上报时以QoS 0发布，断线期间的汇总直接丢弃
+     */
+    public void reportMetrics() {
+        try {
+            String summary = metrics.snapshot().put("deviceId", deviceId).toString();
+            Logger.d(TAG, "Metrics: " + summary);
+            if (metricsPublishEnabled && isConnected && mqttClient != null) {
+                DeliveryPolicies.Policy policy = deliveryPolicies.forTopic(metricsTopic);
+                if (asyncPublisher.publish(mqttClient, metricsTopic, encodePayload(metricsTopic, summary),
+                        policy.getQos(), policy.isRetained(), null)) {
+                    deliveryPolicies.onPublished(policy);
+                }
+            }
+        } catch (Exception e) {
+            Logger.e(TAG, "Error reporting metrics", e);
+        }
+    }
+
+    // MQTT回调方法实现
+
+    @Override
+    public void connectionLost(Throwable cause) {
+        mainThread.execute(() -> {
+            Logger.w(TAG, "EMQX MQTT connection lost", cause);
+            isConnected = false;
+            connectionManager.onDisconnected();
+            stopClockSync();
+
+            listener.onConnectionLost(cause);
+
+            // 有其他可用代理时立即切换，否则退避重连
+            failover(currentEndpoint);
+        });
+    }
+
+    @Override
+    public void messageArrived(String topic, MqttMessage message) throws Exception {
+        metrics.counter("inbound.messages").incrementAndGet();
+        metrics.histogram("inbound.bytes").record(message.getPayload().length);
+        if (PayloadBuffers.isPayloadLoggable()) {
+            Logger.v(TAG, "Message arrived from EMQX - Topic: " + topic + ", Payload: "
+                    + PayloadBuffers.preview(message.getPayload()));
+        }
+
+        if (!topicRouter.dispatch(topic, message)) {
+            Logger.w(TAG, "No handler registered for EMQX topic: " + topic);
+        }
+    }
+
+    @Override
+    public void deliveryComplete(IMqttDeliveryToken token) {
+        Logger.v(TAG, "Message delivery complete to EMQX");
+    }
+
+    /**
+     * 处理内容推送（在解析线程中执行）
+     */
+    private void handleContentPush(ByteBuffer payload) {
+        try {
+            ContentPush content = host.decodeContentPush(payload);
+            Logger.d(TAG, "Content push received from EMQX: " + content.getContentType());
+            listener.onContentReceived(content);
+
+        } catch (Exception e) {
+            Logger.e(TAG, "Error handling content push", e);
+        }
+    }
+
+    /**
+     * 处理大内容推送的分块（在解析线程中执行），收齐并校验通过后按普通内容推送处理
+     */
+    private void handleContentChunk(ByteBuffer payload) {
+        try {
+            File content = chunkAssembler.accept(payload);
+            if (content == null) {
+                return;
+            }
+            // 映射校验过的文件交给解码器，几十MB的内容不复制到堆上
+            try (RandomAccessFile file = new RandomAccessFile(content, "r")) {
+                FileChannel channel = file.getChannel();
+                handleContentPush(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            } finally {
+                if (!content.delete()) {
+                    Logger.w(TAG, "Cannot delete completed transfer " + content);
+                }
+            }
+        } catch (Exception e) {
+            Logger.e(TAG, "Error handling content chunk", e);
+        }
+    }
+
+    /**
+     * 为每个未完成的分块传输发送补传请求
+     */
+    private void requestTransferResume() {
+        if (chunkAssembler == null) {
+            return;
+        }
+        for (String request : chunkAssembler.buildResumeRequests()) {
+            Logger.d(TAG, "Requesting chunk resend: " + request);
+            publishMessage(contentResumeTopic, request, false);
+        }
+    }
+
+    /**
+     * 处理播放列表的完整列表或增量（在解析线程中执行），增量无法应用时请求完整列表
+     */
+    private void handlePlaylistMessage(String payload) {
+        try {
+            PlaylistStore.Result result = playlistStore.apply(payload);
+            Logger.d(TAG, "Playlist message " + result + ", now at version " + playlistStore.getVersion());
+            if (result == PlaylistStore.Result.RESYNC) {
+                mainThread.execute(this::requestPlaylistResync);
+            }
+        } catch (Exception e) {
+            Logger.e(TAG, "Error handling playlist message", e);
+            mainThread.execute(this::requestPlaylistResync);
+        }
+    }
+
+    /**
+     * 请求完整播放列表（在 mainThread 上调用），连续的失败增量只触发一次请求
+     */
+    private void requestPlaylistResync() {
+        long now = System.currentTimeMillis();
+        if (now - lastPlaylistResyncAt < PLAYLIST_RESYNC_INTERVAL) {
+            return;
+        }
+        lastPlaylistResyncAt = now;
+        try {
+            String request = playlistStore.buildResyncRequest();
+            Logger.d(TAG, "Requesting playlist resync: " + request);
+            publishMessage(playlistResyncTopic, request, false);
+        } catch (JSONException e) {
+            Logger.e(TAG, "Error building playlist resync request", e);
+        }
+    }
+
+    /**
+     * 处理命令（在解析线程中执行）
+     */
+    private void handleCommand(String payload) {
+        try {
+            Command command = Command.fromJson(payload);
+            Logger.d(TAG, "Command received from EMQX: " + command.getAction());
+
+            if (COMMAND_UPDATE_GROUPS.equals(command.getAction())) {
+                updateGroups(command.getParams());
+                return;
+            }
+
+            // 命令之间保持到达顺序，整体插到主线程队列最前，不等待已排队的内容回调
+            pendingCommands.add(command);
+            if (commandDrainScheduled.compareAndSet(false, true)) {
+                mainThread.executeAtFront(this::deliverPendingCommands);
+            }
+
+        } catch (Exception e) {
+            Logger.e(TAG, "Error handling command", e);
+        }
+    }
+
+    /**
+     * 在主线程上按到达顺序投递排队的命令；先清除标志再取，之后到达的命令会安排新的投递
+     */
+    private void deliverPendingCommands() {
+        commandDrainScheduled.set(false);
+        Command command;
+        while ((command = pendingCommands.poll()) != null) {
+            listener.onCommandReceived(command);
+        }
+    }
+
+    /**
+     * 处理广播消息（在解析线程中执行）
+     */
+    private void handleBroadcast(String payload) {
+        try {
+            Logger.d(TAG, "Broadcast received from EMQX: " + payload);
+
+            mainThread.execute(() -> listener.onBroadcastReceived(payload));
+
+        } catch (Exception e) {
+            Logger.e(TAG, "Error handling broadcast", e);
+        }
+    }
+
+    /**
+     * 处理注册确认
+     */
+    private void handleRegisterConfirm(String payload) {
+        try {
+            JSONObject confirmation = new JSONObject(payload);
+            if (REGISTRATION_UNKNOWN.equals(confirmation.optString("status"))) {
+                // 服务端没有匹配的指纹(设备记录被删除或信息已变化)，改发完整注册
+                isRegistered = false;
+                Logger.d(TAG, "Registration fingerprint unknown to EMQX, sending full registration");
+                host.remove(PREF_REGISTRATION_FINGERPRINT);
+                sendFullRegistration();
+                return;
+            }
+            isRegistered = true;
+            Logger.d(TAG, "Device registration confirmed by EMQX: " + payload);
+
+            // 服务端已保存的注册指纹，下次重连时只发送指纹；旧版本服务端不返回，每次都完整注册
+            String fingerprint = confirmation.optString("fingerprint", null);
+            if (fingerprint != null && !fingerprint.isEmpty()
+                    && !fingerprint.equals(host.getString(PREF_REGISTRATION_FINGERPRINT, null))) {
+                host.putString(PREF_REGISTRATION_FINGERPRINT, fingerprint);
+            }
+
+            // 服务端选择的载荷编码，旧版本服务端不返回该字段时使用JSON
+            String selected = confirmation.optString("encoding", CompactCodec.ENCODING_JSON);
+            String encoding = CompactCodec.ENCODING_COMPACT.equals(selected)
+                    ? CompactCodec.ENCODING_COMPACT : CompactCodec.ENCODING_JSON;
+            if (!encoding.equals(wireEncoding)) {
+                wireEncoding = encoding;
+                host.putString(PREF_WIRE_ENCODING, encoding);
+                Logger.d(TAG, "Wire encoding negotiated: " + encoding);
+            }
+
+            // 服务端选择的压缩方式，不返回时不压缩
+            boolean compression = PayloadCompression.COMPRESSION_DEFLATE.equals(
+                    confirmation.optString("compression", null));
+            if (compression != compressionEnabled) {
+                compressionEnabled = compression;
+                if (compression) {
+                    host.putString(PREF_COMPRESSION, PayloadCompression.COMPRESSION_DEFLATE);
+                } else {
+                    host.remove(PREF_COMPRESSION);
+                }
+                Logger.d(TAG, "Payload compression " + (compression ? "enabled" : "disabled"));
+            }
+
+            // 服务端记录的分组
+            JSONObject groups = confirmation.optJSONObject("groups");
+            if (groups != null) {
+                updateGroups(groups);
+            }
+        } catch (JSONException e) {
+            Logger.w(TAG, "Invalid registration confirmation payload", e);
+        }
+    }
+
+    /**
+     * 恢复上次保存的分组，重启后离线期间也能按分组收到推送
+     */
+    private void loadGroups() {
+        String saved = host.getString(PREF_GROUPS, null);
+        if (saved == null) {
+            return;
+        }
+        try {
+            groupSubscriptions.update(new JSONObject(saved));
+        } catch (JSONException e) {
+            Logger.w(TAG, "Invalid saved groups, ignoring", e);
+        }
+    }
+
+    /**
+     * 更新分组并在后台线程增量订阅/退订分组主题
+     */
+    public void updateGroups(JSONObject groups) {
+        if (groups == null) {
+            return;
+        }
+        synchronized (groupSubscriptions) {
+            Set<String> previous = groupSubscriptions.getTopics();
+            if (!groupSubscriptions.update(groups)) {
+                return;
+            }
+            Set<String> current = groupSubscriptions.getTopics();
+            try {
+                host.putString(PREF_GROUPS, groupSubscriptions.toJson().toString());
+            } catch (JSONException e) {
+                Logger.w(TAG, "Error saving groups", e);
+            }
+
+            for (String topic : previous) {
+                if (!current.contains(topic)) {
+                    topicRouter.unregister(topic);
+                    topicExecutors.remove(topic);
+                }
+            }
+            for (String topic : current) {
+                if (!previous.contains(topic)) {
+                    topicRouter.register(topic, laneFor(topic, MessageDecodePipeline.Lane.CONTENT),
+                            (t, payload) -> handleContentPush(payload));
+                }
+            }
+        }
+        Logger.d(TAG, "Groups updated: " + groupSubscriptions);
+
+        // 与已确认的订阅比较，只订阅新增、退订移除的主题；在主线程上串行核对
+        mainThread.execute(this::reconcileSubscriptions);
+    }
+
+    /**
+     * 处理注册失败
+     */
+    private void handleRegisterError(String payload) {
+        isRegistered = false;
+        Logger.e(TAG, "Device registration rejected by EMQX: " + payload);
+
+        listener.onError("设备注册失败: " + payload);
+    }
+
+    // 公共方法
+
+    public boolean isConnected() {
+        return isConnected;
+    }
+
+    public boolean isRegistered() {
+        return isRegistered;
+    }
+
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    public String getClientId() {
+        return clientId;
+    }
+
+    public OutboundMessageQueue getOutboundQueue() {
+        return outboundQueue;
+    }
+
+    public TelemetryAggregator getTelemetryAggregator() {
+        return telemetryAggregator;
+    }
+
+    public ChunkedTransferAssembler getChunkAssembler() {
+        return chunkAssembler;
+    }
+
+    public PlaylistStore getPlaylistStore() {
+        return playlistStore;
+    }
+
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    public AsyncPublisher getAsyncPublisher() {
+        return asyncPublisher;
+    }
+
+    public ClockSync getClockSync() {
+        return clockSync;
+    }
+
+    public DeliveryPolicies getDeliveryPolicies() {
+        return deliveryPolicies;
+    }
+
+    public GroupSubscriptions getGroupSubscriptions() {
+        return groupSubscriptions;
+    }
+
+    public BrokerPool getBrokerPool() {
+        return brokerPool;
+    }
+}
@@ -3,10 +3,15 @@ package com.mediaplatform.android.service;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.Network;
 import android.os.Binder;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
 import android.widget.Toast;
 
 import com.mediaplatform.android.model.*;
@@ -14,58 +19,88 @@ import com.mediaplatform.android.utils.DeviceUtils;
 import com.mediaplatform.android.utils.Logger;
 import com.mediaplatform.android.utils.PreferencesManager;
 
-import org.eclipse.paho.client.mqttv3.*;
-import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 /**
  * MQTT连接和消息处理服务
  * 负责与云平台的MQTT通信、设备注册、心跳、内容处理等核心功能
  * 更新为使用EMQX公共服务器: broker.emqx.io
+ * 连接、注册、心跳和消息处理由 MqttDeviceCore 实现，本服务只提供安卓相关的存储、设备信息、网络监听和提示
  */
-public class MqttService extends Service implements MqttCallback {
+public class MqttService extends Service {
     private static final String TAG = "MqttService";
     
+    // 服务内部状态存储
+    private static final String PREFS_NAME = "mqtt_service";
+    private static final String PREF_BROKER_ENDPOINTS = "broker_endpoints"; // 备用代理，逗号分隔的host:port
+    private static final String PREF_METRICS_PUBLISH = "metrics_publish"; // 是否把指标汇总发布到服务端
+    
     // MQTT配置常量 - 使用EMQX公共服务器
     private static final String DEFAULT_BROKER_HOST = "broker.emqx.io"; // EMQX公共MQTT服务器
     private static final int DEFAULT_BROKER_PORT = 1883; // 标准MQTT端口
-    private static final int QOS = 1;
-    private static final boolean CLEAN_SESSION = true;
-    private static final int KEEP_ALIVE_INTERVAL = 60; // 60秒
-    private static final int CONNECTION_TIMEOUT = 30; // 30秒
-    
-    // 心跳和重连配置
-    private static final long HEARTBEAT_INTERVAL = 30000; // 30秒心跳
-    private static final long RECONNECT_DELAY = 5000; // 5秒重连延迟
-    private static final int MAX_RECONNECT_ATTEMPTS = 10;
-    
-    // MQTT主题常量 - 添加项目前缀避免冲突
-    private static final String TOPIC_PREFIX = "mediaplatform/"; // 主题前缀
-    private String deviceRegistrationTopic;
-    private String deviceHeartbeatTopic;
-    private String deviceStatusTopic;
-    private String deviceDataTopic;
-    private String contentPushTopic;
-    private String commandTopic;
-    private String broadcastTopic;
+    
+    // 遥测采样配置
+    private static final long TELEMETRY_KEEPALIVE_INTERVAL = 120000; // 无变化时2分钟保活一次
+    private static final int TELEMETRY_MAX_BATCH = 4; // 最多合并4次采样
+    private static final long BATTERY_SAMPLE_INTERVAL = 60000;
+    private static final long MEMORY_SAMPLE_INTERVAL = 60000;
+    private static final long STORAGE_SAMPLE_INTERVAL = 10 * 60000;
+    private static final double BATTERY_CHANGE_THRESHOLD = 2; // 电量变化2%才上报
+    private static final long BROKER_PROBE_INITIAL_DELAY = 10000;
+    private static final long BROKER_PROBE_INTERVAL = 5 * 60000; // 每5分钟探测一次代理时延
+    
+    // 消息解析线程池配置
+    private static final int DECODE_WORKER_COUNT = 2;
+    private static final int DECODE_QUEUE_CAPACITY = 64; // 内容、广播通道各自的队列长度
+    private static final int COMMAND_QUEUE_CAPACITY = 16;
+    private static final long COMMAND_SLO_MILLIS = 100; // 命令从到达到解析完成的目标延迟
+    
+    // 离线消息队列配置
+    private static final String OUTBOX_FILE_NAME = "mqtt-outbox.dat";
+    private static final String PERSISTENCE_DIR_NAME = "mqtt-persistence";
+    private static final int OUTBOX_MAX_BYTES = 1024 * 1024; // 1MB
+    private static final long OUTBOX_MAX_AGE = 24 * 60 * 60 * 1000L; // 24小时
+    
+    // 内容缓存配置
+    private static final String CONTENT_CACHE_DIR_NAME = "content-cache";
+    private static final long CONTENT_CACHE_MAX_BYTES = 512L * 1024 * 1024; // 512MB
+    private static final int CONTENT_PREFETCH_PARALLELISM = 2;
+    private static final long CONTENT_PREFETCH_LEAD = 30 * 60000; // 排期前30分钟开始预取
+    private static final long CONTENT_PREFETCH_JITTER = 20 * 60000; // 再随机提前0~20分钟
+    
+    // 分块传输配置
+    private static final String TRANSFER_DIR_NAME = "mqtt-transfers";
+    private static final long TRANSFER_MAX_BYTES = 64L * 1024 * 1024; // 64MB
+    private static final long TRANSFER_MAX_AGE = 24 * 60 * 60 * 1000L; // 24小时未完成则丢弃
+    private static final long TRANSFER_EXPIRE_INTERVAL = 60 * 60 * 1000L; // 长时间没有新分块时也每小时清理过期传输
+    
+    // 播放列表快照和增量日志目录
+    private static final String PLAYLIST_DIR_NAME = "playlist";
+    
+    // 内容排期配置
+    private static final long CONTENT_SCHEDULER_TICK = 10; // 时间轮精度10ms
     
     // 核心组件
-    private MqttClient mqttClient;
+    private MqttDeviceCore deviceCore;
+    private MqttConnectionManager connectionManager;
     private PreferencesManager preferencesManager;
     private String deviceId;
     private String clientId;
     private Handler mainHandler;
-    private ScheduledExecutorService heartbeatExecutor;
-    
-    // 连接状态
-    private boolean isConnected = false;
-    private boolean isRegistered = false;
-    private int reconnectAttempts = 0;
+    private MessageDecodePipeline decodePipeline;
+    private ContentCache contentCache;
+    private ContentScheduler contentScheduler;
+    private ClockSync clockSync;
+    private SharedPreferences servicePreferences;
+    private ConnectivityManager.NetworkCallback networkCallback;
     
     // 回调接口
     private MqttServiceCallback serviceCallback;
@@ -74,6 +109,11 @@ public class MqttService extends Service implements MqttCallback {
         void onConnected();
         void onDisconnected();
         void onContentReceived(ContentPush content);
+        /**
+         * 排期结束且没有其他生效的内容，默认不处理，继续显示最后一条
+         */
+        default void onContentExpired(ContentPush content) {
+        }
         void onCommandReceived(Command command);
         void onBroadcastReceived(String message);
         void onError(String error);
@@ -94,18 +134,48 @@ public class MqttService extends Service implements MqttCallback {
         Logger.d(TAG, "MQTT Service created");
         
         preferencesManager = new PreferencesManager(this);
+        servicePreferences = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+        PayloadBuffers.setPayloadLoggable(() -> Log.isLoggable(PayloadBuffers.LOG_TAG, Log.VERBOSE));
         mainHandler = new Handler(Looper.getMainLooper());
-        heartbeatExecutor = Executors.newSingleThreadScheduledExecutor();
+        // 内容和广播通道满时丢弃最早的任务，Paho只有一个回调线程，等待空位会让后面的命令也跟着等；
+        // 丢掉的播放列表增量由版本号检测出来并请求完整列表
+        decodePipeline = new MessageDecodePipeline(DECODE_WORKER_COUNT, COMMAND_QUEUE_CAPACITY,
+                DECODE_QUEUE_CAPACITY, MessageDecodePipeline.BackpressurePolicy.DROP_OLDEST, COMMAND_SLO_MILLIS);
+        contentCache = new ContentCache(new File(getCacheDir(), CONTENT_CACHE_DIR_NAME), CONTENT_CACHE_MAX_BYTES,
+                CONTENT_PREFETCH_PARALLELISM, CONTENT_PREFETCH_LEAD, CONTENT_PREFETCH_JITTER);
+        registerNetworkCallback();
         
-        // 初始化设备ID和主题
+        // 初始化设备ID
         initializeDevice();
-        initializeTopics();
+        connectionManager = new MqttConnectionManager(clientId,
+                new File(getFilesDir(), PERSISTENCE_DIR_NAME).getAbsolutePath());
+        deviceCore = new MqttDeviceCore(deviceId, clientId, new PreferencesHost(), new CoreListener(),
+                new HandlerScheduler(mainHandler), connectionManager, decodePipeline);
+        deviceCore.setOutboundQueue(openOutboundQueue());
+        deviceCore.setChunkAssembler(new ChunkedTransferAssembler(new File(getFilesDir(), TRANSFER_DIR_NAME),
+                TRANSFER_MAX_BYTES, TRANSFER_MAX_AGE));
+        deviceCore.setPlaylistStore(openPlaylistStore());
+        deviceCore.setTelemetryAggregator(createTelemetryAggregator());
+        deviceCore.setMetricsPublishEnabled(servicePreferences.getBoolean(PREF_METRICS_PUBLISH, false));
+        // 单调时钟在休眠期间继续计时，同步后的车队时间不受用户修改系统时间影响
+        clockSync = new ClockSync(System::currentTimeMillis, SystemClock::elapsedRealtimeNanos);
+        deviceCore.setClockSync(clockSync);
+        contentScheduler = createContentScheduler();
+        loadBrokerEndpoints();
+        
+        connectionManager.getProbeScheduler().scheduleWithFixedDelay(deviceCore::probeBrokers,
+                BROKER_PROBE_INITIAL_DELAY, BROKER_PROBE_INTERVAL, TimeUnit.MILLISECONDS);
+        connectionManager.getScheduler().scheduleWithFixedDelay(deviceCore.getChunkAssembler()::expireStale,
+                TRANSFER_EXPIRE_INTERVAL, TRANSFER_EXPIRE_INTERVAL, TimeUnit.MILLISECONDS);
+        connectionManager.getScheduler().scheduleWithFixedDelay(deviceCore::reportMetrics,
+                MqttDeviceCore.METRICS_REPORT_INTERVAL, MqttDeviceCore.METRICS_REPORT_INTERVAL,
+                TimeUnit.MILLISECONDS);
     }
     
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         Logger.d(TAG, "MQTT Service starting");
-        connectToMqttBroker();
+        deviceCore.connect();
         return START_STICKY; // 服务被杀死后自动重启
     }
     
@@ -118,7 +188,16 @@ public class MqttService extends Service implements MqttCallback {
     public void onDestroy() {
         super.onDestroy();
         Logger.d(TAG, "MQTT Service destroyed");
-        cleanup();
+        unregisterNetworkCallback();
+        deviceCore.close();
+        connectionManager.shutdown();
+        decodePipeline.shutdown();
+        contentCache.shutdown();
+        contentScheduler.shutdown();
+        deviceCore.getChunkAssembler().close();
+        if (deviceCore.getOutboundQueue() != null) {
+            deviceCore.getOutboundQueue().close();
+        }
     }
     
     /**
@@ -136,393 +215,293 @@ public class MqttService extends Service implements MqttCallback {
     }
     
     /**
-     * 初始化MQTT主题 - 添加项目前缀
+     * 初始化遥测采样，慢速指标按各自频率采样并缓存
      */
-    private void initializeTopics() {
-        deviceRegistrationTopic = TOPIC_PREFIX + "device/register";
-        deviceHeartbeatTopic = TOPIC_PREFIX + "device/heartbeat";
-        deviceStatusTopic = TOPIC_PREFIX + "device/status";
-        deviceDataTopic = TOPIC_PREFIX + "device/data";
-        contentPushTopic = TOPIC_PREFIX + "device/" + clientId + "/content";
-        commandTopic = TOPIC_PREFIX + "device/" + clientId + "/command";
-        broadcastTopic = TOPIC_PREFIX + "broadcast/all";
-        
-        Logger.d(TAG, "Topics initialized with prefix: " + TOPIC_PREFIX);
+    private TelemetryAggregator createTelemetryAggregator() {
+        TelemetryAggregator telemetryAggregator =
+                new TelemetryAggregator(deviceId, TELEMETRY_KEEPALIVE_INTERVAL, TELEMETRY_MAX_BATCH);
+        telemetryAggregator.addMetric("batteryLevel", BATTERY_SAMPLE_INTERVAL, BATTERY_CHANGE_THRESHOLD,
+                () -> DeviceUtils.getBatteryLevel(this));
+        telemetryAggregator.addMetric("memoryInfo", MEMORY_SAMPLE_INTERVAL, 0,
+                () -> DeviceUtils.getMemoryInfo(this));
+        telemetryAggregator.addMetric("storageInfo", STORAGE_SAMPLE_INTERVAL, 0,
+                DeviceUtils::getStorageInfo);
+        return telemetryAggregator;
     }
     
     /**
-     * 连接到MQTT代理服务器 - 使用EMQX公共服务器
+     * 打开离线消息队列，失败时退化为断线丢弃
      */
-    private void connectToMqttBroker() {
-        if (isConnected) {
-            Logger.d(TAG, "Already connected to MQTT broker");
-            return;
-        }
-        
+    private OutboundMessageQueue openOutboundQueue() {
         try {
-            // 使用默认的EMQX服务器，也可以从配置中读取
-            String brokerHost = preferencesManager.getBrokerHost();
-            if (brokerHost == null || brokerHost.isEmpty()) {
-                brokerHost = DEFAULT_BROKER_HOST;
-                preferencesManager.setBrokerHost(brokerHost);
-            }
-            
-            int brokerPort = preferencesManager.getBrokerPort();
-            if (brokerPort <= 0) {
-                brokerPort = DEFAULT_BROKER_PORT;
-                preferencesManager.setBrokerPort(brokerPort);
-            }
-            
-            String brokerUrl = "tcp://" + brokerHost + ":" + brokerPort;
-            Logger.d(TAG, "Connecting to EMQX MQTT broker: " + brokerUrl);
-            
-            // 创建MQTT客户端
-            mqttClient = new MqttClient(brokerUrl, clientId, new MemoryPersistence());
-            mqttClient.setCallback(this);
-            
-            // 配置连接选项
-            MqttConnectOptions connOpts = new MqttConnectOptions();
-            connOpts.setCleanSession(CLEAN_SESSION);
-            connOpts.setKeepAliveInterval(KEEP_ALIVE_INTERVAL);
-            connOpts.setConnectionTimeout(CONNECTION_TIMEOUT);
-            connOpts.setAutomaticReconnect(false); // 手动处理重连
-            
-            // 设置遗嘱消息（设备意外断开时发送）
-            String willTopic = deviceStatusTopic;
-            DeviceStatus offlineStatus = new DeviceStatus();
-            offlineStatus.setDeviceId(deviceId);
-            offlineStatus.setStatus("offline");
-            offlineStatus.setTimestamp(System.currentTimeMillis());
-            
-            connOpts.setWill(willTopic, offlineStatus.toJson().getBytes(), QOS, false);
-            
-            // 异步连接
-            mqttClient.connect(connOpts, null, new IMqttActionListener() {
-                @Override
-                public void onSuccess(IMqttToken asyncActionToken) {
-                    mainHandler.post(() -> {
-                        Logger.d(TAG, "Successfully connected to EMQX MQTT broker");
-                        isConnected = true;
-                        reconnectAttempts = 0;
-                        
-                        // 订阅主题
-                        subscribeToTopics();
-                        
-                        // 注册设备
-                        registerDevice();
-                        
-                        // 启动心跳
-                        startHeartbeat();
-                        
-                        // 通知回调
-                        if (serviceCallback != null) {
-                            serviceCallback.onConnected();
-                        }
-                        
-                        showToast("已连接到EMQX云平台");
-                    });
-                }
-                
-                @Override
-                public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
-                    mainHandler.post(() -> {
-                        Logger.e(TAG, "Failed to connect to EMQX MQTT broker", exception);
-                        isConnected = false;
-                        
-                        if (serviceCallback != null) {
-                            serviceCallback.onError("连接EMQX失败: " + exception.getMessage());
-                        }
-                        
-                        showToast("连接EMQX云平台失败，正在重试...");
-                        
-                        // 自动重连
-                        scheduleReconnect();
-                    });
-                }
-            });
-            
+            OutboundMessageQueue outboundQueue = new OutboundMessageQueue(
+                    new File(getFilesDir(), OUTBOX_FILE_NAME), OUTBOX_MAX_BYTES, OUTBOX_MAX_AGE);
+            outboundQueue.open();
+            return outboundQueue;
         } catch (Exception e) {
-            Logger.e(TAG, "Error creating MQTT client", e);
-            if (serviceCallback != null) {
-                serviceCallback.onError("MQTT客户端创建失败: " + e.getMessage());
-            }
-            scheduleReconnect();
+            Logger.e(TAG, "Error opening outbound queue", e);
+            return null;
         }
     }
     
     /**
-     * 订阅MQTT主题
+     * 从快照和增量日志恢复播放列表，恢复失败时从空列表开始，连接后请求完整列表
      */
-    private void subscribeToTopics() {
-        if (!isConnected || mqttClient == null) {
-            return;
-        }
-        
-        try {
-            // 订阅内容推送主题
-            mqttClient.subscribe(contentPushTopic, QOS);
-            Logger.d(TAG, "Subscribed to content push topic: " + contentPushTopic);
-            
-            // 订阅命令主题
-            mqttClient.subscribe(commandTopic, QOS);
-            Logger.d(TAG, "Subscribed to command topic: " + commandTopic);
-            
-            // 订阅广播主题
-            mqttClient.subscribe(broadcastTopic, QOS);
-            Logger.d(TAG, "Subscribed to broadcast topic: " + broadcastTopic);
-            
-        } catch (Exception e) {
-            Logger.e(TAG, "Error subscribing to topics", e);
-        }
+    private PlaylistStore openPlaylistStore() {
+        PlaylistStore playlistStore = new PlaylistStore(new File(getFilesDir(), PLAYLIST_DIR_NAME));
+        playlistStore.load();
+        return playlistStore;
     }
     
     /**
-     * 注册设备到云平台
+     * 内容按排期激活和过期，当前内容变化时通知界面；激活延迟记入指标
+     * 排期按车队时间计算，同一面拼接墙上的屏幕在同一时刻切换
      */
-    private void registerDevice() {
-        try {
-            DeviceRegistration registration = new DeviceRegistration();
-            registration.setDeviceId(deviceId);
-            registration.setDeviceType("android_screen");
-            registration.setDeviceName("安卓屏幕终端-" + deviceId.substring(0, 8));
-            registration.setDeviceModel(DeviceUtils.getDeviceModel());
-            registration.setDeviceVersion(DeviceUtils.getSystemVersion());
-            registration.setAppVersion(DeviceUtils.getAppVersion(this));
-            registration.setScreenResolution(DeviceUtils.getScreenResolution(this));
-            registration.setLocation(DeviceUtils.getLocation(this));
-            registration.setTimestamp(System.currentTimeMillis());
-            
-            publishMessage(deviceRegistrationTopic, registration.toJson(), false);
-            Logger.d(TAG, "Device registration sent to EMQX");
-            
-        } catch (Exception e) {
-            Logger.e(TAG, "Error sending device registration", e);
-        }
+    private ContentScheduler createContentScheduler() {
+        ContentScheduler scheduler = new ContentScheduler(new HandlerScheduler(mainHandler),
+                clockSync::fleetTimeMillis, CONTENT_SCHEDULER_TICK);
+        scheduler.setListener((active, previous) -> {
+            if (serviceCallback == null) {
+                return;
+            }
+            if (active != null) {
+                serviceCallback.onContentReceived(active);
+            } else {
+                serviceCallback.onContentExpired(previous);
+            }
+        });
+        MetricsRegistry metrics = deviceCore.getMetrics();
+        metrics.registerHistogram("scheduler.jitter", scheduler.getJitter());
+        metrics.gauge("scheduler.scheduled", scheduler::getScheduledCount);
+        metrics.gauge("scheduler.active", scheduler::getActiveCount);
+        metrics.gauge("scheduler.rejected", scheduler::getRejectedCount);
+        return scheduler;
     }
     
     /**
-     * 启动心跳定时任务
+     * 主代理来自设置，备用代理来自服务配置
      */
-    private void startHeartbeat() {
-        stopHeartbeat(); // 先停止现有的心跳
+    private void loadBrokerEndpoints() {
+        String brokerHost = preferencesManager.getBrokerHost();
+        if (brokerHost == null || brokerHost.isEmpty()) {
+            brokerHost = DEFAULT_BROKER_HOST;
+            preferencesManager.setBrokerHost(brokerHost);
+        }
         
-        heartbeatExecutor.scheduleAtFixedRate(() -> {
-            if (isConnected) {
-                sendHeartbeat();
-            }
-        }, HEARTBEAT_INTERVAL, HEARTBEAT_INTERVAL, TimeUnit.MILLISECONDS);
+        int brokerPort = preferencesManager.getBrokerPort();
+        if (brokerPort <= 0) {
+            brokerPort = DEFAULT_BROKER_PORT;
+            preferencesManager.setBrokerPort(brokerPort);
+        }
         
-        Logger.d(TAG, "Heartbeat started for EMQX connection");
-    }
-    
-    /**
-     * 停止心跳
-     */
-    private void stopHeartbeat() {
-        if (heartbeatExecutor != null && !heartbeatExecutor.isShutdown()) {
-            heartbeatExecutor.shutdown();
-            heartbeatExecutor = Executors.newSingleThreadScheduledExecutor();
+        List<String> addresses = new ArrayList<>();
+        addresses.add(brokerHost + ":" + brokerPort);
+        String fallbacks = servicePreferences.getString(PREF_BROKER_ENDPOINTS, "");
+        for (String address : fallbacks.split(",")) {
+            if (!address.trim().isEmpty() && !addresses.contains(address.trim())) {
+                addresses.add(address.trim());
+            }
         }
+        deviceCore.getBrokerPool().setEndpoints(addresses, DEFAULT_BROKER_PORT);
     }
     
     /**
-     * 发送心跳消息
+     * 监听网络恢复，网络可用时立即重连而不必等待退避
      */
-    private void sendHeartbeat() {
+    private void registerNetworkCallback() {
+        ConnectivityManager connectivityManager =
+                (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivityManager == null) {
+            return;
+        }
+        
+        networkCallback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(Network network) {
+                mainHandler.post(() -> {
+                    if (!deviceCore.isConnected()) {
+                        Logger.d(TAG, "Network available - reconnecting to EMQX now");
+                        deviceCore.reconnectNow();
+                    }
+                });
+            }
+        };
+        
         try {
-            JSONObject heartbeat = new JSONObject();
-            heartbeat.put("deviceId", deviceId);
-            heartbeat.put("timestamp", System.currentTimeMillis());
-            heartbeat.put("status", "online");
-            heartbeat.put("batteryLevel", DeviceUtils.getBatteryLevel(this));
-            heartbeat.put("storageInfo", DeviceUtils.getStorageInfo());
-            heartbeat.put("memoryInfo", DeviceUtils.getMemoryInfo(this));
-            
-            publishMessage(deviceHeartbeatTopic, heartbeat.toString(), false);
-            Logger.v(TAG, "Heartbeat sent to EMQX");
-            
+            connectivityManager.registerDefaultNetworkCallback(networkCallback);
         } catch (Exception e) {
-            Logger.e(TAG, "Error sending heartbeat", e);
+            Logger.e(TAG, "Error registering network callback", e);
+            networkCallback = null;
         }
     }
     
-    /**
-     * 发布MQTT消息
-     */
-    public void publishMessage(String topic, String payload, boolean retained) {
-        if (!isConnected || mqttClient == null) {
-            Logger.w(TAG, "Cannot publish message - not connected to EMQX");
+    private void unregisterNetworkCallback() {
+        if (networkCallback == null) {
             return;
         }
         
+        ConnectivityManager connectivityManager =
+                (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
         try {
-            MqttMessage message = new MqttMessage(payload.getBytes());
-            message.setQos(QOS);
-            message.setRetained(retained);
-            
-            mqttClient.publish(topic, message);
-            Logger.v(TAG, "Published message to EMQX topic " + topic + ": " + payload);
-            
+            connectivityManager.unregisterNetworkCallback(networkCallback);
         } catch (Exception e) {
-            Logger.e(TAG, "Error publishing message to EMQX topic " + topic, e);
+            Logger.e(TAG, "Error unregistering network callback", e);
         }
+        networkCallback = null;
     }
     
     /**
-     * 发送设备状态更新
+     * 流式解析内容推送，失败时退回org.json完整解析
      */
-    public void sendDeviceStatus(String status, String details) {
+    private ContentPush decodeContentPush(ByteBuffer payload) throws JSONException {
         try {
-            DeviceStatus deviceStatus = new DeviceStatus();
-            deviceStatus.setDeviceId(deviceId);
-            deviceStatus.setStatus(status);
-            deviceStatus.setDetails(details);
-            deviceStatus.setTimestamp(System.currentTimeMillis());
-            
-            publishMessage(deviceStatusTopic, deviceStatus.toJson(), false);
-            Logger.d(TAG, "Device status sent to EMQX: " + status);
-            
+            return ContentPushDecoder.decode(payload);
         } catch (Exception e) {
-            Logger.e(TAG, "Error sending device status", e);
+            Logger.w(TAG, "Streaming decode failed, falling back to JSON parser", e);
+            return ContentPush.fromJson(PayloadBuffers.toUtf8(payload));
         }
     }
     
     /**
-     * 安排重连
+     * 主线程Handler实现的串行调度
      */
-    private void scheduleReconnect() {
-        if (reconnectAttempts >= MAX_RECONNECT_ATTEMPTS) {
-            Logger.e(TAG, "Max reconnect attempts reached for EMQX");
-            if (serviceCallback != null) {
-                serviceCallback.onError("连接EMQX失败次数过多，请检查网络设置");
-            }
-            return;
+    private static final class HandlerScheduler implements SerialScheduler {
+        private final Handler handler;
+        
+        HandlerScheduler(Handler handler) {
+            this.handler = handler;
         }
         
-        reconnectAttempts++;
-        long delay = RECONNECT_DELAY * reconnectAttempts; // 指数退避
+        @Override
+        public void execute(Runnable task) {
+            handler.post(task);
+        }
         
-        mainHandler.postDelayed(() -> {
-            Logger.d(TAG, "Attempting EMQX reconnect #" + reconnectAttempts);
-            connectToMqttBroker();
-        }, delay);
+        @Override
+        public void executeAtFront(Runnable task) {
+            handler.postAtFrontOfQueue(task);
+        }
+        
+        @Override
+        public void executeDelayed(Runnable task, long delayMillis) {
+            handler.postDelayed(task, delayMillis);
+        }
+        
+        @Override
+        public void cancel(Runnable task) {
+            handler.removeCallbacks(task);
+        }
     }
     
     /**
-     * 清理资源
+     * 设备信息来自系统，内部状态保存在服务的SharedPreferences中
      */
-    private void cleanup() {
-        try {
-            isConnected = false;
-            
-            // 停止心跳
-            stopHeartbeat();
-            
-            // 断开MQTT连接
-            if (mqttClient != null && mqttClient.isConnected()) {
-                // 发送离线状态
-                sendDeviceStatus("offline", "Service stopped");
-                
-                mqttClient.disconnect();
-                mqttClient.close();
-            }
-            
-        } catch (Exception e) {
-            Logger.e(TAG, "Error during cleanup", e);
+    private final class PreferencesHost implements MqttDeviceCore.Host {
+        @Override
+        public JSONObject buildRegistration() throws JSONException {
+            DeviceRegistration registration = new DeviceRegistration();
+            registration.setDeviceId(deviceId);
+            registration.setDeviceType("android_screen");
+            registration.setDeviceName("安卓屏幕终端-" + deviceId.substring(0, 8));
+            registration.setDeviceModel(DeviceUtils.getDeviceModel());
+            registration.setDeviceVersion(DeviceUtils.getSystemVersion());
+            registration.setAppVersion(DeviceUtils.getAppVersion(MqttService.this));
+            registration.setScreenResolution(DeviceUtils.getScreenResolution(MqttService.this));
+            registration.setLocation(DeviceUtils.getLocation(MqttService.this));
+            registration.setTimestamp(System.currentTimeMillis());
+            return new JSONObject(registration.toJson());
+        }
+        
+        @Override
+        public ContentPush decodeContentPush(ByteBuffer payload) throws JSONException {
+            return MqttService.this.decodeContentPush(payload);
+        }
+        
+        @Override
+        public String getString(String key, String defValue) {
+            return servicePreferences.getString(key, defValue);
+        }
+        
+        @Override
+        public Set<String> getStringSet(String key, Set<String> defValues) {
+            return servicePreferences.getStringSet(key, defValues);
+        }
+        
+        @Override
+        public void putString(String key, String value) {
+            servicePreferences.edit().putString(key, value).apply();
+        }
+        
+        @Override
+        public void putStringSet(String key, Set<String> values) {
+            servicePreferences.edit().putStringSet(key, values).apply();
+        }
+        
+        @Override
+        public void remove(String key) {
+            servicePreferences.edit().remove(key).apply();
         }
     }
     
-    // MQTT回调方法实现
-    
-    @Override
-    public void connectionLost(Throwable cause) {
-        mainHandler.post(() -> {
-            Logger.w(TAG, "EMQX MQTT connection lost", cause);
-            isConnected = false;
-            
+    /**
+     * 把核心事件转给界面回调并提示用户
+     */
+    private final class CoreListener implements MqttDeviceCore.Listener {
+        @Override
+        public void onConnected(boolean sessionPresent) {
             if (serviceCallback != null) {
-                serviceCallback.onDisconnected();
+                serviceCallback.onConnected();
             }
             
-            showToast("与EMQX云平台连接中断，正在重连...");
-            
-            // 自动重连
-            scheduleReconnect();
-        });
-    }
-    
-    @Override
-    public void messageArrived(String topic, MqttMessage message) throws Exception {
-        String payload = new String(message.getPayload());
-        Logger.d(TAG, "Message arrived from EMQX - Topic: " + topic + ", Payload: " + payload);
+            showToast("已连接到EMQX云平台");
+        }
         
-        mainHandler.post(() -> {
-            try {
-                if (topic.equals(contentPushTopic)) {
-                    handleContentPush(payload);
-                } else if (topic.equals(commandTopic)) {
-                    handleCommand(payload);
-                } else if (topic.equals(broadcastTopic)) {
-                    handleBroadcast(payload);
-                }
-            } catch (Exception e) {
-                Logger.e(TAG, "Error handling message from EMQX topic: " + topic, e);
+        @Override
+        public void onConnectionFailed(Throwable cause) {
+            if (serviceCallback != null) {
+                serviceCallback.onError("连接EMQX失败: " + cause.getMessage());
             }
-        });
-    }
-    
-    @Override
-    public void deliveryComplete(IMqttDeliveryToken token) {
-        Logger.v(TAG, "Message delivery complete to EMQX");
-    }
-    
-    /**
-     * 处理内容推送
-     */
-    private void handleContentPush(String payload) {
-        try {
-            ContentPush content = ContentPush.fromJson(payload);
-            Logger.d(TAG, "Content push received from EMQX: " + content.getContentType());
             
+            showToast("连接EMQX云平台失败，正在重试...");
+        }
+        
+        @Override
+        public void onConnectionLost(Throwable cause) {
             if (serviceCallback != null) {
-                serviceCallback.onContentReceived(content);
+                serviceCallback.onDisconnected();
             }
             
-        } catch (Exception e) {
-            Logger.e(TAG, "Error handling content push", e);
+            showToast("与EMQX云平台连接中断，正在重连...");
         }
-    }
-    
-    /**
-     * 处理命令
-     */
-    private void handleCommand(String payload) {
-        try {
-            Command command = Command.fromJson(payload);
-            Logger.d(TAG, "Command received from EMQX: " + command.getAction());
-            
+        
+        /**
+         * 在解析线程中预取媒体文件，再交给排期，到开始时间后由排期通知主线程
+         */
+        @Override
+        public void onContentReceived(ContentPush content) {
+            contentCache.prefetch(content);
+            contentScheduler.schedule(content);
+        }
+        
+        @Override
+        public void onCommandReceived(Command command) {
             if (serviceCallback != null) {
                 serviceCallback.onCommandReceived(command);
             }
-            
-        } catch (Exception e) {
-            Logger.e(TAG, "Error handling command", e);
         }
-    }
-    
-    /**
-     * 处理广播消息
-     */
-    private void handleBroadcast(String payload) {
-        try {
-            Logger.d(TAG, "Broadcast received from EMQX: " + payload);
-            
+        
+        @Override
+        public void onBroadcastReceived(String message) {
             if (serviceCallback != null) {
-                serviceCallback.onBroadcastReceived(payload);
+                serviceCallback.onBroadcastReceived(message);
+            }
+        }
+        
+        @Override
+        public void onError(String error) {
+            if (serviceCallback != null) {
+                serviceCallback.onError(error);
             }
-            
-        } catch (Exception e) {
-            Logger.e(TAG, "Error handling broadcast", e);
         }
     }
     
@@ -533,7 +512,7 @@ public class MqttService extends Service implements MqttCallback {
     }
     
     public boolean isConnected() {
-        return isConnected;
+        return deviceCore.isConnected();
     }
     
     public String getDeviceId() {
@@ -544,18 +523,172 @@ public class MqttService extends Service implements MqttCallback {
         return clientId;
     }
     
+    /**
+     * 按主题投递策略发布MQTT消息，不等待确认；未连接或在途窗口已满时写入离线队列稍后补发
+     */
+    public void publishMessage(String topic, String payload, boolean retained) {
+        deviceCore.publishMessage(topic, payload, retained);
+    }
+    
+    /**
+     * 异步发布，可在主线程调用，确认结果通过回调返回
+     * @return false表示未连接或在途窗口已满，消息未发送也不会回调，由调用方决定重试或放弃
+     */
+    public boolean publishMessageAsync(String topic, String payload, boolean retained,
+                                       AsyncPublisher.Callback callback) {
+        return deviceCore.publishMessageAsync(topic, payload, retained, callback);
+    }
+    
+    /**
+     * 发送设备状态更新
+     */
+    public void sendDeviceStatus(String status, String details) {
+        deviceCore.sendDeviceStatus(status, details);
+    }
+    
+    /**
+     * 连接、注册、心跳和消息处理的平台无关实现
+     */
+    public MqttDeviceCore getDeviceCore() {
+        return deviceCore;
+    }
+    
+    /**
+     * 消息解析线程池指标：各通道队列深度、p50/p99处理延迟、丢弃数、命令SLO超时次数
+     */
+    public MessageDecodePipeline getDecodePipeline() {
+        return decodePipeline;
+    }
+    
+    /**
+     * 离线消息队列指标：积压字节、合并数、过期数、重放吞吐量
+     */
+    public OutboundMessageQueue getOutboundQueue() {
+        return deviceCore.getOutboundQueue();
+    }
+    
+    /**
+     * 心跳遥测统计：发送的消息数、字节数以及节省的消息和字节
+     */
+    public TelemetryAggregator getTelemetryAggregator() {
+        return deviceCore.getTelemetryAggregator();
+    }
+    
+    /**
+     * 连接复用统计：存活线程数、客户端创建次数、重连耗时
+     */
+    public MqttConnectionManager getConnectionManager() {
+        return connectionManager;
+    }
+    
+    /**
+     * 媒体内容缓存，播放器通过 resolve(url) 获取本地文件；统计命中率和缓存供给字节数
+     */
+    public ContentCache getContentCache() {
+        return contentCache;
+    }
+    
+    /**
+     * 内容排期：已排期和生效中的内容数、激活次数以及激活延迟
+     */
+    public ContentScheduler getContentScheduler() {
+        return contentScheduler;
+    }
+    
+    /**
+     * 时钟同步：车队时间、与系统时间的偏差、漂移和最小往返时延
+     */
+    public ClockSync getClockSync() {
+        return clockSync;
+    }
+    
+    /**
+     * 分块传输统计：进行中的传输数、收到的分块和字节数、平均吞吐量
+     */
+    public ChunkedTransferAssembler getChunkAssembler() {
+        return deviceCore.getChunkAssembler();
+    }
+    
+    /**
+     * 版本化播放列表，播放器通过 setListener 接收变化（在解析线程中回调）
+     */
+    public PlaylistStore getPlaylistStore() {
+        return deviceCore.getPlaylistStore();
+    }
+    
+    /**
+     * 设备端指标：连接耗时、发布延迟、入站速率、载荷大小、处理延迟和丢弃数
+     */
+    public MetricsRegistry getMetrics() {
+        return deviceCore.getMetrics();
+    }
+    
+    /**
+     * 异步发布统计：在途消息数、峰值、成功/失败数以及窗口已满被拒绝的次数
+     */
+    public AsyncPublisher getAsyncPublisher() {
+        return deviceCore.getAsyncPublisher();
+    }
+    
+    /**
+     * 按主题的投递策略，以及QoS 0和过期丢弃节省的往返次数和字节数
+     */
+    public DeliveryPolicies getDeliveryPolicies() {
+        return deviceCore.getDeliveryPolicies();
+    }
+    
+    /**
+     * 当前所属的区域、城市和标签分组
+     */
+    public GroupSubscriptions getGroupSubscriptions() {
+        return deviceCore.getGroupSubscriptions();
+    }
+    
+    /**
+     * 开启后每个汇总周期把指标发布到 device/{clientId}/metrics
+     */
+    public void setMetricsPublishEnabled(boolean enabled) {
+        deviceCore.setMetricsPublishEnabled(enabled);
+        servicePreferences.edit().putBoolean(PREF_METRICS_PUBLISH, enabled).apply();
+    }
+    
     public String getBrokerInfo() {
+        BrokerPool.Endpoint endpoint = deviceCore.getBrokerPool().getCurrent();
+        if (endpoint != null) {
+            return endpoint.getUri();
+        }
         String brokerHost = preferencesManager.getBrokerHost();
         int brokerPort = preferencesManager.getBrokerPort();
         return brokerHost + ":" + brokerPort;
     }
     
+    /**
+     * 代理池状态：各代理的时延、失败次数以及切换次数
+     */
+    public BrokerPool getBrokerPool() {
+        return deviceCore.getBrokerPool();
+    }
+    
+    /**
+     * 设置备用代理列表(host:port)，主代理仍由 updateBrokerConfig 设置
+     */
+    public void setFallbackBrokers(List<String> addresses) {
+        StringBuilder value = new StringBuilder();
+        for (String address : addresses) {
+            if (value.length() > 0) {
+                value.append(',');
+            }
+            value.append(address.trim());
+        }
+        servicePreferences.edit().putString(PREF_BROKER_ENDPOINTS, value.toString()).apply();
+        loadBrokerEndpoints();
+    }
+    
     /**
      * 手动重连
      */
     public void reconnect() {
-        reconnectAttempts = 0;
-        connectToMqttBroker();
+        deviceCore.reconnect();
     }
     
     /**
@@ -564,10 +697,11 @@ public class MqttService extends Service implements MqttCallback {
     public void updateBrokerConfig(String host, int port) {
         preferencesManager.setBrokerHost(host);
         preferencesManager.setBrokerPort(port);
+        loadBrokerEndpoints();
         
         // 重新连接
-        cleanup();
-        connectToMqttBroker();
+        deviceCore.disconnect();
+        deviceCore.connect();
     }
     
     private void showToast(String message) {
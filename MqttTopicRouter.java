@@ -0,0 +1,228 @@
+package com.mediaplatform.android.service;
+
+import com.mediaplatform.android.utils.Logger;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * MQTT主题路由表
+ * 精确主题通过哈希表O(1)查找，通配符主题(+/#)按主题层级构建前缀树，
+ * 匹配耗时只与主题层数有关，与订阅数量无关
+ */
+public class MqttTopicRouter {
+    private static final String TAG = "MqttTopicRouter";
+
+    /** 在调用线程上直接执行 */
+    public static final Executor DIRECT_EXECUTOR = Runnable::run;
+
+    /**
+     * 主题消息处理器
+     * 载荷是MQTT消息字节数组的只读视图，处理器按需解码，不要保留引用
+     * 压缩的载荷解压到处理线程复用的缓冲区，处理结束后会被下一条消息覆盖
+     */
+    public interface MessageHandler {
+        void handle(String topic, ByteBuffer payload) throws Exception;
+    }
+
+    private static final class Route {
+        final String topicFilter;
+        final Executor executor;
+        final MessageHandler handler;
+
+        Route(String topicFilter, Executor executor, MessageHandler handler) {
+            this.topicFilter = topicFilter;
+            this.executor = executor;
+            this.handler = handler;
+        }
+    }
+
+    private static final class Node {
+        final Map<String, Node> children = new HashMap<>();
+        Node plus;          // "+" 单层通配
+        Route hashRoute;    // "#" 多层通配
+        Route route;        // 在此层结束的过滤器
+    }
+
+    /**
+     * 不可变的路由表快照，修改时在旁边构建新表再整体替换，分发只读取一次引用，不会看到重建到一半的前缀树
+     */
+    private static final class Table {
+        static final Table EMPTY = new Table(Collections.<String, Route>emptyMap(),
+                Collections.<String, Route>emptyMap());
+
+        final Map<String, Route> exactRoutes;
+        final Map<String, Route> wildcardRoutes;
+        final Node wildcardRoot = new Node();
+
+        Table(Map<String, Route> exactRoutes, Map<String, Route> wildcardRoutes) {
+            this.exactRoutes = exactRoutes;
+            this.wildcardRoutes = wildcardRoutes;
+            for (Route route : wildcardRoutes.values()) {
+                insert(route);
+            }
+        }
+
+        private void insert(Route route) {
+            Node node = wildcardRoot;
+            String[] levels = route.topicFilter.split("/", -1);
+            for (int i = 0; i < levels.length; i++) {
+                String level = levels[i];
+                if ("#".equals(level)) {
+                    node.hashRoute = route;
+                    return;
+                }
+                if ("+".equals(level)) {
+                    if (node.plus == null) {
+                        node.plus = new Node();
+                    }
+                    node = node.plus;
+                } else {
+                    Node child = node.children.get(level);
+                    if (child == null) {
+                        child = new Node();
+                        node.children.put(level, child);
+                    }
+                    node = child;
+                }
+            }
+            node.route = route;
+        }
+    }
+
+    private volatile Table table = Table.EMPTY;
+
+    /**
+     * 注册主题处理器
+     * @param topicFilter 精确主题或含 +/# 的通配符过滤器
+     * @param executor    处理器运行的线程，如主线程或解析线程池
+     */
+    public synchronized void register(String topicFilter, Executor executor, MessageHandler handler) {
+        Route route = new Route(topicFilter, executor, handler);
+        Table current = table;
+        if (!isWildcard(topicFilter)) {
+            Map<String, Route> exactRoutes = new LinkedHashMap<>(current.exactRoutes);
+            exactRoutes.put(topicFilter, route);
+            table = new Table(exactRoutes, current.wildcardRoutes);
+            return;
+        }
+
+        String[] levels = topicFilter.split("/", -1);
+        for (int i = 0; i < levels.length - 1; i++) {
+            if ("#".equals(levels[i])) {
+                throw new IllegalArgumentException("'#' must be the last level: " + topicFilter);
+            }
+        }
+        Map<String, Route> wildcardRoutes = new LinkedHashMap<>(current.wildcardRoutes);
+        wildcardRoutes.put(topicFilter, route);
+        table = new Table(current.exactRoutes, wildcardRoutes);
+    }
+
+    /**
+     * 注销主题处理器
+     */
+    public synchronized void unregister(String topicFilter) {
+        Table current = table;
+        if (current.exactRoutes.containsKey(topicFilter)) {
+            Map<String, Route> exactRoutes = new LinkedHashMap<>(current.exactRoutes);
+            exactRoutes.remove(topicFilter);
+            table = new Table(exactRoutes, current.wildcardRoutes);
+        } else if (current.wildcardRoutes.containsKey(topicFilter)) {
+            // 通配符路由较少，直接重建前缀树
+            Map<String, Route> wildcardRoutes = new LinkedHashMap<>(current.wildcardRoutes);
+            wildcardRoutes.remove(topicFilter);
+            table = new Table(current.exactRoutes, wildcardRoutes);
+        }
+    }
+
+    /**
+     * 用另一张路由表的内容整体替换当前路由，替换前后的消息都能找到处理器
+     */
+    public synchronized void replaceWith(MqttTopicRouter routes) {
+        table = routes.table;
+    }
+
+    /**
+     * 清空所有路由
+     */
+    public synchronized void clear() {
+        table = Table.EMPTY;
+    }
+
+    /**
+     * 当前已注册的主题过滤器，用于订阅
+     */
+    public Set<String> getTopicFilters() {
+        Table current = table;
+        Set<String> filters = new LinkedHashSet<>(current.exactRoutes.keySet());
+        filters.addAll(current.wildcardRoutes.keySet());
+        return Collections.unmodifiableSet(filters);
+    }
+
+    public int size() {
+        Table current = table;
+        return current.exactRoutes.size() + current.wildcardRoutes.size();
+    }
+
+    /**
+     * 分发消息到匹配的处理器，精确主题优先于通配符
+     * @return 是否找到处理器
+     */
+    public boolean dispatch(String topic, MqttMessage message) {
+        Table current = table;
+        Route route = current.exactRoutes.get(topic);
+        if (route == null && !current.wildcardRoutes.isEmpty()) {
+            route = match(current.wildcardRoot, topic.split("/", -1), 0);
+        }
+        if (route == null) {
+            return false;
+        }
+
+        final Route target = route;
+        final byte[] raw = message.getPayload();
+        target.executor.execute(() -> {
+            try {
+                // 压缩的载荷在处理线程中解压，处理器只会看到JSON或紧凑编码
+                ByteBuffer payload = PayloadCompression.isCompressed(raw)
+                        ? PayloadCompression.inflate(raw) : PayloadBuffers.wrap(raw);
+                target.handler.handle(topic, payload);
+            } catch (Exception e) {
+                Logger.e(TAG, "Error handling message from topic: " + topic, e);
+            }
+        });
+        return true;
+    }
+
+    private static Route match(Node node, String[] levels, int index) {
+        if (index == levels.length) {
+            return node.route != null ? node.route : node.hashRoute;
+        }
+
+        Node child = node.children.get(levels[index]);
+        if (child != null) {
+            Route route = match(child, levels, index + 1);
+            if (route != null) {
+                return route;
+            }
+        }
+        if (node.plus != null) {
+            Route route = match(node.plus, levels, index + 1);
+            if (route != null) {
+                return route;
+            }
+        }
+        return node.hashRoute;
+    }
+
+    private static boolean isWildcard(String topicFilter) {
+        return topicFilter.indexOf('+') >= 0 || topicFilter.indexOf('#') >= 0;
+    }
+}
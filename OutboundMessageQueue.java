@@ -0,0 +1,413 @@
+package com.mediaplatform.android.service;
+
+import com.mediaplatform.android.utils.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 离线消息队列
+ * 断线期间的发布写入内存映射的追加文件，重连后按顺序重放。
+ * 同一合并键(如设备状态)只保留最新一条，旧记录原地标记为已覆盖。
+ *
+ * 文件格式：
+ * [magic:int][readPos:int][writePos:int][reserved:int]
+ * 记录：[length:int][enqueuedAt:long][flags:byte][qos:byte][retained:byte]
+ *       [topicLen:short][topic][keyLen:short][key][payloadLen:int][payload]
+ */
+public class OutboundMessageQueue {
+    private static final String TAG = "OutboundMessageQueue";
+
+    private static final int MAGIC = 0x4D514F42; // "MQOB"
+    private static final int HEADER_SIZE = 16;
+    private static final int POS_READ = 4;
+    private static final int POS_WRITE = 8;
+    private static final int RECORD_FIXED_SIZE = 4 + 8 + 1 + 1 + 1 + 2 + 2 + 4;
+    private static final int FLAGS_OFFSET = 4 + 8;
+
+    private static final byte FLAG_LIVE = 0;
+    private static final byte FLAG_SUPERSEDED = 1;
+
+    private static final int COPY_CHUNK_SIZE = 8 * 1024;
+
+    /**
+     * 重放时一条消息的处理结果
+     */
+    public enum Result {
+        /** 已发出 */
+        SENT,
+        /** 调用方据 enqueuedAt 判定已过期并丢弃，计入过期数 */
+        EXPIRED,
+        /** 发布失败，停止重放，该消息保留到下次 */
+        FAILED
+    }
+
+    /**
+     * 重放时的实际发布操作
+     */
+    public interface Publisher {
+        Result publish(String topic, byte[] payload, int qos, boolean retained, long enqueuedAt);
+    }
+
+    private final File file;
+    private final int capacity;
+    private final long maxAgeMillis;
+    private RandomAccessFile randomAccessFile;
+    private MappedByteBuffer buffer;
+    private int readPosition;
+    private int writePosition;
+    private final byte[] copyBuffer = new byte[COPY_CHUNK_SIZE];
+
+    // 合并键 -> 最新记录位置
+    private final Map<String, Integer> latestByKey = new HashMap<>();
+
+    // 指标
+    private long enqueuedCount;
+    private long coalescedCount;
+    private long expiredCount;
+    private long droppedCount;
+    private long replayedCount;
+    private long lastReplayCount;
+    private long lastReplayMillis;
+
+    /**
+     * @param capacity     队列文件大小上限(字节)
+     * @param maxAgeMillis 消息最长保留时间，超时的消息重放时丢弃
+     */
+    public OutboundMessageQueue(File file, int capacity, long maxAgeMillis) {
+        this.file = file;
+        this.capacity = capacity;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * 打开或创建队列文件，恢复上次未发送的消息
+     */
+    public synchronized void open() throws IOException {
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        FileChannel channel = randomAccessFile.getChannel();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+
+        if (buffer.getInt(0) != MAGIC) {
+            reset();
+            return;
+        }
+
+        readPosition = buffer.getInt(POS_READ);
+        writePosition = buffer.getInt(POS_WRITE);
+        if (readPosition < HEADER_SIZE || writePosition > capacity || readPosition > writePosition) {
+            Logger.w(TAG, "Outbound queue file corrupted, resetting");
+            reset();
+            return;
+        }
+
+        // 重建合并索引
+        int position = readPosition;
+        while (position < writePosition) {
+            int length = buffer.getInt(position);
+            if (length < RECORD_FIXED_SIZE || position + length > writePosition) {
+                Logger.w(TAG, "Truncated record at " + position + ", discarding tail");
+                writePosition = position;
+                buffer.putInt(POS_WRITE, writePosition);
+                break;
+            }
+            if (buffer.get(position + FLAGS_OFFSET) == FLAG_LIVE) {
+                String key = readKey(position);
+                if (key != null) {
+                    latestByKey.put(key, position);
+                }
+            }
+            position += length;
+        }
+        Logger.d(TAG, "Outbound queue opened, pending bytes: " + (writePosition - readPosition));
+    }
+
+    public synchronized void close() {
+        if (buffer != null) {
+            buffer.force();
+        }
+        try {
+            if (randomAccessFile != null) {
+                randomAccessFile.close();
+            }
+        } catch (IOException e) {
+            Logger.e(TAG, "Error closing outbound queue", e);
+        }
+        buffer = null;
+        randomAccessFile = null;
+    }
+
+    /**
+     * 追加一条待发送消息
+     * @param coalesceKey 合并键，非空时覆盖同键的旧消息
+     * @return 是否写入成功
+     */
+    public synchronized boolean enqueue(String topic, byte[] payload, int qos, boolean retained, String coalesceKey) {
+        if (buffer == null) {
+            return false;
+        }
+
+        byte[] topicBytes = topic.getBytes(StandardCharsets.UTF_8);
+        byte[] keyBytes = coalesceKey == null ? new byte[0] : coalesceKey.getBytes(StandardCharsets.UTF_8);
+        int length = RECORD_FIXED_SIZE + topicBytes.length + keyBytes.length + payload.length;
+
+        if (!ensureSpace(length)) {
+            droppedCount++;
+            Logger.w(TAG, "Message larger than outbound queue, dropped: " + topic);
+            return false;
+        }
+
+        // 标记同键旧消息为已覆盖
+        if (coalesceKey != null) {
+            Integer previous = latestByKey.put(coalesceKey, writePosition);
+            if (previous != null) {
+                buffer.put(previous + FLAGS_OFFSET, FLAG_SUPERSEDED);
+                coalescedCount++;
+            }
+        }
+
+        int position = writePosition;
+        buffer.position(position);
+        buffer.putInt(length);
+        buffer.putLong(System.currentTimeMillis());
+        buffer.put(FLAG_LIVE);
+        buffer.put((byte) qos);
+        buffer.put((byte) (retained ? 1 : 0));
+        buffer.putShort((short) topicBytes.length);
+        buffer.put(topicBytes);
+        buffer.putShort((short) keyBytes.length);
+        buffer.put(keyBytes);
+        buffer.putInt(payload.length);
+        buffer.put(payload);
+
+        writePosition = position + length;
+        buffer.putInt(POS_WRITE, writePosition);
+        enqueuedCount++;
+        return true;
+    }
+
+    /**
+     * 按顺序重放队列中的消息，遇到发布失败则停止，剩余消息保留到下次
+     * @return 本次成功发送的消息数
+     */
+    public synchronized int replay(Publisher publisher) {
+        if (buffer == null || readPosition == writePosition) {
+            return 0;
+        }
+
+        long startedAt = System.currentTimeMillis();
+        int sent = 0;
+        while (readPosition < writePosition) {
+            int position = readPosition;
+            int length = buffer.getInt(position);
+            long enqueuedAt = buffer.getLong(position + 4);
+            byte flags = buffer.get(position + FLAGS_OFFSET);
+
+            if (flags == FLAG_LIVE) {
+                if (maxAgeMillis > 0 && startedAt - enqueuedAt > maxAgeMillis) {
+                    expiredCount++;
+                } else {
+                    buffer.position(position + FLAGS_OFFSET + 1);
+                    int qos = buffer.get();
+                    boolean retained = buffer.get() != 0;
+                    String topic = readString(buffer.getShort());
+                    int keyLength = buffer.getShort();
+                    buffer.position(buffer.position() + keyLength); // 跳过合并键
+                    byte[] payload = new byte[buffer.getInt()];
+                    buffer.get(payload);
+
+                    Result result = publisher.publish(topic, payload, qos, retained, enqueuedAt);
+                    if (result == Result.FAILED) {
+                        break;
+                    }
+                    if (result == Result.EXPIRED) {
+                        expiredCount++;
+                    } else {
+                        sent++;
+                    }
+                }
+                String key = readKey(position);
+                if (key != null && Integer.valueOf(position).equals(latestByKey.get(key))) {
+                    latestByKey.remove(key);
+                }
+            }
+
+            readPosition = position + length;
+            buffer.putInt(POS_READ, readPosition);
+        }
+
+        if (readPosition == writePosition) {
+            reset();
+        }
+
+        replayedCount += sent;
+        lastReplayCount = sent;
+        lastReplayMillis = System.currentTimeMillis() - startedAt;
+        Logger.d(TAG, "Replayed " + sent + " queued messages in " + lastReplayMillis + "ms");
+        return sent;
+    }
+
+    public synchronized boolean isEmpty() {
+        return readPosition == writePosition;
+    }
+
+    public synchronized int getPendingBytes() {
+        return writePosition - readPosition;
+    }
+
+    // 指标
+
+    public synchronized long getEnqueuedCount() {
+        return enqueuedCount;
+    }
+
+    public synchronized long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    public synchronized long getExpiredCount() {
+        return expiredCount;
+    }
+
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    public synchronized long getReplayedCount() {
+        return replayedCount;
+    }
+
+    /**
+     * 最近一次重放吞吐量(条/秒)
+     */
+    public synchronized double getLastReplayThroughput() {
+        if (lastReplayCount == 0) {
+            return 0;
+        }
+        return lastReplayCount * 1000.0 / Math.max(1, lastReplayMillis);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "OutboundMessageQueue{pendingBytes=" + getPendingBytes()
+                + ", enqueued=" + enqueuedCount
+                + ", coalesced=" + coalescedCount
+                + ", expired=" + expiredCount
+                + ", dropped=" + droppedCount
+                + ", replayed=" + replayedCount
+                + ", lastReplayMsgPerSec=" + getLastReplayThroughput()
+                + "}";
+    }
+
+    /**
+     * 确保有足够空间：已发送和已覆盖的记录可回收，仍不够则丢弃最旧的消息。
+     * 先标记要丢弃的记录，最后只压缩一次
+     */
+    private boolean ensureSpace(int length) {
+        if (HEADER_SIZE + length > capacity) {
+            return false;
+        }
+        if (writePosition + length <= capacity) {
+            return true;
+        }
+
+        int liveBytes = 0;
+        for (int position = readPosition; position < writePosition; position += buffer.getInt(position)) {
+            if (buffer.get(position + FLAGS_OFFSET) == FLAG_LIVE) {
+                liveBytes += buffer.getInt(position);
+            }
+        }
+        int position = readPosition;
+        while (HEADER_SIZE + liveBytes + length > capacity) {
+            int recordLength = buffer.getInt(position);
+            if (buffer.get(position + FLAGS_OFFSET) == FLAG_LIVE) {
+                buffer.put(position + FLAGS_OFFSET, FLAG_SUPERSEDED);
+                liveBytes -= recordLength;
+                droppedCount++;
+            }
+            position += recordLength;
+        }
+        compact();
+        return true;
+    }
+
+    /**
+     * 把有效记录搬到文件头部，回收已发送和已覆盖记录的空间；连续的有效记录整段搬移
+     */
+    private void compact() {
+        int source = readPosition;
+        int target = HEADER_SIZE;
+        int runStart = source;
+        latestByKey.clear();
+
+        while (source < writePosition) {
+            int length = buffer.getInt(source);
+            if (buffer.get(source + FLAGS_OFFSET) == FLAG_LIVE) {
+                // 搬移前读出合并键，记下记录搬移后的位置
+                String key = readKey(source);
+                if (key != null) {
+                    latestByKey.put(key, target + (source - runStart));
+                }
+            } else {
+                target += move(runStart, target, source - runStart);
+                runStart = source + length;
+            }
+            source += length;
+        }
+        target += move(runStart, target, source - runStart);
+
+        readPosition = HEADER_SIZE;
+        writePosition = target;
+        buffer.putInt(POS_READ, readPosition);
+        buffer.putInt(POS_WRITE, writePosition);
+    }
+
+    /**
+     * 把一段字节搬到更靠前的位置，按块读出再写入，源和目标重叠也安全
+     * @return 搬移的字节数
+     */
+    private int move(int source, int target, int length) {
+        if (source != target) {
+            for (int offset = 0; offset < length; offset += COPY_CHUNK_SIZE) {
+                int count = Math.min(COPY_CHUNK_SIZE, length - offset);
+                buffer.position(source + offset);
+                buffer.get(copyBuffer, 0, count);
+                buffer.position(target + offset);
+                buffer.put(copyBuffer, 0, count);
+            }
+        }
+        return length;
+    }
+
+    private void reset() {
+        readPosition = HEADER_SIZE;
+        writePosition = HEADER_SIZE;
+        latestByKey.clear();
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(POS_READ, readPosition);
+        buffer.putInt(POS_WRITE, writePosition);
+    }
+
+    private String readKey(int position) {
+        int topicLength = buffer.getShort(position + FLAGS_OFFSET + 3);
+        int keyOffset = position + FLAGS_OFFSET + 3 + 2 + topicLength;
+        int keyLength = buffer.getShort(keyOffset);
+        if (keyLength == 0) {
+            return null;
+        }
+        buffer.position(keyOffset + 2);
+        return readString(keyLength);
+    }
+
+    private String readString(int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
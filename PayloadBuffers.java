@@ -0,0 +1,249 @@
+package com.mediaplatform.android.service;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 载荷字节处理工具
+ * 收到的消息以只读ByteBuffer视图传给处理器，不再整体转成String；
+ * 编码时写入每个线程复用的缓冲区，最后只复制一次交给MqttMessage。
+ * 载荷日志默认关闭，安卓端需要时执行 adb shell setprop log.tag.MqttPayload VERBOSE 开启。
+ */
+public final class PayloadBuffers {
+
+    /** 控制载荷日志开关的标签 */
+    public static final String LOG_TAG = "MqttPayload";
+
+    private static final int PREVIEW_LIMIT = 256;
+    private static final int INITIAL_CAPACITY = 512;
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    private static final ThreadLocal<EncodeBuffer> ENCODE_BUFFERS = new ThreadLocal<EncodeBuffer>() {
+        @Override
+        protected EncodeBuffer initialValue() {
+            return new EncodeBuffer(INITIAL_CAPACITY);
+        }
+    };
+
+    // 只读视图不暴露底层数组，解码String时先复制到线程内的临时数组
+    private static final ThreadLocal<byte[][]> DECODE_SCRATCH = new ThreadLocal<byte[][]>() {
+        @Override
+        protected byte[][] initialValue() {
+            return new byte[][] {new byte[INITIAL_CAPACITY]};
+        }
+    };
+
+    private static volatile BooleanSupplier payloadLoggable = () -> false;
+
+    private PayloadBuffers() {
+    }
+
+    /**
+     * 设置载荷日志开关的判断，安卓端使用 Log.isLoggable(LOG_TAG, Log.VERBOSE)
+     */
+    public static void setPayloadLoggable(BooleanSupplier check) {
+        payloadLoggable = check;
+    }
+
+    /**
+     * 包装MQTT载荷为只读视图，不复制数据
+     */
+    public static ByteBuffer wrap(byte[] payload) {
+        return ByteBuffer.wrap(payload).asReadOnlyBuffer();
+    }
+
+    /**
+     * 按UTF-8解码，不改变缓冲区位置
+     */
+    public static String toUtf8(ByteBuffer payload) {
+        int length = payload.remaining();
+        if (length > MAX_RETAINED_CAPACITY) {
+            return StandardCharsets.UTF_8.decode(payload.duplicate()).toString();
+        }
+        byte[][] holder = DECODE_SCRATCH.get();
+        if (holder[0].length < length) {
+            holder[0] = new byte[Math.max(length, holder[0].length * 2)];
+        }
+        payload.duplicate().get(holder[0], 0, length);
+        return new String(holder[0], 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 以输入流读取缓冲区剩余内容，供流式解析器使用
+     */
+    public static InputStream asInputStream(ByteBuffer payload) {
+        return new ByteBufferInputStream(payload.duplicate());
+    }
+
+    /**
+     * 取得当前线程的编码缓冲区，使用前已清空
+     */
+    public static EncodeBuffer acquireEncodeBuffer() {
+        EncodeBuffer buffer = ENCODE_BUFFERS.get();
+        buffer.reset();
+        return buffer;
+    }
+
+    public static boolean isPayloadLoggable() {
+        return payloadLoggable.getAsBoolean();
+    }
+
+    /**
+     * 截断后的载荷预览，只应在 isPayloadLoggable() 为真时调用
+     */
+    public static String preview(ByteBuffer payload) {
+        int length = payload.remaining();
+        ByteBuffer view = payload.duplicate();
+        if (length > PREVIEW_LIMIT) {
+            view.limit(view.position() + PREVIEW_LIMIT);
+        }
+        if (length > 0 && !isText(view.get(view.position()))) {
+            return "<binary " + length + " bytes>";
+        }
+        String text = StandardCharsets.UTF_8.decode(view).toString();
+        return length > PREVIEW_LIMIT ? text + "...(" + length + " bytes)" : text;
+    }
+
+    public static String preview(byte[] payload) {
+        return preview(ByteBuffer.wrap(payload));
+    }
+
+    private static boolean isText(byte first) {
+        return first == '{' || first == '[' || (first >= 0x20 && first < 0x7F);
+    }
+
+    /**
+     * 与 writeUtf8 的输出长度一致
+     */
+    public static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * 可复用的编码缓冲区，直接写入UTF-8，避免中间String.getBytes分配
+     */
+    public static final class EncodeBuffer extends OutputStream {
+        private byte[] data;
+        private int size;
+
+        EncodeBuffer(int capacity) {
+            data = new byte[capacity];
+        }
+
+        @Override
+        public void write(int b) {
+            ensureCapacity(size + 1);
+            data[size++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            ensureCapacity(size + length);
+            System.arraycopy(bytes, offset, data, size, length);
+            size += length;
+        }
+
+        /**
+         * 写入字符串的UTF-8编码
+         */
+        public void writeUtf8(String value) {
+            ensureCapacity(size + utf8Length(value));
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c < 0x80) {
+                    data[size++] = (byte) c;
+                } else if (c < 0x800) {
+                    data[size++] = (byte) (0xC0 | (c >> 6));
+                    data[size++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    data[size++] = (byte) (0xF0 | (codePoint >> 18));
+                    data[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    data[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    data[size++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    data[size++] = '?';
+                } else {
+                    data[size++] = (byte) (0xE0 | (c >> 12));
+                    data[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    data[size++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public void reset() {
+            size = 0;
+            // 偶发的大消息不长期占用内存
+            if (data.length > MAX_RETAINED_CAPACITY) {
+                data = new byte[INITIAL_CAPACITY];
+            }
+        }
+
+        /**
+         * 复制出恰好大小的数组，MqttMessage会持有该数组直到送达
+         */
+        public byte[] toByteArray() {
+            return Arrays.copyOf(data, size);
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > data.length) {
+                data = Arrays.copyOf(data, Math.max(capacity, data.length * 2));
+            }
+        }
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
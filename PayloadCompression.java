@@ -0,0 +1,199 @@
+package com.mediaplatform.android.service;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 载荷压缩 (deflate-dict-v1)
+ * 在注册时与服务端协商启用，协商后双方发送的载荷超过阈值时用预置字典压缩，压缩后不更小则原样发送。
+ * 设备消息的字段名和取值高度重复，预置字典让几百字节的单条消息也能压缩，
+ * 字典与服务端 server/src/services/payloadCompression.ts 保持一致，修改内容时必须换一个字典编号。
+ * 解压写入每个线程复用的缓冲区，返回的视图只在处理器执行期间有效。
+ *
+ * 格式：[0xC3][字典编号:1][原始长度:varint][zlib数据流]
+ * 内层载荷可以是JSON或紧凑编码，解压后按首字节区分。
+ */
+public final class PayloadCompression {
+
+    public static final String COMPRESSION_DEFLATE = "deflate-dict-v1";
+    public static final byte MAGIC = (byte) 0xC3;
+    public static final int MIN_COMPRESS_SIZE = 128; // 更小的消息压缩收益抵不上头部和CPU开销
+
+    private static final int DICTIONARY_ID = 1;
+    private static final int MAX_INFLATED_SIZE = 8 * 1024 * 1024; // 防止异常数据按声明长度分配大数组
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    // 预置字典，越常见的片段越靠后(距离越短编码越省)；只能整体替换并递增字典编号
+    private static final byte[] DICTIONARY = (
+            "\"messageType\":\"broadcast\",\"message\":\"\",\"playlist_full\",\"playlist_delta\","
+            + "\"baseVersion\":,\"ops\":[{\"op\":\"remove\",\"id\":\"\"},{\"op\":\"add\",\"after\":null,\"item\":"
+            + "{\"op\":\"move\",\"op\":\"update\",\"transferId\":\"\",\"missing\":[[,]],"
+            + "\"counters\":{},\"gauges\":{},\"histograms\":{\"count\":,\"mean\":,\"max\":,\"p50\":,\"p99\":"
+            + "\"deviceType\":\"android_screen\",\"deviceName\":\"\",\"deviceModel\":\"\",\"deviceVersion\":\"\","
+            + "\"appVersion\":\"\",\"screenResolution\":\"1920x1080\",\"location\":\"\","
+            + "\"encodings\":[\"compact-v1\",\"json\"],\"compressions\":[\"deflate-dict-v1\"],"
+            + "\"metadata\":{\"region\":\"\",\"city\":\"\",\"tags\":[]},\"groups\":{"
+            + "\"status\":\"success\",\"message\":\"\",\"encoding\":\"compact-v1\","
+            + "\"command\":\"\",\"params\":{},\"action\":\"\",\"data\":{},"
+            + "\"schedule\":{\"startTime\":\"\",\"endTime\":\"\",\"priority\":},"
+            + "{\"messageType\":\"content\",\"content\":{\"id\":\"\",\"title\":\"\",\"type\":\"video\","
+            + "\"type\":\"image\",\"url\":\"https://\",\"duration\":,\"size\":},"
+            + "\"batteryLevel\":,\"storageInfo\":\"\",\"memoryInfo\":\"\",\"samples\":[{"
+            + "\"status\":\"online\",\"status\":\"playing\",\"details\":\"\","
+            + "{\"deviceId\":\"\",\"clientId\":\"android_screen_\",\"version\":,\"items\":,"
+            + "\"timestamp\":"
+    ).getBytes(StandardCharsets.US_ASCII);
+
+    private static final ThreadLocal<Deflater> DEFLATERS = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(Deflater.DEFAULT_COMPRESSION);
+        }
+    };
+
+    private static final ThreadLocal<Inflater> INFLATERS = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater();
+        }
+    };
+
+    // [0]压缩输出 [1]解压输出
+    private static final ThreadLocal<byte[][]> SCRATCH = new ThreadLocal<byte[][]>() {
+        @Override
+        protected byte[][] initialValue() {
+            return new byte[][] {new byte[INITIAL_CAPACITY], new byte[INITIAL_CAPACITY]};
+        }
+    };
+
+    private PayloadCompression() {
+    }
+
+    public static boolean isCompressed(byte[] payload) {
+        return payload != null && payload.length > 0 && payload[0] == MAGIC;
+    }
+
+    /**
+     * 压缩已编码的载荷
+     * @return 压缩后的载荷；低于阈值、已压缩或压缩后不更小时返回null，由调用方原样发送
+     */
+    public static byte[] compress(byte[] payload) {
+        if (payload.length < MIN_COMPRESS_SIZE || isCompressed(payload)) {
+            return null;
+        }
+
+        byte[][] scratch = SCRATCH.get();
+        byte[] out = scratch[0];
+        if (out.length < payload.length) {
+            out = new byte[payload.length];
+        }
+        int size = 0;
+        out[size++] = MAGIC;
+        out[size++] = DICTIONARY_ID;
+        size = writeVarint(out, size, payload.length);
+
+        // reset会清除字典，每条消息都要重新设置
+        Deflater deflater = DEFLATERS.get();
+        deflater.reset();
+        deflater.setDictionary(DICTIONARY);
+        deflater.setInput(payload);
+        deflater.finish();
+        while (!deflater.finished()) {
+            if (size == out.length) {
+                // 输出已经不比原文小，放弃压缩
+                retain(scratch, 0, out);
+                return null;
+            }
+            size += deflater.deflate(out, size, out.length - size);
+        }
+        retain(scratch, 0, out);
+        return size < payload.length ? Arrays.copyOf(out, size) : null;
+    }
+
+    /**
+     * 解压到当前线程复用的缓冲区
+     * @return 只读视图，在当前线程下一次解压前有效
+     */
+    public static ByteBuffer inflate(byte[] payload) throws DataFormatException {
+        ByteBuffer view = ByteBuffer.wrap(payload);
+        if (view.remaining() < 3 || view.get() != MAGIC) {
+            throw new DataFormatException("Not a " + COMPRESSION_DEFLATE + " payload");
+        }
+        int dictionaryId = view.get() & 0xFF;
+        if (dictionaryId != DICTIONARY_ID) {
+            throw new DataFormatException("Unknown compression dictionary: " + dictionaryId);
+        }
+        long length = readVarint(view);
+        if (length > MAX_INFLATED_SIZE) {
+            throw new DataFormatException("Invalid inflated length: " + length);
+        }
+
+        byte[][] scratch = SCRATCH.get();
+        // 多留一个字节，实际内容比声明的长时可以检测出来
+        byte[] out = scratch[1].length > length ? scratch[1] : new byte[(int) length + 1];
+        Inflater inflater = INFLATERS.get();
+        inflater.reset();
+        inflater.setInput(payload, view.position(), view.remaining());
+        int size = 0;
+        try {
+            while (!inflater.finished()) {
+                int count = inflater.inflate(out, size, (int) length + 1 - size);
+                if (count == 0) {
+                    if (inflater.needsDictionary()) {
+                        inflater.setDictionary(DICTIONARY);
+                    } else if (inflater.needsInput()) {
+                        throw new DataFormatException("Truncated compressed payload");
+                    }
+                }
+                size += count;
+                if (size > length) {
+                    break;
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            // 数据流要求的字典与本地字典的校验和不一致
+            throw new DataFormatException("Compression dictionary mismatch");
+        }
+        if (size != length) {
+            throw new DataFormatException("Inflated length mismatch: " + size + " != " + length);
+        }
+        retain(scratch, 1, out);
+        return ByteBuffer.wrap(out, 0, size).asReadOnlyBuffer();
+    }
+
+    // 偶发的大消息不长期占用内存
+    private static void retain(byte[][] scratch, int index, byte[] buffer) {
+        if (buffer.length <= MAX_RETAINED_CAPACITY && buffer.length > scratch[index].length) {
+            scratch[index] = buffer;
+        }
+    }
+
+    private static int writeVarint(byte[] out, int offset, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out[offset++] = (byte) value;
+        return offset;
+    }
+
+    private static long readVarint(ByteBuffer view) throws DataFormatException {
+        long value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (!view.hasRemaining()) {
+                throw new DataFormatException("Truncated varint");
+            }
+            int b = view.get() & 0xFF;
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new DataFormatException("Varint too long");
+    }
+}
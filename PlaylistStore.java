@@ -0,0 +1,441 @@
+package com.mediaplatform.android.service;
+
+import com.mediaplatform.android.utils.Logger;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 带版本号的本地播放列表
+ * 服务端在 device/{clientId}/playlist 上发送完整列表(playlist_full)或相对版本N的增量(playlist_delta)，
+ * 增量只包含新增、删除、更新和移动的条目，位置用前一个条目的ID表示，一条修改只需几百字节。
+ * 版本不连续或增量引用了不存在的条目时返回 RESYNC，由调用方请求完整列表。
+ *
+ * 持久化为快照文件加增量日志：每次增量只追加一行，日志条数或大小超过阈值时重写快照，
+ * 重启后读取快照并重放日志即可恢复，不需要服务端重新推送。
+ *
+ * 增量格式：
+ * {"type":"playlist_delta","baseVersion":N,"version":M,"ops":[
+ *   {"op":"remove","id":"..."},
+ *   {"op":"add","after":"前一个条目ID或null","item":{"id":"...",...}},
+ *   {"op":"update","item":{"id":"...",...}},
+ *   {"op":"move","id":"...","after":"前一个条目ID或null"}]}
+ */
+public class PlaylistStore {
+    private static final String TAG = "PlaylistStore";
+
+    public static final String TYPE_FULL = "playlist_full";
+    public static final String TYPE_DELTA = "playlist_delta";
+
+    private static final String SNAPSHOT_FILE = "playlist.snapshot";
+    private static final String JOURNAL_FILE = "playlist.journal";
+    private static final int MAX_JOURNAL_ENTRIES = 64;
+
+    /**
+     * 应用结果
+     */
+    public enum Result {
+        /** 已应用 */
+        APPLIED,
+        /** 版本不高于当前版本，已忽略 */
+        DUPLICATE,
+        /** 版本不连续或与本地状态不一致，需要完整列表 */
+        RESYNC
+    }
+
+    /**
+     * 播放列表条目，内容为服务端下发的JSON，播放器按需解析
+     */
+    public static final class Item {
+        private final String id;
+        private final String json;
+
+        Item(String id, String json) {
+            this.id = id;
+            this.json = json;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getJson() {
+            return json;
+        }
+    }
+
+    /**
+     * 播放列表变化回调，在应用消息的线程(解析线程)中持有本对象的锁执行，回调按版本顺序到达；
+     * 回调中不要等待需要访问本对象的其他线程
+     */
+    public interface Listener {
+        void onPlaylistChanged(long version, List<Item> items, boolean fullReplace);
+    }
+
+    private final File directory;
+    private List<Item> items = new ArrayList<>();
+    private long version;
+    private int journalEntries;
+    private long journalBytes;
+    private long snapshotBytes;
+    private volatile Listener listener;
+
+    // 统计
+    private long deltasApplied;
+    private long fullUpdates;
+    private long resyncsRequired;
+    private long deltaBytes;
+    private long fullBytes;
+
+    public PlaylistStore(File directory) {
+        this.directory = directory;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Logger.e(TAG, "Cannot create playlist directory: " + directory);
+        }
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 从快照和增量日志恢复，日志中断的部分丢弃，之后的版本缺口由服务端增量触发重新同步
+     */
+    public synchronized void load() {
+        File snapshot = new File(directory, SNAPSHOT_FILE);
+        if (snapshot.isFile()) {
+            try (BufferedReader reader = openReader(snapshot)) {
+                String header = reader.readLine();
+                if (header != null) {
+                    version = new JSONObject(header).getLong("version");
+                    List<Item> loaded = new ArrayList<>();
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (!line.isEmpty()) {
+                            loaded.add(new Item(new JSONObject(line).getString("id"), line));
+                        }
+                    }
+                    items = loaded;
+                }
+                snapshotBytes = snapshot.length();
+            } catch (IOException | JSONException e) {
+                Logger.e(TAG, "Error reading playlist snapshot, starting empty", e);
+                items = new ArrayList<>();
+                version = 0;
+            }
+        }
+
+        File journal = new File(directory, JOURNAL_FILE);
+        if (journal.isFile()) {
+            try (BufferedReader reader = openReader(journal)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    journalEntries++;
+                    journalBytes += line.length() + 1;
+                    if (line.isEmpty() || applyDelta(new JSONObject(line)) == Result.RESYNC) {
+                        break;
+                    }
+                }
+            } catch (IOException | JSONException e) {
+                Logger.w(TAG, "Playlist journal truncated after " + journalEntries + " entries", e);
+            }
+        }
+        Logger.d(TAG, "Playlist restored: " + this);
+    }
+
+    /**
+     * 应用服务端消息，版本不高于当前版本的完整列表和增量都忽略
+     */
+    public synchronized Result apply(String payload) throws JSONException {
+        JSONObject message = new JSONObject(payload);
+        String type = message.optString("type");
+        Result result;
+        boolean full = TYPE_FULL.equals(type);
+        if (full) {
+            result = replaceAll(message);
+            if (result == Result.APPLIED) {
+                fullUpdates++;
+                fullBytes += payload.length();
+                writeSnapshot();
+            }
+        } else if (TYPE_DELTA.equals(type)) {
+            result = applyDelta(message);
+            if (result == Result.APPLIED) {
+                deltasApplied++;
+                deltaBytes += payload.length();
+                appendJournal(message.toString());
+            } else if (result == Result.RESYNC) {
+                resyncsRequired++;
+            }
+        } else {
+            Logger.w(TAG, "Unknown playlist message type: " + type);
+            return Result.DUPLICATE;
+        }
+
+        // 在锁内回调，两条消息的回调不会交错或颠倒
+        Listener current = listener;
+        if (result == Result.APPLIED && current != null) {
+            current.onPlaylistChanged(version, getItems(), full);
+        }
+        return result;
+    }
+
+    /**
+     * 完整列表的版本不高于当前版本时是迟到的旧列表，替换会让已应用的增量丢失
+     */
+    private Result replaceAll(JSONObject message) throws JSONException {
+        long newVersion = message.getLong("version");
+        if (newVersion <= version) {
+            Logger.d(TAG, "Ignoring playlist version " + newVersion + ", already at " + version);
+            return Result.DUPLICATE;
+        }
+        JSONArray array = message.getJSONArray("items");
+        List<Item> replaced = new ArrayList<>(array.length());
+        for (int i = 0; i < array.length(); i++) {
+            JSONObject item = array.getJSONObject(i);
+            replaced.add(new Item(item.getString("id"), item.toString()));
+        }
+        items = replaced;
+        version = newVersion;
+        return Result.APPLIED;
+    }
+
+    /**
+     * 在副本上依次应用操作，任何一步与本地状态不一致都放弃整条增量
+     */
+    private Result applyDelta(JSONObject delta) throws JSONException {
+        long baseVersion = delta.getLong("baseVersion");
+        long newVersion = delta.getLong("version");
+        if (newVersion <= version) {
+            return Result.DUPLICATE;
+        }
+        if (baseVersion != version) {
+            Logger.w(TAG, "Playlist delta " + baseVersion + "->" + newVersion + " does not apply to version " + version);
+            return Result.RESYNC;
+        }
+
+        List<Item> working = new ArrayList<>(items);
+        Map<String, Integer> positions = indexPositions(working);
+        JSONArray ops = delta.getJSONArray("ops");
+        for (int i = 0; i < ops.length(); i++) {
+            JSONObject op = ops.getJSONObject(i);
+            String kind = op.getString("op");
+            switch (kind) {
+                case "remove": {
+                    int index = indexOf(working, positions, op.getString("id"));
+                    if (index < 0) {
+                        return Result.RESYNC;
+                    }
+                    working.remove(index);
+                    positions = null;
+                    break;
+                }
+                case "add": {
+                    JSONObject item = op.getJSONObject("item");
+                    String id = item.getString("id");
+                    if (indexOf(working, positions, id) >= 0) {
+                        return Result.RESYNC;
+                    }
+                    int index = insertionIndex(working, positions, op);
+                    if (index < 0) {
+                        return Result.RESYNC;
+                    }
+                    working.add(index, new Item(id, item.toString()));
+                    positions = null;
+                    break;
+                }
+                case "update": {
+                    JSONObject item = op.getJSONObject("item");
+                    int index = indexOf(working, positions, item.getString("id"));
+                    if (index < 0) {
+                        return Result.RESYNC;
+                    }
+                    working.set(index, new Item(item.getString("id"), item.toString()));
+                    break;
+                }
+                case "move": {
+                    int from = indexOf(working, positions, op.getString("id"));
+                    if (from < 0) {
+                        return Result.RESYNC;
+                    }
+                    Item moved = working.remove(from);
+                    positions = null;
+                    int to = insertionIndex(working, null, op);
+                    if (to < 0) {
+                        return Result.RESYNC;
+                    }
+                    working.add(to, moved);
+                    break;
+                }
+                default:
+                    Logger.w(TAG, "Unknown playlist op: " + kind);
+                    return Result.RESYNC;
+            }
+        }
+
+        items = working;
+        version = newVersion;
+        return Result.APPLIED;
+    }
+
+    // 首个操作前用哈希表定位，列表变化后退化为线性查找，单条增量通常只有几个操作
+    private static Map<String, Integer> indexPositions(List<Item> list) {
+        Map<String, Integer> positions = new HashMap<>(list.size() * 2);
+        for (int i = 0; i < list.size(); i++) {
+            positions.put(list.get(i).id, i);
+        }
+        return positions;
+    }
+
+    private static int indexOf(List<Item> list, Map<String, Integer> positions, String id) {
+        if (positions != null) {
+            Integer index = positions.get(id);
+            return index != null ? index : -1;
+        }
+        for (int i = 0; i < list.size(); i++) {
+            if (list.get(i).id.equals(id)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * after为null时插到最前，否则插到该条目之后
+     */
+    private static int insertionIndex(List<Item> list, Map<String, Integer> positions, JSONObject op)
+            throws JSONException {
+        if (op.isNull("after")) {
+            return 0;
+        }
+        int anchor = indexOf(list, positions, op.getString("after"));
+        return anchor < 0 ? -1 : anchor + 1;
+    }
+
+    private void appendJournal(String line) {
+        if (journalEntries >= MAX_JOURNAL_ENTRIES || journalBytes > Math.max(snapshotBytes, 64 * 1024)) {
+            writeSnapshot();
+            return;
+        }
+        try (Writer writer = new OutputStreamWriter(
+                new FileOutputStream(new File(directory, JOURNAL_FILE), true), StandardCharsets.UTF_8)) {
+            writer.write(line);
+            writer.write('\n');
+            journalEntries++;
+            journalBytes += line.length() + 1;
+        } catch (IOException e) {
+            // 日志写入失败时改写快照，保证重启后的状态不落后于服务端
+            Logger.w(TAG, "Error appending playlist journal, rewriting snapshot", e);
+            writeSnapshot();
+        }
+    }
+
+    /**
+     * 先写临时文件再替换，之后清空日志；替换后崩溃时日志中的旧增量按版本号跳过
+     */
+    private void writeSnapshot() {
+        File snapshot = new File(directory, SNAPSHOT_FILE);
+        File temp = new File(directory, SNAPSHOT_FILE + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp);
+             BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+            writer.write(new JSONObject().put("version", version).toString());
+            writer.write('\n');
+            for (Item item : items) {
+                writer.write(item.json);
+                writer.write('\n');
+            }
+            writer.flush();
+            out.getFD().sync();
+        } catch (IOException | JSONException e) {
+            Logger.e(TAG, "Error writing playlist snapshot", e);
+            return;
+        }
+        if (!temp.renameTo(snapshot)) {
+            Logger.e(TAG, "Cannot replace playlist snapshot");
+            return;
+        }
+        File journal = new File(directory, JOURNAL_FILE);
+        if (journal.exists() && !journal.delete()) {
+            Logger.w(TAG, "Cannot delete playlist journal");
+        }
+        snapshotBytes = snapshot.length();
+        journalEntries = 0;
+        journalBytes = 0;
+    }
+
+    private static BufferedReader openReader(File file) throws IOException {
+        return new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 请求完整列表时上报的当前版本
+     */
+    public synchronized String buildResyncRequest() throws JSONException {
+        return new JSONObject().put("version", version).put("items", items.size()).toString();
+    }
+
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    public synchronized List<Item> getItems() {
+        return Collections.unmodifiableList(new ArrayList<>(items));
+    }
+
+    public synchronized int size() {
+        return items.size();
+    }
+
+    // 统计
+
+    public synchronized long getDeltasApplied() {
+        return deltasApplied;
+    }
+
+    public synchronized long getFullUpdates() {
+        return fullUpdates;
+    }
+
+    public synchronized long getResyncsRequired() {
+        return resyncsRequired;
+    }
+
+    /**
+     * 平均每条增量的字节数
+     */
+    public synchronized long getAverageDeltaBytes() {
+        return deltasApplied == 0 ? 0 : deltaBytes / deltasApplied;
+    }
+
+    public synchronized long getAverageFullBytes() {
+        return fullUpdates == 0 ? 0 : fullBytes / fullUpdates;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PlaylistStore{version=" + version
+                + ", items=" + items.size()
+                + ", deltas=" + deltasApplied
+                + ", full=" + fullUpdates
+                + ", resyncs=" + resyncsRequired
+                + ", avgDeltaBytes=" + getAverageDeltaBytes()
+                + ", avgFullBytes=" + getAverageFullBytes() + "}";
+    }
+}
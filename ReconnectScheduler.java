@@ -0,0 +1,112 @@
+package com.mediaplatform.android.service;
+
+import java.util.Random;
+
+/**
+ * 重连调度器
+ * 使用全抖动指数退避：延迟在 [0, min(上限, 基数 * 2^n)] 内均匀随机，
+ * 代理重启后大量终端的重连时间被打散，不会同时涌入。
+ * 不设最大重试次数，退避到上限后按上限持续重试。
+ */
+public class ReconnectScheduler {
+
+    private final SerialScheduler scheduler;
+    private final Runnable reconnectAction;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final Random random;
+
+    private int attempts = 0;
+    private boolean pending = false;
+    private final Runnable attemptRunnable = new Runnable() {
+        @Override
+        public void run() {
+            pending = false;
+            reconnectAction.run();
+        }
+    };
+
+    /**
+     * @param scheduler 重连动作在该线程上执行
+     */
+    public ReconnectScheduler(SerialScheduler scheduler, Runnable reconnectAction, long baseDelayMillis,
+                              long maxDelayMillis) {
+        this(scheduler, reconnectAction, baseDelayMillis, maxDelayMillis, new Random());
+    }
+
+    ReconnectScheduler(SerialScheduler scheduler, Runnable reconnectAction, long baseDelayMillis,
+                       long maxDelayMillis, Random random) {
+        this.scheduler = scheduler;
+        this.reconnectAction = reconnectAction;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.random = random;
+    }
+
+    /**
+     * 安排下一次重连，已有待执行的重连时不重复安排
+     * @return 本次延迟(毫秒)，已有待执行重连时返回-1
+     */
+    public long scheduleNext() {
+        if (pending) {
+            return -1;
+        }
+
+        long delay = nextDelay(attempts);
+        attempts++;
+        pending = true;
+        scheduler.executeDelayed(attemptRunnable, delay);
+        return delay;
+    }
+
+    /**
+     * 网络恢复或手动重连时立即重连，并清零退避
+     */
+    public void reconnectNow() {
+        cancel();
+        attempts = 0;
+        pending = true;
+        scheduler.execute(attemptRunnable);
+    }
+
+    /**
+     * 切换到备用代理：第一次尝试在 [0, 基数] 内随机延迟，同一代理上的大量终端不会同时涌向备用代理。
+     * 不清零退避，全部代理都失败后仍按退避重连
+     * @return 本次延迟(毫秒)
+     */
+    public long scheduleFailover() {
+        cancel();
+        long delay = nextDelay(0);
+        pending = true;
+        scheduler.executeDelayed(attemptRunnable, delay);
+        return delay;
+    }
+
+    /**
+     * 连接成功后清零退避
+     */
+    public void reset() {
+        cancel();
+        attempts = 0;
+    }
+
+    public void cancel() {
+        scheduler.cancel(attemptRunnable);
+        pending = false;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * 全抖动退避延迟
+     */
+    long nextDelay(int attempt) {
+        long ceiling = maxDelayMillis;
+        if (attempt < 31) {
+            ceiling = Math.min(maxDelayMillis, baseDelayMillis << attempt);
+        }
+        return (long) (random.nextDouble() * ceiling);
+    }
+}
@@ -0,0 +1,23 @@
+package com.mediaplatform.android.service;
+
+import java.util.concurrent.Executor;
+
+/**
+ * 串行调度线程
+ * 连接状态只在这个线程上修改，任务按提交顺序逐个执行。
+ * 安卓端由主线程Handler实现，JVM模拟器由共享线程池上的串行队列实现。
+ */
+public interface SerialScheduler extends Executor {
+
+    /**
+     * 插到队列最前，先于已排队的任务执行
+     */
+    void executeAtFront(Runnable task);
+
+    void executeDelayed(Runnable task, long delayMillis);
+
+    /**
+     * 取消尚未执行的任务(通过 execute 或 executeDelayed 提交的同一实例)
+     */
+    void cancel(Runnable task);
+}
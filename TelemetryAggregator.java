@@ -0,0 +1,258 @@
+package com.mediaplatform.android.service;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 心跳遥测聚合器
+ * 每项设备指标按各自的频率采样并缓存，只有变化超过阈值才记录为增量；
+ * 多次采样合并成一条消息发送，没有变化时只发送最小保活消息。
+ * 消息发出后调用 onPublished 才把其中的值记为已上报；被离线队列合并或过期的消息没有送达，
+ * 其中的增量会继续出现在之后的消息里。
+ */
+public class TelemetryAggregator {
+
+    // 最多记录的未发出消息数，更早的消息已被离线队列合并掉，不会再发出
+    private static final int MAX_UNPUBLISHED = 32;
+
+    /**
+     * 指标采样函数
+     */
+    public interface Sampler {
+        Object sample() throws Exception;
+    }
+
+    private static final class Metric {
+        final String name;
+        final long intervalMillis;
+        final double threshold;
+        final Sampler sampler;
+        Object cachedValue;
+        Object reportedValue; // 已发出的消息中的值
+        Object batchedValue; // 本批采样中的值，批次发出前避免重复记录
+        long lastSampledAt;
+
+        Metric(String name, long intervalMillis, double threshold, Sampler sampler) {
+            this.name = name;
+            this.intervalMillis = intervalMillis;
+            this.threshold = threshold;
+            this.sampler = sampler;
+        }
+    }
+
+    private final String deviceId;
+    private final long keepaliveIntervalMillis;
+    private final int maxBatchSize;
+    private final Map<String, Metric> metrics = new LinkedHashMap<>();
+    private final List<JSONObject> pendingSamples = new ArrayList<>();
+    // 已生成但还没发出的消息：消息时间戳 -> 其中各指标的值
+    private final LinkedHashMap<Long, Map<Metric, Object>> unpublished = new LinkedHashMap<>();
+
+    private long firstPendingAt;
+    private long lastPublishedAt;
+    private boolean fullSnapshotRequired = true;
+    private int fullHeartbeatBytes;
+
+    // 统计
+    private long tickCount;
+    private long messagesSent;
+    private long bytesSent;
+    private long legacyBytes;
+
+    /**
+     * @param keepaliveIntervalMillis 无变化时保活消息的最大间隔，同时也是增量的最大延迟
+     * @param maxBatchSize            单条消息最多合并的采样数
+     */
+    public TelemetryAggregator(String deviceId, long keepaliveIntervalMillis, int maxBatchSize) {
+        this.deviceId = deviceId;
+        this.keepaliveIntervalMillis = keepaliveIntervalMillis;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * 注册指标
+     * @param intervalMillis 采样间隔，间隔内直接使用缓存值
+     * @param threshold      数值指标的变化阈值，非数值指标按值是否相等判断
+     */
+    public synchronized void addMetric(String name, long intervalMillis, double threshold, Sampler sampler) {
+        metrics.put(name, new Metric(name, intervalMillis, threshold, sampler));
+    }
+
+    /**
+     * 下一次发送完整快照，用于重连后让服务端获得基准值
+     */
+    public synchronized void requestFullSnapshot() {
+        fullSnapshotRequired = true;
+    }
+
+    /**
+     * 每个心跳周期调用一次
+     * @return 需要发布的消息，本周期无需发送时返回null
+     */
+    public synchronized String tick(long now) throws JSONException {
+        tickCount++;
+
+        JSONObject sample = new JSONObject();
+        boolean changed = false;
+        for (Metric metric : metrics.values()) {
+            if (metric.cachedValue == null || now - metric.lastSampledAt >= metric.intervalMillis) {
+                try {
+                    metric.cachedValue = metric.sampler.sample();
+                } catch (Exception e) {
+                    continue;
+                }
+                metric.lastSampledAt = now;
+            }
+
+            if (fullSnapshotRequired || isSignificantChange(metric)) {
+                sample.put(metric.name, metric.cachedValue);
+                metric.batchedValue = metric.cachedValue;
+                changed = true;
+            }
+        }
+
+        if (changed) {
+            fullHeartbeatBytes = buildFullHeartbeat(now).getBytes(StandardCharsets.UTF_8).length;
+            sample.put("timestamp", now);
+            if (pendingSamples.isEmpty()) {
+                firstPendingAt = now;
+            }
+            pendingSamples.add(sample);
+        }
+        legacyBytes += fullHeartbeatBytes;
+
+        boolean flush = fullSnapshotRequired
+                || pendingSamples.size() >= maxBatchSize
+                || (!pendingSamples.isEmpty() && now - firstPendingAt >= keepaliveIntervalMillis)
+                || now - lastPublishedAt >= keepaliveIntervalMillis;
+        if (!flush) {
+            return null;
+        }
+
+        JSONObject message = new JSONObject();
+        message.put("deviceId", deviceId);
+        message.put("timestamp", now);
+        message.put("status", "online");
+        if (!pendingSamples.isEmpty()) {
+            JSONArray samples = new JSONArray();
+            for (JSONObject pending : pendingSamples) {
+                samples.put(pending);
+            }
+            message.put("samples", samples);
+        }
+
+        String payload = message.toString();
+        pendingSamples.clear();
+        Map<Metric, Object> values = new HashMap<>();
+        for (Metric metric : metrics.values()) {
+            if (metric.batchedValue != null) {
+                values.put(metric, metric.batchedValue);
+                metric.batchedValue = null;
+            }
+        }
+        unpublished.put(now, values);
+        if (unpublished.size() > MAX_UNPUBLISHED) {
+            unpublished.remove(unpublished.keySet().iterator().next());
+        }
+        fullSnapshotRequired = false;
+        lastPublishedAt = now;
+        messagesSent++;
+        bytesSent += payload.getBytes(StandardCharsets.UTF_8).length;
+        return payload;
+    }
+
+    /**
+     * tick 在 now 时刻生成的消息已发出，其中的值记为已上报；更早的未发出消息已被合并或过期
+     */
+    public synchronized void onPublished(long now) {
+        Map<Metric, Object> values = unpublished.get(now);
+        if (values == null) {
+            return;
+        }
+        Iterator<Map.Entry<Long, Map<Metric, Object>>> iterator = unpublished.entrySet().iterator();
+        while (iterator.hasNext() && iterator.next().getKey() != now) {
+            iterator.remove();
+        }
+        iterator.remove();
+        for (Map.Entry<Metric, Object> entry : values.entrySet()) {
+            entry.getKey().reportedValue = entry.getValue();
+        }
+    }
+
+    // 统计
+
+    public synchronized long getTickCount() {
+        return tickCount;
+    }
+
+    public synchronized long getMessagesSent() {
+        return messagesSent;
+    }
+
+    public synchronized long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * 相比每个周期发送一次完整心跳节省的消息数
+     */
+    public synchronized long getMessagesSaved() {
+        return tickCount - messagesSent;
+    }
+
+    /**
+     * 相比每个周期发送一次完整心跳节省的字节数(估算)
+     */
+    public synchronized long getBytesSaved() {
+        return Math.max(0, legacyBytes - bytesSent);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "TelemetryAggregator{ticks=" + tickCount
+                + ", messagesSent=" + messagesSent
+                + ", bytesSent=" + bytesSent
+                + ", messagesSaved=" + getMessagesSaved()
+                + ", bytesSaved=" + getBytesSaved()
+                + "}";
+    }
+
+    /**
+     * 和本批中已记录的值比较，本批还没有记录时和已发出的值比较
+     */
+    private boolean isSignificantChange(Metric metric) {
+        Object current = metric.cachedValue;
+        Object reported = metric.batchedValue != null ? metric.batchedValue : metric.reportedValue;
+        if (reported == null) {
+            return current != null;
+        }
+        if (current instanceof Number && reported instanceof Number) {
+            double delta = ((Number) current).doubleValue() - ((Number) reported).doubleValue();
+            return Math.abs(delta) >= metric.threshold;
+        }
+        return !reported.equals(current);
+    }
+
+    /**
+     * 旧格式完整心跳，仅用于估算节省的字节数
+     */
+    private String buildFullHeartbeat(long now) throws JSONException {
+        JSONObject heartbeat = new JSONObject();
+        heartbeat.put("deviceId", deviceId);
+        heartbeat.put("timestamp", now);
+        heartbeat.put("status", "online");
+        for (Metric metric : metrics.values()) {
+            heartbeat.put(metric.name, metric.cachedValue);
+        }
+        return heartbeat.toString();
+    }
+}
@@ -0,0 +1,250 @@
+package com.mediaplatform.android.service;
+
+/**
+ * 分层时间轮
+ * 每层64个槽，第0层每槽一个tick，上一层每槽覆盖下一层一整圈，5层在10ms的tick下可覆盖约124天。
+ * 插入和取消都是O(1)；每层用一个long记录哪些槽非空，下一个到期时间用 numberOfTrailingZeros 直接算出，
+ * 调用方只在该时间唤醒，不需要按tick轮询。
+ * 高层的槽在所在区间开始时整体下移到低层，每个定时器最多下移 LEVELS-1 次。
+ * 超出覆盖范围的定时器先放在最高层的第0个槽，每圈开始时重新计算位置。
+ *
+ * 非线程安全，由调用方在同一线程中使用。
+ */
+public final class TimerWheel<T> {
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 5;
+
+    /**
+     * 到期回调，可在回调中添加或取消其他定时器
+     */
+    public interface ExpiryHandler<T> {
+        void onExpired(T value, long deadlineMillis);
+    }
+
+    /**
+     * 已添加的定时器，用于取消
+     */
+    public static final class Timeout<T> {
+        private final T value;
+        private final long deadlineMillis;
+        private final long deadlineTick;
+        private Timeout<T> prev;
+        private Timeout<T> next;
+        private int level = -1; // -1 表示已到期或已取消
+        private int slot;
+
+        Timeout(T value, long deadlineMillis, long deadlineTick) {
+            this.value = value;
+            this.deadlineMillis = deadlineMillis;
+            this.deadlineTick = deadlineTick;
+        }
+
+        public T getValue() {
+            return value;
+        }
+
+        public long getDeadlineMillis() {
+            return deadlineMillis;
+        }
+
+        public boolean isPending() {
+            return level >= 0;
+        }
+    }
+
+    private final long tickMillis;
+    @SuppressWarnings("unchecked")
+    private final Timeout<T>[][] slots = (Timeout<T>[][]) new Timeout<?>[LEVELS][SLOTS];
+    private final long[] occupied = new long[LEVELS];
+    private long currentTick; // 下一个待处理的tick，之前的tick都已处理完
+    private int size;
+
+    /**
+     * @param startMillis 起始时间，早于该时间的定时器在第一次推进时到期
+     */
+    public TimerWheel(long tickMillis, long startMillis) {
+        this.tickMillis = tickMillis;
+        this.currentTick = startMillis / tickMillis;
+    }
+
+    /**
+     * 添加定时器，到期时间向上取整到tick，不会提前触发
+     */
+    public Timeout<T> add(long deadlineMillis, T value) {
+        long tick = Math.max(currentTick, (deadlineMillis + tickMillis - 1) / tickMillis);
+        Timeout<T> timeout = new Timeout<>(value, deadlineMillis, tick);
+        place(timeout);
+        size++;
+        return timeout;
+    }
+
+    /**
+     * 取消尚未到期的定时器
+     * @return false表示已到期或已取消
+     */
+    public boolean cancel(Timeout<T> timeout) {
+        if (timeout == null || timeout.level < 0) {
+            return false;
+        }
+        unlink(timeout);
+        size--;
+        return true;
+    }
+
+    /**
+     * 推进到当前时间，依次触发到期的定时器；中间没有定时器的区间直接跳过
+     */
+    public void advance(long nowMillis, ExpiryHandler<T> handler) {
+        long targetTick = nowMillis / tickMillis;
+        while (size > 0) {
+            long tick = nextEventTick();
+            if (tick > targetTick) {
+                break;
+            }
+            currentTick = tick;
+            cascade(tick);
+
+            // 先摘下整个槽再回调，回调中新增的定时器从下一个tick开始计算
+            int slot = (int) (tick & SLOT_MASK);
+            Timeout<T> expired = slots[0][slot];
+            slots[0][slot] = null;
+            occupied[0] &= ~(1L << slot);
+            currentTick = tick + 1;
+            while (expired != null) {
+                Timeout<T> next = expired.next;
+                expired.prev = null;
+                expired.next = null;
+                expired.level = -1;
+                size--;
+                handler.onExpired(expired.value, expired.deadlineMillis);
+                expired = next;
+            }
+        }
+        currentTick = Math.max(currentTick, targetTick + 1);
+    }
+
+    /**
+     * 下一次需要推进的时间(毫秒)，可能是定时器到期，也可能是高层槽下移；没有定时器时返回 Long.MAX_VALUE
+     */
+    public long nextDeadlineMillis() {
+        long tick = nextEventTick();
+        return tick == Long.MAX_VALUE ? Long.MAX_VALUE : tick * tickMillis;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getTickMillis() {
+        return tickMillis;
+    }
+
+    /**
+     * 最早的非空槽对应的tick；推进可能正好停在某层区间的开头，该层当前槽尚未下移，所以要比较每一层
+     */
+    private long nextEventTick() {
+        if (size == 0) {
+            return Long.MAX_VALUE;
+        }
+        long earliest = Long.MAX_VALUE;
+        for (int level = 0; level < LEVELS; level++) {
+            if (occupied[level] == 0) {
+                continue;
+            }
+            int shift = SLOT_BITS * level;
+            int digit = (int) ((currentTick >>> shift) & SLOT_MASK);
+            // 低位全为0说明当前槽所在区间刚开始，还没有下移
+            boolean currentPending = (currentTick & ((1L << shift) - 1)) == 0;
+            long ahead = occupied[level] & (-1L << (currentPending ? digit : digit + 1));
+            if (digit == SLOT_MASK && !currentPending) {
+                ahead = 0;
+            }
+            long blockStart = (currentTick >>> (shift + SLOT_BITS)) << (shift + SLOT_BITS);
+            long tick;
+            if (ahead != 0) {
+                tick = blockStart | ((long) Long.numberOfTrailingZeros(ahead) << shift);
+            } else if (level == LEVELS - 1) {
+                // 最高层只剩超出范围的定时器，在下一圈下移
+                long wrapped = Long.numberOfTrailingZeros(occupied[level]);
+                tick = blockStart + (1L << (shift + SLOT_BITS)) + (wrapped << shift);
+            } else {
+                continue;
+            }
+            earliest = Math.min(earliest, tick);
+        }
+        return earliest;
+    }
+
+    /**
+     * tick所在的区间开始时，把各层对应的槽从高到低依次下移
+     */
+    private void cascade(long tick) {
+        int top = 0;
+        while (top < LEVELS - 1 && (tick & ((1L << (SLOT_BITS * (top + 1))) - 1)) == 0) {
+            top++;
+        }
+        for (int level = top; level >= 1; level--) {
+            int slot = (int) ((tick >>> (SLOT_BITS * level)) & SLOT_MASK);
+            Timeout<T> timeout = slots[level][slot];
+            slots[level][slot] = null;
+            occupied[level] &= ~(1L << slot);
+            while (timeout != null) {
+                Timeout<T> next = timeout.next;
+                timeout.prev = null;
+                timeout.next = null;
+                place(timeout);
+                timeout = next;
+            }
+        }
+    }
+
+    /**
+     * 放到与当前tick只在该层及以下有差别的最低一层
+     */
+    private void place(Timeout<T> timeout) {
+        long tick = Math.max(timeout.deadlineTick, currentTick);
+        int level = 0;
+        while (level < LEVELS - 1
+                && (tick >>> (SLOT_BITS * (level + 1))) != (currentTick >>> (SLOT_BITS * (level + 1)))) {
+            level++;
+        }
+        int slot;
+        if (level == LEVELS - 1
+                && (tick >>> (SLOT_BITS * LEVELS)) != (currentTick >>> (SLOT_BITS * LEVELS))) {
+            // 超出覆盖范围，放到最高层的第0个槽，下一圈开始时下移并重新计算
+            slot = 0;
+        } else {
+            slot = (int) ((tick >>> (SLOT_BITS * level)) & SLOT_MASK);
+        }
+
+        timeout.level = level;
+        timeout.slot = slot;
+        Timeout<T> head = slots[level][slot];
+        timeout.next = head;
+        if (head != null) {
+            head.prev = timeout;
+        }
+        slots[level][slot] = timeout;
+        occupied[level] |= 1L << slot;
+    }
+
+    private void unlink(Timeout<T> timeout) {
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            slots[timeout.level][timeout.slot] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        if (slots[timeout.level][timeout.slot] == null) {
+            occupied[timeout.level] &= ~(1L << timeout.slot);
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.level = -1;
+    }
+}
@@ -0,0 +1,17 @@
+package android.util;
+
+/**
+ * android.util.JsonToken 的JVM替身，取值与安卓和Gson相同
+ */
+public enum JsonToken {
+    BEGIN_ARRAY,
+    END_ARRAY,
+    BEGIN_OBJECT,
+    END_OBJECT,
+    NAME,
+    STRING,
+    NUMBER,
+    BOOLEAN,
+    NULL,
+    END_DOCUMENT
+}
@@ -0,0 +1,70 @@
+package com.mediaplatform.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 基准测试使用的载荷，格式与服务端 mqttService.ts 发出的消息一致
+ */
+final class BenchmarkPayloads {
+
+    static final String CLIENT_ID = "android_screen_3f2a9c1e";
+    static final String DEVICE_ID = "3f2a9c1e";
+
+    /** 带排期的单条内容推送，约400字节 */
+    static final String CONTENT_PUSH = "{\"messageType\":\"content\","
+            + "\"content\":{\"id\":\"64f1c2a9e3b7d5001f8a2b11\",\"title\":\"国庆节城市宣传片\","
+            + "\"type\":\"video\",\"url\":\"https://cdn.example.com/media/2024/national-day-1080p.mp4\","
+            + "\"duration\":30,\"size\":48213760},"
+            + "\"schedule\":{\"startTime\":\"2024-10-01T08:00:00.000Z\",\"endTime\":\"2024-10-07T22:00:00.000Z\","
+            + "\"priority\":5},"
+            + "\"timestamp\":1727740800000}";
+
+    /** 服务端下发的命令 */
+    static final String COMMAND = "{\"command\":\"set_volume\","
+            + "\"params\":{\"volume\":60,\"fadeMillis\":500},"
+            + "\"timestamp\":1727740800000}";
+
+    /** 合并了两次采样的心跳 */
+    static final String HEARTBEAT = "{\"deviceId\":\"3f2a9c1e\",\"timestamp\":1727740800000,\"status\":\"online\","
+            + "\"samples\":[{\"batteryLevel\":87,\"memoryInfo\":\"1.2GB/4GB\",\"storageInfo\":\"12.1GB/32GB\","
+            + "\"timestamp\":1727740740000},{\"batteryLevel\":85,\"timestamp\":1727740800000}]}";
+
+    /** 播放状态上报 */
+    static final String STATUS = "{\"deviceId\":\"3f2a9c1e\",\"status\":\"playing\","
+            + "\"details\":\"content=64f1c2a9e3b7d5001f8a2b11\",\"timestamp\":1727740800000}";
+
+    /** 设备注册，含编码和压缩声明以及分组 */
+    static final String REGISTRATION = "{\"deviceId\":\"3f2a9c1e\",\"deviceType\":\"android_screen\","
+            + "\"deviceName\":\"安卓屏幕终端-3f2a9c1e\",\"deviceModel\":\"RK3568\",\"deviceVersion\":\"11\","
+            + "\"appVersion\":\"1.4.0\",\"screenResolution\":\"1920x1080\",\"location\":\"深圳\","
+            + "\"timestamp\":1727740800000,\"encodings\":[\"compact-v1\",\"json\"],"
+            + "\"compressions\":[\"deflate-dict-v1\"],"
+            + "\"metadata\":{\"region\":\"south\",\"city\":\"shenzhen\",\"tags\":[\"lobby\",\"4k\"]}}";
+
+    /** 在播放列表中插入一条内容的增量 */
+    static final String PLAYLIST_DELTA = "{\"type\":\"playlist_delta\",\"baseVersion\":41,\"version\":42,"
+            + "\"ops\":[{\"op\":\"add\",\"after\":\"64f1c2a9e3b7d5001f8a2b11\","
+            + "\"item\":{\"id\":\"64f1c2a9e3b7d5001f8a2b9c\",\"title\":\"商场促销\",\"type\":\"image\","
+            + "\"url\":\"https://cdn.example.com/media/2024/mall-sale.jpg\",\"duration\":15}}]}";
+
+    /**
+     * 在内容推送中附带播放列表，条目按需重复到接近指定的字节数(UTF-8)
+     */
+    static String contentPushWithPlaylist(int targetBytes) {
+        String head = CONTENT_PUSH.substring(0, CONTENT_PUSH.length() - 1) + ",\"playlist\":[";
+        StringBuilder json = new StringBuilder(targetBytes + 256).append(head);
+        int length = head.getBytes(StandardCharsets.UTF_8).length + 2;
+        for (int i = 0; length < targetBytes || i == 0; i++) {
+            String item = (i == 0 ? "" : ",") + "{\"id\":\"64f1c2a9e3b7d5001f8a" + String.format("%04x", i & 0xFFFF)
+                    + "\",\"title\":\"轮播素材 " + i + "\",\"type\":\"image\","
+                    + "\"url\":\"https://cdn.example.com/media/2024/carousel-" + i + ".jpg\","
+                    + "\"duration\":15,\"tags\":[\"lobby\",\"4k\"]}";
+            json.append(item);
+            length += item.getBytes(StandardCharsets.UTF_8).length;
+        }
+        return json.append("]}").toString();
+    }
+
+    private BenchmarkPayloads() {
+    }
+}
@@ -0,0 +1,73 @@
+package com.mediaplatform.benchmarks;
+
+import com.mediaplatform.android.service.CompactCodec;
+import com.mediaplatform.android.service.PayloadBuffers;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 紧凑编码：心跳、状态和注册消息按JSON或compact-v1编码成载荷字节，以及解回JSONObject的开销。
+ * 编码路径与 MqttDeviceCore.encodePayload 相同；字节数由 compressionRatios 输出。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CompactCodecBenchmark {
+
+    @Param({"heartbeat", "status", "registration"})
+    public String messageType;
+
+    private String payload;
+    private byte[] json;
+    private byte[] compact;
+
+    @Setup
+    public void setUp() throws JSONException {
+        payload = CompressionBenchmark.payloadFor(messageType);
+        json = payload.getBytes(StandardCharsets.UTF_8);
+        compact = CompactCodec.encode(new JSONObject(payload));
+    }
+
+    @Benchmark
+    public byte[] encodeJson() {
+        PayloadBuffers.EncodeBuffer buffer = PayloadBuffers.acquireEncodeBuffer();
+        buffer.writeUtf8(payload);
+        return buffer.toByteArray();
+    }
+
+    /**
+     * 设备端消息先拼成JSON字符串，紧凑编码需要多解析一次
+     */
+    @Benchmark
+    public byte[] encodeCompact() throws JSONException {
+        return CompactCodec.encode(new JSONObject(payload));
+    }
+
+    @Benchmark
+    public JSONObject decodeJson() throws JSONException {
+        return new JSONObject(new String(json, StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public JSONObject decodeCompact() throws JSONException {
+        return CompactCodec.decode(compact);
+    }
+}
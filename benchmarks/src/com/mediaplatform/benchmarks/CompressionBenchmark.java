@@ -0,0 +1,102 @@
+package com.mediaplatform.benchmarks;
+
+import com.mediaplatform.android.service.CompactCodec;
+import com.mediaplatform.android.service.PayloadCompression;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+
+/**
+ * 载荷压缩：每条消息压缩和解压的CPU开销。
+ * 压缩率不随运行变化，直接运行 main 输出各消息类型在JSON和紧凑编码下压缩前后的字节数。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CompressionBenchmark {
+
+    @Param({"heartbeat", "status", "registration", "content", "command", "playlistDelta"})
+    public String messageType;
+
+    private byte[] encoded;
+    private byte[] compressed;
+
+    @Setup
+    public void setUp() {
+        encoded = payloadFor(messageType).getBytes(StandardCharsets.UTF_8);
+        compressed = PayloadCompression.compress(encoded);
+    }
+
+    /**
+     * 低于阈值的消息只有长度判断的开销
+     */
+    @Benchmark
+    public byte[] compress() {
+        return PayloadCompression.compress(encoded);
+    }
+
+    @Benchmark
+    public ByteBuffer inflate() throws DataFormatException {
+        return compressed != null ? PayloadCompression.inflate(compressed) : ByteBuffer.wrap(encoded);
+    }
+
+    static String payloadFor(String messageType) {
+        switch (messageType) {
+            case "heartbeat":
+                return BenchmarkPayloads.HEARTBEAT;
+            case "status":
+                return BenchmarkPayloads.STATUS;
+            case "registration":
+                return BenchmarkPayloads.REGISTRATION;
+            case "content":
+                return BenchmarkPayloads.CONTENT_PUSH;
+            case "command":
+                return BenchmarkPayloads.COMMAND;
+            case "playlistDelta":
+                return BenchmarkPayloads.PLAYLIST_DELTA;
+            default:
+                throw new IllegalArgumentException(messageType);
+        }
+    }
+
+    /**
+     * 输出压缩率，"-" 表示低于阈值或压缩后不更小，按原样发送
+     */
+    public static void main(String[] args) throws Exception {
+        String[] types = {"heartbeat", "status", "registration", "content", "command", "playlistDelta"};
+        System.out.printf(Locale.ROOT, "%-14s %8s %12s %9s %12s%n",
+                "message", "json", "json+deflate", "compact", "compact+deflate");
+        for (String type : types) {
+            String payload = payloadFor(type);
+            byte[] json = payload.getBytes(StandardCharsets.UTF_8);
+            byte[] compact = CompactCodec.encode(new JSONObject(payload));
+            System.out.printf(Locale.ROOT, "%-14s %8d %12s %9d %12s%n", type,
+                    json.length, compressedSize(json), compact.length, compressedSize(compact));
+        }
+    }
+
+    private static String compressedSize(byte[] payload) {
+        byte[] compressed = PayloadCompression.compress(payload);
+        return compressed == null ? "-" : String.format(Locale.ROOT, "%d (%.0f%%)",
+                compressed.length, 100.0 * compressed.length / payload.length);
+    }
+}
@@ -0,0 +1,55 @@
+package com.mediaplatform.benchmarks;
+
+import com.mediaplatform.android.model.ContentPush;
+import com.mediaplatform.android.service.ContentPushDecoder;
+import com.mediaplatform.android.service.PayloadBuffers;
+
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 内容推送解析：ContentPushDecoder 流式读取载荷字节，对比原来先转成String再用org.json构建对象树的方式。
+ * 载荷是带播放列表的内容推送，播放列表条目数决定大小；两种方式都只取内容字段，条目本身不需要
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ContentPushDecodeBenchmark {
+
+    @Param({"1024", "102400", "5242880"})
+    public int payloadBytes;
+
+    private byte[] payload;
+
+    @Setup
+    public void setUp() {
+        payload = BenchmarkPayloads.contentPushWithPlaylist(payloadBytes).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public ContentPush streaming() throws IOException {
+        return ContentPushDecoder.decode(PayloadBuffers.wrap(payload));
+    }
+
+    @Benchmark
+    public ContentPush orgJson() throws JSONException {
+        return ContentPush.fromJson(new String(payload, StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,81 @@
+package com.mediaplatform.benchmarks;
+
+import com.mediaplatform.android.service.CompactCodec;
+import com.mediaplatform.android.service.PayloadBuffers;
+import com.mediaplatform.android.service.TelemetryAggregator;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 心跳构建：MqttDeviceCore.sendHeartbeat 中 TelemetryAggregator.tick 生成消息，
+ * 再按协商的编码转成载荷字节(JSON经复用缓冲区，或紧凑二进制编码)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HeartbeatBenchmark {
+
+    private static final long HEARTBEAT_INTERVAL = 30000;
+
+    private TelemetryAggregator aggregator;
+    private long now;
+    private long battery;
+
+    @Setup
+    public void setUp() {
+        // 与安卓端相同的指标和阈值，每次采样都有变化，保证每个周期都生成消息
+        aggregator = new TelemetryAggregator(BenchmarkPayloads.DEVICE_ID, 120000, 4);
+        aggregator.addMetric("batteryLevel", 0, 0, () -> battery++ % 100);
+        aggregator.addMetric("memoryInfo", 0, 0, () -> new JSONObject()
+                .put("total", 4096L << 20).put("available", (1024L << 20) + battery));
+        aggregator.addMetric("storageInfo", 0, 0, () -> new JSONObject()
+                .put("total", 32768L << 20).put("available", 12288L << 20));
+        now = 1727740800000L;
+    }
+
+    private String nextHeartbeat() throws JSONException {
+        now += HEARTBEAT_INTERVAL;
+        return aggregator.tick(now);
+    }
+
+    @Benchmark
+    public String tick() throws JSONException {
+        return nextHeartbeat();
+    }
+
+    /**
+     * 与 sendHeartbeat 相同，合并中的周期 tick 返回null，不编码也不发布
+     */
+    @Benchmark
+    public byte[] tickAndEncodeJson() throws JSONException {
+        String heartbeat = nextHeartbeat();
+        if (heartbeat == null) {
+            return null;
+        }
+        PayloadBuffers.EncodeBuffer buffer = PayloadBuffers.acquireEncodeBuffer();
+        buffer.writeUtf8(heartbeat);
+        return buffer.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] tickAndEncodeCompact() throws JSONException {
+        String heartbeat = nextHeartbeat();
+        return heartbeat == null ? null : CompactCodec.encode(new JSONObject(heartbeat));
+    }
+}
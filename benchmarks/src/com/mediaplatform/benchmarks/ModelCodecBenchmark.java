@@ -0,0 +1,71 @@
+package com.mediaplatform.benchmarks;
+
+import com.mediaplatform.android.model.Command;
+import com.mediaplatform.android.model.ContentPush;
+import com.mediaplatform.android.model.DeviceRegistration;
+import com.mediaplatform.android.model.DeviceStatus;
+
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 消息模型的解析和序列化：每条入站内容推送和命令、每次状态上报和注册都会经过这里
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ModelCodecBenchmark {
+
+    private final DeviceStatus status = new DeviceStatus();
+    private final DeviceRegistration registration = new DeviceRegistration();
+
+    public ModelCodecBenchmark() {
+        status.setDeviceId(BenchmarkPayloads.DEVICE_ID);
+        status.setStatus("playing");
+        status.setDetails("content=64f1c2a9e3b7d5001f8a2b11");
+        status.setTimestamp(1727740800000L);
+
+        registration.setDeviceId(BenchmarkPayloads.DEVICE_ID);
+        registration.setDeviceType("android_screen");
+        registration.setDeviceName("安卓屏幕终端-" + BenchmarkPayloads.DEVICE_ID);
+        registration.setDeviceModel("RK3568");
+        registration.setDeviceVersion("11");
+        registration.setAppVersion("1.4.0");
+        registration.setScreenResolution("1920x1080");
+        registration.setLocation("深圳");
+        registration.setTimestamp(1727740800000L);
+    }
+
+    @Benchmark
+    public ContentPush contentPushFromJson() throws JSONException {
+        return ContentPush.fromJson(BenchmarkPayloads.CONTENT_PUSH);
+    }
+
+    @Benchmark
+    public Command commandFromJson() throws JSONException {
+        return Command.fromJson(BenchmarkPayloads.COMMAND);
+    }
+
+    @Benchmark
+    public String deviceStatusToJson() {
+        return status.toJson();
+    }
+
+    @Benchmark
+    public String deviceRegistrationToJson() {
+        return registration.toJson();
+    }
+}
@@ -0,0 +1,96 @@
+package com.mediaplatform.benchmarks;
+
+import com.mediaplatform.android.model.ContentPush;
+import com.mediaplatform.android.service.ContentPushDecoder;
+import com.mediaplatform.android.service.PayloadBuffers;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每条消息的分配：*Legacy 是改为只读ByteBuffer和复用编码缓冲区之前的写法
+ * (平台字符集 new String/getBytes，日志关闭时也拼接完整载荷)，其余是 MqttDeviceCore 现在的路径。
+ * 看 -prof gc 的 gc.alloc.rate.norm
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PayloadAllocationBenchmark {
+
+    private static final String COMMAND_TOPIC = "device/" + BenchmarkPayloads.CLIENT_ID + "/command";
+    private static final String CONTENT_TOPIC = "device/" + BenchmarkPayloads.CLIENT_ID + "/content";
+    private static final String STATUS_TOPIC = "device/status";
+
+    private byte[] command;
+    private byte[] content;
+
+    @Setup
+    public void setUp() {
+        PayloadBuffers.setPayloadLoggable(() -> false);
+        command = BenchmarkPayloads.COMMAND.getBytes(StandardCharsets.UTF_8);
+        content = BenchmarkPayloads.CONTENT_PUSH.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 命令等文本处理器：原来在 messageArrived 中统一转成String并写调试日志
+     */
+    @Benchmark
+    public String inboundTextLegacy(Blackhole blackhole) {
+        String payload = new String(command);
+        blackhole.consume("Message arrived from EMQX - Topic: " + COMMAND_TOPIC + ", Payload: " + payload);
+        return payload;
+    }
+
+    @Benchmark
+    public String inboundText(Blackhole blackhole) {
+        if (PayloadBuffers.isPayloadLoggable()) {
+            blackhole.consume(PayloadBuffers.preview(command));
+        }
+        return PayloadBuffers.toUtf8(PayloadBuffers.wrap(command));
+    }
+
+    @Benchmark
+    public ContentPush inboundContentLegacy(Blackhole blackhole) throws JSONException {
+        String payload = new String(content);
+        blackhole.consume("Message arrived from EMQX - Topic: " + CONTENT_TOPIC + ", Payload: " + payload);
+        return ContentPush.fromJson(payload);
+    }
+
+    @Benchmark
+    public ContentPush inboundContent() throws IOException {
+        return ContentPushDecoder.decode(PayloadBuffers.wrap(content));
+    }
+
+    @Benchmark
+    public MqttMessage publishLegacy(Blackhole blackhole) {
+        String payload = BenchmarkPayloads.STATUS;
+        MqttMessage message = new MqttMessage(payload.getBytes());
+        blackhole.consume("Published message to EMQX topic " + STATUS_TOPIC + ": " + payload);
+        return message;
+    }
+
+    @Benchmark
+    public MqttMessage publish() {
+        PayloadBuffers.EncodeBuffer buffer = PayloadBuffers.acquireEncodeBuffer();
+        buffer.writeUtf8(BenchmarkPayloads.STATUS);
+        return new MqttMessage(buffer.toByteArray());
+    }
+}
@@ -0,0 +1,72 @@
+package com.mediaplatform.benchmarks;
+
+import com.mediaplatform.android.service.TimerWheel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ContentScheduler 使用的时间轮：在已有大量排期时插入/取消一条，
+ * 以及推进一分钟并触发其间到期的排期(含高层槽下移)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TimerWheelBenchmark {
+
+    private static final long TICK_MILLIS = 10;
+    private static final long HORIZON_MILLIS = 6 * 60 * 60000L; // 排期分布在未来6小时内
+    private static final long STEP_MILLIS = 60000;
+
+    @Param({"1000", "50000"})
+    public int pending;
+
+    private TimerWheel<Integer> wheel;
+    private Random random;
+    private long now;
+
+    @Setup
+    public void setUp() {
+        now = 1727740800000L;
+        random = new Random(42);
+        wheel = new TimerWheel<>(TICK_MILLIS, now);
+        for (int i = 0; i < pending; i++) {
+            wheel.add(now + 1 + (long) (random.nextDouble() * HORIZON_MILLIS), i);
+        }
+    }
+
+    @Benchmark
+    public boolean addCancel() {
+        TimerWheel.Timeout<Integer> timeout =
+                wheel.add(now + 1 + (long) (random.nextDouble() * HORIZON_MILLIS), -1);
+        return wheel.cancel(timeout);
+    }
+
+    /**
+     * 每推进一分钟补回同样多的排期，保持待触发数量不变
+     */
+    @Benchmark
+    public void advance(Blackhole blackhole) {
+        now += STEP_MILLIS;
+        wheel.advance(now, (value, deadlineMillis) -> {
+            blackhole.consume(value);
+            wheel.add(deadlineMillis + HORIZON_MILLIS, value);
+        });
+    }
+}
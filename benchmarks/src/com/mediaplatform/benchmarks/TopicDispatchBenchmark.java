@@ -0,0 +1,121 @@
+package com.mediaplatform.benchmarks;
+
+import com.mediaplatform.android.service.GroupSubscriptions;
+import com.mediaplatform.android.service.MetricsRegistry;
+import com.mediaplatform.android.service.MqttDeviceCore;
+import com.mediaplatform.android.service.MqttTopicRouter;
+import com.mediaplatform.android.service.PayloadBuffers;
+import com.mediaplatform.android.service.PayloadCompression;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 入站分发：MqttDeviceCore.messageArrived 记录指标后按主题查路由表，
+ * 处理器在调用线程上直接执行，只测分发本身，不含解析线程池的排队。
+ * routes 为路由表大小，11 为设备在一个区域、一个城市、一个标签下的实际主题数，
+ * 超出的部分用标签分组主题和少量通配符过滤器补齐，
+ * 用来检验订阅数增加到数百个时分发耗时不变
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TopicDispatchBenchmark {
+
+    private static final String PREFIX = MqttDeviceCore.TOPIC_PREFIX;
+    private static final String DEVICE_PREFIX = PREFIX + "device/" + BenchmarkPayloads.CLIENT_ID;
+
+    /** 单设备内容、压缩的单设备内容(含解压)、分组内容、命令、未注册主题 */
+    @Param({"content", "compressed", "group", "command", "unmatched"})
+    public String kind;
+
+    @Param({"11", "200", "1000"})
+    public int routes;
+
+    private final MqttTopicRouter router = new MqttTopicRouter();
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private String topic;
+    private MqttMessage message;
+    private Blackhole blackhole;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        this.blackhole = blackhole;
+        MqttTopicRouter.MessageHandler consume = (t, payload) -> this.blackhole.consume(payload);
+
+        // 与 MqttDeviceCore.registerTopicHandlers 相同的路由表(分片、播放列表和时钟同步均启用)
+        router.register(DEVICE_PREFIX + "/content", MqttTopicRouter.DIRECT_EXECUTOR, consume);
+        router.register(DEVICE_PREFIX + "/content/chunk", MqttTopicRouter.DIRECT_EXECUTOR, consume);
+        router.register(DEVICE_PREFIX + "/playlist", MqttTopicRouter.DIRECT_EXECUTOR, consume);
+        router.register(DEVICE_PREFIX + "/command", MqttTopicRouter.DIRECT_EXECUTOR, consume);
+        router.register(GroupSubscriptions.topicFor(PREFIX, GroupSubscriptions.KIND_REGION, "south"),
+                MqttTopicRouter.DIRECT_EXECUTOR, consume);
+        router.register(GroupSubscriptions.topicFor(PREFIX, GroupSubscriptions.KIND_CITY, "shenzhen"),
+                MqttTopicRouter.DIRECT_EXECUTOR, consume);
+        router.register(GroupSubscriptions.topicFor(PREFIX, GroupSubscriptions.KIND_TAG, "lobby"),
+                MqttTopicRouter.DIRECT_EXECUTOR, consume);
+        router.register(PREFIX + "broadcast/all", MqttTopicRouter.DIRECT_EXECUTOR, consume);
+        router.register(DEVICE_PREFIX + "/register/confirm", MqttTopicRouter.DIRECT_EXECUTOR, consume);
+        router.register(DEVICE_PREFIX + "/register/error", MqttTopicRouter.DIRECT_EXECUTOR, consume);
+        router.register(DEVICE_PREFIX + "/time/pong", MqttTopicRouter.DIRECT_EXECUTOR, consume);
+
+        // 每10个补充路由中有1个是通配符，未注册主题要走一遍通配符前缀树
+        for (int i = router.size(); i < routes; i++) {
+            String filter = i % 10 == 0
+                    ? PREFIX + "group/venue/venue-" + i + "/+"
+                    : GroupSubscriptions.topicFor(PREFIX, GroupSubscriptions.KIND_TAG, "tag-" + i);
+            router.register(filter, MqttTopicRouter.DIRECT_EXECUTOR, consume);
+        }
+
+        String payload = BenchmarkPayloads.CONTENT_PUSH;
+        byte[] bytes = null;
+        switch (kind) {
+            case "content":
+                topic = DEVICE_PREFIX + "/content";
+                break;
+            case "compressed":
+                topic = DEVICE_PREFIX + "/content";
+                bytes = PayloadCompression.compress(payload.getBytes(StandardCharsets.UTF_8));
+                break;
+            case "group":
+                topic = GroupSubscriptions.topicFor(PREFIX, GroupSubscriptions.KIND_CITY, "shenzhen");
+                break;
+            case "command":
+                topic = DEVICE_PREFIX + "/command";
+                payload = BenchmarkPayloads.COMMAND;
+                break;
+            default:
+                topic = PREFIX + "device/android_screen_other/content";
+                break;
+        }
+        message = new MqttMessage(bytes != null ? bytes : payload.getBytes(StandardCharsets.UTF_8));
+        PayloadBuffers.setPayloadLoggable(() -> false);
+    }
+
+    @Benchmark
+    public boolean messageArrived() {
+        metrics.counter("inbound.messages").incrementAndGet();
+        metrics.histogram("inbound.bytes").record(message.getPayload().length);
+        if (PayloadBuffers.isPayloadLoggable()) {
+            blackhole.consume(PayloadBuffers.preview(message.getPayload()));
+        }
+        return router.dispatch(topic, message);
+    }
+}
@@ -36,6 +36,7 @@ export interface IDevice extends Document {
     messageCount: number;
     lastMessage?: string;
   };
+  registrationFingerprint?: string; // 最近一次完整注册的指纹，设备重连时据此跳过完整注册
   tags: string[];
   createdAt: Date;
   updatedAt: Date;
@@ -103,6 +104,9 @@ const deviceSchema = new Schema<IDevice>({
     messageCount: { type: Number, default: 0 },
     lastMessage: String
   },
+  registrationFingerprint: {
+    type: String
+  },
   tags: [{
     type: String,
     trim: true
@@ -1,7 +1,7 @@
 import express from 'express';
 import { Device } from '../models/Device';
 import { Content } from '../models/Content';
-import MQTTService, { ContentPushMessage } from '../services/mqttService';
+import MQTTService, { ContentPushMessage, GroupKind } from '../services/mqttService';
 
 const router = express.Router();
 
@@ -101,6 +101,32 @@ router.get('/devices/:deviceId', async (req, res) => {
   }
 });
 
+// 获取安卓终端最近上报的运行指标
+router.get('/devices/:deviceId/metrics', async (req, res) => {
+  try {
+    const mqttService: MQTTService = req.app.get('mqttService');
+    if (!mqttService) {
+      return res.status(500).json({ error: 'MQTT服务未启动' });
+    }
+
+    const { deviceId } = req.params;
+    const device = await Device.findOne({ deviceId, type: 'android_screen' });
+    if (!device || !device.mqtt?.clientId) {
+      return res.status(404).json({ error: '安卓终端设备不存在' });
+    }
+
+    const report = mqttService.getDeviceMetrics(device.mqtt.clientId);
+    if (!report) {
+      return res.status(404).json({ error: '设备尚未上报运行指标' });
+    }
+
+    res.json({ deviceId, clientId: device.mqtt.clientId, ...report });
+  } catch (error: any) {
+    console.error('获取设备指标失败:', error);
+    res.status(500).json({ error: '获取设备指标失败' });
+  }
+});
+
 // 向安卓终端推送内容
 router.post('/devices/:deviceId/push-content', async (req, res) => {
   try {
@@ -284,7 +310,8 @@ router.post('/devices/batch-push', async (req, res) => {
       return res.status(500).json({ error: 'MQTT服务未启动' });
     }
 
-    // 批量推送
+    // 批量推送（逐台查询并发布，耗时随设备数线性增长）
+    const startedAt = Date.now();
     const results = await Promise.all(
       foundDeviceIds.map(async (deviceId: string) => {
         try {
@@ -296,6 +323,7 @@ router.post('/devices/batch-push', async (req, res) => {
       })
     );
 
+    const durationMs = Date.now() - startedAt;
     const successCount = results.filter(r => r.success).length;
     const failCount = results.length - successCount;
 
@@ -307,7 +335,8 @@ router.post('/devices/batch-push', async (req, res) => {
         found: foundDeviceIds.length,
         notFound: notFoundDeviceIds.length,
         successCount,
-        failCount
+        failCount,
+        durationMs
       },
       results: results,
       notFoundDevices: notFoundDeviceIds,
@@ -319,6 +348,118 @@ router.post('/devices/batch-push', async (req, res) => {
   }
 });
 
+// 按区域、城市或标签推送内容，每个分组只发布一次
+router.post('/groups/push', async (req, res) => {
+  try {
+    const { kind, value, contentId, duration, schedule } = req.body;
+    const kinds: GroupKind[] = ['region', 'city', 'tag'];
+
+    if (!kinds.includes(kind) || typeof value !== 'string' || !value.trim()) {
+      return res.status(400).json({ error: '分组类型必须为 region、city 或 tag，且分组值不能为空' });
+    }
+
+    const content = await Content.findById(contentId);
+    if (!content) {
+      return res.status(404).json({ error: '内容不存在' });
+    }
+
+    const mqttService: MQTTService = req.app.get('mqttService');
+    if (!mqttService) {
+      return res.status(500).json({ error: 'MQTT服务未启动' });
+    }
+
+    const pushMessage: ContentPushMessage = {
+      messageType: 'content',
+      content: {
+        id: contentId,
+        title: content.title,
+        type: content.type,
+        url: content.fileUrl,
+        content: content.description,
+        duration: duration || content.duration || 30,
+        size: content.fileSize
+      },
+      schedule
+    };
+
+    const { topic, durationMs } = await mqttService.pushContentToGroup(kind, value, pushMessage);
+
+    // 组内设备数只用于展示，不计入推送耗时
+    const filter = kind === 'tag' ? { tags: value }
+      : kind === 'region' ? { 'location.region': value } : { 'location.city': value };
+    const targetDevices = await Device.countDocuments({ type: 'android_screen', ...filter });
+
+    res.json({
+      success: true,
+      message: '分组推送完成',
+      topic,
+      targetDevices,
+      durationMs,
+      contentTitle: content.title
+    });
+  } catch (error: any) {
+    console.error('分组推送失败:', error);
+    res.status(500).json({ error: '分组推送失败' });
+  }
+});
+
+// 更新安卓终端的区域、城市和标签，设备收到命令后重新订阅分组主题
+router.put('/devices/:deviceId/groups', async (req, res) => {
+  try {
+    const { deviceId } = req.params;
+    const { region, city, tags } = req.body;
+
+    if (tags !== undefined && !Array.isArray(tags)) {
+      return res.status(400).json({ error: '标签必须是数组' });
+    }
+
+    const mqttService: MQTTService = req.app.get('mqttService');
+    if (!mqttService) {
+      return res.status(500).json({ error: 'MQTT服务未启动' });
+    }
+
+    const groups = await mqttService.updateDeviceGroups(deviceId, { region, city, tags });
+    if (!groups) {
+      return res.status(404).json({ error: '安卓终端设备不存在' });
+    }
+
+    res.json({ success: true, deviceId, groups });
+  } catch (error: any) {
+    console.error('更新设备分组失败:', error);
+    res.status(500).json({ error: '更新设备分组失败' });
+  }
+});
+
+// 更新安卓终端的播放列表，只下发与上一版本的差异
+router.put('/devices/:deviceId/playlist', async (req, res) => {
+  try {
+    const { deviceId } = req.params;
+    const { items } = req.body;
+
+    if (!Array.isArray(items) || items.some((item: any) => !item || typeof item.id !== 'string')) {
+      return res.status(400).json({ error: '播放列表必须是带id的条目数组' });
+    }
+    if (new Set(items.map((item: any) => item.id)).size !== items.length) {
+      return res.status(400).json({ error: '播放列表条目id不能重复' });
+    }
+
+    const mqttService: MQTTService = req.app.get('mqttService');
+    if (!mqttService) {
+      return res.status(500).json({ error: 'MQTT服务未启动' });
+    }
+
+    const result = await mqttService.updateDevicePlaylist(deviceId, items);
+    if (!result) {
+      return res.status(404).json({ error: '安卓终端设备不存在' });
+    }
+
+    res.json({ success: true, deviceId, ...result });
+  } catch (error: any) {
+    console.error('更新播放列表失败:', error);
+    res.status(500).json({ error: '更新播放列表失败' });
+  }
+});
+
 // 重启安卓终端
 router.post('/devices/:deviceId/reboot', async (req, res) => {
   try {
@@ -0,0 +1,121 @@
+import { createHash, randomBytes } from 'crypto';
+
+/**
+ * Chunked transfer for large content pushes.
+ *
+ * Payloads above the inline threshold are split into sequenced chunks that
+ * the device reassembles into a preallocated file (ChunkedTransferAssembler.java).
+ * Every chunk carries the full transfer header, so chunks can arrive in any
+ * order and a transfer can be resumed from whatever the device already has.
+ *
+ * Frame layout (big-endian):
+ * [0xC7][version:1][idLen:1][transferId][index:4][count:4][chunkSize:4][totalSize:4][sha256:32][data]
+ */
+
+export const CHUNK_MAGIC = 0xc7;
+const CHUNK_VERSION = 1;
+
+export interface OutgoingTransfer {
+  transferId: string;
+  clientId: string;
+  topic: string;
+  frames: Buffer[];
+  totalSize: number;
+  createdAt: number;
+}
+
+/**
+ * Device request for the chunks it is still missing after a reconnect
+ */
+export interface ResumeRequest {
+  transferId: string;
+  received?: number;
+  missing: [number, number][];
+}
+
+/**
+ * Split a payload into chunk frames
+ */
+export function encodeChunkFrames(transferId: string, payload: Buffer, chunkSize: number): Buffer[] {
+  const id = Buffer.from(transferId, 'utf8');
+  if (id.length === 0 || id.length > 255) {
+    throw new Error(`Invalid transfer id: ${transferId}`);
+  }
+
+  const digest = createHash('sha256').update(payload).digest();
+  const count = Math.max(1, Math.ceil(payload.length / chunkSize));
+  const frames: Buffer[] = [];
+
+  for (let index = 0; index < count; index++) {
+    const data = payload.subarray(index * chunkSize, Math.min(payload.length, (index + 1) * chunkSize));
+    const header = Buffer.alloc(3 + id.length + 16 + digest.length);
+    let offset = 0;
+    header.writeUInt8(CHUNK_MAGIC, offset++);
+    header.writeUInt8(CHUNK_VERSION, offset++);
+    header.writeUInt8(id.length, offset++);
+    offset += id.copy(header, offset);
+    header.writeUInt32BE(index, offset);
+    header.writeUInt32BE(count, offset + 4);
+    header.writeUInt32BE(chunkSize, offset + 8);
+    header.writeUInt32BE(payload.length, offset + 12);
+    digest.copy(header, offset + 16);
+    frames.push(Buffer.concat([header, data]));
+  }
+
+  return frames;
+}
+
+export function createTransferId(): string {
+  return `${Date.now().toString(36)}-${randomBytes(4).toString('hex')}`;
+}
+
+/**
+ * Keeps recently sent transfers so missing chunks can be resent on request
+ */
+export class OutgoingTransferStore {
+  private transfers: Map<string, OutgoingTransfer> = new Map();
+
+  constructor(private readonly maxAgeMs: number) {}
+
+  add(transfer: OutgoingTransfer): void {
+    this.prune();
+    this.transfers.set(transfer.transferId, transfer);
+  }
+
+  get(transferId: string): OutgoingTransfer | undefined {
+    this.prune();
+    return this.transfers.get(transferId);
+  }
+
+  /**
+   * Frames listed in the device's missing ranges, clamped to the transfer
+   */
+  missingFrames(transfer: OutgoingTransfer, request: ResumeRequest): Buffer[] {
+    const frames: Buffer[] = [];
+    const seen = new Set<number>();
+    for (const range of request.missing || []) {
+      const start = Math.max(0, Number(range[0]));
+      const end = Math.min(transfer.frames.length - 1, Number(range[1]));
+      for (let index = start; index <= end; index++) {
+        if (!seen.has(index)) {
+          seen.add(index);
+          frames.push(transfer.frames[index]);
+        }
+      }
+    }
+    return frames;
+  }
+
+  get size(): number {
+    return this.transfers.size;
+  }
+
+  private prune(): void {
+    const cutoff = Date.now() - this.maxAgeMs;
+    for (const [transferId, transfer] of this.transfers) {
+      if (transfer.createdAt < cutoff) {
+        this.transfers.delete(transferId);
+      }
+    }
+  }
+}
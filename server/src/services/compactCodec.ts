@@ -0,0 +1,246 @@
+import { inflatePayload, isCompressedPayload } from './payloadCompression';
+
+/**
+ * Compact binary encoding (compact-v1) for device heartbeat, status and
+ * registration messages. Negotiated at registration time.
+ *
+ * Field names are replaced by ids from a shared dictionary and integers are
+ * zigzag varints. The dictionary must stay in sync with CompactCodec.java on
+ * the Android side and may only be appended to.
+ *
+ * Layout: [0xC1][object]
+ * object: [fieldCount:varint] { [tag:varint = keyId << 3 | type] [key string if keyId == 0] [value] }
+ * array:  [count:varint] { [type:varint] [value] }
+ */
+
+export const ENCODING_JSON = 'json';
+export const ENCODING_COMPACT = 'compact-v1';
+export const COMPACT_MAGIC = 0xc1;
+
+const TYPE_VARINT = 0;
+const TYPE_DOUBLE = 1;
+const TYPE_STRING = 2;
+const TYPE_OBJECT = 3;
+const TYPE_ARRAY = 4;
+const TYPE_TRUE = 5;
+const TYPE_FALSE = 6;
+const TYPE_NULL = 7;
+
+const KEYS: (string | null)[] = [
+  null,
+  'deviceId', 'timestamp', 'status', 'details',
+  'deviceType', 'deviceName', 'deviceModel', 'deviceVersion',
+  'appVersion', 'screenResolution', 'location', 'batteryLevel',
+  'storageInfo', 'memoryInfo', 'samples', 'encodings',
+  'metadata', 'action', 'data', 'type'
+];
+
+const KEY_IDS: Map<string, number> = new Map(
+  KEYS.map((key, id) => [key as string, id] as [string, number]).filter(([key]) => key !== null)
+);
+
+/**
+ * Check whether a payload uses the compact encoding
+ */
+export function isCompactPayload(payload: Buffer): boolean {
+  return payload.length > 0 && payload[0] === COMPACT_MAGIC;
+}
+
+/**
+ * Decode a device payload that is UTF-8 JSON or compact-v1, optionally deflate-dict-v1 compressed
+ */
+export function decodePayload(payload: Buffer | string): any {
+  if (typeof payload === 'string') {
+    return JSON.parse(payload);
+  }
+  if (isCompressedPayload(payload)) {
+    payload = inflatePayload(payload);
+  }
+  return isCompactPayload(payload) ? decodeCompact(payload) : JSON.parse(payload.toString('utf8'));
+}
+
+/**
+ * Encode a plain object as compact-v1
+ */
+export function encodeCompact(message: Record<string, any>): Buffer {
+  const bytes: number[] = [COMPACT_MAGIC];
+  writeObject(bytes, message);
+  return Buffer.from(bytes);
+}
+
+/**
+ * Decode a compact-v1 payload into a plain object
+ */
+export function decodeCompact(payload: Buffer): any {
+  if (!isCompactPayload(payload)) {
+    throw new Error('Not a compact-v1 payload');
+  }
+  const reader = new CompactReader(payload, 1);
+  return reader.readObject();
+}
+
+function writeObject(out: number[], message: Record<string, any>): void {
+  const keys = Object.keys(message).filter(key => message[key] !== undefined);
+  writeVarint(out, keys.length);
+  for (const key of keys) {
+    const value = message[key];
+    const keyId = KEY_IDS.get(key) || 0;
+    const type = typeOf(value);
+    writeVarint(out, keyId * 8 + type);
+    if (keyId === 0) {
+      writeString(out, key);
+    }
+    writeValue(out, type, value);
+  }
+}
+
+function writeArray(out: number[], values: any[]): void {
+  writeVarint(out, values.length);
+  for (const value of values) {
+    const type = typeOf(value);
+    writeVarint(out, type);
+    writeValue(out, type, value);
+  }
+}
+
+function writeValue(out: number[], type: number, value: any): void {
+  switch (type) {
+    case TYPE_VARINT:
+      writeVarint(out, value >= 0 ? value * 2 : -value * 2 - 1);
+      break;
+    case TYPE_DOUBLE: {
+      const buffer = Buffer.alloc(8);
+      buffer.writeDoubleLE(value);
+      out.push(...buffer);
+      break;
+    }
+    case TYPE_STRING:
+      writeString(out, value instanceof Date ? value.toISOString() : String(value));
+      break;
+    case TYPE_OBJECT:
+      writeObject(out, value);
+      break;
+    case TYPE_ARRAY:
+      writeArray(out, value);
+      break;
+    default:
+      // true / false / null carry no value bytes
+      break;
+  }
+}
+
+function typeOf(value: any): number {
+  if (value === null || value === undefined) return TYPE_NULL;
+  if (value === true) return TYPE_TRUE;
+  if (value === false) return TYPE_FALSE;
+  if (typeof value === 'number') {
+    return Number.isSafeInteger(value) ? TYPE_VARINT : TYPE_DOUBLE;
+  }
+  if (Array.isArray(value)) return TYPE_ARRAY;
+  if (value instanceof Date) return TYPE_STRING;
+  if (typeof value === 'object') return TYPE_OBJECT;
+  return TYPE_STRING;
+}
+
+function writeString(out: number[], value: string): void {
+  const bytes = Buffer.from(value, 'utf8');
+  writeVarint(out, bytes.length);
+  out.push(...bytes);
+}
+
+function writeVarint(out: number[], value: number): void {
+  while (value >= 0x80) {
+    out.push((value % 0x80) | 0x80);
+    value = Math.floor(value / 0x80);
+  }
+  out.push(value);
+}
+
+class CompactReader {
+  constructor(private readonly payload: Buffer, private position: number) {}
+
+  readObject(): Record<string, any> {
+    const message: Record<string, any> = {};
+    const count = this.readVarint();
+    for (let i = 0; i < count; i++) {
+      const tag = this.readVarint();
+      const keyId = Math.floor(tag / 8);
+      const type = tag % 8;
+      let key: string;
+      if (keyId === 0) {
+        key = this.readString();
+      } else if (keyId < KEYS.length) {
+        key = KEYS[keyId] as string;
+      } else {
+        throw new Error(`Unknown compact key id: ${keyId}`);
+      }
+      message[key] = this.readValue(type);
+    }
+    return message;
+  }
+
+  readArray(): any[] {
+    const values: any[] = [];
+    const count = this.readVarint();
+    for (let i = 0; i < count; i++) {
+      values.push(this.readValue(this.readVarint()));
+    }
+    return values;
+  }
+
+  readValue(type: number): any {
+    switch (type) {
+      case TYPE_VARINT: {
+        const raw = this.readVarint();
+        return raw % 2 === 0 ? raw / 2 : -(raw + 1) / 2;
+      }
+      case TYPE_DOUBLE: {
+        this.ensureAvailable(8);
+        const value = this.payload.readDoubleLE(this.position);
+        this.position += 8;
+        return value;
+      }
+      case TYPE_STRING:
+        return this.readString();
+      case TYPE_OBJECT:
+        return this.readObject();
+      case TYPE_ARRAY:
+        return this.readArray();
+      case TYPE_TRUE:
+        return true;
+      case TYPE_FALSE:
+        return false;
+      default:
+        return null;
+    }
+  }
+
+  readString(): string {
+    const length = this.readVarint();
+    this.ensureAvailable(length);
+    const value = this.payload.toString('utf8', this.position, this.position + length);
+    this.position += length;
+    return value;
+  }
+
+  readVarint(): number {
+    let value = 0;
+    let multiplier = 1;
+    for (let i = 0; i < 10; i++) {
+      this.ensureAvailable(1);
+      const byte = this.payload[this.position++];
+      value += (byte & 0x7f) * multiplier;
+      if ((byte & 0x80) === 0) {
+        return value;
+      }
+      multiplier *= 0x80;
+    }
+    throw new Error('Malformed compact varint');
+  }
+
+  private ensureAvailable(length: number): void {
+    if (this.position + length > this.payload.length) {
+      throw new Error('Truncated compact payload');
+    }
+  }
+}
@@ -1,7 +1,23 @@
 import { EventEmitter } from 'events';
 import Aedes from 'aedes';
 import { createServer, Server } from 'net';
+import { performance } from 'perf_hooks';
 import { Device } from '../models/Device';
+import { decodePayload, isCompactPayload, ENCODING_COMPACT, ENCODING_JSON } from './compactCodec';
+import { createTransferId, encodeChunkFrames, OutgoingTransferStore, ResumeRequest } from './chunkedTransfer';
+import { PlaylistItem, PlaylistVersionStore, PLAYLIST_DELTA } from './playlistSync';
+import { compressPayload, COMPRESSION_DEFLATE } from './payloadCompression';
+
+// Content pushes larger than this are sent as chunks on device/{clientId}/content/chunk
+const CHUNK_THRESHOLD = 64 * 1024;
+const CHUNK_SIZE = 32 * 1024;
+// How long sent chunks are kept for resume requests
+const TRANSFER_RETENTION_MS = 60 * 60 * 1000;
+
+// Wall-clock milliseconds with sub-millisecond resolution, used for clock sync timestamps
+function preciseNow(): number {
+  return performance.timeOrigin + performance.now();
+}
 
 // Content push message type
 export interface ContentPushMessage {
@@ -22,6 +38,27 @@ export interface ContentPushMessage {
   };
 }
 
+// Group kinds a screen can subscribe to
+export type GroupKind = 'region' | 'city' | 'tag';
+
+export interface DeviceGroups {
+  region?: string;
+  city?: string;
+  tags: string[];
+}
+
+// Placeholders written at auto-registration, never used as group topics
+const UNKNOWN_GROUP_VALUES = ['未知区域', '未知城市'];
+
+/**
+ * Content topic shared by every screen in a group.
+ * Must match GroupSubscriptions.topicFor on the device.
+ */
+export function groupTopic(kind: GroupKind, value: string): string {
+  const level = value.trim().toLowerCase().replace(/[/+#\u0000]/g, '_');
+  return `group/${kind}/${level}/content`;
+}
+
 // Connected device type
 export interface ConnectedDevice {
   id: string;
@@ -40,6 +77,41 @@ export default class MQTTService extends EventEmitter {
   private connectedDevices: Map<string, ConnectedDevice> = new Map();
   private broker: any;
   private server: Server;
+  private outgoingTransfers: OutgoingTransferStore = new OutgoingTransferStore(TRANSFER_RETENTION_MS);
+  private transferStats = {
+    transfersStarted: 0,
+    chunksSent: 0,
+    chunksResent: 0,
+    bytesSent: 0,
+    sendMillis: 0
+  };
+  // Latest metrics summary reported by each device on device/{clientId}/metrics
+  private deviceMetrics: Map<string, { receivedAt: Date; metrics: any }> = new Map();
+  // Last playlist version sent to each device, diffed against on the next update
+  private playlists: PlaylistVersionStore = new PlaylistVersionStore();
+  // Clients that negotiated deflate-dict-v1 at registration
+  private compressedClients: Set<string> = new Set();
+  private compressionStats = {
+    messages: 0,
+    bytesIn: 0,
+    bytesOut: 0
+  };
+  private playlistStats = {
+    deltasSent: 0,
+    fullsSent: 0,
+    resyncRequests: 0,
+    deltaBytes: 0,
+    fullBytes: 0
+  };
+  private registrationStats = {
+    full: 0,
+    resumed: 0,
+    unknown: 0
+  };
+  private clockStats = {
+    pingsAnswered: 0,
+    invalidPings: 0
+  };
 
   constructor(port: number = 1883) {
     super();
@@ -88,6 +160,12 @@ export default class MQTTService extends EventEmitter {
     // Message publish event
     this.broker.on('publish', (packet: any, client: any) => {
       if (client) {
+        // Answer clock pings before anything else so logging does not count towards the device's round trip
+        const pingMatch = /^device\/([^/]+)\/time\/ping$/.exec(packet.topic);
+        if (pingMatch) {
+          this.handleClockPing(pingMatch[1], packet, preciseNow());
+        }
+
         console.log(`📨 Message received from ${client.id}: ${packet.topic}`);
         
         // Handle device registration
@@ -95,11 +173,33 @@ export default class MQTTService extends EventEmitter {
           this.handleDeviceRegistration(client, packet);
         }
         
+        // Reconnecting devices send only their registration fingerprint
+        if (packet.topic === 'device/register/resume') {
+          this.handleRegistrationResume(client, packet);
+        }
+        
         // Handle heartbeat
         if (packet.topic === 'device/heartbeat') {
           this.handleDeviceHeartbeat(client, packet);
         }
         
+        // Handle chunk resend requests for interrupted transfers
+        if (/^device\/[^/]+\/content\/resume$/.test(packet.topic)) {
+          this.handleTransferResume(client, packet);
+        }
+        
+        // Resend the full playlist to devices whose copy fell behind
+        const resyncMatch = /^device\/([^/]+)\/playlist\/resync$/.exec(packet.topic);
+        if (resyncMatch) {
+          this.handlePlaylistResync(resyncMatch[1], packet);
+        }
+        
+        // Store periodic on-device metrics summaries
+        const metricsMatch = /^device\/([^/]+)\/metrics$/.exec(packet.topic);
+        if (metricsMatch) {
+          this.handleDeviceMetrics(metricsMatch[1], packet);
+        }
+        
         // Update device last active time
         const device = this.connectedDevices.get(client.id);
         if (device) {
@@ -182,9 +282,19 @@ export default class MQTTService extends EventEmitter {
    */
   public publishToDevice(clientId: string, topic: string, message: any): Promise<void> {
     return new Promise((resolve, reject) => {
+      let payload: Buffer = Buffer.from(JSON.stringify(message), 'utf8');
+      if (this.compressedClients.has(clientId)) {
+        const compressed = compressPayload(payload);
+        if (compressed) {
+          this.compressionStats.messages++;
+          this.compressionStats.bytesIn += payload.length;
+          this.compressionStats.bytesOut += compressed.length;
+          payload = compressed;
+        }
+      }
       const packet = {
         topic: topic,
-        payload: JSON.stringify(message),
+        payload: payload,
         qos: 1,
         retain: false
       };
@@ -201,6 +311,138 @@ export default class MQTTService extends EventEmitter {
     });
   }
 
+  /**
+   * Send a large payload as sequenced chunks, kept for later resume requests
+   */
+  public async publishChunked(clientId: string, topic: string, payload: Buffer): Promise<string> {
+    const transferId = createTransferId();
+    const frames = encodeChunkFrames(transferId, payload, CHUNK_SIZE);
+    this.outgoingTransfers.add({
+      transferId,
+      clientId,
+      topic,
+      frames,
+      totalSize: payload.length,
+      createdAt: Date.now()
+    });
+    this.transferStats.transfersStarted++;
+
+    const startedAt = Date.now();
+    for (const frame of frames) {
+      await this.publishFrame(topic, frame);
+      this.transferStats.chunksSent++;
+      this.transferStats.bytesSent += frame.length;
+    }
+    this.transferStats.sendMillis += Date.now() - startedAt;
+
+    console.log(`📦 Chunked transfer ${transferId} sent to device ${clientId}: ${frames.length} chunks, ${payload.length} bytes`);
+    return transferId;
+  }
+
+  private publishFrame(topic: string, frame: Buffer): Promise<void> {
+    return new Promise((resolve, reject) => {
+      this.broker.publish({ topic, payload: frame, qos: 1, retain: false }, (error: any) => {
+        if (error) {
+          reject(error);
+        } else {
+          resolve();
+        }
+      });
+    });
+  }
+
+  /**
+   * Resend the chunks a device reports as missing after a reconnect
+   */
+  private async handleTransferResume(client: any, packet: any): Promise<void> {
+    try {
+      const request: ResumeRequest = decodePayload(packet.payload);
+      const transfer = this.outgoingTransfers.get(request.transferId);
+      if (!transfer || transfer.clientId !== client.id) {
+        console.warn(`⚠️ Resume requested for unknown transfer ${request.transferId} by ${client.id}`);
+        return;
+      }
+
+      const frames = this.outgoingTransfers.missingFrames(transfer, request);
+      const startedAt = Date.now();
+      for (const frame of frames) {
+        await this.publishFrame(transfer.topic, frame);
+        this.transferStats.chunksResent++;
+        this.transferStats.bytesSent += frame.length;
+      }
+      this.transferStats.sendMillis += Date.now() - startedAt;
+      console.log(`🔁 Resent ${frames.length} chunks of transfer ${transfer.transferId} to ${client.id}`);
+    } catch (error) {
+      console.error(`❌ Transfer resume failed for ${client.id}:`, error);
+    }
+  }
+
+  /**
+   * Echo the device's send time with our receive and send times (NTP t0..t2), at QoS 0 so a
+   * stale answer is never redelivered; the device estimates offset and drift from these
+   */
+  private handleClockPing(clientId: string, packet: any, receivedAt: number): void {
+    try {
+      const { t0 } = decodePayload(packet.payload);
+      if (typeof t0 !== 'number') {
+        this.clockStats.invalidPings++;
+        return;
+      }
+      const pong = JSON.stringify({ t0, t1: receivedAt, t2: preciseNow() });
+      this.broker.publish({ topic: `device/${clientId}/time/pong`, payload: pong, qos: 0, retain: false },
+        (error: any) => {
+          if (error) {
+            console.error(`❌ Clock pong to ${clientId} failed:`, error);
+          }
+        });
+      this.clockStats.pingsAnswered++;
+    } catch (error) {
+      this.clockStats.invalidPings++;
+      console.error(`❌ Invalid clock ping from ${clientId}:`, error);
+    }
+  }
+
+  /**
+   * Keep the latest metrics summary per device
+   */
+  private handleDeviceMetrics(clientId: string, packet: any): void {
+    try {
+      const metrics = decodePayload(packet.payload);
+      this.deviceMetrics.set(clientId, { receivedAt: new Date(), metrics });
+      this.emit('deviceMetrics', { clientId, metrics });
+    } catch (error) {
+      console.error(`❌ Invalid metrics payload from ${clientId}:`, error);
+    }
+  }
+
+  /**
+   * Answer a device's resync request with the full playlist at the current version
+   */
+  private async handlePlaylistResync(clientId: string, packet: any): Promise<void> {
+    this.playlistStats.resyncRequests++;
+    try {
+      const request = decodePayload(packet.payload);
+      const full = this.playlists.full(clientId);
+      if (!full) {
+        console.warn(`⚠️ Playlist resync requested by ${clientId} at version ${request.version}, no playlist on record`);
+        return;
+      }
+      await this.publishToDevice(clientId, `device/${clientId}/playlist`, full);
+      this.playlistStats.fullsSent++;
+      this.playlistStats.fullBytes += JSON.stringify(full).length;
+      console.log(`🔁 Full playlist v${full.version} resent to ${clientId} (device had v${request.version})`);
+    } catch (error) {
+      console.error(`❌ Playlist resync failed for ${clientId}:`, error);
+    }
+  }
+
+  /**
+   * Latest metrics summary reported by a device, if any
+   */
+  public getDeviceMetrics(clientId: string): { receivedAt: Date; metrics: any } | undefined {
+    return this.deviceMetrics.get(clientId);
+  }
+
   /**
    * Broadcast message to all devices
    */
@@ -232,6 +474,63 @@ export default class MQTTService extends EventEmitter {
     return Array.from(this.connectedDevices.values());
   }
 
+  /**
+   * Groups a device belongs to, taken from its location and tags
+   */
+  public getDeviceGroups(device: any): DeviceGroups {
+    const groups: DeviceGroups = { tags: Array.isArray(device.tags) ? device.tags : [] };
+    const region = device.location?.region;
+    const city = device.location?.city;
+    if (region && !UNKNOWN_GROUP_VALUES.includes(region)) {
+      groups.region = region;
+    }
+    if (city && !UNKNOWN_GROUP_VALUES.includes(city)) {
+      groups.city = city;
+    }
+    return groups;
+  }
+
+  /**
+   * Push content to every screen in a group with a single publish
+   */
+  public async pushContentToGroup(kind: GroupKind, value: string, message: ContentPushMessage): Promise<{ topic: string; durationMs: number }> {
+    const topic = groupTopic(kind, value);
+    const startedAt = process.hrtime.bigint();
+    await this.broadcastMessage(topic, message);
+    const durationMs = Number(process.hrtime.bigint() - startedAt) / 1e6;
+    console.log(`📤 Content pushed to group ${kind}:${value} in ${durationMs.toFixed(1)}ms:`, message.content.title);
+    return { topic, durationMs };
+  }
+
+  /**
+   * Update a device's region, city and tags and tell it to resubscribe
+   */
+  public async updateDeviceGroups(deviceId: string, update: Partial<DeviceGroups>): Promise<DeviceGroups | null> {
+    const device = await Device.findOne({ deviceId: deviceId });
+    if (!device) {
+      return null;
+    }
+
+    if (update.region !== undefined) {
+      device.location.region = update.region;
+    }
+    if (update.city !== undefined) {
+      device.location.city = update.city;
+    }
+    if (Array.isArray(update.tags)) {
+      device.tags = update.tags;
+    }
+    await device.save();
+
+    const groups = this.getDeviceGroups(device);
+    await this.sendCommandToDevice(deviceId, {
+      command: 'update_groups',
+      params: groups,
+      timestamp: Date.now()
+    });
+    return groups;
+  }
+
   /**
    * Push content to specific device
    */
@@ -245,8 +544,12 @@ export default class MQTTService extends EventEmitter {
       }
 
       const clientId = device.mqtt.clientId;
-      const topic = `device/${clientId}/content`;
-      await this.publishToDevice(clientId, topic, message);
+      const payload = Buffer.from(JSON.stringify(message), 'utf8');
+      if (payload.length > CHUNK_THRESHOLD) {
+        await this.publishChunked(clientId, `device/${clientId}/content/chunk`, payload);
+      } else {
+        await this.publishToDevice(clientId, `device/${clientId}/content`, message);
+      }
       console.log(`📤 Content pushed to device ${deviceId} (client: ${clientId}):`, message.content.title);
       return true;
     } catch (error) {
@@ -255,6 +558,33 @@ export default class MQTTService extends EventEmitter {
     }
   }
 
+  /**
+   * Replace a device's playlist, sending only the changes since the last version when that is smaller
+   */
+  public async updateDevicePlaylist(deviceId: string, items: PlaylistItem[]): Promise<{ version: number; mode: 'delta' | 'full'; bytes: number } | null> {
+    const device = await Device.findOne({ deviceId: deviceId });
+    if (!device || !device.mqtt?.clientId) {
+      console.error(`❌ Device not found or no MQTT client ID: ${deviceId}`);
+      return null;
+    }
+
+    const clientId = device.mqtt.clientId;
+    const message = this.playlists.update(clientId, items);
+    const bytes = JSON.stringify(message).length;
+    await this.publishToDevice(clientId, `device/${clientId}/playlist`, message);
+
+    const mode = message.type === PLAYLIST_DELTA ? 'delta' : 'full';
+    if (mode === 'delta') {
+      this.playlistStats.deltasSent++;
+      this.playlistStats.deltaBytes += bytes;
+    } else {
+      this.playlistStats.fullsSent++;
+      this.playlistStats.fullBytes += bytes;
+    }
+    console.log(`📋 Playlist v${message.version} sent to device ${deviceId} as ${mode}: ${items.length} items, ${bytes} bytes`);
+    return { version: message.version, mode, bytes };
+  }
+
   /**
    * Send command to specific device
    */
@@ -307,7 +637,31 @@ export default class MQTTService extends EventEmitter {
       connectedClients: this.connectedDevices.size,
       clientsCount: this.connectedDevices.size,
       totalConnectedDevices: this.connectedDevices.size,
-      mode: 'aedes'
+      mode: 'aedes',
+      transfers: {
+        ...this.transferStats,
+        retained: this.outgoingTransfers.size,
+        bytesPerSecond: this.transferStats.sendMillis > 0
+          ? Math.round(this.transferStats.bytesSent * 1000 / this.transferStats.sendMillis)
+          : 0
+      },
+      playlists: {
+        ...this.playlistStats,
+        devices: this.playlists.size
+      },
+      registrations: {
+        ...this.registrationStats
+      },
+      clock: {
+        ...this.clockStats
+      },
+      compression: {
+        ...this.compressionStats,
+        clients: this.compressedClients.size,
+        ratio: this.compressionStats.bytesIn > 0
+          ? Math.round(this.compressionStats.bytesOut * 1000 / this.compressionStats.bytesIn) / 1000
+          : 1
+      }
     };
   }
 
@@ -323,8 +677,13 @@ export default class MQTTService extends EventEmitter {
    */
   private async handleDeviceRegistration(client: any, packet: any): Promise<void> {
     try {
-      const payload = JSON.parse(packet.payload.toString());
+      const payload = decodePayload(packet.payload);
       console.log(`📋 Processing device registration from ${client.id}:`, payload);
+      this.registrationStats.full++;
+      
+      const { encoding, compression } = this.negotiateCodecs(client, packet, payload);
+      // Fingerprint of the registration fields, computed by the device and echoed back once stored
+      const fingerprint = typeof payload.fingerprint === 'string' ? payload.fingerprint : undefined;
       
       const deviceId = payload.deviceId || client.id;
       const deviceType = payload.data?.type || payload.deviceType || 'android_screen';
@@ -359,7 +718,8 @@ export default class MQTTService extends EventEmitter {
             subscriptions: [],
             messageCount: 0
           },
-          tags: deviceData.capabilities || ['auto-registered', 'mqtt-device'],
+          tags: deviceData.capabilities || metadata.tags || ['auto-registered', 'mqtt-device'],
+          registrationFingerprint: fingerprint,
           status: 'online',
           isActive: true,
           lastHeartbeat: new Date(),
@@ -382,6 +742,7 @@ export default class MQTTService extends EventEmitter {
           device.mqtt.clientId = client.id;
           device.mqtt.isConnected = true;
         }
+        device.registrationFingerprint = fingerprint;
         device.lastHeartbeat = new Date();
         device.updatedAt = new Date();
         
@@ -395,6 +756,10 @@ export default class MQTTService extends EventEmitter {
         status: 'success',
         deviceId: deviceId,
         message: '设备注册成功',
+        encoding: encoding,
+        compression: compression,
+        groups: this.getDeviceGroups(device),
+        fingerprint: fingerprint,
         timestamp: new Date().toISOString()
       };
       
@@ -419,12 +784,103 @@ export default class MQTTService extends EventEmitter {
     }
   }
 
+  /**
+   * Confirm a reconnecting device whose registration fingerprint matches the stored one with a
+   * single conditional update instead of a full upsert; otherwise answer 'unknown' so the device
+   * sends its full registration
+   */
+  private async handleRegistrationResume(client: any, packet: any): Promise<void> {
+    const confirmationTopic = `device/${client.id}/register/confirm`;
+    try {
+      const payload = decodePayload(packet.payload);
+      const deviceId = payload.deviceId || client.id;
+      const fingerprint = typeof payload.fingerprint === 'string' ? payload.fingerprint : undefined;
+      const { encoding, compression } = this.negotiateCodecs(client, packet, payload);
+      
+      const now = new Date();
+      const device = fingerprint
+        ? await Device.findOneAndUpdate(
+            { deviceId: deviceId, registrationFingerprint: fingerprint },
+            {
+              $set: {
+                'mqtt.clientId': client.id,
+                'mqtt.isConnected': true,
+                'mqtt.lastConnectedAt': now,
+                lastHeartbeat: now
+              }
+            },
+            { new: true }
+          ).select('location tags')
+        : null;
+      
+      if (!device) {
+        this.registrationStats.unknown++;
+        console.log(`❔ Unknown registration fingerprint from ${deviceId}, requesting full registration`);
+        await this.publishToDevice(client.id, confirmationTopic, {
+          status: 'unknown',
+          deviceId: deviceId,
+          message: '需要完整注册',
+          timestamp: now.toISOString()
+        });
+        return;
+      }
+      
+      this.registrationStats.resumed++;
+      console.log(`⚡ Registration resumed for ${deviceId}`);
+      await this.publishToDevice(client.id, confirmationTopic, {
+        status: 'success',
+        deviceId: deviceId,
+        message: '设备注册成功',
+        encoding: encoding,
+        compression: compression,
+        groups: this.getDeviceGroups(device),
+        fingerprint: fingerprint,
+        resumed: true,
+        timestamp: now.toISOString()
+      });
+    } catch (error) {
+      console.error(`❌ Registration resume failed for ${client.id}:`, error);
+      // Fall back to a full registration rather than leaving the device unregistered
+      try {
+        await this.publishToDevice(client.id, confirmationTopic, {
+          status: 'unknown',
+          deviceId: client.id,
+          message: '需要完整注册',
+          timestamp: new Date().toISOString()
+        });
+      } catch (sendError) {
+        console.error(`❌ Failed to send resume response:`, sendError);
+      }
+    }
+  }
+
+  /**
+   * Pick the payload encoding and compression from what the device advertised at registration
+   */
+  private negotiateCodecs(client: any, packet: any, payload: any): { encoding: string; compression?: string } {
+    // Negotiate payload encoding: compact-v1 if the device sent or advertised it
+    const encodings: string[] = Array.isArray(payload.encodings) ? payload.encodings : [];
+    const encoding = isCompactPayload(packet.payload) || encodings.includes(ENCODING_COMPACT)
+      ? ENCODING_COMPACT
+      : ENCODING_JSON;
+    
+    // Negotiate payload compression: only if the device advertised it
+    const compressions: string[] = Array.isArray(payload.compressions) ? payload.compressions : [];
+    const compression = compressions.includes(COMPRESSION_DEFLATE) ? COMPRESSION_DEFLATE : undefined;
+    if (compression) {
+      this.compressedClients.add(client.id);
+    } else {
+      this.compressedClients.delete(client.id);
+    }
+    return { encoding, compression };
+  }
+
   /**
    * Handle device heartbeat
    */
   private async handleDeviceHeartbeat(client: any, packet: any): Promise<void> {
     try {
-      const payload = JSON.parse(packet.payload.toString());
+      const payload = decodePayload(packet.payload);
       const deviceId = payload.deviceId || client.id;
       
       console.log(`💓 Heartbeat received from device: ${deviceId}`);
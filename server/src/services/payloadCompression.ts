@@ -0,0 +1,101 @@
+import { deflateSync, inflateSync } from 'zlib';
+
+/**
+ * Payload compression (deflate-dict-v1), negotiated at registration time.
+ *
+ * Once both sides agree, payloads above the size threshold are deflated with
+ * a preset dictionary of the keys and values that repeat in every device
+ * message, so even single messages of a few hundred bytes shrink. The
+ * dictionary must match PayloadCompression.java byte for byte; changing it
+ * requires a new dictionary id.
+ *
+ * Layout: [0xC3][dictionaryId:1][inflatedLength:varint][zlib stream]
+ * The inner payload is JSON or compact-v1.
+ */
+
+export const COMPRESSION_DEFLATE = 'deflate-dict-v1';
+export const COMPRESSION_MAGIC = 0xc3;
+// Smaller messages gain less than the header and CPU cost
+export const MIN_COMPRESS_SIZE = 128;
+
+const DICTIONARY_ID = 1;
+const MAX_INFLATED_SIZE = 8 * 1024 * 1024;
+
+// Most frequent fragments last, where back-references are shortest
+const DICTIONARY = Buffer.from(
+  '"messageType":"broadcast","message":"","playlist_full","playlist_delta",'
+  + '"baseVersion":,"ops":[{"op":"remove","id":""},{"op":"add","after":null,"item":'
+  + '{"op":"move","op":"update","transferId":"","missing":[[,]],'
+  + '"counters":{},"gauges":{},"histograms":{"count":,"mean":,"max":,"p50":,"p99":'
+  + '"deviceType":"android_screen","deviceName":"","deviceModel":"","deviceVersion":"",'
+  + '"appVersion":"","screenResolution":"1920x1080","location":"",'
+  + '"encodings":["compact-v1","json"],"compressions":["deflate-dict-v1"],'
+  + '"metadata":{"region":"","city":"","tags":[]},"groups":{'
+  + '"status":"success","message":"","encoding":"compact-v1",'
+  + '"command":"","params":{},"action":"","data":{},'
+  + '"schedule":{"startTime":"","endTime":"","priority":},'
+  + '{"messageType":"content","content":{"id":"","title":"","type":"video",'
+  + '"type":"image","url":"https://","duration":,"size":},'
+  + '"batteryLevel":,"storageInfo":"","memoryInfo":"","samples":[{'
+  + '"status":"online","status":"playing","details":"",'
+  + '{"deviceId":"","clientId":"android_screen_","version":,"items":,'
+  + '"timestamp":',
+  'ascii'
+);
+
+export function isCompressedPayload(payload: Buffer): boolean {
+  return payload.length > 0 && payload[0] === COMPRESSION_MAGIC;
+}
+
+/**
+ * Compress an encoded payload, or return null when it is below the threshold or would not shrink
+ */
+export function compressPayload(payload: Buffer): Buffer | null {
+  if (payload.length < MIN_COMPRESS_SIZE || isCompressedPayload(payload)) {
+    return null;
+  }
+  const header: number[] = [COMPRESSION_MAGIC, DICTIONARY_ID];
+  let length = payload.length;
+  while (length > 0x7f) {
+    header.push((length & 0x7f) | 0x80);
+    length >>>= 7;
+  }
+  header.push(length);
+
+  const compressed = Buffer.concat([Buffer.from(header), deflateSync(payload, { dictionary: DICTIONARY })]);
+  return compressed.length < payload.length ? compressed : null;
+}
+
+/**
+ * Inflate a deflate-dict-v1 payload back to the JSON or compact-v1 bytes
+ */
+export function inflatePayload(payload: Buffer): Buffer {
+  if (payload.length < 3 || !isCompressedPayload(payload)) {
+    throw new Error(`Not a ${COMPRESSION_DEFLATE} payload`);
+  }
+  if (payload[1] !== DICTIONARY_ID) {
+    throw new Error(`Unknown compression dictionary: ${payload[1]}`);
+  }
+
+  let offset = 2;
+  let length = 0;
+  for (let shift = 0; ; shift += 7) {
+    if (offset >= payload.length || shift > 28) {
+      throw new Error('Invalid inflated length');
+    }
+    const byte = payload[offset++];
+    length += (byte & 0x7f) * 2 ** shift;
+    if ((byte & 0x80) === 0) {
+      break;
+    }
+  }
+  if (length > MAX_INFLATED_SIZE) {
+    throw new Error(`Invalid inflated length: ${length}`);
+  }
+
+  const inflated = inflateSync(payload.subarray(offset), { dictionary: DICTIONARY, maxOutputLength: length + 1 });
+  if (inflated.length !== length) {
+    throw new Error(`Inflated length mismatch: ${inflated.length} != ${length}`);
+  }
+  return inflated;
+}
@@ -0,0 +1,237 @@
+/**
+ * Versioned playlist sync.
+ *
+ * Each device holds a versioned copy of its playlist (PlaylistStore.java).
+ * Instead of resending the whole list on every edit, the server diffs the
+ * previous version against the new one and publishes only the operations
+ * needed to get from one to the other. Positions are expressed relative to
+ * the preceding item id, so a delta stays valid however long the list is.
+ *
+ * A device that misses a version, or finds a delta inconsistent with its
+ * copy, asks for a full list on device/{clientId}/playlist/resync.
+ */
+
+export const PLAYLIST_FULL = 'playlist_full';
+export const PLAYLIST_DELTA = 'playlist_delta';
+
+export interface PlaylistItem {
+  id: string;
+  [key: string]: any;
+}
+
+export type PlaylistOp =
+  | { op: 'remove'; id: string }
+  | { op: 'add'; after: string | null; item: PlaylistItem }
+  | { op: 'update'; item: PlaylistItem }
+  | { op: 'move'; id: string; after: string | null };
+
+export interface PlaylistFullMessage {
+  type: typeof PLAYLIST_FULL;
+  version: number;
+  items: PlaylistItem[];
+}
+
+export interface PlaylistDeltaMessage {
+  type: typeof PLAYLIST_DELTA;
+  baseVersion: number;
+  version: number;
+  ops: PlaylistOp[];
+}
+
+export interface PlaylistState {
+  version: number;
+  items: PlaylistItem[];
+}
+
+/**
+ * Operations that turn `previous` into `next`.
+ *
+ * Items whose relative order is unchanged (the longest increasing run of
+ * their old positions) stay put; everything else is added or moved right
+ * after its new predecessor, so moving one item costs a single op.
+ */
+export function diffPlaylists(previous: PlaylistItem[], next: PlaylistItem[]): PlaylistOp[] {
+  const ops: PlaylistOp[] = [];
+  const nextIds = new Set(next.map(item => item.id));
+  if (nextIds.size !== next.length) {
+    throw new Error('Playlist item ids must be unique');
+  }
+
+  const previousIndex = new Map<string, number>();
+  const previousJson = new Map<string, string>();
+  previous.forEach((item, index) => {
+    previousIndex.set(item.id, index);
+    previousJson.set(item.id, JSON.stringify(item));
+  });
+
+  for (const item of previous) {
+    if (!nextIds.has(item.id)) {
+      ops.push({ op: 'remove', id: item.id });
+    }
+  }
+
+  // Old positions of the surviving items in their new order; the LIS of this
+  // sequence is the largest set of items that does not need to move
+  const kept: number[] = [];
+  const keptIds: string[] = [];
+  for (const item of next) {
+    const index = previousIndex.get(item.id);
+    if (index !== undefined) {
+      kept.push(index);
+      keptIds.push(item.id);
+    }
+  }
+  const stable = new Set<string>();
+  for (const position of longestIncreasingSubsequence(kept)) {
+    stable.add(keptIds[position]);
+  }
+
+  let after: string | null = null;
+  for (const item of next) {
+    const oldJson = previousJson.get(item.id);
+    if (oldJson === undefined) {
+      ops.push({ op: 'add', after, item });
+    } else {
+      if (!stable.has(item.id)) {
+        ops.push({ op: 'move', id: item.id, after });
+      }
+      if (oldJson !== JSON.stringify(item)) {
+        ops.push({ op: 'update', item });
+      }
+    }
+    after = item.id;
+  }
+
+  return ops;
+}
+
+/**
+ * Positions (into `values`) of one longest strictly increasing subsequence, O(n log n)
+ */
+function longestIncreasingSubsequence(values: number[]): number[] {
+  const tails: number[] = []; // index into values of the smallest tail for each length
+  const parents: number[] = new Array(values.length);
+
+  for (let i = 0; i < values.length; i++) {
+    let low = 0;
+    let high = tails.length;
+    while (low < high) {
+      const mid = (low + high) >> 1;
+      if (values[tails[mid]] < values[i]) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    parents[i] = low > 0 ? tails[low - 1] : -1;
+    tails[low] = i;
+  }
+
+  const result: number[] = new Array(tails.length);
+  let position = tails.length > 0 ? tails[tails.length - 1] : -1;
+  for (let i = tails.length - 1; i >= 0; i--) {
+    result[i] = position;
+    position = parents[position];
+  }
+  return result;
+}
+
+/**
+ * Apply operations the same way the device does; throws if an op does not fit
+ */
+export function applyPlaylistOps(items: PlaylistItem[], ops: PlaylistOp[]): PlaylistItem[] {
+  const result = items.slice();
+  const indexOf = (id: string) => result.findIndex(item => item.id === id);
+  const insertAt = (after: string | null) => {
+    if (after === null) {
+      return 0;
+    }
+    const anchor = indexOf(after);
+    if (anchor < 0) {
+      throw new Error(`Unknown anchor ${after}`);
+    }
+    return anchor + 1;
+  };
+
+  for (const op of ops) {
+    switch (op.op) {
+      case 'remove': {
+        const index = indexOf(op.id);
+        if (index < 0) {
+          throw new Error(`Unknown item ${op.id}`);
+        }
+        result.splice(index, 1);
+        break;
+      }
+      case 'add':
+        if (indexOf(op.item.id) >= 0) {
+          throw new Error(`Duplicate item ${op.item.id}`);
+        }
+        result.splice(insertAt(op.after), 0, op.item);
+        break;
+      case 'update': {
+        const index = indexOf(op.item.id);
+        if (index < 0) {
+          throw new Error(`Unknown item ${op.item.id}`);
+        }
+        result[index] = op.item;
+        break;
+      }
+      case 'move': {
+        const index = indexOf(op.id);
+        if (index < 0) {
+          throw new Error(`Unknown item ${op.id}`);
+        }
+        const [moved] = result.splice(index, 1);
+        result.splice(insertAt(op.after), 0, moved);
+        break;
+      }
+    }
+  }
+  return result;
+}
+
+/**
+ * Last playlist version sent to each device, kept in memory.
+ * After a server restart the first update for a device goes out as a full list.
+ */
+export class PlaylistVersionStore {
+  private states: Map<string, PlaylistState> = new Map();
+
+  get(clientId: string): PlaylistState | undefined {
+    return this.states.get(clientId);
+  }
+
+  /**
+   * Record the new playlist and build the smaller of the delta and the full message
+   */
+  update(clientId: string, items: PlaylistItem[]): PlaylistFullMessage | PlaylistDeltaMessage {
+    const current = this.states.get(clientId);
+    const version = (current?.version || 0) + 1;
+    const full: PlaylistFullMessage = { type: PLAYLIST_FULL, version, items };
+    this.states.set(clientId, { version, items });
+
+    if (!current) {
+      return full;
+    }
+    const delta: PlaylistDeltaMessage = {
+      type: PLAYLIST_DELTA,
+      baseVersion: current.version,
+      version,
+      ops: diffPlaylists(current.items, items)
+    };
+    return JSON.stringify(delta).length < JSON.stringify(full).length ? delta : full;
+  }
+
+  /**
+   * Full list at the current version, for devices that asked for a resync
+   */
+  full(clientId: string): PlaylistFullMessage | undefined {
+    const current = this.states.get(clientId);
+    return current ? { type: PLAYLIST_FULL, version: current.version, items: current.items } : undefined;
+  }
+
+  get size(): number {
+    return this.states.size;
+  }
+}
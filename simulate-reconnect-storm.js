@@ -0,0 +1,97 @@
+/**
+ * 重连风暴模拟
+ * 模拟代理重启后大量终端同时重连，对比旧的线性退避和新的全抖动指数退避
+ * (ReconnectScheduler.java) 下每秒连接请求数的曲线。
+ *
+ * 用法: node simulate-reconnect-storm.js [终端数] [代理每秒可接受连接数]
+ */
+
+const CLIENTS = parseInt(process.argv[2] || '10000', 10);
+const BROKER_CAPACITY_PER_SEC = parseInt(process.argv[3] || '500', 10);
+const SIMULATION_SECONDS = 600;
+
+// 旧策略: RECONNECT_DELAY * attempts，10次后放弃
+const linearPolicy = {
+    name: '线性退避 (旧)',
+    nextDelay: (attempt) => (attempt >= 10 ? null : 5000 * (attempt + 1))
+};
+
+// 新策略: [0, min(上限, 基数 * 2^n)] 全抖动，不放弃
+const fullJitterPolicy = {
+    name: '全抖动指数退避 (新)',
+    nextDelay: (attempt) => Math.random() * Math.min(5 * 60000, 2000 * Math.pow(2, attempt))
+};
+
+function simulate(policy) {
+    const attemptsPerSecond = new Array(SIMULATION_SECONDS).fill(0);
+    const connectedPerSecond = new Array(SIMULATION_SECONDS).fill(0);
+
+    // 所有终端在同一时刻检测到断线
+    let pending = [];
+    for (let i = 0; i < CLIENTS; i++) {
+        pending.push({ at: policy.nextDelay(0), attempt: 1 });
+    }
+
+    let connected = 0;
+    let gaveUp = 0;
+    for (let second = 0; second < SIMULATION_SECONDS; second++) {
+        const windowEnd = (second + 1) * 1000;
+        const due = pending.filter(c => c.at < windowEnd);
+        pending = pending.filter(c => c.at >= windowEnd);
+
+        attemptsPerSecond[second] = due.length;
+
+        // 超过代理容量的连接请求全部失败
+        const accepted = Math.min(due.length, BROKER_CAPACITY_PER_SEC);
+        connected += accepted;
+        connectedPerSecond[second] = connected;
+
+        for (const client of due.slice(accepted)) {
+            const delay = policy.nextDelay(client.attempt);
+            if (delay === null) {
+                gaveUp++;
+                continue;
+            }
+            pending.push({ at: client.at + delay, attempt: client.attempt + 1 });
+        }
+    }
+
+    return { attemptsPerSecond, connectedPerSecond, connected, gaveUp };
+}
+
+function printCurve(result) {
+    const peak = Math.max(...result.attemptsPerSecond);
+    const bucketSeconds = 10;
+    for (let start = 0; start < SIMULATION_SECONDS; start += bucketSeconds) {
+        const bucket = result.attemptsPerSecond.slice(start, start + bucketSeconds);
+        const max = Math.max(...bucket);
+        if (max === 0 && result.connectedPerSecond[start] === result.connected) {
+            continue;
+        }
+        const bar = '#'.repeat(Math.round((max / Math.max(peak, 1)) * 50));
+        const label = `${String(start).padStart(4)}s`;
+        console.log(`${label} ${String(max).padStart(6)}/s ${bar}`);
+    }
+}
+
+function run() {
+    console.log('🌪️  重连风暴模拟');
+    console.log('================================');
+    console.log(`终端数: ${CLIENTS}, 代理容量: ${BROKER_CAPACITY_PER_SEC} 连接/秒\n`);
+
+    for (const policy of [linearPolicy, fullJitterPolicy]) {
+        const result = simulate(policy);
+        const peak = Math.max(...result.attemptsPerSecond);
+        const allConnectedAt = result.connectedPerSecond.findIndex(c => c >= CLIENTS);
+
+        console.log(`📈 ${policy.name}`);
+        console.log(`   峰值连接请求: ${peak}/s`);
+        console.log(`   已连接: ${result.connected}/${CLIENTS}, 放弃重连: ${result.gaveUp}`);
+        console.log(`   全部连接耗时: ${allConnectedAt >= 0 ? allConnectedAt + 1 + 's' : '未完成'}`);
+        console.log('   每10秒内的峰值连接请求:');
+        printCurve(result);
+        console.log('');
+    }
+}
+
+run();
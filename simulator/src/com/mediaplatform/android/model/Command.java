@@ -0,0 +1,44 @@
+package com.mediaplatform.android.model;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * 模拟器和基准测试使用的命令模型，替代安卓应用中的同名类
+ * 只包含 MqttDeviceCore 用到的字段，格式与服务端 sendCommandToDevice 发出的 {"command":...,"params":{...}} 一致。
+ */
+public class Command {
+
+    private String action;
+    private JSONObject params;
+    private long timestamp;
+
+    public static Command fromJson(String json) throws JSONException {
+        JSONObject object = new JSONObject(json);
+        Command command = new Command();
+        command.action = object.optString("command", object.optString("action", null));
+        command.params = object.optJSONObject("params");
+        command.timestamp = object.optLong("timestamp");
+        return command;
+    }
+
+    public String getAction() {
+        return action;
+    }
+
+    public void setAction(String action) {
+        this.action = action;
+    }
+
+    public JSONObject getParams() {
+        return params;
+    }
+
+    public void setParams(JSONObject params) {
+        this.params = params;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+}
@@ -0,0 +1,132 @@
+package com.mediaplatform.android.model;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * 模拟器和基准测试使用的内容推送模型，替代安卓应用中的同名类
+ * fromJson 按 ContentPushDecoder 的规则读取 {"messageType":"content","content":{...},"schedule":{...}}
+ * 和 {"type":"content_push","data":{...}} 两种格式。
+ */
+public class ContentPush {
+
+    private String contentId;
+    private String title;
+    private String contentType;
+    private String url;
+    private String content;
+    private int duration;
+    private long size;
+    private String startTime;
+    private String endTime;
+    private int priority;
+
+    public static ContentPush fromJson(String json) throws JSONException {
+        JSONObject message = new JSONObject(json);
+        ContentPush push = new ContentPush();
+        Object body = message.opt("content");
+        if (body instanceof JSONObject) {
+            push.readFields((JSONObject) body);
+        } else if (body instanceof String) {
+            push.content = (String) body;
+        }
+        push.readFields(message.optJSONObject("data"));
+        push.readFields(message.optJSONObject("schedule"));
+        return push;
+    }
+
+    private void readFields(JSONObject object) {
+        if (object == null) {
+            return;
+        }
+        contentId = object.optString("id", object.optString("contentId", contentId));
+        title = object.optString("title", title);
+        contentType = object.optString("type", object.optString("contentType", contentType));
+        url = object.optString("url", url);
+        duration = object.optInt("duration", duration);
+        size = object.optLong("size", size);
+        startTime = object.optString("startTime", startTime);
+        endTime = object.optString("endTime", endTime);
+        priority = object.optInt("priority", priority);
+    }
+
+    public String getContentId() {
+        return contentId;
+    }
+
+    public void setContentId(String contentId) {
+        this.contentId = contentId;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public void setContentType(String contentType) {
+        this.contentType = contentType;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public void setUrl(String url) {
+        this.url = url;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    public void setContent(String content) {
+        this.content = content;
+    }
+
+    public int getDuration() {
+        return duration;
+    }
+
+    public void setDuration(int duration) {
+        this.duration = duration;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public String getStartTime() {
+        return startTime;
+    }
+
+    public void setStartTime(String startTime) {
+        this.startTime = startTime;
+    }
+
+    public String getEndTime() {
+        return endTime;
+    }
+
+    public void setEndTime(String endTime) {
+        this.endTime = endTime;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public void setPriority(int priority) {
+        this.priority = priority;
+    }
+}
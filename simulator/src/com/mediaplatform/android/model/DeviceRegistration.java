@@ -0,0 +1,71 @@
+package com.mediaplatform.android.model;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * 模拟器和基准测试使用的设备注册模型，替代安卓应用中的同名类
+ * 字段与 MqttService.PreferencesHost.buildRegistration 设置的一致。
+ */
+public class DeviceRegistration {
+
+    private String deviceId;
+    private String deviceType;
+    private String deviceName;
+    private String deviceModel;
+    private String deviceVersion;
+    private String appVersion;
+    private String screenResolution;
+    private String location;
+    private long timestamp;
+
+    public void setDeviceId(String deviceId) {
+        this.deviceId = deviceId;
+    }
+
+    public void setDeviceType(String deviceType) {
+        this.deviceType = deviceType;
+    }
+
+    public void setDeviceName(String deviceName) {
+        this.deviceName = deviceName;
+    }
+
+    public void setDeviceModel(String deviceModel) {
+        this.deviceModel = deviceModel;
+    }
+
+    public void setDeviceVersion(String deviceVersion) {
+        this.deviceVersion = deviceVersion;
+    }
+
+    public void setAppVersion(String appVersion) {
+        this.appVersion = appVersion;
+    }
+
+    public void setScreenResolution(String screenResolution) {
+        this.screenResolution = screenResolution;
+    }
+
+    public void setLocation(String location) {
+        this.location = location;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public String toJson() throws JSONException {
+        return new JSONObject()
+                .put("deviceId", deviceId)
+                .put("deviceType", deviceType)
+                .put("deviceName", deviceName)
+                .put("deviceModel", deviceModel)
+                .put("deviceVersion", deviceVersion)
+                .put("appVersion", appVersion)
+                .putOpt("screenResolution", screenResolution)
+                .putOpt("location", location)
+                .put("timestamp", timestamp)
+                .toString();
+    }
+}
@@ -0,0 +1,40 @@
+package com.mediaplatform.android.model;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * 模拟器和基准测试使用的设备状态模型，替代安卓应用中的同名类
+ */
+public class DeviceStatus {
+
+    private String deviceId;
+    private String status;
+    private String details;
+    private long timestamp;
+
+    public void setDeviceId(String deviceId) {
+        this.deviceId = deviceId;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public void setDetails(String details) {
+        this.details = details;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public String toJson() throws JSONException {
+        return new JSONObject()
+                .put("deviceId", deviceId)
+                .put("status", status)
+                .putOpt("details", details)
+                .put("timestamp", timestamp)
+                .toString();
+    }
+}
@@ -0,0 +1,51 @@
+package com.mediaplatform.android.utils;
+
+/**
+ * 模拟器使用的日志实现，替代应用中基于 android.util.Log 的同名类
+ * 默认只输出警告和错误，-Dsimulator.log=debug 时输出全部日志；数万台设备的调试日志会明显拖慢模拟器。
+ */
+public final class Logger {
+
+    private static final boolean DEBUG = "debug".equals(System.getProperty("simulator.log"));
+
+    private Logger() {
+    }
+
+    public static void v(String tag, String message) {
+        if (DEBUG) {
+            print("V", tag, message, null);
+        }
+    }
+
+    public static void d(String tag, String message) {
+        if (DEBUG) {
+            print("D", tag, message, null);
+        }
+    }
+
+    public static void i(String tag, String message) {
+        print("I", tag, message, null);
+    }
+
+    public static void w(String tag, String message) {
+        print("W", tag, message, null);
+    }
+
+    public static void w(String tag, String message, Throwable throwable) {
+        print("W", tag, message, throwable);
+    }
+
+    public static void e(String tag, String message) {
+        print("E", tag, message, null);
+    }
+
+    public static void e(String tag, String message, Throwable throwable) {
+        print("E", tag, message, throwable);
+    }
+
+    private static void print(String level, String tag, String message, Throwable throwable) {
+        String line = level + "/" + tag + " [" + Thread.currentThread().getName() + "]: " + message
+                + (throwable != null ? " - " + throwable : "");
+        System.err.println(line);
+    }
+}
@@ -0,0 +1,246 @@
+package com.mediaplatform.simulator;
+
+import com.mediaplatform.android.service.ClockSync;
+import com.mediaplatform.android.service.LatencyHistogram;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * 时钟同步模拟
+ * 离散事件模拟一组屏幕与服务端的 ping/pong，不需要代理，几小时的模拟时间几秒跑完，结果可复现。
+ * 每台屏幕的系统时间有随机偏差，晶振有随机频率偏差；链路单向延迟带固定的不对称，
+ * 上行再叠加较大的排队抖动和偶发的突发延迟，下行抖动较小。
+ * 预热后每秒读取一次所有屏幕的车队时间，统计屏幕之间的最大差值(拼接墙上实际看到的不同步)，
+ * 同时给出只用最近一个样本、不做过滤的估计作为对照。
+ * 漂移要积累约10分钟的样本才能估计准，默认预热600秒，之前的差值主要来自漂移外推。
+ *
+ * 用法: java -cp ... com.mediaplatform.simulator.ClockSyncSimulation [--devices=50] [--duration=7200]
+ *       [--warmup=600] [--asymmetry=10] [--uplink-jitter=30] [--downlink-jitter=5] [--spikes=0.05]
+ *       [--drift=200] [--target=20] [--seed=1]
+ */
+public final class ClockSyncSimulation {
+
+    private static final double MIN_PATH_MILLIS = 5;
+    private static final double MAX_PATH_MILLIS = 60;
+    private static final double MAX_WALL_ERROR_MILLIS = 5000;
+    private static final double MAX_SERVER_PROCESSING_MILLIS = 1;
+    private static final double SPIKE_MIN_MILLIS = 100;
+    private static final double SPIKE_MAX_MILLIS = 1000;
+    private static final long SAMPLE_INTERVAL_MILLIS = 1000;
+    private static final double EPOCH_MILLIS = 1727740800000.0;
+
+    private final int deviceCount;
+    private final long durationMillis;
+    private final long warmupMillis;
+    private final double maxAsymmetry;
+    private final double uplinkJitter;
+    private final double downlinkJitter;
+    private final double spikeProbability;
+    private final double maxDrift;
+    private final double targetMillis;
+    private final Random random;
+
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+    private long eventSequence;
+    private double now; // 模拟的真实时间，也就是服务端时间(毫秒)
+
+    private final LatencyHistogram filteredAgreement = new LatencyHistogram();
+    private final LatencyHistogram naiveAgreement = new LatencyHistogram();
+    private final LatencyHistogram filteredError = new LatencyHistogram();
+    private long monotonicViolations;
+
+    private static final class Event implements Comparable<Event> {
+        final double time;
+        final long sequence;
+        final Runnable action;
+
+        Event(double time, long sequence, Runnable action) {
+            this.time = time;
+            this.sequence = sequence;
+            this.action = action;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            int compare = Double.compare(time, other.time);
+            return compare != 0 ? compare : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    /**
+     * 一台模拟屏幕：本地单调时钟按自己的频率走，系统时间带固定偏差
+     */
+    private final class Screen {
+        final double drift;
+        final double localBase;
+        final double wallError;
+        final double uplinkBase;
+        final double downlinkBase;
+        final ClockSync clockSync;
+        double naiveOffset = Double.NaN;
+        long lastFleetMillis = Long.MIN_VALUE;
+
+        Screen() {
+            drift = (random.nextDouble() * 2 - 1) * maxDrift;
+            localBase = random.nextDouble() * 1e7;
+            wallError = (random.nextDouble() * 2 - 1) * MAX_WALL_ERROR_MILLIS;
+            double path = MIN_PATH_MILLIS + random.nextDouble() * (MAX_PATH_MILLIS - MIN_PATH_MILLIS);
+            double asymmetry = (random.nextDouble() * 2 - 1) * maxAsymmetry;
+            uplinkBase = Math.max(1, path + asymmetry / 2);
+            downlinkBase = Math.max(1, path - asymmetry / 2);
+            clockSync = new ClockSync(() -> (long) (now + wallError),
+                    () -> (long) (localMillis() * 1e6));
+        }
+
+        double localMillis() {
+            return localBase + now * (1 + drift);
+        }
+
+        void ping() {
+            double t0 = clockSync.localMillis();
+            double uplink = uplinkBase + exponential(uplinkJitter)
+                    + (random.nextDouble() < spikeProbability
+                        ? SPIKE_MIN_MILLIS + random.nextDouble() * (SPIKE_MAX_MILLIS - SPIKE_MIN_MILLIS) : 0);
+            at(now + uplink, () -> {
+                double t1 = EPOCH_MILLIS + now;
+                double t2 = t1 + random.nextDouble() * MAX_SERVER_PROCESSING_MILLIS;
+                double downlink = downlinkBase + exponential(downlinkJitter);
+                at(now + (t2 - t1) + downlink, () -> {
+                    double t3 = clockSync.localMillis();
+                    naiveOffset = ((t1 - t0) + (t2 - t3)) / 2;
+                    clockSync.onPong(t0, t1, t2, t3);
+                });
+            });
+            at(now + clockSync.getNextPingDelay(), this::ping);
+        }
+
+        long fleetTimeMillis() {
+            long fleet = clockSync.fleetTimeMillis();
+            if (clockSync.isSynchronized() && fleet < lastFleetMillis) {
+                monotonicViolations++;
+            }
+            lastFleetMillis = fleet;
+            return fleet;
+        }
+    }
+
+    private ClockSyncSimulation(Map<String, String> options) {
+        deviceCount = Integer.parseInt(options.getOrDefault("devices", "50"));
+        durationMillis = Long.parseLong(options.getOrDefault("duration", "7200")) * 1000;
+        warmupMillis = Long.parseLong(options.getOrDefault("warmup", "600")) * 1000;
+        maxAsymmetry = Double.parseDouble(options.getOrDefault("asymmetry", "10"));
+        uplinkJitter = Double.parseDouble(options.getOrDefault("uplink-jitter", "30"));
+        downlinkJitter = Double.parseDouble(options.getOrDefault("downlink-jitter", "5"));
+        spikeProbability = Double.parseDouble(options.getOrDefault("spikes", "0.05"));
+        maxDrift = Double.parseDouble(options.getOrDefault("drift", "200")) * 1e-6;
+        targetMillis = Double.parseDouble(options.getOrDefault("target", "20"));
+        random = new Random(Long.parseLong(options.getOrDefault("seed", "1")));
+    }
+
+    public static void main(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                System.err.println("无法识别的参数: " + arg);
+                System.exit(2);
+            }
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        boolean passed = new ClockSyncSimulation(options).run();
+        System.exit(passed ? 0 : 1);
+    }
+
+    private boolean run() {
+        System.out.printf(Locale.ROOT, "🕒 时钟同步模拟: %d 台屏幕, %ds, 固定不对称 ±%.0fms, 上行抖动 %.0fms (突发 %.0f%%), "
+                        + "下行抖动 %.0fms, 晶振 ±%.0fppm%n",
+                deviceCount, durationMillis / 1000, maxAsymmetry, uplinkJitter, spikeProbability * 100,
+                downlinkJitter, maxDrift * 1e6);
+
+        Screen[] screens = new Screen[deviceCount];
+        for (int i = 0; i < deviceCount; i++) {
+            Screen screen = new Screen();
+            screens[i] = screen;
+            // 各屏幕在第一秒内陆续连上
+            at(random.nextDouble() * 1000, screen::ping);
+        }
+        for (long t = warmupMillis; t <= durationMillis; t += SAMPLE_INTERVAL_MILLIS) {
+            at(t, () -> sample(screens));
+        }
+
+        while (!events.isEmpty() && events.peek().time <= durationMillis) {
+            Event event = events.poll();
+            now = event.time;
+            event.action.run();
+        }
+
+        report(screens);
+        boolean passed = filteredAgreement.getMax() < targetMillis * 1000 && monotonicViolations == 0;
+        System.out.println(passed
+                ? "✅ 屏幕之间的最大差值低于 " + (long) targetMillis + "ms"
+                : "❌ 未达到 " + (long) targetMillis + "ms 的目标");
+        return passed;
+    }
+
+    /**
+     * 同一时刻读取所有屏幕的车队时间，记录最大和最小值之差
+     */
+    private void sample(Screen[] screens) {
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        double naiveMin = Double.MAX_VALUE;
+        double naiveMax = -Double.MAX_VALUE;
+        double serverTime = EPOCH_MILLIS + now;
+        for (Screen screen : screens) {
+            double fleet = screen.fleetTimeMillis();
+            min = Math.min(min, fleet);
+            max = Math.max(max, fleet);
+            filteredError.record((long) (Math.abs(fleet - serverTime) * 1000));
+
+            double naive = screen.localMillis() + screen.naiveOffset;
+            naiveMin = Math.min(naiveMin, naive);
+            naiveMax = Math.max(naiveMax, naive);
+        }
+        filteredAgreement.record((long) ((max - min) * 1000));
+        naiveAgreement.record((long) ((naiveMax - naiveMin) * 1000));
+    }
+
+    private void report(Screen[] screens) {
+        long synced = 0;
+        long accepted = 0;
+        long rejected = 0;
+        double worstDrift = 0;
+        for (Screen screen : screens) {
+            if (screen.clockSync.isSynchronized()) {
+                synced++;
+            }
+            accepted += screen.clockSync.getAcceptedSamples();
+            rejected += screen.clockSync.getRejectedSamples();
+            worstDrift = Math.max(worstDrift, Math.abs(screen.clockSync.getDriftPpm() + screen.drift * 1e6));
+        }
+
+        System.out.println("\n📊 模拟结果");
+        System.out.printf(Locale.ROOT, "   已同步: %d/%d 台, 样本 %d (丢弃 %d), 漂移估计最大误差 %.1fppm%n",
+                synced, deviceCount, accepted, rejected, worstDrift);
+        System.out.printf(Locale.ROOT, "   屏幕之间差值(过滤+漂移补偿): p50 %.1fms, p99 %.1fms, max %.1fms%n",
+                filteredAgreement.getP50() / 1000.0, filteredAgreement.getP99() / 1000.0,
+                filteredAgreement.getMax() / 1000.0);
+        System.out.printf(Locale.ROOT, "   屏幕之间差值(只用最近样本): p50 %.1fms, p99 %.1fms, max %.1fms%n",
+                naiveAgreement.getP50() / 1000.0, naiveAgreement.getP99() / 1000.0,
+                naiveAgreement.getMax() / 1000.0);
+        System.out.printf(Locale.ROOT, "   与服务端时间的误差: p50 %.1fms, p99 %.1fms, max %.1fms%n",
+                filteredError.getP50() / 1000.0, filteredError.getP99() / 1000.0, filteredError.getMax() / 1000.0);
+        System.out.printf(Locale.ROOT, "   车队时间倒退: %d 次%n", monotonicViolations);
+    }
+
+    private void at(double time, Runnable action) {
+        events.add(new Event(time, eventSequence++, action));
+    }
+
+    private double exponential(double mean) {
+        return mean <= 0 ? 0 : -mean * Math.log(1 - random.nextDouble());
+    }
+}
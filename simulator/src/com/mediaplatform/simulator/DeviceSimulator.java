@@ -0,0 +1,279 @@
+package com.mediaplatform.simulator;
+
+import com.mediaplatform.android.service.GroupSubscriptions;
+import com.mediaplatform.android.service.MessageDecodePipeline;
+import com.mediaplatform.android.service.MqttDeviceCore;
+
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 无界面设备模拟器
+ * 在一个JVM中用虚拟线程运行数万台使用 MqttDeviceCore 的模拟屏幕，连接本地代理，
+ * 报告连接速率、心跳吞吐量、内容推送的发布耗时和端到端延迟分位数以及每台设备占用的内存。
+ * 内容推送可以发到城市分组主题(每组一条)，也可以逐台发到设备自己的内容主题，比较两种方式的发布开销。
+ *
+ * 用法: java -cp ... com.mediaplatform.simulator.DeviceSimulator [--devices=10000] [--broker=127.0.0.1:1883]
+ *       [--ramp=1000] [--heartbeat=30000] [--cities=10] [--pushes=10] [--push-interval=5000] [--hold=60000]
+ *       [--push-mode=group|device] [--paho-threads=platform|virtual]
+ */
+public final class DeviceSimulator {
+
+    private static final long PROGRESS_INTERVAL = 5000;
+    private static final long CONNECT_TIMEOUT = 120000; // 全部设备连接的最长等待
+    private static final long DELIVERY_GRACE = 10000; // 最后一轮推送后等待送达的时间
+    private static final long PAHO_STACK_SIZE = 256 * 1024;
+    private static final int MAX_INFLIGHT = 65535; // MQTT报文ID上限
+
+    private final int deviceCount;
+    private final String brokerAddress;
+    private final int rampPerSecond;
+    private final long heartbeatInterval;
+    private final int cityCount;
+    private final int pushRounds;
+    private final long pushInterval;
+    private final long holdMillis;
+    private final boolean devicePushes;
+    private final boolean virtualPahoThreads;
+
+    private final FleetStats stats = new FleetStats();
+    private final List<SimulatedDevice> devices = new ArrayList<>();
+
+    private DeviceSimulator(Map<String, String> options) {
+        deviceCount = Integer.parseInt(options.getOrDefault("devices", "10000"));
+        brokerAddress = options.getOrDefault("broker", "127.0.0.1:1883");
+        rampPerSecond = Integer.parseInt(options.getOrDefault("ramp", "1000"));
+        heartbeatInterval = Long.parseLong(options.getOrDefault("heartbeat",
+                String.valueOf(MqttDeviceCore.DEFAULT_HEARTBEAT_INTERVAL)));
+        cityCount = Integer.parseInt(options.getOrDefault("cities", "10"));
+        pushRounds = Integer.parseInt(options.getOrDefault("pushes", "10"));
+        pushInterval = Long.parseLong(options.getOrDefault("push-interval", "5000"));
+        holdMillis = Long.parseLong(options.getOrDefault("hold", "60000"));
+        devicePushes = "device".equals(options.getOrDefault("push-mode", "group"));
+        // JDK 24 之前虚拟线程在 synchronized 中 wait() 会占住载体线程，Paho的收发和回调循环正是这样等待的，
+        // 每台连接中的设备长期占住两三个载体线程，载体线程池(默认上限256)耗尽后整个模拟器停顿
+        virtualPahoThreads = "virtual".equals(options.getOrDefault("paho-threads",
+                Runtime.version().feature() >= 24 ? "virtual" : "platform"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                System.err.println("无法识别的参数: " + arg);
+                System.exit(2);
+            }
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        new DeviceSimulator(options).run();
+    }
+
+    private void run() throws Exception {
+        System.out.println("📡 设备模拟器: " + deviceCount + " 台屏幕 -> " + brokerAddress
+                + ", 心跳 " + heartbeatInterval + "ms, " + cityCount + " 个城市分组, Paho使用"
+                + (virtualPahoThreads ? "虚拟线程" : "平台线程") + ", 推送" + (devicePushes ? "逐台发送" : "按城市分组"));
+
+        long heapBefore = usedHeapAfterGc();
+        ThreadFactory virtualThreads = Thread.ofVirtual().name("sim-", 0).factory();
+        ThreadFactory pahoThreads = virtualPahoThreads ? virtualThreads
+                : Thread.ofPlatform().daemon().stackSize(PAHO_STACK_SIZE).factory();
+        ExecutorService executor = Executors.newThreadPerTaskExecutor(virtualThreads);
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        int workers = Runtime.getRuntime().availableProcessors();
+        MessageDecodePipeline decodePipeline = new MessageDecodePipeline(workers, 1024, 8192,
+                MessageDecodePipeline.BackpressurePolicy.BLOCK_CALLER, 100);
+
+        // 按设定速率逐台连接，避免瞬间打满代理的握手队列
+        long rampStartedAt = System.nanoTime();
+        long nextProgressAt = System.currentTimeMillis() + PROGRESS_INTERVAL;
+        for (int i = 0; i < deviceCount; i++) {
+            SimulatedDevice device = new SimulatedDevice(i, brokerAddress, cityName(i % cityCount),
+                    heartbeatInterval, stats, decodePipeline, executor, timer, pahoThreads);
+            devices.add(device);
+            device.start();
+
+            long dueAt = rampStartedAt + (long) (i + 1) * 1_000_000_000L / rampPerSecond;
+            long wait = dueAt - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            if (System.currentTimeMillis() >= nextProgressAt) {
+                printProgress(rampStartedAt);
+                nextProgressAt += PROGRESS_INTERVAL;
+            }
+        }
+
+        long connectDeadline = System.currentTimeMillis() + CONNECT_TIMEOUT;
+        while (stats.connected.get() < deviceCount && System.currentTimeMillis() < connectDeadline) {
+            Thread.sleep(PROGRESS_INTERVAL);
+            printProgress(rampStartedAt);
+        }
+        double connectSeconds = (stats.lastConnectedAt.get() - rampStartedAt) / 1e9;
+        long heapConnected = usedHeapAfterGc();
+
+        // 心跳吞吐量按保持连接期间各设备生成的心跳数计算
+        long heartbeatsBefore = heartbeatsSent();
+        long publishedBefore = publishedCount();
+        long holdStartedAt = System.nanoTime();
+        pushContent();
+        long remaining = holdMillis - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - holdStartedAt);
+        if (remaining > 0) {
+            Thread.sleep(remaining);
+        }
+        double holdSeconds = (System.nanoTime() - holdStartedAt) / 1e9;
+        long heartbeats = heartbeatsSent() - heartbeatsBefore;
+        long published = publishedCount() - publishedBefore;
+
+        printReport(connectSeconds, heapBefore, heapConnected, holdSeconds, heartbeats, published);
+
+        for (SimulatedDevice device : devices) {
+            device.stop();
+        }
+        Thread.sleep(2000);
+        for (SimulatedDevice device : devices) {
+            device.shutdown();
+        }
+        decodePipeline.shutdown();
+        timer.shutdownNow();
+        executor.shutdownNow();
+        System.exit(0);
+    }
+
+    /**
+     * 每轮向每个城市分组发布一条内容推送，或逐台发到每台设备的内容主题，内容ID中带有发送时间。
+     * 发布耗时从第一条发出到代理确认完本轮全部消息，对应服务端 batch-push 的 durationMs(不含服务端查库)
+     */
+    private void pushContent() throws Exception {
+        if (pushRounds <= 0) {
+            return;
+        }
+        List<String> topics = new ArrayList<>();
+        if (devicePushes) {
+            for (SimulatedDevice device : devices) {
+                topics.add(MqttDeviceCore.TOPIC_PREFIX + "device/" + device.getCore().getClientId() + "/content");
+            }
+        } else {
+            for (int city = 0; city < cityCount; city++) {
+                topics.add(GroupSubscriptions.topicFor(MqttDeviceCore.TOPIC_PREFIX,
+                        GroupSubscriptions.KIND_CITY, cityName(city)));
+            }
+        }
+
+        MqttAsyncClient pusher = new MqttAsyncClient("tcp://" + brokerAddress, "simulator_pusher",
+                new MemoryPersistence());
+        MqttConnectOptions options = new MqttConnectOptions();
+        options.setCleanSession(true);
+        options.setMaxInflight(Math.min(MAX_INFLIGHT, Math.max(10, topics.size() * 2)));
+        pusher.connect(options).waitForCompletion(10000);
+
+        List<IMqttDeliveryToken> tokens = new ArrayList<>(topics.size());
+        for (int round = 0; round < pushRounds; round++) {
+            long roundStartedAt = System.nanoTime();
+            tokens.clear();
+            for (String topic : topics) {
+                JSONObject message = new JSONObject()
+                        .put("messageType", "content")
+                        .put("content", new JSONObject()
+                                .put("id", stats.pushId(round, System.nanoTime()))
+                                .put("title", "模拟推送 " + round)
+                                .put("type", "image")
+                                .put("url", "https://example.com/simulator.jpg")
+                                .put("duration", 15));
+                MqttMessage mqttMessage = new MqttMessage(message.toString().getBytes(StandardCharsets.UTF_8));
+                mqttMessage.setQos(1);
+                tokens.add(pusher.publish(topic, mqttMessage));
+            }
+            for (IMqttDeliveryToken token : tokens) {
+                token.waitForCompletion(10000);
+            }
+            long publishNanos = System.nanoTime() - roundStartedAt;
+            stats.pushPublishDuration.recordNanos(publishNanos);
+
+            long remaining = pushInterval - TimeUnit.NANOSECONDS.toMillis(publishNanos);
+            if (remaining > 0) {
+                Thread.sleep(remaining);
+            }
+        }
+        Thread.sleep(DELIVERY_GRACE);
+        pusher.disconnect().waitForCompletion(5000);
+        pusher.close();
+    }
+
+    private void printProgress(long rampStartedAt) {
+        double elapsed = (System.nanoTime() - rampStartedAt) / 1e9;
+        System.out.printf(Locale.ROOT, "   已创建 %d, 已连接 %d, 失败 %d, %.1fs%n",
+                devices.size(), stats.connected.get(), stats.connectFailures.get(), elapsed);
+    }
+
+    private void printReport(double connectSeconds, long heapBefore, long heapConnected, double holdSeconds,
+                             long heartbeats, long published) {
+        int connected = stats.connected.get();
+        long expectedDeliveries = (long) connected * pushRounds;
+        System.out.println("\n📊 模拟结果");
+        System.out.printf(Locale.ROOT, "   连接: %d/%d 台, %.1fs, %.0f 台/s, 失败 %d 次, 断线 %d 次%n",
+                connected, deviceCount, connectSeconds, connected / Math.max(connectSeconds, 0.001),
+                stats.connectFailures.get(), stats.connectionsLost.get());
+        System.out.printf(Locale.ROOT, "   连接耗时: p50 %.1fms, p99 %.1fms, max %.1fms%n",
+                stats.connectLatency.getP50() / 1000.0, stats.connectLatency.getP99() / 1000.0,
+                stats.connectLatency.getMax() / 1000.0);
+        System.out.printf(Locale.ROOT, "   心跳吞吐量: %.0f 条/s (%d 条 / %.1fs), 全部发布确认 %.0f 条/s%n",
+                heartbeats / holdSeconds, heartbeats, holdSeconds, published / holdSeconds);
+        System.out.printf(Locale.ROOT, "   %s: 每轮 %d 条, 发布耗时 p50 %.1fms, max %.1fms%n",
+                devicePushes ? "逐台推送" : "分组推送", devicePushes ? deviceCount : cityCount,
+                stats.pushPublishDuration.getP50() / 1000.0, stats.pushPublishDuration.getMax() / 1000.0);
+        System.out.printf(Locale.ROOT, "   推送送达: %d/%d, 端到端 p50 %.1fms, p99 %.1fms, max %.1fms%n",
+                stats.pushesReceived.get(), expectedDeliveries,
+                stats.pushLatency.getP50() / 1000.0, stats.pushLatency.getP99() / 1000.0,
+                stats.pushLatency.getMax() / 1000.0);
+        if (stats.stalePushes.get() > 0) {
+            System.out.println("   上次运行残留在持久会话中的推送 " + stats.stalePushes.get() + " 条, 未计入");
+        }
+        System.out.printf(Locale.ROOT, "   内存: 每台设备 %.1f KB (连接后堆 %d MB)%n",
+                (heapConnected - heapBefore) / 1024.0 / Math.max(deviceCount, 1), heapConnected >> 20);
+    }
+
+    private long heartbeatsSent() {
+        long total = 0;
+        for (SimulatedDevice device : devices) {
+            total += device.getCore().getTelemetryAggregator().getMessagesSent();
+        }
+        return total;
+    }
+
+    private long publishedCount() {
+        long total = 0;
+        for (SimulatedDevice device : devices) {
+            total += device.getCore().getAsyncPublisher().getPublishedCount();
+        }
+        return total;
+    }
+
+    private static String cityName(int index) {
+        return "sim-city-" + index;
+    }
+
+    private static long usedHeapAfterGc() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(200);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
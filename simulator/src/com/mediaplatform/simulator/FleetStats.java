@@ -0,0 +1,66 @@
+package com.mediaplatform.simulator;
+
+import com.mediaplatform.android.service.LatencyHistogram;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 整个模拟车队的计数和延迟分布，所有设备共用一份
+ */
+final class FleetStats {
+
+    // 推送的内容ID格式：sim-<运行标识>-<轮次>-<发送时的System.nanoTime()>
+    static final String PUSH_ID_PREFIX = "sim-";
+
+    // 设备ID每次运行都相同，代理会把上次运行留在持久会话中的推送再投递一遍，用运行标识区分
+    private final String runPrefix = PUSH_ID_PREFIX
+            + Long.toHexString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE) + "-";
+
+    final AtomicInteger connected = new AtomicInteger();
+    final AtomicInteger connectFailures = new AtomicInteger();
+    final AtomicInteger connectionsLost = new AtomicInteger();
+    final AtomicInteger reconnects = new AtomicInteger();
+    final AtomicInteger errors = new AtomicInteger();
+    final AtomicLong pushesReceived = new AtomicLong();
+    final AtomicLong stalePushes = new AtomicLong();
+    final AtomicLong commandsReceived = new AtomicLong();
+    final AtomicLong broadcastsReceived = new AtomicLong();
+    final LatencyHistogram connectLatency = new LatencyHistogram();
+    final LatencyHistogram pushLatency = new LatencyHistogram();
+    final LatencyHistogram pushPublishDuration = new LatencyHistogram();
+    final AtomicLong lastConnectedAt = new AtomicLong();
+
+    String pushId(int round, long sentAtNanos) {
+        return runPrefix + round + "-" + sentAtNanos;
+    }
+
+    void onFirstConnect(long elapsedNanos) {
+        connectLatency.recordNanos(elapsedNanos);
+        connected.incrementAndGet();
+        lastConnectedAt.accumulateAndGet(System.nanoTime(), Math::max);
+    }
+
+    /**
+     * 发送端和接收端在同一个JVM中，直接用 System.nanoTime() 计算端到端延迟，
+     * 以前运行留下的推送只计数，不计入送达数和延迟
+     */
+    void onContentReceived(String contentId) {
+        long receivedAt = System.nanoTime();
+        if (contentId != null && contentId.startsWith(PUSH_ID_PREFIX) && !contentId.startsWith(runPrefix)) {
+            stalePushes.incrementAndGet();
+            return;
+        }
+        pushesReceived.incrementAndGet();
+        if (contentId == null || !contentId.startsWith(runPrefix)) {
+            return;
+        }
+        int separator = contentId.lastIndexOf('-');
+        try {
+            pushLatency.recordNanos(receivedAt - Long.parseLong(contentId.substring(separator + 1)));
+        } catch (NumberFormatException e) {
+            // 不是模拟器发出的推送
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.mediaplatform.simulator;
+
+import com.mediaplatform.android.service.AsyncPublisher;
+import com.mediaplatform.android.service.LatencyHistogram;
+import com.mediaplatform.android.service.MetricsRegistry;
+
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 发布窗口吞吐量
+ * 与 test-publish-window.js 相同的测量，但使用设备端的 AsyncPublisher 和Paho异步客户端：
+ * 客户端经注入延迟的本机TCP转发连接代理，分别以不同的在途窗口发布QoS 1消息，比较每秒确认的消息数。
+ *
+ * 用法: java -cp ... com.mediaplatform.simulator.PublishWindowThroughput [--broker=127.0.0.1:1883] [--delay=60]
+ *       [--messages=500] [--windows=1,4,16,32]
+ */
+public final class PublishWindowThroughput {
+
+    private static final String TOPIC = "device/status";
+    private static final long COMPLETION_TIMEOUT = 10000;
+
+    private final String brokerAddress;
+    private final long oneWayDelay;
+    private final int messageCount;
+    private final String[] windows;
+
+    private PublishWindowThroughput(Map<String, String> options) {
+        brokerAddress = options.getOrDefault("broker", "127.0.0.1:1883");
+        oneWayDelay = Long.parseLong(options.getOrDefault("delay", "60"));
+        messageCount = Integer.parseInt(options.getOrDefault("messages", "500"));
+        windows = options.getOrDefault("windows", "1,4,16,32").split(",");
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                System.err.println("无法识别的参数: " + arg);
+                System.exit(2);
+            }
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        System.exit(new PublishWindowThroughput(options).run() ? 0 : 1);
+    }
+
+    private boolean run() throws Exception {
+        System.out.println("🚀 发布窗口吞吐量: 单向延迟 " + oneWayDelay + "ms, 每轮 " + messageCount
+                + " 条QoS 1消息 -> " + brokerAddress);
+        byte[] payload = new JSONObject()
+                .put("deviceId", "benchmark")
+                .put("status", "online")
+                .put("batteryLevel", 87)
+                .put("timestamp", System.currentTimeMillis())
+                .toString().getBytes(StandardCharsets.UTF_8);
+        ThreadFactory proxyThreads = Thread.ofVirtual().name("proxy-", 0).factory();
+
+        boolean passed = true;
+        for (String value : windows) {
+            int window = Integer.parseInt(value.trim());
+            try (TcpProxy proxy = new TcpProxy(brokerAddress, oneWayDelay, proxyThreads)) {
+                passed &= runWindow(window, proxy.getAddress(), payload);
+            }
+        }
+        return passed;
+    }
+
+    private boolean runWindow(int window, String address, byte[] payload) throws Exception {
+        MqttAsyncClient client = new MqttAsyncClient("tcp://" + address, "publish_window_" + window,
+                new MemoryPersistence());
+        MqttConnectOptions options = new MqttConnectOptions();
+        options.setCleanSession(true);
+        options.setMaxInflight(window);
+        client.connect(options).waitForCompletion(COMPLETION_TIMEOUT);
+
+        MetricsRegistry metrics = new MetricsRegistry();
+        AsyncPublisher publisher = new AsyncPublisher(window, metrics);
+        // 与 MqttDeviceCore 排空离线队列相同：窗口满时等确认空出位置再继续
+        Semaphore slotFreed = new Semaphore(0);
+        publisher.setWindowListener(slotFreed::release);
+        CountDownLatch completed = new CountDownLatch(messageCount);
+        AtomicInteger failures = new AtomicInteger();
+        AsyncPublisher.Callback callback = new AsyncPublisher.Callback() {
+            @Override
+            public void onPublished(String topic) {
+                completed.countDown();
+            }
+
+            @Override
+            public void onFailed(String topic, byte[] failedPayload, Throwable cause) {
+                failures.incrementAndGet();
+                completed.countDown();
+            }
+        };
+
+        long startedAt = System.nanoTime();
+        for (int i = 0; i < messageCount; i++) {
+            while (!publisher.publish(client, TOPIC, payload, 1, false, callback)) {
+                slotFreed.tryAcquire(COMPLETION_TIMEOUT, TimeUnit.MILLISECONDS);
+            }
+        }
+        boolean finished = completed.await(messageCount * 4 * oneWayDelay + COMPLETION_TIMEOUT,
+                TimeUnit.MILLISECONDS);
+        double seconds = (System.nanoTime() - startedAt) / 1e9;
+
+        LatencyHistogram latency = metrics.histogram("publish.latency", TOPIC);
+        System.out.printf(Locale.ROOT, "   窗口 %2d: %7.1f 条/s (%.2fs), 确认延迟 p50 %.0fms, p99 %.0fms, "
+                        + "最多在途 %d, 窗口满 %d 次, 失败 %d%n",
+                window, publisher.getPublishedCount() / seconds, seconds,
+                latency.getP50() / 1000.0, latency.getP99() / 1000.0,
+                publisher.getPeakInFlight(), publisher.getRejectedCount(), failures.get());
+
+        client.disconnect().waitForCompletion(COMPLETION_TIMEOUT);
+        client.close();
+        if (!finished) {
+            System.out.println("❌ 窗口 " + window + ": 有消息超时未确认");
+        }
+        return finished && failures.get() == 0;
+    }
+}
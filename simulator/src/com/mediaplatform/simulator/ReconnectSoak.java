@@ -0,0 +1,170 @@
+package com.mediaplatform.simulator;
+
+import com.mediaplatform.android.service.AsyncPublisher;
+import com.mediaplatform.android.service.LatencyHistogram;
+import com.mediaplatform.android.service.MessageDecodePipeline;
+import com.mediaplatform.android.service.MqttConnectionManager;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 断线重连浸泡测试
+ * 一台模拟屏幕经本地TCP代理连接代理服务器，代理反复掐断连接，每次断线后和安卓端网络恢复时一样调用 reconnectNow，
+ * 检查 MqttConnectionManager 在上万次重连中始终复用同一个客户端和线程池，线程数和堆占用不随重连增长。
+ *
+ * 用法: java -cp ... com.mediaplatform.simulator.ReconnectSoak [--broker=127.0.0.1:1883] [--cycles=10000] [--timeout=60000]
+ */
+public final class ReconnectSoak {
+
+    private static final long HEARTBEAT_INTERVAL = 30000;
+    private static final long PAHO_STACK_SIZE = 256 * 1024;
+    private static final int PROGRESS_EVERY = 1000;
+    private static final long SETTLE_MILLIS = 1000; // 采样前等待注册、心跳等连接后的任务完成
+
+    private final String brokerAddress;
+    private final int cycles;
+    private final long timeoutMillis;
+    private final FleetStats stats = new FleetStats();
+    private final LatencyHistogram reconnectLatency = new LatencyHistogram();
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    private ReconnectSoak(Map<String, String> options) {
+        brokerAddress = options.getOrDefault("broker", "127.0.0.1:1883");
+        cycles = Integer.parseInt(options.getOrDefault("cycles", "10000"));
+        // 大于设备端的连接超时(30秒)加一次退避，偶尔卡住的连接会超时重试，而不是直接判定失败
+        timeoutMillis = Long.parseLong(options.getOrDefault("timeout", "60000"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                System.err.println("无法识别的参数: " + arg);
+                System.exit(2);
+            }
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        System.exit(new ReconnectSoak(options).run() ? 0 : 1);
+    }
+
+    private boolean run() throws Exception {
+        ThreadFactory virtualThreads = Thread.ofVirtual().name("soak-", 0).factory();
+        ThreadFactory pahoThreads = Thread.ofPlatform().daemon().stackSize(PAHO_STACK_SIZE).factory();
+        ExecutorService executor = Executors.newThreadPerTaskExecutor(virtualThreads);
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        MessageDecodePipeline decodePipeline = new MessageDecodePipeline(1, 64, 64,
+                MessageDecodePipeline.BackpressurePolicy.BLOCK_CALLER, 100);
+        TcpProxy proxy = new TcpProxy(brokerAddress, 0, virtualThreads);
+
+        SimulatedDevice device = new SimulatedDevice(0, proxy.getAddress(), "sim-soak", HEARTBEAT_INTERVAL,
+                stats, decodePipeline, executor, timer, pahoThreads);
+        MqttConnectionManager manager = device.getConnectionManager();
+        System.out.println("🔌 断线重连浸泡测试: " + cycles + " 次断线, " + proxy.getAddress() + " -> " + brokerAddress);
+
+        boolean passed = false;
+        try {
+            device.start();
+            if (!await(() -> stats.connected.get() > 0, "首次连接")) {
+                return false;
+            }
+            Thread.sleep(SETTLE_MILLIS);
+            int threadsAliveBefore = manager.getThreadsAlive();
+            int jvmThreadsBefore = threads.getThreadCount();
+            long heapBefore = usedHeapAfterGc();
+            System.out.printf(Locale.ROOT, "   开始: 连接管理器线程 %d, JVM线程 %d, 堆 %.1f MB%n",
+                    threadsAliveBefore, jvmThreadsBefore, heapBefore / 1048576.0);
+
+            long startedAt = System.nanoTime();
+            for (int cycle = 1; cycle <= cycles; cycle++) {
+                int lost = stats.connectionsLost.get();
+                int reconnects = stats.reconnects.get();
+                long droppedAt = System.nanoTime();
+                proxy.dropAll();
+                if (!await(() -> stats.connectionsLost.get() > lost, "第 " + cycle + " 次断线")) {
+                    return false;
+                }
+                device.reconnectNow();
+                if (!await(() -> stats.reconnects.get() > reconnects, "第 " + cycle + " 次重连")) {
+                    return false;
+                }
+                reconnectLatency.recordNanos(System.nanoTime() - droppedAt);
+
+                if (cycle % PROGRESS_EVERY == 0) {
+                    System.out.printf(Locale.ROOT, "   %d 次, %.0fs, 连接管理器线程 %d, JVM线程 %d, 客户端 %d 个%n",
+                            cycle, (System.nanoTime() - startedAt) / 1e9, manager.getThreadsAlive(),
+                            threads.getThreadCount(), manager.getClientAllocations());
+                }
+            }
+
+            Thread.sleep(SETTLE_MILLIS);
+            int threadsAliveAfter = manager.getThreadsAlive();
+            int jvmThreadsAfter = threads.getThreadCount();
+            long heapAfter = usedHeapAfterGc();
+
+            System.out.println("\n📊 浸泡结果");
+            System.out.printf(Locale.ROOT, "   重连: %d 次, 断线 %d 次, 连接失败 %d 次, 耗时 %.0fs%n",
+                    manager.getReconnectCount(), stats.connectionsLost.get(), stats.connectFailures.get(),
+                    (System.nanoTime() - startedAt) / 1e9);
+            System.out.printf(Locale.ROOT, "   断线到重连完成: p50 %.1fms, p99 %.1fms, max %.1fms%n",
+                    reconnectLatency.getP50() / 1000.0, reconnectLatency.getP99() / 1000.0,
+                    reconnectLatency.getMax() / 1000.0);
+            System.out.printf(Locale.ROOT, "   连接管理器统计: 平均 %dms, 最长 %dms%n",
+                    manager.getAverageReconnectMillis(), manager.getMaxReconnectMillis());
+            System.out.printf(Locale.ROOT, "   分配: 客户端 %d 个, 每次连接 %.4f 个客户端或线程池%n",
+                    manager.getClientAllocations(), manager.getAllocationsPerConnect());
+            AsyncPublisher publisher = device.getCore().getAsyncPublisher();
+            System.out.printf(Locale.ROOT, "   发布: 确认 %d 条, 断线后由Paho重发 %d 条, 仍待重发 %d 条, 失败 %d 条, 窗口满 %d 次%n",
+                    publisher.getPublishedCount(), publisher.getRedeliveryCount(), publisher.getAwaitingRedelivery(),
+                    publisher.getFailedCount(), publisher.getRejectedCount());
+            System.out.printf(Locale.ROOT, "   连接管理器线程: %d -> %d%n", threadsAliveBefore, threadsAliveAfter);
+            System.out.printf(Locale.ROOT, "   JVM线程: %d -> %d (峰值 %d)%n",
+                    jvmThreadsBefore, jvmThreadsAfter, threads.getPeakThreadCount());
+            System.out.printf(Locale.ROOT, "   堆: %.1f MB -> %.1f MB%n", heapBefore / 1048576.0, heapAfter / 1048576.0);
+
+            passed = manager.getClientAllocations() == 1 && threadsAliveAfter <= threadsAliveBefore
+                    && jvmThreadsAfter <= jvmThreadsBefore;
+            return passed;
+        } finally {
+            System.out.println(passed ? "🎉 浸泡测试通过" : "❌ 浸泡测试失败");
+            device.stop();
+            Thread.sleep(500);
+            device.shutdown();
+            proxy.close();
+            decodePipeline.shutdown();
+            timer.shutdownNow();
+            executor.shutdownNow();
+        }
+    }
+
+    private boolean await(BooleanSupplier condition, String step) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                System.out.println("❌ " + step + ": " + timeoutMillis + "ms 内没有完成，检查代理是否运行");
+                return false;
+            }
+            LockSupport.parkNanos(100_000);
+        }
+        return true;
+    }
+
+    private static long usedHeapAfterGc() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(200);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,145 @@
+package com.mediaplatform.simulator;
+
+import com.mediaplatform.android.service.MessageDecodePipeline;
+import com.mediaplatform.android.service.MqttDeviceCore;
+
+import org.eclipse.paho.client.mqttv3.MqttClient;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 注册往返的端到端检查
+ * 一台使用 MqttDeviceCore 的模拟屏幕连接正在运行的后端(npm run dev，内置代理和MongoDB)，
+ * 先完整注册并等待注册确认，再断开重连，确认服务端按保存的指纹恢复注册。
+ * 设备端和服务端的主题不一致时第一步就会超时。
+ *
+ * 用法: java -cp ... com.mediaplatform.simulator.RegistrationRoundTrip [--broker=127.0.0.1:1883] [--timeout=10000]
+ */
+public final class RegistrationRoundTrip {
+
+    private static final long HEARTBEAT_INTERVAL = 30000;
+
+    private final String brokerAddress;
+    private final long timeoutMillis;
+    private final BlockingQueue<JSONObject> replies = new LinkedBlockingQueue<>();
+
+    private RegistrationRoundTrip(Map<String, String> options) {
+        brokerAddress = options.getOrDefault("broker", "127.0.0.1:1883");
+        timeoutMillis = Long.parseLong(options.getOrDefault("timeout", "10000"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                System.err.println("无法识别的参数: " + arg);
+                System.exit(2);
+            }
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        System.exit(new RegistrationRoundTrip(options).run() ? 0 : 1);
+    }
+
+    private boolean run() throws Exception {
+        ThreadFactory virtualThreads = Thread.ofVirtual().name("roundtrip-", 0).factory();
+        ExecutorService executor = Executors.newThreadPerTaskExecutor(virtualThreads);
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        MessageDecodePipeline decodePipeline = new MessageDecodePipeline(1, 64, 64,
+                MessageDecodePipeline.BackpressurePolicy.BLOCK_CALLER, 100);
+
+        // 每次运行使用新的设备ID，第一次注册一定是完整注册
+        int index = 90_000_000 + ThreadLocalRandom.current().nextInt(10_000_000);
+        SimulatedDevice device = new SimulatedDevice(index, brokerAddress, "sim-roundtrip",
+                HEARTBEAT_INTERVAL, new FleetStats(), decodePipeline, executor, timer, virtualThreads);
+        MqttDeviceCore core = device.getCore();
+        System.out.println("🔁 注册往返检查: " + core.getDeviceId() + " -> " + brokerAddress);
+
+        // 用独立的客户端旁听服务端对这台设备的回复
+        String replyPrefix = MqttDeviceCore.TOPIC_PREFIX + "device/" + core.getClientId() + "/register/";
+        MqttClient observer = new MqttClient("tcp://" + brokerAddress, "roundtrip_observer_" + index,
+                new MemoryPersistence());
+        MqttConnectOptions connectOptions = new MqttConnectOptions();
+        connectOptions.setCleanSession(true);
+        observer.connect(connectOptions);
+        observer.subscribe(replyPrefix + "+", 1, (topic, message) -> {
+            JSONObject reply = new JSONObject(new String(message.getPayload(), StandardCharsets.UTF_8));
+            replies.add(reply.put("topic", topic));
+        });
+
+        boolean passed = false;
+        try {
+            device.start();
+            JSONObject first = awaitReply("完整注册");
+            if (first == null || !isSuccess(first) || first.optBoolean("resumed")) {
+                return false;
+            }
+            if (!awaitRegistered(core)) {
+                System.out.println("❌ 设备没有处理注册确认");
+                return false;
+            }
+            System.out.println("✅ 完整注册已确认, 指纹 " + first.optString("fingerprint"));
+
+            device.stop();
+            Thread.sleep(1000);
+            device.start();
+            JSONObject second = awaitReply("恢复注册");
+            if (second == null || !isSuccess(second)) {
+                return false;
+            }
+            if (!second.optBoolean("resumed")) {
+                System.out.println("❌ 重连后服务端没有按指纹恢复注册: " + second);
+                return false;
+            }
+            System.out.println("✅ 重连后按指纹恢复注册");
+            passed = true;
+            return true;
+        } finally {
+            System.out.println(passed ? "🎉 注册往返检查通过" : "❌ 注册往返检查失败");
+            device.stop();
+            Thread.sleep(500);
+            observer.disconnect();
+            observer.close();
+            device.shutdown();
+            decodePipeline.shutdown();
+            timer.shutdownNow();
+            executor.shutdownNow();
+        }
+    }
+
+    private JSONObject awaitReply(String step) throws InterruptedException {
+        JSONObject reply = replies.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        if (reply == null) {
+            System.out.println("❌ " + step + ": " + timeoutMillis + "ms 内没有收到服务端回复，检查后端是否运行以及设备和服务端的主题是否一致");
+        }
+        return reply;
+    }
+
+    private static boolean isSuccess(JSONObject reply) {
+        if (reply.getString("topic").endsWith("/error") || !"success".equals(reply.optString("status"))) {
+            System.out.println("❌ 服务端返回错误: " + reply);
+            return false;
+        }
+        return true;
+    }
+
+    private boolean awaitRegistered(MqttDeviceCore core) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!core.isRegistered() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        return core.isRegistered();
+    }
+}
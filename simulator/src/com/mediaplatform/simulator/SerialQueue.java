@@ -0,0 +1,104 @@
+package com.mediaplatform.simulator;
+
+import com.mediaplatform.android.service.SerialScheduler;
+import com.mediaplatform.android.utils.Logger;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 共享线程池上的串行队列
+ * 代替安卓主线程Handler：同一设备的任务按顺序逐个执行，队列空闲时不占用线程，
+ * 数万台模拟设备共用一个虚拟线程执行器和一个定时线程。
+ */
+final class SerialQueue implements SerialScheduler {
+    private static final String TAG = "SerialQueue";
+
+    private final Executor executor;
+    private final ScheduledExecutorService timer;
+    private final Deque<Runnable> tasks = new ArrayDeque<>();
+    private final Map<Runnable, ScheduledFuture<?>> delayed = new HashMap<>();
+    private boolean draining;
+
+    SerialQueue(Executor executor, ScheduledExecutorService timer) {
+        this.executor = executor;
+        this.timer = timer;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        enqueue(task, false);
+    }
+
+    @Override
+    public void executeAtFront(Runnable task) {
+        enqueue(task, true);
+    }
+
+    @Override
+    public void executeDelayed(Runnable task, long delayMillis) {
+        synchronized (this) {
+            ScheduledFuture<?>[] self = new ScheduledFuture<?>[1];
+            self[0] = timer.schedule(() -> {
+                synchronized (this) {
+                    if (!delayed.remove(task, self[0])) {
+                        return; // 已取消
+                    }
+                }
+                execute(task);
+            }, delayMillis, TimeUnit.MILLISECONDS);
+            ScheduledFuture<?> previous = delayed.put(task, self[0]);
+            if (previous != null) {
+                previous.cancel(false);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void cancel(Runnable task) {
+        tasks.removeIf(queued -> queued == task);
+        ScheduledFuture<?> future = delayed.remove(task);
+        if (future != null) {
+            future.cancel(false);
+        }
+    }
+
+    private void enqueue(Runnable task, boolean atFront) {
+        synchronized (this) {
+            if (atFront) {
+                tasks.addFirst(task);
+            } else {
+                tasks.addLast(task);
+            }
+            if (draining) {
+                return;
+            }
+            draining = true;
+        }
+        executor.execute(this::drain);
+    }
+
+    private void drain() {
+        while (true) {
+            Runnable next;
+            synchronized (this) {
+                next = tasks.pollFirst();
+                if (next == null) {
+                    draining = false;
+                    return;
+                }
+            }
+            try {
+                next.run();
+            } catch (RuntimeException e) {
+                Logger.e(TAG, "Task failed", e);
+            }
+        }
+    }
+}
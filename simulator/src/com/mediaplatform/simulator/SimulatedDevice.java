@@ -0,0 +1,205 @@
+package com.mediaplatform.simulator;
+
+import com.mediaplatform.android.model.Command;
+import com.mediaplatform.android.model.ContentPush;
+import com.mediaplatform.android.service.GroupSubscriptions;
+import com.mediaplatform.android.service.MessageDecodePipeline;
+import com.mediaplatform.android.service.MqttConnectionManager;
+import com.mediaplatform.android.service.MqttDeviceCore;
+import com.mediaplatform.android.service.PayloadBuffers;
+import com.mediaplatform.android.service.TelemetryAggregator;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 一台模拟屏幕
+ * 使用与安卓端相同的 MqttDeviceCore，存储放在内存中，遥测值随机游走。
+ */
+final class SimulatedDevice implements MqttDeviceCore.Host, MqttDeviceCore.Listener {
+
+    private final int index;
+    private final String deviceId;
+    private final FleetStats stats;
+    private final MqttConnectionManager connectionManager;
+    private final SerialQueue mainThread;
+    private final MqttDeviceCore core;
+    private final Map<String, Object> store = new ConcurrentHashMap<>();
+    private volatile double batteryLevel = 50 + ThreadLocalRandom.current().nextInt(50);
+    private volatile long connectStartedAt;
+    private volatile boolean everConnected;
+
+    SimulatedDevice(int index, String brokerAddress, String city, long heartbeatInterval, FleetStats stats,
+                    MessageDecodePipeline decodePipeline, ExecutorService executor,
+                    ScheduledExecutorService timer, ThreadFactory threadFactory) throws JSONException {
+        this.index = index;
+        this.deviceId = String.format("sim%08d", index);
+        this.stats = stats;
+        String clientId = "android_screen_" + deviceId;
+        this.connectionManager = new MqttConnectionManager(clientId, null, threadFactory);
+        this.mainThread = new SerialQueue(executor, timer);
+        this.core = new MqttDeviceCore(deviceId, clientId, this, this, mainThread, connectionManager,
+                decodePipeline);
+
+        // 每个心跳周期都会上报，保活间隔与心跳一致
+        TelemetryAggregator telemetry = new TelemetryAggregator(deviceId, heartbeatInterval, 1);
+        telemetry.addMetric("batteryLevel", heartbeatInterval, 1, this::sampleBattery);
+        core.setTelemetryAggregator(telemetry);
+        core.setHeartbeatInterval(heartbeatInterval);
+        core.getBrokerPool().setEndpoints(Collections.singletonList(brokerAddress), 1883);
+        core.updateGroups(new JSONObject()
+                .put(GroupSubscriptions.KIND_CITY, city)
+                .put("tags", new JSONArray().put("simulator")));
+    }
+
+    void start() {
+        connectStartedAt = System.nanoTime();
+        mainThread.execute(core::connect);
+    }
+
+    void stop() {
+        mainThread.execute(core::close);
+    }
+
+    /**
+     * 与安卓端网络恢复回调相同，在主线程上立即重连
+     */
+    void reconnectNow() {
+        mainThread.execute(core::reconnectNow);
+    }
+
+    void shutdown() {
+        connectionManager.shutdown();
+    }
+
+    MqttDeviceCore getCore() {
+        return core;
+    }
+
+    MqttConnectionManager getConnectionManager() {
+        return connectionManager;
+    }
+
+    private Object sampleBattery() {
+        double next = batteryLevel + ThreadLocalRandom.current().nextDouble(-1.5, 1.5);
+        batteryLevel = Math.max(0, Math.min(100, next));
+        return Math.round(batteryLevel);
+    }
+
+    // MqttDeviceCore.Host
+
+    @Override
+    public JSONObject buildRegistration() throws JSONException {
+        return new JSONObject()
+                .put("deviceId", deviceId)
+                .put("deviceType", "android_screen")
+                .put("deviceName", "模拟屏幕-" + index)
+                .put("deviceModel", "jvm-simulator")
+                .put("deviceVersion", System.getProperty("java.version"))
+                .put("appVersion", "simulator")
+                .put("timestamp", System.currentTimeMillis());
+    }
+
+    /**
+     * 按服务端的 {"messageType":"content","content":{...}} 格式解析，只取模拟器需要的字段
+     */
+    @Override
+    public ContentPush decodeContentPush(ByteBuffer payload) throws JSONException {
+        JSONObject message = new JSONObject(PayloadBuffers.toUtf8(payload));
+        JSONObject body = message.optJSONObject("content");
+        if (body == null) {
+            body = message.optJSONObject("data");
+        }
+        ContentPush content = new ContentPush();
+        if (body != null) {
+            content.setContentId(body.optString("id", body.optString("contentId", null)));
+            content.setTitle(body.optString("title", null));
+            content.setContentType(body.optString("type", null));
+            content.setUrl(body.optString("url", null));
+            content.setDuration(body.optInt("duration"));
+        }
+        return content;
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        Object value = store.get(key);
+        return value instanceof String ? (String) value : defValue;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        Object value = store.get(key);
+        return value instanceof Set ? (Set<String>) value : defValues;
+    }
+
+    @Override
+    public void putString(String key, String value) {
+        store.put(key, value);
+    }
+
+    @Override
+    public void putStringSet(String key, Set<String> values) {
+        store.put(key, Collections.unmodifiableSet(new HashSet<>(values)));
+    }
+
+    @Override
+    public void remove(String key) {
+        store.remove(key);
+    }
+
+    // MqttDeviceCore.Listener
+
+    @Override
+    public void onConnected(boolean sessionPresent) {
+        if (!everConnected) {
+            everConnected = true;
+            stats.onFirstConnect(System.nanoTime() - connectStartedAt);
+        } else {
+            stats.reconnects.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void onConnectionFailed(Throwable cause) {
+        stats.connectFailures.incrementAndGet();
+    }
+
+    @Override
+    public void onConnectionLost(Throwable cause) {
+        stats.connectionsLost.incrementAndGet();
+    }
+
+    @Override
+    public void onContentReceived(ContentPush content) {
+        stats.onContentReceived(content.getContentId());
+    }
+
+    @Override
+    public void onCommandReceived(Command command) {
+        stats.commandsReceived.incrementAndGet();
+    }
+
+    @Override
+    public void onBroadcastReceived(String message) {
+        stats.broadcastsReceived.incrementAndGet();
+    }
+
+    @Override
+    public void onError(String error) {
+        stats.errors.incrementAndGet();
+    }
+}
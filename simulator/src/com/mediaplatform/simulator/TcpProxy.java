@@ -0,0 +1,171 @@
+package com.mediaplatform.simulator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 本机TCP转发，放在设备和代理之间模拟网络
+ * 可给每个方向的数据加固定的单向延迟(保持顺序，不限带宽)；dropAll 同时关闭两端的Socket，设备端看到的和网络中断一样。
+ */
+final class TcpProxy implements AutoCloseable {
+
+    private static final int CONNECT_TIMEOUT = 5000;
+
+    private final String upstreamHost;
+    private final int upstreamPort;
+    private final long oneWayDelayNanos;
+    private final ThreadFactory threadFactory;
+    private final ServerSocket server;
+    private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param upstream      代理地址 host:port
+     * @param oneWayDelay   每个方向的延迟(毫秒)，0表示直接转发
+     * @param threadFactory 转发线程，每条连接每个方向一到两个
+     */
+    TcpProxy(String upstream, long oneWayDelay, ThreadFactory threadFactory) throws IOException {
+        int separator = upstream.lastIndexOf(':');
+        this.upstreamHost = separator > 0 ? upstream.substring(0, separator) : upstream;
+        this.upstreamPort = separator > 0 ? Integer.parseInt(upstream.substring(separator + 1)) : 1883;
+        this.oneWayDelayNanos = TimeUnit.MILLISECONDS.toNanos(oneWayDelay);
+        this.threadFactory = threadFactory;
+        this.server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        threadFactory.newThread(this::acceptLoop).start();
+    }
+
+    String getAddress() {
+        return server.getInetAddress().getHostAddress() + ":" + server.getLocalPort();
+    }
+
+    void dropAll() {
+        for (Socket socket : sockets) {
+            closeQuietly(socket);
+        }
+        sockets.clear();
+    }
+
+    @Override
+    public void close() {
+        closeQuietly(server);
+        dropAll();
+    }
+
+    private void acceptLoop() {
+        while (!server.isClosed()) {
+            try {
+                Socket client = server.accept();
+                Socket upstream = new Socket();
+                upstream.connect(new InetSocketAddress(upstreamHost, upstreamPort), CONNECT_TIMEOUT);
+                client.setTcpNoDelay(true);
+                upstream.setTcpNoDelay(true);
+                sockets.add(client);
+                sockets.add(upstream);
+                forward(client, upstream);
+                forward(upstream, client);
+            } catch (IOException e) {
+                if (!server.isClosed()) {
+                    System.err.println("代理转发失败: " + e);
+                }
+            }
+        }
+    }
+
+    private void forward(Socket from, Socket to) {
+        if (oneWayDelayNanos <= 0) {
+            threadFactory.newThread(() -> pump(from, to)).start();
+            return;
+        }
+        // 读到的数据带上到期时间排队，另一个线程按顺序到期后写出
+        BlockingQueue<Chunk> queue = new LinkedBlockingQueue<>();
+        threadFactory.newThread(() -> readDelayed(from, to, queue)).start();
+        threadFactory.newThread(() -> writeDelayed(from, to, queue)).start();
+    }
+
+    private void pump(Socket from, Socket to) {
+        byte[] buffer = new byte[8192];
+        try {
+            InputStream in = from.getInputStream();
+            OutputStream out = to.getOutputStream();
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            // 被 dropAll 关闭
+        } finally {
+            closePair(from, to);
+        }
+    }
+
+    private void readDelayed(Socket from, Socket to, BlockingQueue<Chunk> queue) {
+        byte[] buffer = new byte[8192];
+        try {
+            InputStream in = from.getInputStream();
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                queue.add(new Chunk(System.nanoTime() + oneWayDelayNanos, Arrays.copyOf(buffer, read)));
+            }
+        } catch (IOException e) {
+            // 被 dropAll 关闭
+        } finally {
+            queue.add(Chunk.END);
+        }
+    }
+
+    private void writeDelayed(Socket from, Socket to, BlockingQueue<Chunk> queue) {
+        try {
+            OutputStream out = to.getOutputStream();
+            Chunk chunk;
+            while ((chunk = queue.take()) != Chunk.END) {
+                long wait = chunk.dueAt - System.nanoTime();
+                if (wait > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+                out.write(chunk.data);
+            }
+        } catch (IOException | InterruptedException e) {
+            // 连接已关闭
+        } finally {
+            closePair(from, to);
+        }
+    }
+
+    private void closePair(Socket from, Socket to) {
+        closeQuietly(from);
+        closeQuietly(to);
+        sockets.remove(from);
+        sockets.remove(to);
+    }
+
+    private static void closeQuietly(AutoCloseable closeable) {
+        try {
+            closeable.close();
+        } catch (Exception e) {
+            // 忽略
+        }
+    }
+
+    private static final class Chunk {
+        static final Chunk END = new Chunk(0, new byte[0]);
+
+        final long dueAt;
+        final byte[] data;
+
+        Chunk(long dueAt, byte[] data) {
+            this.dueAt = dueAt;
+            this.data = data;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.mediaplatform.android.service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 测试用的主线程：单线程执行器，executeAtFront 按普通任务排队
+ */
+final class ExecutorSerialScheduler implements SerialScheduler, AutoCloseable {
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    private final Map<Runnable, ScheduledFuture<?>> delayed = new ConcurrentHashMap<>();
+
+    @Override
+    public void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    @Override
+    public void executeAtFront(Runnable task) {
+        executor.execute(task);
+    }
+
+    @Override
+    public void executeDelayed(Runnable task, long delayMillis) {
+        ScheduledFuture<?> previous = delayed.put(task, executor.schedule(() -> {
+            delayed.remove(task);
+            task.run();
+        }, delayMillis, TimeUnit.MILLISECONDS));
+        if (previous != null) {
+            previous.cancel(false);
+        }
+    }
+
+    @Override
+    public void cancel(Runnable task) {
+        ScheduledFuture<?> future = delayed.remove(task);
+        if (future != null) {
+            future.cancel(false);
+        }
+    }
+
+    /**
+     * 在主线程上执行并等待完成
+     */
+    void runAndWait(Runnable task) throws InterruptedException, ExecutionException, TimeoutException {
+        executor.submit(task).get(5, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
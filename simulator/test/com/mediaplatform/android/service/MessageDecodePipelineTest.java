@@ -0,0 +1,64 @@
+package com.mediaplatform.android.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessageDecodePipelineTest {
+
+    private static final int BULK_CAPACITY = 4;
+
+    private final MessageDecodePipeline pipeline = new MessageDecodePipeline(1, 4, BULK_CAPACITY,
+            MessageDecodePipeline.BackpressurePolicy.DROP_OLDEST, 100);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        pipeline.shutdown();
+    }
+
+    @Test
+    void commandIsHandledWhileContentLaneIsSaturated() throws Exception {
+        // 唯一的通用线程卡在一条大内容上，同一主题后面排满了队
+        Executor contentTopic = pipeline.newSerialExecutor(MessageDecodePipeline.Lane.CONTENT);
+        CountDownLatch parsing = new CountDownLatch(1);
+        contentTopic.execute(() -> {
+            parsing.countDown();
+            awaitRelease();
+        });
+        assertTrue(parsing.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < BULK_CAPACITY; i++) {
+            contentTopic.execute(this::awaitRelease);
+        }
+
+        // 回调线程上：另一个分组主题的内容，随后是一条命令，都不能等待内容通道的空位
+        Executor groupTopic = pipeline.newSerialExecutor(MessageDecodePipeline.Lane.CONTENT);
+        Executor commandTopic = pipeline.newSerialExecutor(MessageDecodePipeline.Lane.COMMAND);
+        CountDownLatch commandHandled = new CountDownLatch(1);
+        assertTimeoutPreemptively(Duration.ofSeconds(1), () -> {
+            groupTopic.execute(this::awaitRelease);
+            commandTopic.execute(commandHandled::countDown);
+        });
+
+        assertTrue(commandHandled.await(1, TimeUnit.SECONDS));
+        assertEquals(BULK_CAPACITY, pipeline.getQueueDepth(MessageDecodePipeline.Lane.CONTENT));
+        assertEquals(1, pipeline.getDroppedCount(MessageDecodePipeline.Lane.CONTENT));
+    }
+
+    private void awaitRelease() {
+        try {
+            release.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.mediaplatform.android.service;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * 进程内的MQTT 3.1.1代理桩
+ * 只实现设备核心用到的报文：确认连接、订阅和退订，记录收到的发布并按QoS 1确认，不转发给其他客户端。
+ */
+final class MqttBrokerStub implements AutoCloseable {
+
+    /**
+     * 设备发布的一条消息
+     */
+    static final class Published {
+        final String topic;
+        final String payload;
+
+        Published(String topic, String payload) {
+            this.topic = topic;
+            this.payload = payload;
+        }
+
+        @Override
+        public String toString() {
+            return topic + " " + payload;
+        }
+    }
+
+    private final ServerSocket server;
+    private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+    private final List<Published> published = new CopyOnWriteArrayList<>();
+
+    MqttBrokerStub() throws IOException {
+        server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::acceptLoop, "mqtt-stub-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    String getAddress() {
+        return server.getInetAddress().getHostAddress() + ":" + server.getLocalPort();
+    }
+
+    /**
+     * 按到达顺序返回指定主题的发布
+     */
+    List<Published> publishedTo(String topic) {
+        List<Published> result = new ArrayList<>();
+        for (Published message : published) {
+            if (message.topic.equals(topic)) {
+                result.add(message);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 等待出现满足条件的发布
+     */
+    boolean awaitPublished(Predicate<Published> condition, long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (System.nanoTime() < deadline) {
+            for (Published message : published) {
+                if (condition.test(message)) {
+                    return true;
+                }
+            }
+            Thread.sleep(10);
+        }
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+    }
+
+    private void acceptLoop() {
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                sockets.add(socket);
+                Thread session = new Thread(() -> serve(socket), "mqtt-stub-session");
+                session.setDaemon(true);
+                session.start();
+            } catch (IOException e) {
+                // 已关闭
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            while (true) {
+                int header = in.readUnsignedByte();
+                byte[] body = new byte[readRemainingLength(in)];
+                in.readFully(body);
+                switch (header >> 4) {
+                    case 1: // CONNECT
+                        write(out, 0x20, 0, 0);
+                        break;
+                    case 3: // PUBLISH
+                        onPublish(out, header, body);
+                        break;
+                    case 8: { // SUBSCRIBE，按请求的QoS授予
+                        int count = 0;
+                        byte[] granted = new byte[body.length];
+                        for (int i = 2; i < body.length; ) {
+                            int length = ((body[i] & 0xFF) << 8) | (body[i + 1] & 0xFF);
+                            i += 2 + length;
+                            granted[count++] = body[i++];
+                        }
+                        byte[] ack = new byte[2 + count];
+                        ack[0] = body[0];
+                        ack[1] = body[1];
+                        System.arraycopy(granted, 0, ack, 2, count);
+                        write(out, 0x90, ack);
+                        break;
+                    }
+                    case 10: // UNSUBSCRIBE
+                        write(out, 0xB0, body[0], body[1]);
+                        break;
+                    case 12: // PINGREQ
+                        write(out, 0xD0);
+                        break;
+                    case 14: // DISCONNECT
+                        socket.close();
+                        return;
+                    default:
+                        break;
+                }
+            }
+        } catch (EOFException e) {
+            // 客户端断开
+        } catch (IOException e) {
+            // 已关闭
+        } finally {
+            sockets.remove(socket);
+        }
+    }
+
+    private void onPublish(OutputStream out, int header, byte[] body) throws IOException {
+        int qos = (header >> 1) & 0x03;
+        int topicLength = ((body[0] & 0xFF) << 8) | (body[1] & 0xFF);
+        String topic = new String(body, 2, topicLength, StandardCharsets.UTF_8);
+        int offset = 2 + topicLength + (qos > 0 ? 2 : 0);
+        // 先记录再确认，设备收到确认时消息一定已经可见
+        published.add(new Published(topic,
+                new String(body, offset, body.length - offset, StandardCharsets.UTF_8)));
+        if (qos > 0) {
+            write(out, 0x40, body[offset - 2], body[offset - 1]);
+        }
+    }
+
+    private static int readRemainingLength(DataInputStream in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        int digit;
+        do {
+            digit = in.readUnsignedByte();
+            value |= (digit & 0x7F) << shift;
+            shift += 7;
+        } while ((digit & 0x80) != 0);
+        return value;
+    }
+
+    private static void write(OutputStream out, int header, int... body) throws IOException {
+        byte[] bytes = new byte[body.length];
+        for (int i = 0; i < body.length; i++) {
+            bytes[i] = (byte) body[i];
+        }
+        write(out, header, bytes);
+    }
+
+    private static void write(OutputStream out, int header, byte[] body) throws IOException {
+        byte[] packet = new byte[2 + body.length];
+        packet[0] = (byte) header;
+        packet[1] = (byte) body.length; // 桩只回复短报文
+        System.arraycopy(body, 0, packet, 2, body.length);
+        out.write(packet);
+        out.flush();
+    }
+}
@@ -0,0 +1,174 @@
+package com.mediaplatform.android.service;
+
+import com.mediaplatform.android.model.Command;
+import com.mediaplatform.android.model.ContentPush;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MqttDeviceCoreTest {
+
+    private static final String DEVICE_ID = "test0001";
+    private static final String CLIENT_ID = "android_screen_" + DEVICE_ID;
+    private static final String STATUS_TOPIC = MqttDeviceCore.TOPIC_PREFIX + "device/status";
+
+    @TempDir
+    File dir;
+
+    private final Map<String, Object> store = new ConcurrentHashMap<>();
+    private volatile Runnable onConnected = () -> { };
+    private MqttBrokerStub broker;
+    private ExecutorSerialScheduler mainThread;
+    private MqttConnectionManager connectionManager;
+    private MessageDecodePipeline decodePipeline;
+    private OutboundMessageQueue outbox;
+    private MqttDeviceCore core;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        broker = new MqttBrokerStub();
+        mainThread = new ExecutorSerialScheduler();
+        connectionManager = new MqttConnectionManager(CLIENT_ID, null);
+        decodePipeline = new MessageDecodePipeline(1, 16, 16,
+                MessageDecodePipeline.BackpressurePolicy.DROP_OLDEST, 100);
+        core = new MqttDeviceCore(DEVICE_ID, CLIENT_ID, new TestHost(), new TestListener(), mainThread,
+                connectionManager, decodePipeline);
+        core.setTelemetryAggregator(new TelemetryAggregator(DEVICE_ID, 30000, 1));
+        outbox = new OutboundMessageQueue(new File(dir, "outbox"), 64 * 1024, 0);
+        outbox.open();
+        core.setOutboundQueue(outbox);
+        core.getBrokerPool().setEndpoints(Collections.singletonList(broker.getAddress()), 1883);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        mainThread.runAndWait(core::close);
+        connectionManager.shutdown();
+        decodePipeline.shutdown();
+        mainThread.close();
+        outbox.close();
+        broker.close();
+    }
+
+    @Test
+    void liveStatusIsNotOvertakenByQueuedStatus() throws Exception {
+        mainThread.runAndWait(() -> core.sendDeviceStatus("busy", "queued"));
+        assertFalse(outbox.isEmpty());
+
+        // 挡住调度线程，离线队列的重放要等连接后的新状态发布之后才开始，这是最容易乱序的时机
+        CountDownLatch livePublished = new CountDownLatch(1);
+        connectionManager.getScheduler().execute(() -> {
+            try {
+                livePublished.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        onConnected = () -> {
+            core.sendDeviceStatus("online", "live");
+            livePublished.countDown();
+        };
+        mainThread.execute(core::connect);
+
+        assertTrue(broker.awaitPublished(message -> message.topic.equals(STATUS_TOPIC)
+                && message.payload.contains("\"live\""), 5000));
+        // 留出时间让可能晚到的补发出现
+        Thread.sleep(500);
+        assertTrue(outbox.isEmpty());
+
+        List<MqttBrokerStub.Published> statuses = broker.publishedTo(STATUS_TOPIC);
+        assertTrue(statuses.get(statuses.size() - 1).payload.contains("\"live\""),
+                "status publishes out of order: " + statuses);
+    }
+
+    private final class TestHost implements MqttDeviceCore.Host {
+        @Override
+        public JSONObject buildRegistration() throws JSONException {
+            return new JSONObject()
+                    .put("deviceId", DEVICE_ID)
+                    .put("deviceType", "android_screen")
+                    .put("timestamp", System.currentTimeMillis());
+        }
+
+        @Override
+        public ContentPush decodeContentPush(ByteBuffer payload) throws JSONException {
+            return ContentPush.fromJson(PayloadBuffers.toUtf8(payload));
+        }
+
+        @Override
+        public String getString(String key, String defValue) {
+            Object value = store.get(key);
+            return value instanceof String ? (String) value : defValue;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Set<String> getStringSet(String key, Set<String> defValues) {
+            Object value = store.get(key);
+            return value instanceof Set ? (Set<String>) value : defValues;
+        }
+
+        @Override
+        public void putString(String key, String value) {
+            store.put(key, value);
+        }
+
+        @Override
+        public void putStringSet(String key, Set<String> values) {
+            store.put(key, values);
+        }
+
+        @Override
+        public void remove(String key) {
+            store.remove(key);
+        }
+    }
+
+    private final class TestListener implements MqttDeviceCore.Listener {
+        @Override
+        public void onConnected(boolean sessionPresent) {
+            onConnected.run();
+        }
+
+        @Override
+        public void onConnectionFailed(Throwable cause) {
+        }
+
+        @Override
+        public void onConnectionLost(Throwable cause) {
+        }
+
+        @Override
+        public void onContentReceived(ContentPush content) {
+        }
+
+        @Override
+        public void onCommandReceived(Command command) {
+        }
+
+        @Override
+        public void onBroadcastReceived(String message) {
+        }
+
+        @Override
+        public void onError(String error) {
+        }
+    }
+}
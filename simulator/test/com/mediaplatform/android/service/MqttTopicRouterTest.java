@@ -0,0 +1,63 @@
+package com.mediaplatform.android.service;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MqttTopicRouterTest {
+
+    private static final MqttTopicRouter.MessageHandler IGNORE = (topic, payload) -> { };
+
+    @Test
+    void wildcardRouteIsFoundWhileOtherRoutesChange() throws Exception {
+        MqttTopicRouter router = new MqttTopicRouter();
+        router.register("mediaplatform/group/region/+", MqttTopicRouter.DIRECT_EXECUTOR, IGNORE);
+        router.register("mediaplatform/group/venue/+/screens", MqttTopicRouter.DIRECT_EXECUTOR, IGNORE);
+
+        // 分组变化时反复注销、注册另一个通配符路由，前缀树随之重建
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread groupChanges = new Thread(() -> {
+            while (running.get()) {
+                router.unregister("mediaplatform/group/venue/+/screens");
+                router.register("mediaplatform/group/venue/+/screens", MqttTopicRouter.DIRECT_EXECUTOR, IGNORE);
+            }
+        });
+        groupChanges.start();
+
+        MqttMessage message = new MqttMessage("{}".getBytes());
+        int missed = 0;
+        try {
+            for (int i = 0; i < 2000000; i++) {
+                if (!router.dispatch("mediaplatform/group/region/south", message)) {
+                    missed++;
+                }
+            }
+        } finally {
+            running.set(false);
+            groupChanges.join();
+        }
+        assertEquals(0, missed);
+    }
+
+    @Test
+    void replaceWithSwapsAllRoutesAtOnce() {
+        MqttTopicRouter router = new MqttTopicRouter();
+        router.register("mediaplatform/device/a/content", MqttTopicRouter.DIRECT_EXECUTOR, IGNORE);
+
+        MqttTopicRouter routes = new MqttTopicRouter();
+        routes.register("mediaplatform/device/a/command", MqttTopicRouter.DIRECT_EXECUTOR, IGNORE);
+        routes.register("mediaplatform/group/tag/#", MqttTopicRouter.DIRECT_EXECUTOR, IGNORE);
+        router.replaceWith(routes);
+
+        MqttMessage message = new MqttMessage("{}".getBytes());
+        assertEquals(2, router.size());
+        assertFalse(router.dispatch("mediaplatform/device/a/content", message));
+        assertTrue(router.dispatch("mediaplatform/device/a/command", message));
+        assertTrue(router.dispatch("mediaplatform/group/tag/lobby", message));
+    }
+}
@@ -0,0 +1,77 @@
+package com.mediaplatform.android.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OutboundMessageQueueTest {
+
+    @TempDir
+    File dir;
+
+    private OutboundMessageQueue queue;
+
+    @AfterEach
+    void tearDown() {
+        if (queue != null) {
+            queue.close();
+        }
+    }
+
+    @Test
+    void fullQueueDropsOldestAndKeepsOrder() throws Exception {
+        queue = new OutboundMessageQueue(new File(dir, "outbox"), 4096, 0);
+        queue.open();
+        for (int i = 0; i < 200; i++) {
+            assertTrue(queue.enqueue("device/status", payload("status-" + i), 1, false, "device/status"));
+            assertTrue(queue.enqueue("device/event", payload("event-" + i), 1, false, null));
+        }
+
+        List<String> replayed = new ArrayList<>();
+        int sent = queue.replay((topic, payload, qos, retained, enqueuedAt) -> {
+            replayed.add(new String(payload, StandardCharsets.UTF_8));
+            return OutboundMessageQueue.Result.SENT;
+        });
+
+        // 状态只剩最新一条，事件保留最新的一段且按入队顺序
+        assertEquals(replayed.size(), sent);
+        assertEquals("status-199", replayed.get(replayed.size() - 2));
+        assertEquals("event-199", replayed.get(replayed.size() - 1));
+        int first = Integer.parseInt(replayed.get(0).substring("event-".length()));
+        for (int i = 0; i < replayed.size() - 2; i++) {
+            assertEquals("event-" + (first + i), replayed.get(i));
+        }
+        assertEquals(200 - (replayed.size() - 1), queue.getDroppedCount());
+        assertEquals(199, queue.getCoalescedCount());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    void discardedByPublisherCountsAsExpired() throws Exception {
+        queue = new OutboundMessageQueue(new File(dir, "outbox"), 4096, 0);
+        queue.open();
+        for (String name : Arrays.asList("heartbeat", "event", "heartbeat")) {
+            queue.enqueue("device/" + name, payload(name), 1, false, null);
+        }
+
+        int sent = queue.replay((topic, payload, qos, retained, enqueuedAt) -> topic.endsWith("heartbeat")
+                ? OutboundMessageQueue.Result.EXPIRED : OutboundMessageQueue.Result.SENT);
+
+        assertEquals(1, sent);
+        assertEquals(1, queue.getReplayedCount());
+        assertEquals(2, queue.getExpiredCount());
+    }
+
+    private static byte[] payload(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,44 @@
+package com.mediaplatform.android.service;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class TelemetryAggregatorTest {
+
+    private static final long INTERVAL = 30000;
+
+    @Test
+    void deltaInUnpublishedMessageIsSentAgain() throws Exception {
+        AtomicLong battery = new AtomicLong(50);
+        TelemetryAggregator aggregator = new TelemetryAggregator("test0001", 4 * INTERVAL, 1);
+        aggregator.addMetric("batteryLevel", 0, 1, battery::get);
+
+        long now = 1727740800000L;
+        assertEquals(50, batteryIn(aggregator.tick(now)));
+        aggregator.onPublished(now);
+
+        // 这条心跳在离线队列中被合并掉，没有发出
+        battery.set(40);
+        now += INTERVAL;
+        assertEquals(40, batteryIn(aggregator.tick(now)));
+
+        now += INTERVAL;
+        String retried = aggregator.tick(now);
+        assertNotNull(retried);
+        assertEquals(40, batteryIn(retried));
+        aggregator.onPublished(now);
+
+        now += INTERVAL;
+        assertNull(aggregator.tick(now));
+    }
+
+    private static long batteryIn(String message) throws Exception {
+        return new JSONObject(message).getJSONArray("samples").getJSONObject(0).getLong("batteryLevel");
+    }
+}
@@ -0,0 +1,112 @@
+#!/usr/bin/env node
+
+/**
+ * 代理故障切换测试脚本
+ * 在本机启动两个嵌入式Aedes代理，运行一段时间后关闭主代理，
+ * 观察安卓设备(BrokerPool)是否切换到备用代理以及切换耗时。
+ *
+ * 用法: node test-broker-failover.js [主代理端口] [备用代理端口] [多少秒后关闭主代理]
+ * 安卓端: updateBrokerConfig(本机IP, 主代理端口)，setFallbackBrokers(["本机IP:备用代理端口"])
+ */
+
+const Aedes = require('aedes');
+const net = require('net');
+const os = require('os');
+
+const PRIMARY_PORT = parseInt(process.argv[2] || '1883', 10);
+const FALLBACK_PORT = parseInt(process.argv[3] || '1884', 10);
+const KILL_AFTER_SECONDS = parseInt(process.argv[4] || '60', 10);
+const TEST_DURATION_SECONDS = KILL_AFTER_SECONDS + 120;
+
+function getLocalIP() {
+    const interfaces = os.networkInterfaces();
+    for (const name of Object.keys(interfaces)) {
+        for (const item of interfaces[name]) {
+            if (item.family === 'IPv4' && !item.internal) {
+                return item.address;
+            }
+        }
+    }
+    return '127.0.0.1';
+}
+
+function startBroker(name, port) {
+    const aedes = new Aedes();
+    const server = net.createServer(aedes.handle);
+    const broker = { name, port, aedes, server, sockets: new Set(), clients: new Map(), probes: 0 };
+
+    server.on('connection', socket => {
+        broker.sockets.add(socket);
+        socket.on('close', () => broker.sockets.delete(socket));
+    });
+
+    aedes.on('client', client => {
+        // BrokerPool 的时延探测使用 -probe 后缀的短连接
+        if (client.id.endsWith('-probe')) {
+            broker.probes++;
+            return;
+        }
+        broker.clients.set(client.id, Date.now());
+        console.log(`📱 [${name}] 设备连接: ${client.id}`);
+        onDeviceConnected(broker, client.id);
+    });
+
+    aedes.on('clientDisconnect', client => {
+        if (!client.id.endsWith('-probe')) {
+            broker.clients.delete(client.id);
+            console.log(`📴 [${name}] 设备断开: ${client.id}`);
+        }
+    });
+
+    server.listen(port, '0.0.0.0', () => {
+        console.log(`🚀 [${name}] 代理已启动: tcp://${getLocalIP()}:${port}`);
+    });
+    return broker;
+}
+
+function killBroker(broker) {
+    console.log(`\n💥 关闭 [${broker.name}] (端口 ${broker.port})，当前设备: ${[...broker.clients.keys()].join(', ') || '无'}`);
+    // 直接断开所有socket，模拟代理进程崩溃
+    for (const socket of broker.sockets) {
+        socket.destroy();
+    }
+    broker.server.close();
+    broker.aedes.close();
+    killedAt = Date.now();
+}
+
+let killedAt = null;
+const failoverTimes = [];
+
+function onDeviceConnected(broker, clientId) {
+    if (killedAt && broker === fallback) {
+        const elapsed = Date.now() - killedAt;
+        failoverTimes.push(elapsed);
+        console.log(`✅ 设备 ${clientId} 已切换到 [${broker.name}]，耗时 ${elapsed}ms`);
+    }
+}
+
+console.log('🔀 代理故障切换测试');
+console.log('================================');
+console.log(`主代理端口: ${PRIMARY_PORT}, 备用代理端口: ${FALLBACK_PORT}`);
+console.log(`${KILL_AFTER_SECONDS}秒后关闭主代理，测试共${TEST_DURATION_SECONDS}秒\n`);
+
+const primary = startBroker('主代理', PRIMARY_PORT);
+const fallback = startBroker('备用代理', FALLBACK_PORT);
+
+setTimeout(() => killBroker(primary), KILL_AFTER_SECONDS * 1000);
+
+setTimeout(() => {
+    console.log('\n📊 测试结果');
+    console.log(`   主代理探测次数: ${primary.probes}, 备用代理探测次数: ${fallback.probes}`);
+    console.log(`   切换到备用代理的设备数: ${failoverTimes.length}`);
+    if (failoverTimes.length > 0) {
+        const sorted = [...failoverTimes].sort((a, b) => a - b);
+        console.log(`   切换耗时: 最短 ${sorted[0]}ms, 中位 ${sorted[Math.floor(sorted.length / 2)]}ms, 最长 ${sorted[sorted.length - 1]}ms`);
+    } else {
+        console.log('   ❌ 没有设备切换到备用代理');
+    }
+    fallback.server.close();
+    fallback.aedes.close();
+    process.exit(failoverTimes.length > 0 ? 0 : 1);
+}, TEST_DURATION_SECONDS * 1000);
@@ -0,0 +1,140 @@
+#!/usr/bin/env node
+
+/**
+ * 分组推送耗时对比脚本
+ * 在本机启动嵌入式Aedes代理，连接N个模拟屏幕，每个屏幕订阅自己的内容主题和一个城市分组主题，
+ * 分别测量逐台推送(现有 pushContentToDevice 的做法)和分组推送(一次发布)的服务端发布耗时
+ * 以及所有屏幕收到消息的耗时。
+ *
+ * 用法: node test-group-push.js [屏幕数] [逐台推送时每台的数据库查询耗时毫秒]
+ */
+
+const Aedes = require('aedes');
+const mqtt = require('mqtt');
+const net = require('net');
+
+const SCREEN_COUNT = parseInt(process.argv[2] || '1000', 10);
+const LOOKUP_DELAY_MS = parseFloat(process.argv[3] || '1');
+const PORT = 1886;
+const GROUP_TOPIC = 'group/city/shenzhen/content';
+const CONNECT_BATCH = 100;
+
+const message = {
+    messageType: 'content',
+    content: {
+        id: 'group-push-benchmark',
+        title: '分组推送测试',
+        type: 'image',
+        url: 'https://example.com/campaign.jpg',
+        duration: 15
+    }
+};
+
+function startBroker() {
+    const aedes = new Aedes();
+    const server = net.createServer(aedes.handle);
+    return new Promise(resolve => server.listen(PORT, '127.0.0.1', () => resolve({ aedes, server })));
+}
+
+function connectScreen(index, onMessage) {
+    return new Promise((resolve, reject) => {
+        const clientId = `android_screen_bench_${index}`;
+        const client = mqtt.connect(`mqtt://127.0.0.1:${PORT}`, { clientId, clean: true, reconnectPeriod: 0 });
+        client.once('error', reject);
+        client.once('connect', () => {
+            client.subscribe([`device/${clientId}/content`, GROUP_TOPIC], { qos: 1 }, error => {
+                if (error) {
+                    reject(error);
+                    return;
+                }
+                client.on('message', onMessage);
+                resolve({ client, clientId });
+            });
+        });
+    });
+}
+
+function publish(aedes, topic, payload) {
+    return new Promise((resolve, reject) => {
+        aedes.publish({ topic, payload, qos: 1, retain: false }, error => (error ? reject(error) : resolve()));
+    });
+}
+
+function sleep(ms) {
+    return new Promise(resolve => setTimeout(resolve, ms));
+}
+
+let expected = 0;
+let received = 0;
+let onAllReceived = null;
+
+function handleMessage() {
+    received++;
+    if (received === expected && onAllReceived) {
+        onAllReceived();
+    }
+}
+
+function waitForDelivery(count) {
+    expected = count;
+    received = 0;
+    return new Promise(resolve => {
+        onAllReceived = resolve;
+    });
+}
+
+async function measure(name, pushAll) {
+    const delivered = waitForDelivery(SCREEN_COUNT);
+    const startedAt = process.hrtime.bigint();
+    await pushAll();
+    const publishMs = Number(process.hrtime.bigint() - startedAt) / 1e6;
+    await delivered;
+    const deliveryMs = Number(process.hrtime.bigint() - startedAt) / 1e6;
+    console.log(`   ${name}: 服务端发布 ${publishMs.toFixed(1)}ms, 全部送达 ${deliveryMs.toFixed(1)}ms`);
+    return { publishMs, deliveryMs };
+}
+
+async function main() {
+    console.log('📡 分组推送耗时对比');
+    console.log('================================');
+    console.log(`屏幕数: ${SCREEN_COUNT}, 逐台推送每台查询耗时: ${LOOKUP_DELAY_MS}ms\n`);
+
+    const broker = await startBroker();
+    const screens = [];
+    for (let i = 0; i < SCREEN_COUNT; i += CONNECT_BATCH) {
+        const batch = [];
+        for (let j = i; j < Math.min(i + CONNECT_BATCH, SCREEN_COUNT); j++) {
+            batch.push(connectScreen(j, handleMessage));
+        }
+        screens.push(...await Promise.all(batch));
+    }
+    console.log(`✅ ${screens.length} 个模拟屏幕已连接并订阅\n`);
+
+    const payload = Buffer.from(JSON.stringify(message), 'utf8');
+
+    // 现有做法: 每台设备先查询clientId，再单独发布
+    const perDevice = await measure('逐台推送', () => Promise.all(screens.map(async screen => {
+        await sleep(LOOKUP_DELAY_MS);
+        await publish(broker.aedes, `device/${screen.clientId}/content`, payload);
+    })));
+
+    // 分组推送: 一次发布，由代理分发给所有订阅者
+    const grouped = await measure('分组推送', () => publish(broker.aedes, GROUP_TOPIC, payload));
+
+    console.log('\n📊 测试结果');
+    console.log(`   服务端发布耗时降低 ${(perDevice.publishMs / grouped.publishMs).toFixed(1)}x`);
+    console.log(`   全部送达耗时降低 ${(perDevice.deliveryMs / grouped.deliveryMs).toFixed(1)}x`);
+    console.log(`   服务端发布次数: ${SCREEN_COUNT} -> 1`);
+
+    for (const screen of screens) {
+        screen.client.end(true);
+    }
+    broker.server.close();
+    broker.aedes.close();
+    process.exit(0);
+}
+
+main().catch(error => {
+    console.error('❌ 测试失败:', error);
+    process.exit(1);
+});
@@ -0,0 +1,131 @@
+#!/usr/bin/env node
+
+/**
+ * 发布窗口吞吐量测试脚本
+ * 在本机启动嵌入式Aedes代理，并在前面加一层注入延迟的TCP代理模拟高延迟蜂窝网络，
+ * 分别以不同的在途窗口大小发布QoS 1消息，比较每秒确认的消息数。
+ *
+ * 用法: node test-publish-window.js [单向延迟毫秒] [每轮消息数]
+ * 安卓端也可以通过延迟端口(默认1885)连接，观察 getAsyncPublisher() 的统计
+ */
+
+const Aedes = require('aedes');
+const mqtt = require('mqtt');
+const net = require('net');
+
+const ONE_WAY_DELAY_MS = parseInt(process.argv[2] || '60', 10);
+const MESSAGES_PER_RUN = parseInt(process.argv[3] || '500', 10);
+const BROKER_PORT = 1884;
+const DELAYED_PORT = 1885;
+const WINDOWS = [1, 4, 16, 32];
+const PAYLOAD = JSON.stringify({
+    deviceId: 'benchmark',
+    status: 'online',
+    batteryLevel: 87,
+    timestamp: Date.now()
+});
+
+function startBroker() {
+    const aedes = new Aedes();
+    const server = net.createServer(aedes.handle);
+    return new Promise(resolve => server.listen(BROKER_PORT, '127.0.0.1', () => resolve({ aedes, server })));
+}
+
+// 每个方向的数据都延迟转发，保持顺序
+function startDelayProxy() {
+    const server = net.createServer(client => {
+        const upstream = net.connect(BROKER_PORT, '127.0.0.1');
+        const forward = (from, to) => from.on('data', data => {
+            setTimeout(() => {
+                if (!to.destroyed) {
+                    to.write(data);
+                }
+            }, ONE_WAY_DELAY_MS);
+        });
+        forward(client, upstream);
+        forward(upstream, client);
+        client.on('close', () => upstream.destroy());
+        upstream.on('close', () => client.destroy());
+        client.on('error', () => upstream.destroy());
+        upstream.on('error', () => client.destroy());
+    });
+    return new Promise(resolve => server.listen(DELAYED_PORT, '0.0.0.0', () => resolve(server)));
+}
+
+function connectClient(clientId) {
+    return new Promise((resolve, reject) => {
+        const client = mqtt.connect(`mqtt://127.0.0.1:${DELAYED_PORT}`, { clientId, clean: true });
+        client.once('connect', () => resolve(client));
+        client.once('error', reject);
+    });
+}
+
+function publish(client, topic, payload) {
+    return new Promise((resolve, reject) => {
+        client.publish(topic, payload, { qos: 1 }, error => (error ? reject(error) : resolve()));
+    });
+}
+
+// 最多 window 条消息同时等待PUBACK，与安卓端 AsyncPublisher 的做法一致
+async function runWithWindow(window) {
+    const client = await connectClient(`benchmark-window-${window}`);
+    const topic = 'device/status';
+    let sent = 0;
+    let inFlight = 0;
+    const startedAt = Date.now();
+
+    await new Promise((resolve, reject) => {
+        const pump = () => {
+            while (inFlight < window && sent < MESSAGES_PER_RUN) {
+                sent++;
+                inFlight++;
+                publish(client, topic, PAYLOAD).then(() => {
+                    inFlight--;
+                    if (sent === MESSAGES_PER_RUN && inFlight === 0) {
+                        resolve();
+                    } else {
+                        pump();
+                    }
+                }, reject);
+            }
+        };
+        pump();
+    });
+
+    const elapsed = Date.now() - startedAt;
+    await new Promise(resolve => client.end(false, {}, resolve));
+    return { window, elapsed, rate: Math.round(MESSAGES_PER_RUN * 1000 / elapsed) };
+}
+
+async function main() {
+    console.log('📈 发布窗口吞吐量测试');
+    console.log('================================');
+    console.log(`单向延迟: ${ONE_WAY_DELAY_MS}ms (往返约${ONE_WAY_DELAY_MS * 2}ms), 每轮消息数: ${MESSAGES_PER_RUN}\n`);
+
+    const broker = await startBroker();
+    const proxy = await startDelayProxy();
+    console.log(`🚀 代理已启动: 直连端口 ${BROKER_PORT}, 延迟端口 ${DELAYED_PORT}\n`);
+
+    const results = [];
+    for (const window of WINDOWS) {
+        const result = await runWithWindow(window);
+        results.push(result);
+        console.log(`   窗口 ${String(window).padStart(2)}: ${result.rate} 条/秒 (耗时 ${result.elapsed}ms)`);
+    }
+
+    const baseline = results[0].rate;
+    console.log('\n📊 测试结果');
+    for (const result of results) {
+        console.log(`   窗口 ${String(result.window).padStart(2)}: 相对同步发布 ${(result.rate / baseline).toFixed(1)}x`);
+    }
+
+    proxy.close();
+    broker.server.close();
+    broker.aedes.close();
+    process.exit(0);
+}
+
+main().catch(error => {
+    console.error('❌ 测试失败:', error);
+    process.exit(1);
+});